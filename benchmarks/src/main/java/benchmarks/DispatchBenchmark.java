@@ -0,0 +1,101 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import protocol.Message;
+import protocol.MessageType;
+import protocol.TextOperation;
+import server.AuthService;
+import server.ClientHandler;
+import server.RoomRegistry;
+import server.ServerConfig;
+
+/**
+ * ClientHandler.onMessage for the messages a room sees most: cursor moves, edits and chat, from
+ * one member of a two-member room with in-memory connections. Each call includes parsing the
+ * payload and, for edits and chat, the broadcast to both members. Rooms use the server's
+ * defaults, so once the in-memory chat history is full each chat line is also spilled to disk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+    private Path usersFile;
+    private ClientHandler handler;
+    private SinkConnection sink;
+    private Message cursor;
+    private Message chat;
+    private int revision;
+    private int length;
+    private boolean inserted;
+
+    @Setup
+    public void setUp() throws IOException {
+        usersFile = Files.createTempFile("bench-users", ".csv");
+        AuthService auth = AuthService.fromConfig(ServerConfig.fromArgs(new String[] {
+                "--users-file=" + usersFile, "--auth-required=false", "--auth-iterations=1000", "--auth-threads=1"}));
+        RoomRegistry rooms = new RoomRegistry();
+        ClientHandler other = new ClientHandler(new SinkConnection(), rooms, auth);
+        other.onMessage(Message.of(MessageType.CLIENT_ID, "client-2"));
+        other.onMessage(Message.of(MessageType.USERNAME, "bob"));
+        other.onMessage(Message.of(MessageType.JOIN, "bench"));
+        sink = new SinkConnection();
+        handler = new ClientHandler(sink, rooms, auth);
+        handler.onMessage(Message.of(MessageType.CLIENT_ID, "client-1"));
+        handler.onMessage(Message.of(MessageType.USERNAME, "alice"));
+        handler.onMessage(Message.of(MessageType.JOIN, "bench"));
+        cursor = Message.of(MessageType.CURSOR, "client-1:1234");
+        chat = Message.of(MessageType.CHAT, "alice:Can you walk me through the complexity?");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        handler.onDisconnect();
+        for (String suffix : new String[] {"", ".log", ".lock"}) {
+            Files.deleteIfExists(usersFile.resolveSibling(usersFile.getFileName() + suffix));
+        }
+    }
+
+    @Benchmark
+    public long cursor() {
+        handler.onMessage(cursor);
+        return sink.getBytes();
+    }
+
+    @Benchmark
+    public long chat() {
+        handler.onMessage(chat);
+        return sink.getBytes();
+    }
+
+    // Typing one character then deleting it, so the document stays the same size
+    @Benchmark
+    public long operation() {
+        TextOperation op = inserted
+                ? new TextOperation().retain(length - 1).delete(1)
+                : new TextOperation().retain(length).insert("x");
+        handler.onMessage(Message.of(MessageType.OP, revision + ":" + op.serialize()));
+        revision++;
+        length += inserted ? -1 : 1;
+        inserted = !inserted;
+        return sink.getBytes();
+    }
+}
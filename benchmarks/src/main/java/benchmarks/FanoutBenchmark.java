@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import protocol.Message;
+import protocol.MessageType;
+import server.ClientHandler;
+import server.Room;
+import server.RoomRegistry;
+
+/**
+ * A room broadcast reaching every member: numbering, the resume buffer, and one outbound queue
+ * offer per member, with the queues drained and encoded like a writer would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanoutBenchmark {
+    @Param({"2", "10", "50", "200", "500"})
+    int members;
+
+    private Room room;
+    private SinkConnection first;
+    private Message presence;
+    private Message operation;
+
+    @Setup
+    public void setUp() {
+        RoomRegistry rooms = new RoomRegistry();
+        for (int i = 0; i < members; i++) {
+            SinkConnection sink = new SinkConnection();
+            if (first == null) first = sink;
+            ClientHandler member = new ClientHandler(sink, rooms, null);
+            member.onMessage(Message.of(MessageType.CLIENT_ID, "client-" + i));
+            room = rooms.join("bench", member);
+        }
+        presence = Message.of(MessageType.PRESENCE, "12,true,alice\n340,false,bob");
+        operation = Message.of(MessageType.OP, "4711:client-0:r1200i24:System.out.println(x);r800");
+    }
+
+    @Benchmark
+    public long broadcastPresence() {
+        room.broadcast(presence, null);
+        return first.getBytes();
+    }
+
+    @Benchmark
+    public long broadcastOperation() {
+        room.broadcast(operation, null);
+        return first.getBytes();
+    }
+}
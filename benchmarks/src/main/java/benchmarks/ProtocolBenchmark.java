@@ -0,0 +1,86 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import protocol.BinaryCodec;
+import protocol.Message;
+import protocol.MessageType;
+import protocol.TextCodec;
+import protocol.TextOperation;
+
+/**
+ * Encoding and decoding editor frames with each codec, and parsing an OP payload into fields and
+ * an operation. Editor text used to travel Base64-encoded in text lines; the text codec now
+ * escapes it instead and the binary codecs carry it as raw UTF-8, so those are what is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+    // Size of the editor text in characters
+    @Param({"64", "4096", "65536"})
+    int chars;
+
+    private Message editor;
+    private byte[] textFrame;
+    private byte[] binaryFrame;
+    private String operationPayload;
+
+    @Setup
+    public void setUp() {
+        // Code-like text with line breaks to escape and a few multi-byte characters
+        String line = "    int total = values[i] * 2; // été \\ \"\n";
+        StringBuilder text = new StringBuilder(chars + line.length());
+        while (text.length() < chars) text.append(line);
+        text.setLength(chars);
+        editor = Message.of(MessageType.EDITOR, text.toString()).withSeq(12345);
+        textFrame = TextCodec.INSTANCE.encode(editor);
+        binaryFrame = BinaryCodec.SEQUENCED.encode(editor);
+        TextOperation op = new TextOperation().retain(chars / 2).insert(text.substring(0, Math.min(32, chars))).retain(chars - chars / 2);
+        operationPayload = "4711:client-1:" + op.serialize();
+    }
+
+    @Benchmark
+    public byte[] encodeText() {
+        return TextCodec.INSTANCE.encode(editor);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return BinaryCodec.SEQUENCED.encode(editor);
+    }
+
+    @Benchmark
+    public Message decodeText() throws IOException {
+        return TextCodec.INSTANCE.decode(ByteBuffer.wrap(textFrame));
+    }
+
+    @Benchmark
+    public Message decodeBinary() throws IOException {
+        return BinaryCodec.SEQUENCED.decode(ByteBuffer.wrap(binaryFrame));
+    }
+
+    // What a client does with every OP it receives: split off the revision and author, then parse
+    @Benchmark
+    public TextOperation parseOperation() {
+        String[] fields = Message.of(MessageType.OP, operationPayload).fields(3);
+        return TextOperation.parse(fields[2]);
+    }
+}
@@ -0,0 +1,49 @@
+package benchmarks;
+
+import protocol.BinaryCodec;
+import protocol.Message;
+import server.Connection;
+import server.OutboundQueue;
+
+/**
+ * An in-memory client. Messages go through a real outbound queue, which is drained and encoded
+ * the way a writer thread would once a batch is waiting, so the queue never fills up.
+ */
+final class SinkConnection implements Connection {
+    private final OutboundQueue queue = new OutboundQueue(4096, 8L * 1024 * 1024, OutboundQueue.SlowConsumerPolicy.DISCONNECT);
+    private final Message[] batch = new Message[64];
+    private long bytes;
+
+    @Override
+    public void send(Message message) {
+        if (!queue.offer(message)) {
+            throw new IllegalStateException("Sink queue overflowed");
+        }
+        if (queue.getDepth() >= batch.length) {
+            int count = queue.pollBatch(batch);
+            for (int i = 0; i < count; i++) {
+                bytes += batch[i].frame(BinaryCodec.SEQUENCED).remaining();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        queue.close();
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        return "sink";
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return queue;
+    }
+
+    // Bytes "written" so far, so the work cannot be optimised away
+    long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,84 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.User;
+import server.UserStore;
+
+/**
+ * Looking up accounts in stores of 10 thousand to a million users, loaded from a CSV snapshot.
+ * Known users come from the index; an unknown one makes the store check the files for
+ * accounts added by another process.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class UserStoreBenchmark {
+    // Random lookups cycle through this many names
+    private static final int LOOKUPS = 4096;
+
+    @Param({"10000", "100000", "1000000"})
+    int users;
+
+    private Path snapshot;
+    private UserStore store;
+    private final String[] names = new String[LOOKUPS];
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        snapshot = Files.createTempFile("bench-users", ".csv");
+        try (BufferedWriter out = Files.newBufferedWriter(snapshot, StandardCharsets.UTF_8)) {
+            out.write("username,password\n");
+            for (int i = 0; i < users; i++) {
+                // Same shape as a stored PBKDF2 hash
+                out.write("user" + i + ",pbkdf2-sha256$120000$c2FsdHNhbHRzYWx0c2FsdA$aGFzaGhhc2hoYXNoaGFzaGhhc2hoYXNoaGFzaGhhc2g\n");
+            }
+        }
+        store = UserStore.open(snapshot);
+        Random random = new Random(42);
+        for (int i = 0; i < LOOKUPS; i++) {
+            names[i] = "user" + random.nextInt(users);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (String suffix : new String[] {"", ".log", ".lock"}) {
+            Files.deleteIfExists(snapshot.resolveSibling(snapshot.getFileName() + suffix));
+        }
+    }
+
+    @Benchmark
+    public User findKnown() throws IOException {
+        next = (next + 1) & (LOOKUPS - 1);
+        return store.find(names[next]);
+    }
+
+    @Benchmark
+    public User findUnknown() throws IOException {
+        return store.find("nobody");
+    }
+}
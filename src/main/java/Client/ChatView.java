@@ -0,0 +1,211 @@
+package Client;
+
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import javax.swing.AbstractListModel;
+import javax.swing.JList;
+import javax.swing.JScrollBar;
+import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+
+/**
+ * The chat panel. Lines are shown in a list with a fixed row height, so only the rows in view are
+ * laid out and painted however long the session gets, and at most a set number of lines is kept:
+ * once there are more, the oldest are dropped. Long lines are cut off and shown in full as a tooltip.
+ *
+ * Chat from the server is numbered. Scrolling to the top asks for the page before the oldest
+ * numbered line until the room's history or this view's limit runs out. Notes from this client
+ * itself are shown unnumbered.
+ * All methods are expected to run on the Swing event thread.
+ */
+class ChatView extends JScrollPane {
+    static final int DEFAULT_MAX_LINES = 2000;
+
+    private final Lines lines = new Lines();
+    private final JList<String> list = new JList<String>(lines) {
+        @Override
+        public String getToolTipText(MouseEvent event) {
+            int row = locationToIndex(event.getPoint());
+            return row >= 0 && getCellBounds(row, row).contains(event.getPoint()) ? lines.getElementAt(row) : null;
+        }
+    };
+    private final int maxLines = Integer.getInteger("coderounds.chatLines", DEFAULT_MAX_LINES);
+    private final LongConsumer requestOlder; // Asks the server for the lines before a number
+    private long newest;           // Number of the latest chat line
+    private boolean olderAvailable;
+    private boolean requestPending;
+    private boolean awaitingBackfill;
+
+    ChatView(LongConsumer requestOlder) {
+        this.requestOlder = requestOlder;
+        list.setFixedCellHeight(list.getFontMetrics(list.getFont()).getHeight() + 2);
+        list.setToolTipText("");
+        setViewportView(list);
+        getVerticalScrollBar().addAdjustmentListener(e -> {
+            if (!e.getValueIsAdjusting() && e.getValue() == getVerticalScrollBar().getMinimum()) requestOlderPage();
+        });
+    }
+
+    // A note from this client, such as a connection message
+    void appendNote(String text) {
+        append(0, text);
+    }
+
+    // A chat line from the server, numbered on from the last one
+    void appendChat(String text) {
+        append(++newest, text);
+    }
+
+    // The room was (re)joined; the next page is its latest chat and replaces what is shown
+    void expectBackfill() {
+        awaitingBackfill = true;
+        requestPending = false;
+    }
+
+    /**
+     * A CHAT_PAGE: lines numbered from first, and whether older ones can still be fetched. The
+     * backfill after joining replaces all numbered lines; any other page goes on top.
+     */
+    void addPage(long first, boolean older, List<String> page) {
+        if (awaitingBackfill) {
+            awaitingBackfill = false;
+            lines.removeNumbered();
+            newest = first + page.size() - 1;
+            lines.insert(0, first, page);
+            olderAvailable = older;
+            scrollToBottom();
+            fillView();
+            return;
+        }
+        if (!requestPending) return; // Answer to a request made before a rejoin
+        requestPending = false;
+        olderAvailable = older;
+        JScrollBar bar = getVerticalScrollBar();
+        int value = bar.getValue();
+        lines.insert(0, first, page);
+        // Lay out now and keep the line that was at the top in place
+        validate();
+        bar.setValue(value + page.size() * list.getFixedCellHeight());
+        fillView();
+    }
+
+    // Empty the view, e.g. when a replay seeks
+    void clear() {
+        lines.clear();
+        newest = 0;
+        olderAvailable = false;
+        requestPending = false;
+    }
+
+    private void append(long number, String text) {
+        JScrollBar bar = getVerticalScrollBar();
+        boolean atBottom = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - list.getFixedCellHeight();
+        lines.add(number, text);
+        // Dropping a tenth at a time keeps trimming cheap
+        if (lines.getSize() > maxLines + maxLines / 10) {
+            int dropped = lines.trimTo(maxLines);
+            if (dropped > 0) olderAvailable = true;
+        }
+        if (atBottom) scrollToBottom();
+    }
+
+    private void scrollToBottom() {
+        SwingUtilities.invokeLater(() -> {
+            int last = lines.getSize() - 1;
+            if (last >= 0) list.ensureIndexIsVisible(last);
+        });
+    }
+
+    // The scroll bar only reports reaching the top once there is something to scroll, so keep
+    // fetching while the lines do not fill the view
+    private void fillView() {
+        SwingUtilities.invokeLater(() -> {
+            JScrollBar bar = getVerticalScrollBar();
+            if (getViewport().getHeight() > 0 && bar.getVisibleAmount() >= bar.getMaximum() - bar.getMinimum()) {
+                requestOlderPage();
+            }
+        });
+    }
+
+    private void requestOlderPage() {
+        if (!olderAvailable || requestPending || awaitingBackfill || lines.getSize() >= maxLines) return;
+        long oldest = lines.oldestNumber();
+        if (oldest <= 0) return;
+        requestPending = true;
+        requestOlder.accept(oldest);
+    }
+
+    // Rows of text, with each one's chat number or 0 for notes
+    private static final class Lines extends AbstractListModel<String> {
+        private final List<String> texts = new ArrayList<>();
+        private final List<Long> numbers = new ArrayList<>();
+
+        @Override
+        public int getSize() {
+            return texts.size();
+        }
+
+        @Override
+        public String getElementAt(int index) {
+            return texts.get(index);
+        }
+
+        void add(long number, String text) {
+            texts.add(text);
+            numbers.add(number);
+            fireIntervalAdded(this, texts.size() - 1, texts.size() - 1);
+        }
+
+        void insert(int index, long first, List<String> page) {
+            if (page.isEmpty()) return;
+            for (int i = 0; i < page.size(); i++) {
+                texts.add(index + i, page.get(i));
+                numbers.add(index + i, first + i);
+            }
+            fireIntervalAdded(this, index, index + page.size() - 1);
+        }
+
+        // Returns how many numbered lines were dropped
+        int trimTo(int size) {
+            int drop = texts.size() - size;
+            if (drop <= 0) return 0;
+            int numbered = 0;
+            for (long number : numbers.subList(0, drop)) {
+                if (number > 0) numbered++;
+            }
+            texts.subList(0, drop).clear();
+            numbers.subList(0, drop).clear();
+            fireIntervalRemoved(this, 0, drop - 1);
+            return numbered;
+        }
+
+        void removeNumbered() {
+            List<String> notes = new ArrayList<>();
+            for (int i = 0; i < texts.size(); i++) {
+                if (numbers.get(i) == 0) notes.add(texts.get(i));
+            }
+            clear();
+            for (String note : notes) {
+                add(0, note);
+            }
+        }
+
+        void clear() {
+            int size = texts.size();
+            if (size == 0) return;
+            texts.clear();
+            numbers.clear();
+            fireIntervalRemoved(this, 0, size - 1);
+        }
+
+        long oldestNumber() {
+            for (long number : numbers) {
+                if (number > 0) return number;
+            }
+            return 0;
+        }
+    }
+}
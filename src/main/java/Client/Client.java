@@ -3,6 +3,7 @@ package Client;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.GridLayout;
 import java.awt.Rectangle;
 import java.awt.Toolkit;
 import java.awt.datatransfer.StringSelection;
@@ -19,18 +20,18 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.net.SocketException;
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComponent;
+import javax.swing.JDialog;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -45,18 +46,60 @@ import javax.swing.JSplitPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+import protocol.Message;
+import protocol.MessageType;
+import protocol.TextOperation;
 
 public class Client {
-    private PrintWriter out; // For sending commands to server
-    private Socket socket;
+    private static final int SHUTDOWN_FLUSH_MS = 500;
+    // Reconnect at once, then back off up to the maximum delay until giving up
+    private static final long RECONNECT_FIRST_DELAY_MS = 100;
+    private static final long RECONNECT_MAX_DELAY_MS = 5_000;
+    private static final long RECONNECT_GIVE_UP_MS = 60_000;
+    // Renew the session token when it is this close to expiring, so a reconnect can still use it
+    private static final int TOKEN_CHECK_MS = 60_000;
+    private static final long TOKEN_RENEW_MARGIN_MS = 5 * 60_000;
+    // Clock offset samples taken when a room is entered, then one now and then
+    private static final int TIME_SYNC_PROBES = 3;
+    private static final int TIME_SYNC_MS = 30_000;
+    // Ping a server that has been quiet this long, and treat one silent past the timeout as a dropped connection
+    private static final int DEFAULT_PING_INTERVAL_MS = 15_000;
+    private static final int DEFAULT_SERVER_TIMEOUT_MS = 45_000;
+
+    private volatile ServerLink link;  // Logged in before the window opens, replaced on reconnect
+    private volatile OutboundPipeline pipeline; // Encodes and writes off the Swing thread
     private JTextArea editorArea;
-    private JTextArea chatArea;
+    private ChatView chatView;
     private boolean isUpdatingFromServer = false;
     private File currentFile;
     private volatile boolean isConnected = true; // For tracking client connection status
+    private volatile boolean reconnecting; // Until the room is joined or resumed on the new connection
+    // Where reconnects go: the server the client started on, or the cluster node a REDIRECT named
+    private final String homeHost = System.getProperty("coderounds.host", "localhost");
+    private final int homePort = Integer.getInteger("coderounds.port", 8080);
+    private volatile String serverHost = homeHost;
+    private volatile int serverPort = homePort;
+    private volatile boolean redirected; // The link was closed to follow a REDIRECT (listener thread)
+    // "<host>:<port>" of every cluster node, from the connected node's last CLUSTER_NODES (listener thread)
+    private Set<String> clusterNodes = Set.of();
+    private final int pingIntervalMs = Integer.getInteger("coderounds.pingIntervalMs", DEFAULT_PING_INTERVAL_MS);
+    private final int serverTimeoutMs = Integer.getInteger("coderounds.serverTimeoutMs", DEFAULT_SERVER_TIMEOUT_MS);
+    private volatile long lastHeard = System.currentTimeMillis(); // When the server last sent anything
+    // Position in the room's numbered broadcasts, for resuming after a reconnect (listener thread)
+    private long roomEpoch = -1;
+    private long lastSeq;
     private final String username;
+    private final String roomCode;
+    private final boolean replay; // Watching a recording instead of the live room
+    private ReplayControls replayControls;
+    private OutputConsole console;
+    private String lastProblem = ""; // Offered again the next time the user judges
 
     // Unique ID for this client
     private final String clientId = "client-" + new Random().nextInt(100000);
@@ -66,35 +109,43 @@ public class Client {
     private final Map<String, Boolean> remoteFocusStates = new ConcurrentHashMap<>();
 
     private RemoteCursorOverlay overlay;
+
+    // Operation-based editor sync with the server (EDT only)
+    // The operation is serialized on the outbound thread; operations are never modified once built
+    private final EditorSync editorSync = new EditorSync((revision, op) ->
+            pipeline.send(() -> Message.of(MessageType.OP, revision + ":" + op.serialize())));
     
-    // Timer label (will show the shared timer state)
-    private JLabel timerLabel;
+    // Shows the shared timer, run locally between the server's updates
+    private final ServerClock serverClock = new ServerClock();
+    private TimerDisplay timerDisplay;
 
-    public Client(String username) {
-        this.username = username;
+    // link has already logged in as username
+    Client(ServerLink link, String roomCode, boolean replay) {
+        this.link = link;
+        this.username = link.getUsername();
+        this.roomCode = roomCode;
+        this.replay = replay;
+        this.pipeline = link.getPipeline();
         try {
-            socket = new Socket("localhost", 8080);
-            out = new PrintWriter(socket.getOutputStream(), true);
-
-            // Send client ID and username to server
-            out.println("CLIENT_ID:" + clientId);
-            out.println("USERNAME:" + username);
+            // Send the client ID to the server, then join the interview room or its replay
+            send(MessageType.CLIENT_ID, clientId);
+            send(replay ? MessageType.REPLAY : MessageType.JOIN, roomCode);
 
             JFrame frame = buildGUI();
 
-            // Display username in the title bar
-            frame.setTitle("CodeRounds - " + username);
+            // Display username and room in the title bar
+            frame.setTitle("CodeRounds - " + username + (replay ? " (replay of room " : " (room ") + roomCode + ")");
 
             // Send window activation events to track focus state
             frame.addWindowListener(new WindowAdapter() {
                 @Override
                 public void windowDeactivated(WindowEvent e) {
-                    out.println("FOCUS:" + clientId + ":lost");
+                    if (!replay) send(MessageType.FOCUS, clientId + ":lost");
                 }
                
                 @Override
                 public void windowActivated(WindowEvent e) {
-                    out.println("FOCUS:" + clientId + ":gained");
+                    if (!replay) send(MessageType.FOCUS, clientId + ":gained");
                 }
 
                 @Override
@@ -104,12 +155,17 @@ public class Client {
             });
 
             startServerListenerThread(); // Start thread to handle server messages
+            if (!replay) {
+                new Timer(TOKEN_CHECK_MS, e -> link.renewTokenIfExpiring(TOKEN_RENEW_MARGIN_MS)).start();
+                new Timer(TIME_SYNC_MS, e -> syncClock(1)).start();
+                new Timer(Math.max(1000, Math.min(pingIntervalMs, serverTimeoutMs) / 3), e -> checkServer()).start();
+            }
 
             // Send local caret position updates to server
             editorArea.addCaretListener(e -> {
-                if (isConnected && !isUpdatingFromServer) {
+                if (isConnected && !isUpdatingFromServer && !replay) {
                     int pos = e.getDot();
-                    out.println("CURSOR:" + clientId + ":" + pos);
+                    pipeline.sendCursor(() -> Message.of(MessageType.CURSOR, clientId + ":" + pos));
                 }
             });
         } catch (Exception e) {
@@ -136,6 +192,12 @@ public class Client {
         fileMenu.add(saveItem);
         fileMenu.add(saveAsItem);
         menuBar.add(fileMenu);
+
+        JMenu viewMenu = new JMenu("View");
+        JMenuItem syncDebugItem = new JMenuItem("Sync Debug");
+        syncDebugItem.addActionListener(e -> showSyncDebug(frame));
+        viewMenu.add(syncDebugItem);
+        menuBar.add(viewMenu);
         frame.setJMenuBar(menuBar);
 
         // Create header panel with two sections: toolbar (left) and timer controls (right)
@@ -153,36 +215,64 @@ public class Client {
             Toolkit.getDefaultToolkit().getSystemClipboard().setContents(selection, selection);
         });
         toolbarPanel.add(copyButton);
+
+        // Runs the room's code on the server; everyone in the room sees the output
+        JButton runButton = new JButton("▶ Run");
+        runButton.addActionListener(e -> {
+            editorSync.flush();
+            send(MessageType.RUN, "");
+        });
+        // Checks the room's code against one of the server's test suites
+        JButton judgeButton = new JButton("✔ Judge");
+        judgeButton.addActionListener(e -> askToJudge(frame));
+        if (!replay) {
+            toolbarPanel.add(runButton);
+            toolbarPanel.add(judgeButton);
+        }
         headerPanel.add(toolbarPanel, BorderLayout.WEST);
         
         // Timer controls panel on the right
         JPanel timerPanel = new JPanel(); // uses FlowLayout by default
-        timerLabel = new JLabel("Timer: 00:00");
+        timerDisplay = new TimerDisplay(serverClock);
         JButton startButton = new JButton("Start ⏵");
         JButton pauseButton = new JButton("Pause ⏸");
         JButton resetButton = new JButton("Reset 🔁");
+        JButton countdownButton = new JButton("Countdown ⏲");
 
         // When buttons are clicked, send timer control commands to server
-        startButton.addActionListener(e -> out.println("TIMER_START"));
-        pauseButton.addActionListener(e -> out.println("TIMER_PAUSE"));
-        resetButton.addActionListener(e -> out.println("TIMER_RESET"));
-
-        timerPanel.add(timerLabel);
-        timerPanel.add(startButton);
-        timerPanel.add(pauseButton);
-        timerPanel.add(resetButton);
+        startButton.addActionListener(e -> send(MessageType.TIMER_START));
+        pauseButton.addActionListener(e -> send(MessageType.TIMER_PAUSE));
+        resetButton.addActionListener(e -> send(MessageType.TIMER_RESET));
+        countdownButton.addActionListener(e -> askForCountdown(frame));
+
+        timerPanel.add(timerDisplay);
+        if (!replay) {
+            timerPanel.add(startButton);
+            timerPanel.add(pauseButton);
+            timerPanel.add(resetButton);
+            timerPanel.add(countdownButton);
+        }
         headerPanel.add(timerPanel, BorderLayout.EAST);
 
+        // A replay is read-only and gets a playback bar instead
+        if (replay) {
+            clearButton.setEnabled(false);
+            openItem.setEnabled(false);
+            replayControls = new ReplayControls(pipeline);
+            headerPanel.add(replayControls, BorderLayout.SOUTH);
+        }
+
         // Create editor area with document change listener (for code changes)
         editorArea = new JTextArea();
+        editorArea.setEditable(!replay);
         editorArea.getDocument().addDocumentListener(new DocumentListener() {
             @Override
             public void insertUpdate(DocumentEvent e) { 
-                triggerCodeUpdate(); 
+                triggerCodeUpdate(e); 
             }
             @Override
             public void removeUpdate(DocumentEvent e) { 
-                triggerCodeUpdate(); 
+                triggerCodeUpdate(e); 
             }
             @Override
             public void changedUpdate(DocumentEvent e) {}
@@ -193,7 +283,7 @@ public class Client {
         editorArea.getDocument().addDocumentListener(new DocumentListener() {
             private void update() {
                 int lines = editorArea.getLineCount();
-                int chars = editorArea.getText().length();
+                int chars = editorArea.getDocument().getLength();
                 statusBar.setText("Lines: " + lines + "  |  Characters: " + chars);
             }
             public void insertUpdate(DocumentEvent e) { update(); }
@@ -213,21 +303,35 @@ public class Client {
         overlay.setBounds(editorScrollPane.getBounds());
         layeredPane.add(overlay, JLayeredPane.PALETTE_LAYER);
 
-        // Chat area setup with auto-scroll
-        chatArea = new JTextArea();
-        chatArea.setEditable(false);
-        JScrollPane chatScrollPane = new JScrollPane(chatArea);
+        // Chat list; scrolling to the top fetches older chat from the server
+        chatView = new ChatView(before -> send(MessageType.CHAT_PAGE, String.valueOf(before)));
 
         JTextField chatInput = createChatInput();
+        chatInput.setEnabled(!replay);
 
         // Build chat panel with input field
         JPanel chatPanel = new JPanel(new BorderLayout());
         chatPanel.add(new JLabel("Chat"), BorderLayout.NORTH);
-        chatPanel.add(chatScrollPane, BorderLayout.CENTER);
+        chatPanel.add(chatView, BorderLayout.CENTER);
         chatPanel.add(chatInput, BorderLayout.SOUTH);
 
+        // Keep the editor and its cursor overlay the size of the layered pane
+        layeredPane.addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                editorScrollPane.setBounds(0, 0, layeredPane.getWidth(), layeredPane.getHeight());
+                overlay.setBounds(editorScrollPane.getBounds());
+            }
+        });
+
+        // Output of runs goes below the editor
+        console = new OutputConsole();
+        JSplitPane editorSplit = new JSplitPane(JSplitPane.VERTICAL_SPLIT, layeredPane, console);
+        editorSplit.setResizeWeight(0.75);
+        editorSplit.setContinuousLayout(true);
+
         // Create split pane for editor and chat
-        JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, layeredPane, chatPanel);
+        JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, editorSplit, chatPanel);
         splitPane.setResizeWeight(0.7);
         splitPane.setContinuousLayout(true);
        
@@ -235,6 +339,7 @@ public class Client {
         SwingUtilities.invokeLater(() -> {
             try {
                 splitPane.setDividerLocation(0.7);
+                editorSplit.setDividerLocation(0.75);
             } catch (IllegalArgumentException e) {
                 splitPane.setDividerLocation(500);
             }
@@ -244,9 +349,6 @@ public class Client {
             public void componentResized(ComponentEvent e) {
                 if (splitPane.getWidth() > 0) {
                     splitPane.setDividerLocation(0.7);
-                    // Adjust overlay bounds on window resize
-                    editorScrollPane.setBounds(0, 0, splitPane.getWidth() * 7 / 10, splitPane.getHeight());
-                    overlay.setBounds(editorScrollPane.getBounds());
                 }
             }
         });
@@ -289,8 +391,8 @@ public class Client {
         chatInput.addActionListener(e -> {
             String msg = chatInput.getText().trim();
             if (!msg.isEmpty() && !msg.equals("Type Here")) {
-                out.println("CHAT:" + username + ":" + msg); // Send without extra space
-                updateChat("You: " + msg);
+                // Shown when the server sends it back, in the same order as everyone sees it
+                send(MessageType.CHAT, msg); // The server adds our username
                 chatInput.setText("");
             }
         });
@@ -298,82 +400,24 @@ public class Client {
         return chatInput;
     }
    
-    // Thread to listen for server messages and handle different command types
+    // Thread to listen for server messages and handle different command types.
+    // When the connection drops it reconnects and resumes the room where it left off
     private void startServerListenerThread() {
         new Thread(() -> {
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-                String message;
-                while (isConnected && (message = in.readLine()) != null) {
-                    if (message.startsWith("CHAT:")) {
-                        String[] parts = message.split(":", 3);
-                        if (parts.length == 3) {
-                            String senderUsername = parts[1];
-                            String chatMessage = parts[2];
-                            updateChat(senderUsername + ": " + chatMessage);
-                        } else {
-                            updateChat("Unknown: " + message.substring(5));
-                        }
-                    } else if (message.startsWith("EDITOR:")) {
-                        // Handle editor updates
-                        String encodedContent = message.substring(7);
-                        byte[] decodedBytes = Base64.getDecoder().decode(encodedContent);
-                        String decodedContent = new String(decodedBytes, StandardCharsets.UTF_8);
-                        updateEditor(decodedContent);
-                    } else if (message.startsWith("CURSOR:")) {
-                        // Handle remote cursor positions with username
-                        String[] parts = message.split(":", 3);
-                        if (parts.length == 3) {
-                            String remoteUsername = parts[1];
-                            if (!remoteUsername.equals(this.username)) { // Ignore own cursor
-                                try {
-                                    int pos = Integer.parseInt(parts[2]);
-                                    remoteCursorColors.putIfAbsent(remoteUsername,
-                                        new Color(new Random().nextInt(256),
-                                                  new Random().nextInt(256),
-                                                  new Random().nextInt(256)));
-                                    remoteCursors.put(remoteUsername, pos);
-                                    overlay.repaint();
-                                } catch (NumberFormatException ex) {
-                                    System.err.println("Invalid cursor position: " + parts[2]);
-                                }
-                            }
-                        }
-                    } else if (message.startsWith("FOCUS:")) {
-                        // Handle focus state changes
-                        String[] parts = message.split(":", 3);
-                        if (parts.length == 3) {
-                            String remoteUsername = parts[1];
-                            if (!remoteUsername.equals(this.username)) {
-                                boolean inFocus = parts[2].equalsIgnoreCase("gained");
-                                remoteFocusStates.put(remoteUsername, inFocus);
-                                overlay.repaint();
-                            }
-                        }
-                    } else if (message.startsWith("DISCONNECT:")) {
-                        // Handle client disconnections
-                        String disconnectedUser = message.substring("DISCONNECT:".length());
-                        remoteCursors.remove(disconnectedUser);
-                        remoteCursorColors.remove(disconnectedUser);
-                        remoteFocusStates.remove(disconnectedUser);
-                        overlay.repaint();
-                    } else if (message.startsWith("TIMER_UPDATE:")) {
-                        // Format: TIMER_UPDATE:<elapsedSeconds>:<status>
-                        String[] parts = message.split(":");
-                        if (parts.length == 3) {
-                            try {
-                                int elapsed = Integer.parseInt(parts[1]);
-                                int minutes = elapsed / 60;
-                                int seconds = elapsed % 60;
-                                SwingUtilities.invokeLater(() -> 
-                                    timerLabel.setText(String.format("Timer: %02d:%02d", minutes, seconds))
-                                );
-                            } catch (NumberFormatException nfe) {
-                                // Ignore parsing error
-                            }
+            try {
+                while (isConnected) {
+                    try {
+                        Message message;
+                        while (isConnected && (message = link.read()) != null) {
+                            lastHeard = System.currentTimeMillis();
+                            if (message.seq() > lastSeq) lastSeq = message.seq();
+                            handleServerMessage(message);
                         }
+                    } catch (IOException e) {
+                        // Connection lost, reconnect below
                     }
+                    if (!isConnected || replay || !reconnect()) break;
                 }
-            } catch (SocketException e) {
                 if (isConnected) {
                     SwingUtilities.invokeLater(() -> {
                         updateChat("Connection to server lost!");
@@ -390,50 +434,495 @@ public class Client {
         }).start();
     }
 
+    /**
+     * Open a new connection and ask to resume the room, retrying at once and then with growing
+     * delays. Edits made meanwhile are held until the room is back. Returns false if the server
+     * stayed unreachable or the room was never joined. After a REDIRECT the new connection goes
+     * to the named cluster node; if that node is unreachable, back to the server the client
+     * started on, which knows where the room is now.
+     */
+    private boolean reconnect() throws InterruptedException, InvocationTargetException {
+        if (roomEpoch < 0 && !redirected) return false;
+        ServerLink lost = link;
+        SwingUtilities.invokeAndWait(editorSync::suspend);
+        lost.abort();
+        reconnecting = true;
+        if (!redirected) updateChat("Connection lost, reconnecting...");
+        redirected = false;
+        String token = lost.getToken();
+        long giveUpAt = System.currentTimeMillis() + RECONNECT_GIVE_UP_MS;
+        long delay = RECONNECT_FIRST_DELAY_MS;
+        while (isConnected) {
+            try {
+                ServerLink fresh = new ServerLink(serverHost, serverPort);
+                // Frames on an unnumbered connection can't be resumed from, so ask for a snapshot
+                long epoch = fresh.isSequenced() ? roomEpoch : -1;
+                fresh.send(MessageType.CLIENT_ID, clientId);
+                fresh.send(MessageType.RESUME, (token != null ? token : "") + ":" + roomCode + ":" + epoch + ":" + lastSeq);
+                link = fresh;
+                pipeline = fresh.getPipeline();
+                return true;
+            } catch (IOException e) {
+                serverHost = homeHost;
+                serverPort = homePort;
+                if (System.currentTimeMillis() + delay > giveUpAt) return false;
+                Thread.sleep(delay);
+                delay = Math.min(delay * 2, RECONNECT_MAX_DELAY_MS);
+            }
+        }
+        return false;
+    }
+
+    private void handleServerMessage(Message message) {
+        switch (message.type()) {
+            case JOINED:
+            case RESUMED: {
+                // <room>:<epoch>:<seq>; after RESUMED every missed frame has been handled
+                String[] parts = message.fields(3);
+                if (parts.length == 3) {
+                    roomEpoch = Long.parseLong(parts[1]);
+                    lastSeq = message.type() == MessageType.JOINED ? Long.parseLong(parts[2])
+                            : Math.max(lastSeq, Long.parseLong(parts[2]));
+                }
+                boolean resumed = message.type() == MessageType.RESUMED;
+                if (!resumed) SwingUtilities.invokeLater(chatView::expectBackfill);
+                if (resumed) SwingUtilities.invokeLater(editorSync::resend);
+                syncClock(TIME_SYNC_PROBES);
+                if (reconnecting) {
+                    reconnecting = false;
+                    updateChat(resumed ? "Reconnected" : "Reconnected, the room was reloaded");
+                }
+                break;
+            }
+            case AUTH_FAIL:
+                // The session could not be resumed or its token renewed
+                updateChat("Server: " + message.payload());
+                if (reconnecting) {
+                    isConnected = false;
+                    SwingUtilities.invokeLater(this::disableInputs);
+                }
+                break;
+            case CHAT: {
+                String line = chatLine(message.payload());
+                SwingUtilities.invokeLater(() -> chatView.appendChat(line));
+                break;
+            }
+            case CHAT_PAGE: {
+                // <first>:<older>, then one chat line per message
+                String[] lines = message.payload().split("\n");
+                String[] header = lines[0].split(":");
+                if (header.length != 2) break;
+                try {
+                    long first = Long.parseLong(header[0]);
+                    boolean older = header[1].equals("1");
+                    List<String> page = new ArrayList<>(lines.length - 1);
+                    for (int i = 1; i < lines.length; i++) {
+                        page.add(chatLine(lines[i]));
+                    }
+                    SwingUtilities.invokeLater(() -> chatView.addPage(first, older, page));
+                } catch (NumberFormatException nfe) {
+                    // Ignore parsing error
+                }
+                break;
+            }
+            case DOC: {
+                // Full document snapshot, payload: <revision>:<text>
+                String[] parts = message.fields(2);
+                if (parts.length == 2) {
+                    updateEditor(Integer.parseInt(parts[0]), parts[1]);
+                }
+                break;
+            }
+            case OP: {
+                // Editor operation, payload: <revision>:<clientId>:<operation>
+                String[] parts = message.fields(3);
+                if (parts.length == 3) {
+                    int revision = Integer.parseInt(parts[0]);
+                    String author = parts[1];
+                    TextOperation op = TextOperation.parse(parts[2]);
+                    SwingUtilities.invokeLater(() -> handleServerOperation(revision, author, op));
+                }
+                break;
+            }
+            case CURSOR: {
+                // Handle remote cursor positions with username
+                String[] parts = message.fields(2);
+                if (parts.length == 2) {
+                    String remoteUsername = parts[0];
+                    if (!remoteUsername.equals(this.username)) { // Ignore own cursor
+                        try {
+                            int pos = Integer.parseInt(parts[1]);
+                            remoteCursorColors.putIfAbsent(remoteUsername,
+                                new Color(new Random().nextInt(256),
+                                          new Random().nextInt(256),
+                                          new Random().nextInt(256)));
+                            remoteCursors.put(remoteUsername, pos);
+                            overlay.repaint();
+                        } catch (NumberFormatException ex) {
+                            System.err.println("Invalid cursor position: " + parts[1]);
+                        }
+                    }
+                }
+                break;
+            }
+            case FOCUS: {
+                // Handle focus state changes
+                String[] parts = message.fields(2);
+                if (parts.length == 2) {
+                    String remoteUsername = parts[0];
+                    if (!remoteUsername.equals(this.username)) {
+                        boolean inFocus = parts[1].equalsIgnoreCase("gained");
+                        remoteFocusStates.put(remoteUsername, inFocus);
+                        overlay.repaint();
+                    }
+                }
+                break;
+            }
+            case PRESENCE: {
+                // One "<pos>,<focused>,<user>" entry per line, only users whose state changed
+                for (String entry : message.payload().split("\n")) {
+                    String[] parts = entry.split(",", 3);
+                    if (parts.length != 3 || parts[2].equals(this.username)) continue;
+                    try {
+                        String remoteUsername = parts[2];
+                        int pos = Integer.parseInt(parts[0]);
+                        remoteCursorColors.computeIfAbsent(remoteUsername, key ->
+                            new Color(new Random().nextInt(256),
+                                      new Random().nextInt(256),
+                                      new Random().nextInt(256)));
+                        if (pos >= 0) {
+                            remoteCursors.put(remoteUsername, pos);
+                        }
+                        remoteFocusStates.put(remoteUsername, parts[1].equals("1"));
+                    } catch (NumberFormatException ex) {
+                        System.err.println("Invalid presence entry: " + entry);
+                    }
+                }
+                overlay.repaint();
+                break;
+            }
+            case DISCONNECT: {
+                // Handle client disconnections
+                String disconnectedUser = message.payload();
+                remoteCursors.remove(disconnectedUser);
+                remoteCursorColors.remove(disconnectedUser);
+                remoteFocusStates.remove(disconnectedUser);
+                overlay.repaint();
+                break;
+            }
+            case ERROR:
+                updateChat("Server: " + message.payload());
+                break;
+            case CLUSTER_NODES:
+                clusterNodes = Set.of(message.payload().split(","));
+                break;
+            case REDIRECT: {
+                // <room>:<host>:<port>; close this link, and the listener reconnects there and resumes.
+                // Only read from the connected node, and only followed to a node it announced, since
+                // the new connection is sent the session token
+                String payload = message.payload();
+                int hostStart = payload.indexOf(':');
+                int portStart = payload.lastIndexOf(':');
+                if (hostStart < 0 || portStart <= hostStart || !payload.substring(0, hostStart).equals(roomCode)) break;
+                String target = payload.substring(hostStart + 1);
+                if (!clusterNodes.contains(target) && !target.equals(homeHost + ":" + homePort)) {
+                    updateChat("Ignored a redirect to " + target + ", which is not a cluster node");
+                    break;
+                }
+                try {
+                    serverPort = Integer.parseInt(payload.substring(portStart + 1));
+                } catch (NumberFormatException e) {
+                    break;
+                }
+                serverHost = payload.substring(hostStart + 1, portStart);
+                redirected = true;
+                updateChat("The room is on " + serverHost + ":" + serverPort + ", moving there...");
+                link.abort();
+                break;
+            }
+            case RUN_STATUS: {
+                // <user>:queued:<position>, <user>:running or <user>:busy:<position>
+                String[] parts = message.fields(3);
+                if (parts.length < 2) break;
+                String who = parts[0].equals(this.username) ? "Your" : parts[0] + "'s";
+                switch (parts[1]) {
+                    case "queued":
+                        consoleNote(who + " run is queued, position " + parts[2]);
+                        break;
+                    case "running":
+                        consoleNote("── " + who + " run ──");
+                        break;
+                    case "busy":
+                        consoleNote("Execution server busy, position " + parts[2] + " in queue; try again shortly");
+                        break;
+                    default:
+                        break;
+                }
+                break;
+            }
+            case RUN_OUTPUT: {
+                // <user>:<out|err>:<text>
+                String[] parts = message.fields(3);
+                if (parts.length == 3) {
+                    boolean isError = parts[1].equals("err");
+                    SwingUtilities.invokeLater(() -> console.appendOutput(parts[2], isError));
+                }
+                break;
+            }
+            case RUN_RESULT: {
+                // <user>:<status and timings>
+                String[] parts = message.fields(2);
+                if (parts.length == 2) {
+                    consoleNote(parts[1]);
+                }
+                break;
+            }
+            case JUDGE_RESULT: {
+                // <user>:<verdict line and per-case lines>
+                String[] parts = message.fields(2);
+                if (parts.length == 2) {
+                    consoleNote("── Judging " + parts[0] + "'s submission ──\n" + parts[1]);
+                }
+                break;
+            }
+            case REPLAY: {
+                // Replay started, payload: <durationMs>
+                long duration = Long.parseLong(message.payload());
+                SwingUtilities.invokeLater(() -> replayControls.setDuration(duration));
+                break;
+            }
+            case REPLAY_SEEK:
+                // The server is about to send the state at the new position
+                remoteCursors.clear();
+                remoteFocusStates.clear();
+                SwingUtilities.invokeLater(() -> {
+                    chatView.clear();
+                    overlay.repaint();
+                });
+                break;
+            case REPLAY_POS: {
+                long position = Long.parseLong(message.payload());
+                SwingUtilities.invokeLater(() -> replayControls.setPosition(position));
+                break;
+            }
+            case REPLAY_PAUSE:
+                // Playback reached the end
+                SwingUtilities.invokeLater(() -> replayControls.setPlaying(false));
+                break;
+            case TIMER_UPDATE: {
+                // <elapsedMs>:<status>:<serverTimeMs>:<durationMs>:<event>, or <elapsedSeconds>:<status> from a recording
+                String[] parts = message.fields(5);
+                try {
+                    if (parts.length == 5) {
+                        long elapsed = Long.parseLong(parts[0]);
+                        boolean running = parts[1].equals("running");
+                        boolean expired = parts[1].equals("expired");
+                        long serverTime = Long.parseLong(parts[2]);
+                        long duration = Long.parseLong(parts[3]);
+                        SwingUtilities.invokeLater(() -> {
+                            timerDisplay.update(elapsed, running, serverTime, duration);
+                            editorArea.setEditable(!replay && !expired);
+                        });
+                        if (parts[4].equals("warn")) {
+                            long left = (duration - elapsed + 999) / 1000;
+                            updateChat("Server: " + (left >= 60 ? left / 60 + " min" : left + " s") + " left");
+                        } else if (parts[4].equals("expire")) {
+                            updateChat("Server: Time is up, the editor is locked");
+                        }
+                    } else if (parts.length >= 2) {
+                        long elapsed = Long.parseLong(parts[0]);
+                        boolean running = parts[1].equals("running");
+                        SwingUtilities.invokeLater(() -> timerDisplay.updateFromRecording(elapsed, running));
+                    }
+                } catch (NumberFormatException nfe) {
+                    // Ignore parsing error
+                }
+                break;
+            }
+            case PING: {
+                String payload = message.payload();
+                pipeline.send(() -> Message.of(MessageType.PONG, payload));
+                break;
+            }
+            case TIME_SYNC: {
+                // <our clock when we asked>:<server clock when it answered>
+                String[] parts = message.fields(2);
+                if (parts.length == 2) {
+                    try {
+                        serverClock.sample(Long.parseLong(parts[0]), Long.parseLong(parts[1]), System.currentTimeMillis());
+                    } catch (NumberFormatException nfe) {
+                        // Ignore parsing error
+                    }
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    // Queue one message for the outbound thread
+    private void send(MessageType type, String payload) {
+        if (pipeline == null) return;
+        pipeline.send(Message.of(type, payload));
+    }
+
+    private void send(MessageType type) {
+        send(type, "");
+    }
+
     // Close client connection and clean up resources
     private void shutdownClient() {
-        if (isConnected && out != null) {
-            out.println("DISCONNECT:" + clientId);
+        if (isConnected) {
+            send(MessageType.DISCONNECT, clientId);
         }
         isConnected = false;
+        link.close(SHUTDOWN_FLUSH_MS);
+    }
+
+    private void showSyncDebug(JFrame owner) {
+        if (pipeline == null) return;
+        JDialog dialog = new JDialog(owner, "Sync Debug", false);
+        dialog.add(new SyncDebugPanel(editorSync, pipeline));
+        dialog.pack();
+        dialog.setLocationRelativeTo(owner);
+        dialog.setVisible(true);
+    }
+
+    private void disableInputs() {
+        editorArea.setEnabled(false);
+    }
+
+    // Turn a local document change into an operation and hand it to the sync
+    private void triggerCodeUpdate(DocumentEvent e) {
+        if (isUpdatingFromServer || !isConnected) return;
+        int offset = e.getOffset();
+        int length = e.getLength();
+        int docLength = e.getDocument().getLength();
+        TextOperation op = new TextOperation().retain(offset);
         try {
-            if (out != null) out.close();
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
+            if (e.getType() == DocumentEvent.EventType.INSERT) {
+                op.insert(e.getDocument().getText(offset, length)).retain(docLength - offset - length);
+            } else {
+                op.delete(length).retain(docLength - offset);
             }
-        } catch (IOException e) {
-            System.err.println("Error closing resources: " + e.getMessage());
+        } catch (BadLocationException ex) {
+            return;
         }
+        editorSync.applyLocal(op);
     }
 
-    private void disableInputs() {
-        editorArea.setEnabled(false);
+    // Handle an operation broadcast by the server (EDT)
+    private void handleServerOperation(int revision, String author, TextOperation op) {
+        if (author.equals(clientId) && editorSync.isAwaitingAck()) {
+            editorSync.serverAck(revision);
+            return;
+        }
+        TextOperation transformed = editorSync.serverOperation(revision, op);
+        if (transformed != null) {
+            applyOperation(transformed);
+        }
     }
 
-    // Send editor content updates to server
-    private void triggerCodeUpdate() {
-        if (!isUpdatingFromServer && isConnected) {
-            String content = editorArea.getText();
-            String encoded = Base64.getEncoder().encodeToString(content.getBytes(StandardCharsets.UTF_8));
-            out.println("EDITOR:" + encoded);
+    // Apply a remote operation to the editor component by component so the caret stays put
+    private void applyOperation(TextOperation op) {
+        Document doc = editorArea.getDocument();
+        isUpdatingFromServer = true;
+        try {
+            int index = 0;
+            for (Object component : op.components()) {
+                if (TextOperation.isRetain(component)) {
+                    index += (Integer) component;
+                } else if (TextOperation.isInsert(component)) {
+                    String s = (String) component;
+                    doc.insertString(index, s, null);
+                    index += s.length();
+                } else {
+                    doc.remove(index, -(Integer) component);
+                }
+            }
+        } catch (BadLocationException e) {
+            System.err.println("Editor out of sync: " + e.getMessage());
+        } finally {
+            isUpdatingFromServer = false;
         }
     }
 
-    // Update editor content from server
-    private void updateEditor(String text) {
+    // Replace editor content with a server snapshot
+    private void updateEditor(int revision, String text) {
         SwingUtilities.invokeLater(() -> {
             isUpdatingFromServer = true;
             editorArea.setText(text);
             isUpdatingFromServer = false;
+            editorSync.reset(revision);
         });
     }
 
+    // Ask which problem to judge against, then send JUDGE
+    private void askToJudge(JFrame owner) {
+        JTextField problemField = new JTextField(lastProblem, 16);
+        JCheckBox stopBox = new JCheckBox("Stop at the first failing case", true);
+        JPanel panel = new JPanel(new GridLayout(0, 1, 0, 4));
+        panel.add(new JLabel("Problem id:"));
+        panel.add(problemField);
+        panel.add(stopBox);
+        int choice = JOptionPane.showConfirmDialog(owner, panel, "Judge Submission", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE);
+        String problem = problemField.getText().trim();
+        if (choice != JOptionPane.OK_OPTION || problem.isEmpty()) return;
+        lastProblem = problem;
+        editorSync.flush();
+        send(MessageType.JUDGE, problem + (stopBox.isSelected() ? ":stop" : ""));
+    }
+
+    // Ask how long to count down for, then send TIMER_DURATION
+    private void askForCountdown(JFrame owner) {
+        String minutes = JOptionPane.showInputDialog(owner, "Minutes to count down from (0 counts up):", "45");
+        if (minutes == null) return;
+        try {
+            long seconds = Math.round(Double.parseDouble(minutes.trim()) * 60);
+            if (seconds < 0) throw new NumberFormatException();
+            send(MessageType.TIMER_DURATION, String.valueOf(seconds));
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(owner, "Enter a number of minutes.");
+        }
+    }
+
+    // Sample the server's clock; the reading is taken as the message is written
+    private void syncClock(int probes) {
+        for (int i = 0; i < probes; i++) {
+            pipeline.send(() -> Message.of(MessageType.TIME_SYNC, String.valueOf(System.currentTimeMillis())));
+        }
+    }
+
+    // EDT: ping a quiet server; one silent past the timeout is dropped so the listener reconnects,
+    // e.g. after the laptop slept or a NAT forgot the connection
+    private void checkServer() {
+        if (!isConnected || reconnecting) return;
+        long quiet = System.currentTimeMillis() - lastHeard;
+        if (quiet >= serverTimeoutMs) {
+            lastHeard = System.currentTimeMillis();
+            updateChat("The server stopped answering");
+            link.abort();
+        } else if (quiet >= pingIntervalMs) {
+            pipeline.send(() -> Message.of(MessageType.PING, String.valueOf(System.currentTimeMillis())));
+        }
+    }
+
+    private void consoleNote(String text) {
+        SwingUtilities.invokeLater(() -> console.appendNote(text));
+    }
+
     // Append messages to chat area and auto-scroll to the latest message
     private void updateChat(String text) {
-        SwingUtilities.invokeLater(() -> {
-            chatArea.append(text + "\n");
-            chatArea.setCaretPosition(chatArea.getDocument().getLength());
-        });
+        SwingUtilities.invokeLater(() -> chatView.appendNote(text));
+    }
+
+    // Chat payload <user>:<message> as shown in the chat list
+    private String chatLine(String payload) {
+        String[] parts = payload.split(":", 2);
+        if (parts.length != 2) return "Unknown: " + payload;
+        return (parts[0].equals(username) ? "You" : parts[0]) + ": " + parts[1];
     }
 
     // Open file and load into editor
@@ -448,8 +937,8 @@ public class Client {
                 while ((line = br.readLine()) != null) {
                     fileContent.append(line).append("\n");
                 }
+                // The document listener sends the change to the server
                 editorArea.setText(fileContent.toString());
-                out.println(editorArea.getText());
             } catch (IOException ex) {
                 JOptionPane.showMessageDialog(null, "Error reading file: " + ex.getMessage());
             }
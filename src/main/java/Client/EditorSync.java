@@ -0,0 +1,171 @@
+package Client;
+
+import javax.swing.Timer;
+
+import protocol.TextOperation;
+
+/**
+ * Client side of the operation-based editor sync.
+ * At most one operation is in flight at a time; local edits made while waiting for the
+ * server are composed into a buffer and sent once the in-flight operation is acknowledged.
+ * All methods are expected to run on the Swing event thread.
+ *
+ * Edits made while nothing is in flight are also held back for a short window so a burst of
+ * keystrokes goes out as one operation. Each new edit extends the window by the flush delay,
+ * but never past the maximum delay from the first buffered edit, and a full batch is sent
+ * straight away.
+ *
+ * While the connection is being re-established, edits are only buffered. Once the room is
+ * resumed, the in-flight operation is sent again unless the replayed frames acknowledged it.
+ */
+class EditorSync {
+    interface Sender {
+        void send(int baseRevision, TextOperation op);
+    }
+
+    static final int DEFAULT_FLUSH_DELAY_MS = 15;
+    static final int DEFAULT_MAX_FLUSH_DELAY_MS = 60;
+    static final int DEFAULT_MAX_BATCH_EDITS = 64;
+
+    private final Sender sender;
+    private final Timer flushTimer;
+    private int revision = -1;          // Last server revision applied locally, -1 before the first snapshot
+    private TextOperation outstanding;  // Sent, waiting for the server to acknowledge
+    private TextOperation buffer;       // Local edits not sent yet
+    private boolean suspended;          // Reconnecting, nothing can be sent
+
+    // Batching settings, adjustable at runtime from the debug panel
+    private int flushDelayMs = Integer.getInteger("coderounds.flushDelayMs", DEFAULT_FLUSH_DELAY_MS);
+    private int maxFlushDelayMs = Integer.getInteger("coderounds.maxFlushDelayMs", DEFAULT_MAX_FLUSH_DELAY_MS);
+    private int maxBatchEdits = Integer.getInteger("coderounds.maxBatchEdits", DEFAULT_MAX_BATCH_EDITS);
+
+    // State of the current batch
+    private int bufferedEdits;
+    private long firstBufferedAt;
+    private long outstandingSentAt;
+
+    // Debug statistics
+    private long batchesSent;
+    private long editsSent;
+    private long lastFlushLatencyMs;
+    private long lastAckRttMs;
+
+    EditorSync(Sender sender) {
+        this.sender = sender;
+        this.flushTimer = new Timer(flushDelayMs, e -> flush());
+        this.flushTimer.setRepeats(false);
+    }
+
+    int getRevision() {
+        return revision;
+    }
+
+    // Start over from a server snapshot, dropping anything the server has not seen
+    void reset(int revision) {
+        this.revision = revision;
+        outstanding = null;
+        buffer = null;
+        bufferedEdits = 0;
+        suspended = false;
+        flushTimer.stop();
+    }
+
+    // The connection dropped; keep edits until resent() or reset()
+    void suspend() {
+        suspended = true;
+        flushTimer.stop();
+    }
+
+    /**
+     * The room was resumed on a new connection and every missed operation applied. An operation
+     * still awaiting its acknowledgement never reached the server, so it goes out again, now
+     * based on the current revision.
+     */
+    void resend() {
+        suspended = false;
+        if (outstanding != null) {
+            outstandingSentAt = System.currentTimeMillis();
+            sender.send(revision, outstanding);
+        } else {
+            flush();
+        }
+    }
+
+    void applyLocal(TextOperation op) {
+        if (revision < 0) return; // Nothing to sync against yet
+        buffer = buffer == null ? op : buffer.compose(op);
+        long now = System.currentTimeMillis();
+        if (bufferedEdits++ == 0) firstBufferedAt = now;
+        if (outstanding != null || suspended) return; // Sent once the in-flight operation is acknowledged or the room resumed
+        if (bufferedEdits >= maxBatchEdits) {
+            flush();
+            return;
+        }
+        long deadline = Math.min(now + flushDelayMs, firstBufferedAt + maxFlushDelayMs);
+        flushTimer.setInitialDelay((int) Math.max(0, deadline - now));
+        flushTimer.restart();
+    }
+
+    boolean isAwaitingAck() {
+        return outstanding != null;
+    }
+
+    // Our own operation came back from the server
+    void serverAck(int newRevision) {
+        if (newRevision <= revision) return;
+        revision = newRevision;
+        outstanding = null;
+        lastAckRttMs = System.currentTimeMillis() - outstandingSentAt;
+        // Anything buffered meanwhile has already waited a round trip
+        flush();
+    }
+
+    /**
+     * Transform an operation from another client against our unacknowledged edits.
+     * Returns the operation to apply to the local document, or null if it was already seen.
+     */
+    TextOperation serverOperation(int newRevision, TextOperation op) {
+        if (revision < 0 || newRevision <= revision) return null;
+        revision = newRevision;
+        if (outstanding != null) {
+            TextOperation[] pair = TextOperation.transform(outstanding, op);
+            outstanding = pair[0];
+            op = pair[1];
+        }
+        if (buffer != null) {
+            TextOperation[] pair = TextOperation.transform(buffer, op);
+            buffer = pair[0];
+            op = pair[1];
+        }
+        return op;
+    }
+
+    // Send buffered edits now if nothing is in flight, e.g. before asking the server to run the code
+    void flush() {
+        flushTimer.stop();
+        if (outstanding == null && buffer != null && !suspended) {
+            outstanding = buffer;
+            buffer = null;
+            outstandingSentAt = System.currentTimeMillis();
+            lastFlushLatencyMs = outstandingSentAt - firstBufferedAt;
+            batchesSent++;
+            editsSent += bufferedEdits;
+            bufferedEdits = 0;
+            sender.send(revision, outstanding);
+        }
+    }
+
+    int getFlushDelayMs() { return flushDelayMs; }
+    int getMaxFlushDelayMs() { return maxFlushDelayMs; }
+    int getMaxBatchEdits() { return maxBatchEdits; }
+
+    void setFlushDelayMs(int flushDelayMs) { this.flushDelayMs = Math.max(0, flushDelayMs); }
+    void setMaxFlushDelayMs(int maxFlushDelayMs) { this.maxFlushDelayMs = Math.max(0, maxFlushDelayMs); }
+    void setMaxBatchEdits(int maxBatchEdits) { this.maxBatchEdits = Math.max(1, maxBatchEdits); }
+
+    long getBatchesSent() { return batchesSent; }
+    long getEditsSent() { return editsSent; }
+    long getLastFlushLatencyMs() { return lastFlushLatencyMs; }
+    long getLastAckRttMs() { return lastAckRttMs; }
+    int getBufferedEdits() { return bufferedEdits; }
+}
@@ -123,7 +123,7 @@ public class LoginSignupFrame extends JFrame {
         showPassword.addActionListener(e -> {
             passwordField.setEchoChar(showPassword.isSelected() ? (char) 0 : '•');
         });
-        loginButton.addActionListener(e -> handleLogin(usernameField, passwordField));
+        loginButton.addActionListener(e -> handleLogin(usernameField, passwordField, loginButton));
         signupLink.addMouseListener(createSwitchPanelListener("signup"));
 
         return panel;
@@ -208,30 +208,82 @@ public class LoginSignupFrame extends JFrame {
             passwordField.setEchoChar(echo);
             confirmPasswordField.setEchoChar(echo);
         });
-        signupButton.addActionListener(e -> handleSignup(usernameField, passwordField, confirmPasswordField));
+        signupButton.addActionListener(e -> handleSignup(usernameField, passwordField, confirmPasswordField, signupButton));
         loginLink.addMouseListener(createSwitchPanelListener("login"));
 
         return panel;
     }
 
-    private void handleLogin(JTextField usernameField, JPasswordField passwordField) {
+    // The server checks the password, off the Swing thread as hashing takes a while under load
+    private void handleLogin(JTextField usernameField, JPasswordField passwordField, JButton loginButton) {
         String username = usernameField.getText().trim();
         String password = new String(passwordField.getPassword()).trim();
+        loginButton.setEnabled(false);
+        new Thread(() -> {
+            try {
+                ServerLink link = new ServerLink();
+                try {
+                    link.login(username, password);
+                } catch (IOException ex) {
+                    link.close(0);
+                    throw ex;
+                }
+                SwingUtilities.invokeLater(() -> {
+                    loginButton.setEnabled(true);
+                    enterRoom(link);
+                });
+            } catch (ServerLink.AuthFailure ex) {
+                showLater(loginButton, ex.getMessage());
+            } catch (IOException ex) {
+                showLater(loginButton, "Cannot reach the server: " + ex.getMessage());
+            }
+        }, "login").start();
+    }
+
+    // Logged in: pick the room and whether to join it live or replay it
+    private void enterRoom(ServerLink link) {
+        String roomCode = promptForRoomCode();
+        if (roomCode == null) {
+            link.close(0); // Cancelled, stay on the login screen
+            return;
+        }
+        Object[] modes = {"Join", "Replay", "Cancel"};
+        int mode = JOptionPane.showOptionDialog(this, "Join the live room or replay its recording?", "Room " + roomCode,
+                JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, modes, modes[0]);
+        if (mode != 0 && mode != 1) {
+            link.close(0);
+            return;
+        }
+        dispose();
+        new Client(link, roomCode, mode == 1);
+    }
 
-        try {
-            User user = UserRepository.findUserByUsername(username);
-            if (user != null && user.getPassword().equals(password)) {
-                dispose();
-                new Client(user.getUsername());
-            } else {
-                JOptionPane.showMessageDialog(this, "Invalid username or password.");
+    // Re-enable the button and show a message, from a background thread
+    private void showLater(JButton button, String message) {
+        SwingUtilities.invokeLater(() -> {
+            button.setEnabled(true);
+            JOptionPane.showMessageDialog(this, message);
+        });
+    }
+
+    // Ask which interview room to join; returns null if the user cancels
+    private String promptForRoomCode() {
+        while (true) {
+            String code = JOptionPane.showInputDialog(this, "Enter the interview room code:", "Join Room",
+                    JOptionPane.QUESTION_MESSAGE);
+            if (code == null) {
+                return null;
+            }
+            code = code.trim();
+            if (code.matches("[A-Za-z0-9_-]{1,32}")) {
+                return code;
             }
-        } catch (IOException ex) {
-            JOptionPane.showMessageDialog(this, "Error accessing user data.");
+            JOptionPane.showMessageDialog(this, "Room codes use letters, digits, '-' or '_' (up to 32 characters).");
         }
     }
 
-    private void handleSignup(JTextField usernameField, JPasswordField passwordField, JPasswordField confirmPasswordField) {
+    private void handleSignup(JTextField usernameField, JPasswordField passwordField, JPasswordField confirmPasswordField,
+                              JButton signupButton) {
         String username = usernameField.getText().trim();
         String password = new String(passwordField.getPassword()).trim();
         String confirmPassword = new String(confirmPasswordField.getPassword()).trim();
@@ -251,25 +303,30 @@ public class LoginSignupFrame extends JFrame {
             return;
         }
 
-        try {
-            User existing = UserRepository.findUserByUsername(username);
-            if (existing != null) {
-                JOptionPane.showMessageDialog(this, "Username already exists.");
-                return;
+        signupButton.setEnabled(false);
+        new Thread(() -> {
+            try {
+                ServerLink link = new ServerLink();
+                try {
+                    link.signup(username, password);
+                } finally {
+                    link.close(0);
+                }
+                SwingUtilities.invokeLater(() -> {
+                    signupButton.setEnabled(true);
+                    JOptionPane.showMessageDialog(this, "Account created successfully! Please log in.");
+                    usernameField.setText("");
+                    passwordField.setText("");
+                    confirmPasswordField.setText("");
+                    CardLayout cl = (CardLayout) cards.getLayout();
+                    cl.show(cards, "login");
+                });
+            } catch (ServerLink.AuthFailure ex) {
+                showLater(signupButton, ex.getMessage());
+            } catch (IOException ex) {
+                showLater(signupButton, "Cannot reach the server: " + ex.getMessage());
             }
-
-            UserRepository.saveUser(new User(username, password));
-            JOptionPane.showMessageDialog(this, "Account created successfully! Please log in.");
-
-            usernameField.setText("");
-            passwordField.setText("");
-            confirmPasswordField.setText("");
-            CardLayout cl = (CardLayout) cards.getLayout();
-            cl.show(cards, "login");
-
-        } catch (IOException ex) {
-            JOptionPane.showMessageDialog(this, "Error: " + ex.getMessage());
-        }
+        }, "signup").start();
     }
 
     private MouseAdapter createSwitchPanelListener(String panelName) {
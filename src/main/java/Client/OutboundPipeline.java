@@ -0,0 +1,111 @@
+package Client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import protocol.FrameCodec;
+import protocol.Message;
+
+/**
+ * Sends messages to the server from a background writer thread so the Swing event thread
+ * never encodes or blocks on the socket. Messages queued while a write is in progress go out
+ * together with a single flush; cursor updates are latest-value-wins while waiting.
+ */
+class OutboundPipeline {
+    private static final Supplier<Message> CLOSE = () -> null;
+
+    private final OutputStream out;
+    private final FrameCodec codec;
+    private final LinkedBlockingQueue<Supplier<Message>> queue = new LinkedBlockingQueue<>();
+    private final AtomicReference<Supplier<Message>> pendingCursor = new AtomicReference<>();
+    private final Thread writer;
+    private volatile boolean failed;
+
+    // Debug counters
+    private final AtomicLong framesWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong cursorsCoalesced = new AtomicLong();
+
+    OutboundPipeline(OutputStream out, FrameCodec codec) {
+        this.out = out;
+        this.codec = codec;
+        this.writer = new Thread(this::writeLoop, "client-outbound");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    void send(Message message) {
+        send(() -> message);
+    }
+
+    // The message is built on the writer thread, keeping serialization off the caller's thread
+    void send(Supplier<Message> message) {
+        if (!failed) queue.add(message);
+    }
+
+    // Only the newest cursor position still waiting to be written is sent
+    void sendCursor(Supplier<Message> cursor) {
+        if (failed) return;
+        if (pendingCursor.getAndSet(cursor) != null) {
+            cursorsCoalesced.incrementAndGet();
+        } else {
+            queue.add(this::takePendingCursor);
+        }
+    }
+
+    private Message takePendingCursor() {
+        Supplier<Message> cursor = pendingCursor.getAndSet(null);
+        return cursor != null ? cursor.get() : null;
+    }
+
+    // Write whatever is queued, then stop; waits at most timeoutMs
+    void close(long timeoutMs) {
+        queue.add(CLOSE);
+        try {
+            writer.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    int getQueueDepth() { return queue.size(); }
+    long getFramesWritten() { return framesWritten.get(); }
+    long getBytesWritten() { return bytesWritten.get(); }
+    long getFlushes() { return flushes.get(); }
+    long getCursorsCoalesced() { return cursorsCoalesced.get(); }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Supplier<Message> next = queue.take();
+                // Write everything already queued, then flush once
+                do {
+                    if (next == CLOSE) {
+                        out.flush();
+                        return;
+                    }
+                    Message message = next.get();
+                    if (message != null) {
+                        byte[] frame = codec.encode(message);
+                        out.write(frame);
+                        framesWritten.incrementAndGet();
+                        bytesWritten.addAndGet(frame.length);
+                    }
+                } while ((next = queue.poll()) != null);
+                out.flush();
+                flushes.incrementAndGet();
+            }
+        } catch (IOException e) {
+            failed = true;
+            queue.clear();
+            System.err.println("Error sending to server: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package Client;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Font;
+
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextPane;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
+
+/**
+ * Output of the room's runs and judging, appended as it arrives. stderr is shown in red and
+ * notes from the server in grey. Only the most recent output is kept: once the console holds
+ * more than its scrollback limit, whole lines are dropped from the top.
+ * All methods are expected to run on the Swing event thread.
+ */
+class OutputConsole extends JPanel {
+    static final int DEFAULT_SCROLLBACK_CHARS = 200_000;
+
+    private final JTextPane text = new JTextPane();
+    private final StyledDocument document = text.getStyledDocument();
+    private final SimpleAttributeSet stdout = new SimpleAttributeSet();
+    private final SimpleAttributeSet stderr = new SimpleAttributeSet();
+    private final SimpleAttributeSet note = new SimpleAttributeSet();
+    private final int scrollbackChars = Integer.getInteger("coderounds.consoleChars", DEFAULT_SCROLLBACK_CHARS);
+
+    OutputConsole() {
+        super(new BorderLayout());
+        text.setEditable(false);
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        StyleConstants.setForeground(stderr, new Color(180, 0, 0));
+        StyleConstants.setForeground(note, Color.GRAY);
+        StyleConstants.setItalic(note, true);
+
+        JButton clearButton = new JButton("Clear");
+        clearButton.addActionListener(e -> text.setText(""));
+        JPanel header = new JPanel(new BorderLayout());
+        header.add(new JLabel("Output"), BorderLayout.WEST);
+        header.add(clearButton, BorderLayout.EAST);
+        add(header, BorderLayout.NORTH);
+        add(new JScrollPane(text), BorderLayout.CENTER);
+    }
+
+    void appendOutput(String output, boolean isError) {
+        append(output, isError ? stderr : stdout);
+    }
+
+    // A line from the server about a run, such as its status or verdict
+    void appendNote(String line) {
+        // Start on a fresh line if the program's output did not end with one
+        int length = document.getLength();
+        try {
+            if (length > 0 && !document.getText(length - 1, 1).equals("\n")) append("\n", stdout);
+        } catch (BadLocationException e) {
+            // Cannot happen for an offset inside the document
+        }
+        append(line + "\n", note);
+    }
+
+    private void append(String output, SimpleAttributeSet style) {
+        try {
+            document.insertString(document.getLength(), output, style);
+            trimScrollback();
+        } catch (BadLocationException e) {
+            System.err.println("Console append failed: " + e.getMessage());
+        }
+        text.setCaretPosition(document.getLength());
+    }
+
+    private void trimScrollback() throws BadLocationException {
+        int excess = document.getLength() - scrollbackChars;
+        if (excess <= 0) return;
+        // Cut at the end of the line the excess falls in
+        Element root = document.getDefaultRootElement();
+        Element line = root.getElement(root.getElementIndex(excess));
+        int cut = line.getEndOffset();
+        if (cut >= document.getLength()) cut = excess; // One very long line
+        document.remove(0, cut);
+    }
+}
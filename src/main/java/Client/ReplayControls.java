@@ -0,0 +1,82 @@
+package Client;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSlider;
+
+import protocol.Message;
+import protocol.MessageType;
+
+/**
+ * Playback bar for watching a recorded session: play/pause, speed and a position slider.
+ * The server drives the position; dragging the slider seeks when it is released.
+ * All methods are expected to run on the Swing event thread.
+ */
+class ReplayControls extends JPanel {
+    private static final String[] SPEEDS = {"1x", "2x", "4x", "8x", "16x", "32x"};
+
+    private final JButton playButton = new JButton("Play ⏵");
+    private final JSlider slider = new JSlider(0, 0, 0);
+    private final JLabel timeLabel = new JLabel("00:00 / 00:00");
+    private boolean playing;
+    private int serverPosition; // Last position set from the server
+    private long duration;
+
+    ReplayControls(OutboundPipeline pipeline) {
+        super(new BorderLayout(8, 0));
+
+        JComboBox<String> speed = new JComboBox<>(SPEEDS);
+        speed.addActionListener(e -> {
+            String selected = (String) speed.getSelectedItem();
+            pipeline.send(Message.of(MessageType.REPLAY_SPEED, selected.substring(0, selected.length() - 1)));
+        });
+        playButton.addActionListener(e -> {
+            pipeline.send(Message.of(playing ? MessageType.REPLAY_PAUSE : MessageType.REPLAY_RESUME));
+            setPlaying(!playing);
+        });
+        slider.addChangeListener(e -> {
+            if (slider.getValueIsAdjusting()) {
+                timeLabel.setText(format(slider.getValue()) + " / " + format(duration));
+            } else if (slider.getValue() != serverPosition) {
+                // Moved by the user: seek once the drag is over
+                serverPosition = slider.getValue();
+                pipeline.send(Message.of(MessageType.REPLAY_SEEK, String.valueOf(serverPosition)));
+            }
+        });
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT, 4, 0));
+        buttons.add(playButton);
+        buttons.add(speed);
+        add(buttons, BorderLayout.WEST);
+        add(slider, BorderLayout.CENTER);
+        add(timeLabel, BorderLayout.EAST);
+    }
+
+    void setDuration(long durationMs) {
+        duration = durationMs;
+        slider.setMaximum((int) Math.min(Integer.MAX_VALUE, durationMs));
+        setPosition(serverPosition);
+    }
+
+    void setPosition(long positionMs) {
+        if (slider.getValueIsAdjusting()) return; // Don't fight the user's drag
+        serverPosition = (int) Math.min(Integer.MAX_VALUE, positionMs);
+        slider.setValue(serverPosition);
+        timeLabel.setText(format(positionMs) + " / " + format(duration));
+    }
+
+    void setPlaying(boolean playing) {
+        this.playing = playing;
+        playButton.setText(playing ? "Pause ⏸" : "Play ⏵");
+    }
+
+    private static String format(long ms) {
+        long seconds = ms / 1000;
+        return String.format("%02d:%02d", seconds / 60, seconds % 60);
+    }
+}
@@ -0,0 +1,39 @@
+package Client;
+
+/**
+ * Estimate of the server's clock, from TIME_SYNC round trips. Of the recent samples, the one with
+ * the shortest round trip sets the offset, since its two halves are the most likely to be even.
+ */
+class ServerClock {
+    private static final int SAMPLES = 8;
+
+    private final long[] offsets = new long[SAMPLES];
+    private final long[] roundTrips = new long[SAMPLES];
+    private int count;
+    private int next;
+    private volatile long offsetMs;
+
+    // A TIME_SYNC reply: our clock when we asked and when the answer came, and the server's in between
+    synchronized void sample(long sentAt, long serverTime, long receivedAt) {
+        long roundTrip = receivedAt - sentAt;
+        if (roundTrip < 0) return;
+        offsets[next] = serverTime - (sentAt + roundTrip / 2);
+        roundTrips[next] = roundTrip;
+        next = (next + 1) % SAMPLES;
+        if (count < SAMPLES) count++;
+        int best = 0;
+        for (int i = 1; i < count; i++) {
+            if (roundTrips[i] < roundTrips[best]) best = i;
+        }
+        offsetMs = offsets[best];
+    }
+
+    // How far the server's clock is ahead of ours
+    long getOffsetMs() {
+        return offsetMs;
+    }
+
+    long now() {
+        return System.currentTimeMillis() + offsetMs;
+    }
+}
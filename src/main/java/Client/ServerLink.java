@@ -0,0 +1,192 @@
+package Client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import protocol.BinaryCodec;
+import protocol.FrameCodec;
+import protocol.FrameReader;
+import protocol.Handshake;
+import protocol.Message;
+import protocol.MessageType;
+import protocol.TextCodec;
+
+/**
+ * The connection to the server: the socket, protocol negotiation, the outbound pipeline and the
+ * frame reader. The login screen opens a link and logs in on it; the room window then takes it
+ * over and reads everything that follows. The server is localhost:8080 unless
+ * -Dcoderounds.host and -Dcoderounds.port say otherwise.
+ */
+class ServerLink {
+    private static final int HANDSHAKE_TIMEOUT_MS = 3000;
+    // Hashing is slow on purpose, and slower while many users log in at once
+    private static final int AUTH_TIMEOUT_MS = 30_000;
+    private static final int ABORT_WAIT_MS = 100;
+
+    // The server turned a login, signup or token down; the message is its reason
+    static class AuthFailure extends IOException {
+        AuthFailure(String reason) {
+            super(reason);
+        }
+    }
+
+    private final Socket socket;
+    private final OutputStream socketOut;
+    private final FrameReader reader;
+    private final OutboundPipeline pipeline;
+    private FrameCodec codec = TextCodec.INSTANCE;
+    private volatile String username;
+    private volatile String token; // Logs in again without the password until it expires
+
+    ServerLink() throws IOException {
+        this(System.getProperty("coderounds.host", "localhost"), Integer.getInteger("coderounds.port", 8080));
+    }
+
+    ServerLink(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        try {
+            socket.setTcpNoDelay(true);
+            socketOut = new BufferedOutputStream(socket.getOutputStream());
+            reader = new FrameReader(new BufferedInputStream(socket.getInputStream()));
+            negotiateProtocol();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        pipeline = new OutboundPipeline(socketOut, codec);
+    }
+
+    OutboundPipeline getPipeline() {
+        return pipeline;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    void send(MessageType type, String payload) {
+        pipeline.send(Message.of(type, payload));
+    }
+
+    // Next message from the server, or null once it closed the connection.
+    // Keeps the token current, since the server sends a fresh one when a room is resumed
+    Message read() throws IOException {
+        Message message = reader.read();
+        if (message != null && message.type() == MessageType.AUTH_OK) authenticated(message);
+        return message;
+    }
+
+    // Whether the server numbers its frames, which resuming a room after a reconnect relies on
+    boolean isSequenced() {
+        return codec == BinaryCodec.SEQUENCED;
+    }
+
+    void login(String username, String password) throws IOException {
+        authenticate(MessageType.LOGIN, username + ":" + password);
+    }
+
+    void signup(String username, String password) throws IOException {
+        authenticate(MessageType.SIGNUP, username + ":" + password);
+    }
+
+    // Log in with the token from the last successful login
+    void resume(String token) throws IOException {
+        authenticate(MessageType.AUTH_TOKEN, token);
+    }
+
+    // Send the request and wait for AUTH_OK or AUTH_FAIL; nothing else is expected before logging in
+    private void authenticate(MessageType type, String payload) throws IOException {
+        send(type, payload);
+        socket.setSoTimeout(AUTH_TIMEOUT_MS);
+        try {
+            Message reply;
+            while ((reply = reader.read()) != null) {
+                if (reply.type() == MessageType.AUTH_OK) {
+                    authenticated(reply);
+                    return;
+                }
+                if (reply.type() == MessageType.AUTH_FAIL) throw new AuthFailure(reply.payload());
+            }
+            throw new IOException("Connection closed by server");
+        } catch (SocketTimeoutException e) {
+            throw new IOException("Server did not answer in time");
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
+    // Ask for a fresh token if this one expires within marginMs; the answer arrives through read()
+    void renewTokenIfExpiring(long marginMs) {
+        String current = token;
+        if (current == null) return;
+        // Token: <username>.<expiry ms>.<signature>
+        String[] parts = current.split("\\.");
+        try {
+            if (parts.length == 3 && Long.parseLong(parts[1]) - System.currentTimeMillis() < marginMs) {
+                send(MessageType.AUTH_TOKEN, current);
+            }
+        } catch (NumberFormatException e) {
+            // Not a token this client understands; leave it to expire
+        }
+    }
+
+    // Drop a connection known to be broken without waiting to flush
+    void abort() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
+        }
+        pipeline.close(ABORT_WAIT_MS);
+    }
+
+    // AUTH_OK payload: <username>:<token>
+    private void authenticated(Message reply) {
+        String[] parts = reply.fields(2);
+        username = parts[0];
+        token = parts.length == 2 ? parts[1] : null;
+    }
+
+    /**
+     * Offer binary framing and switch to it if the server agrees. Stays on the text protocol if
+     * -Dcoderounds.protocol=text is set or the server does not answer the HELLO in time.
+     */
+    private void negotiateProtocol() throws IOException {
+        if (TextCodec.VERSION.equals(System.getProperty("coderounds.protocol"))) return;
+        socketOut.write(TextCodec.INSTANCE.encode(Handshake.offer(BinaryCodec.SEQUENCED, BinaryCodec.INSTANCE, TextCodec.INSTANCE)));
+        socketOut.flush();
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        try {
+            Message reply = reader.read();
+            if (reply != null && reply.type() == MessageType.HELLO) {
+                FrameCodec chosen = Handshake.forVersion(reply.payload());
+                if (chosen != null) {
+                    codec = chosen;
+                    reader.setCodec(chosen);
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            System.err.println("Server did not answer protocol negotiation, using text protocol");
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
+    // Write what is queued, waiting up to flushMs, then close the socket
+    void close(long flushMs) {
+        pipeline.close(flushMs);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package Client;
+
+import java.awt.GridLayout;
+
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.Timer;
+
+/**
+ * Debug view of the outbound edit pipeline: batching settings that can be tuned live,
+ * and counters refreshed twice a second. Runs on the Swing event thread like EditorSync.
+ */
+class SyncDebugPanel extends JPanel {
+    private static final int REFRESH_MS = 500;
+
+    private final EditorSync sync;
+    private final OutboundPipeline pipeline;
+    private final JLabel batches = new JLabel();
+    private final JLabel editsPerBatch = new JLabel();
+    private final JLabel flushLatency = new JLabel();
+    private final JLabel ackRtt = new JLabel();
+    private final JLabel buffered = new JLabel();
+    private final JLabel queueDepth = new JLabel();
+    private final JLabel written = new JLabel();
+    private final JLabel cursors = new JLabel();
+    private final Timer refreshTimer;
+
+    SyncDebugPanel(EditorSync sync, OutboundPipeline pipeline) {
+        super(new GridLayout(0, 2, 8, 4));
+        this.sync = sync;
+        this.pipeline = pipeline;
+
+        JSpinner flushDelay = new JSpinner(new SpinnerNumberModel(sync.getFlushDelayMs(), 0, 1000, 5));
+        flushDelay.addChangeListener(e -> sync.setFlushDelayMs((Integer) flushDelay.getValue()));
+        JSpinner maxFlushDelay = new JSpinner(new SpinnerNumberModel(sync.getMaxFlushDelayMs(), 0, 5000, 10));
+        maxFlushDelay.addChangeListener(e -> sync.setMaxFlushDelayMs((Integer) maxFlushDelay.getValue()));
+        JSpinner maxBatch = new JSpinner(new SpinnerNumberModel(sync.getMaxBatchEdits(), 1, 10000, 1));
+        maxBatch.addChangeListener(e -> sync.setMaxBatchEdits((Integer) maxBatch.getValue()));
+
+        add(new JLabel("Flush delay (ms)"));
+        add(flushDelay);
+        add(new JLabel("Max flush delay (ms)"));
+        add(maxFlushDelay);
+        add(new JLabel("Max edits per batch"));
+        add(maxBatch);
+        add(new JLabel("Batches sent"));
+        add(batches);
+        add(new JLabel("Edits per batch"));
+        add(editsPerBatch);
+        add(new JLabel("Last flush latency"));
+        add(flushLatency);
+        add(new JLabel("Last ack round trip"));
+        add(ackRtt);
+        add(new JLabel("Edits buffered"));
+        add(buffered);
+        add(new JLabel("Outbound queue"));
+        add(queueDepth);
+        add(new JLabel("Written"));
+        add(written);
+        add(new JLabel("Cursor updates coalesced"));
+        add(cursors);
+
+        refreshTimer = new Timer(REFRESH_MS, e -> refresh());
+        refresh();
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        refreshTimer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        refreshTimer.stop();
+        super.removeNotify();
+    }
+
+    private void refresh() {
+        long sent = sync.getBatchesSent();
+        batches.setText(String.valueOf(sent));
+        editsPerBatch.setText(sent == 0 ? "-" : String.format("%.1f", (double) sync.getEditsSent() / sent));
+        flushLatency.setText(sync.getLastFlushLatencyMs() + " ms");
+        ackRtt.setText(sync.getLastAckRttMs() + " ms");
+        buffered.setText(String.valueOf(sync.getBufferedEdits()));
+        queueDepth.setText(String.valueOf(pipeline.getQueueDepth()));
+        written.setText(pipeline.getFramesWritten() + " frames, " + pipeline.getBytesWritten()
+                + " bytes, " + pipeline.getFlushes() + " flushes");
+        cursors.setText(String.valueOf(pipeline.getCursorsCoalesced()));
+    }
+}
@@ -0,0 +1,84 @@
+package Client;
+
+import java.awt.Color;
+
+import javax.swing.JLabel;
+import javax.swing.Timer;
+
+/**
+ * The room's timer, run locally from the last TIMER_UPDATE since the server only sends changes.
+ * The elapsed time in an update is as of the server's clock reading, so the time since then is
+ * measured on the estimated server clock. Countdowns show the time left, in red for the last minute.
+ * All methods are expected to run on the Swing event thread.
+ */
+class TimerDisplay extends JLabel {
+    private static final int REFRESH_MS = 200;
+    private static final long LAST_MINUTE_MS = 60_000;
+
+    private final ServerClock clock;
+    private final Timer refresh = new Timer(REFRESH_MS, e -> render());
+    private final Color normalColor;
+    private long elapsedMs;
+    private long serverTime; // Server clock reading elapsedMs was taken at, or -1 for local time
+    private long localTime;  // Local clock reading for updates without a server time
+    private boolean running;
+    private long durationMs;
+
+    TimerDisplay(ServerClock clock) {
+        this.clock = clock;
+        this.normalColor = getForeground();
+        render();
+    }
+
+    void update(long elapsedMs, boolean running, long serverTime, long durationMs) {
+        this.elapsedMs = elapsedMs;
+        this.running = running;
+        this.serverTime = serverTime;
+        this.durationMs = durationMs;
+        restart();
+    }
+
+    // Recordings have whole seconds and no server time; replays run the clock from when they arrive
+    void updateFromRecording(long elapsedSeconds, boolean running) {
+        localTime = System.currentTimeMillis();
+        update(elapsedSeconds * 1000, running, -1, 0);
+    }
+
+    long getRemainingMs() {
+        return Math.max(0, durationMs - currentElapsedMs());
+    }
+
+    private void restart() {
+        render();
+        if (running) {
+            refresh.start();
+        } else {
+            refresh.stop();
+        }
+    }
+
+    private long currentElapsedMs() {
+        if (!running) return elapsedMs;
+        long since = serverTime >= 0 ? clock.now() - serverTime : System.currentTimeMillis() - localTime;
+        return elapsedMs + Math.max(0, since);
+    }
+
+    private void render() {
+        if (durationMs > 0) {
+            long remaining = getRemainingMs();
+            // Round up, so 00:00 is only shown once the time is really up
+            setText("Time left: " + format((remaining + 999) / 1000));
+            setForeground(remaining <= LAST_MINUTE_MS ? Color.RED : normalColor);
+        } else {
+            setText("Timer: " + format(currentElapsedMs() / 1000));
+            setForeground(normalColor);
+        }
+    }
+
+    private static String format(long seconds) {
+        if (seconds >= 3600) {
+            return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+        }
+        return String.format("%02d:%02d", seconds / 60, seconds % 60);
+    }
+}
@@ -1,18 +0,0 @@
-package Client;
-// User.java
-public class User {
-    private String username;
-    private String password;
-
-
-    public User(String username, String password) {
-        this.username = username;
-        this.password = password;
-    }
-
-
-    public String getUsername() { return username; }
-    public String getPassword() { return password; }
-}
-
-
@@ -0,0 +1,172 @@
+package loadtest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+
+import protocol.FrameCodec;
+import protocol.FrameReader;
+import protocol.Handshake;
+import protocol.Message;
+import protocol.MessageType;
+import protocol.TextCodec;
+
+/**
+ * A protocol client without a window, for tools and tests: connects, negotiates framing, logs in,
+ * then hands every message from the server to a listener on its own reader thread, answering
+ * heartbeat PINGs itself. Sends are written and flushed on the caller's thread. Nothing here
+ * starts a platform thread of its own, so with a virtual thread factory one process can hold
+ * thousands of clients.
+ */
+public class HeadlessClient implements Closeable {
+    private static final int HANDSHAKE_TIMEOUT_MS = 3000;
+    private static final int AUTH_TIMEOUT_MS = 60_000;
+
+    public interface Listener {
+        void onMessage(Message message);
+
+        // The connection ended; cause is null if it was closed from this side
+        void onClosed(IOException cause);
+    }
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final FrameReader reader;
+    // Not a monitor, so a virtual thread blocked writing does not pin its carrier
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private FrameCodec codec = TextCodec.INSTANCE;
+    private volatile boolean closed;
+    private String username;
+
+    /**
+     * Connect and offer the given framings in order of preference; none stays on the text protocol.
+     */
+    public HeadlessClient(String host, int port, int connectTimeoutMs, FrameCodec... offer) throws IOException {
+        socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            socket.setTcpNoDelay(true);
+            out = new BufferedOutputStream(socket.getOutputStream());
+            reader = new FrameReader(new BufferedInputStream(socket.getInputStream()));
+            if (offer.length > 0) negotiate(offer);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    public FrameCodec getCodec() {
+        return codec;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    // For servers started with --auth-required=false
+    public void setUsername(String username) throws IOException {
+        send(MessageType.USERNAME, username);
+        this.username = username;
+    }
+
+    public void login(String username, String password) throws IOException {
+        authenticate(MessageType.LOGIN, username + ":" + password);
+    }
+
+    public void signup(String username, String password) throws IOException {
+        authenticate(MessageType.SIGNUP, username + ":" + password);
+    }
+
+    /**
+     * Start reading on a thread from the factory. Call once, after logging in; the listener gets
+     * every following message in order, then onClosed.
+     */
+    public void start(ThreadFactory threads, Listener listener) {
+        threads.newThread(() -> {
+            IOException cause = null;
+            try {
+                Message message;
+                while ((message = reader.read()) != null) {
+                    if (message.type() == MessageType.PING) {
+                        send(MessageType.PONG, message.payload()); // Heartbeats are answered here
+                    } else {
+                        listener.onMessage(message);
+                    }
+                }
+                if (!closed) cause = new IOException("Connection closed by server");
+            } catch (IOException e) {
+                if (!closed) cause = e;
+            }
+            listener.onClosed(cause);
+        }).start();
+    }
+
+    public void send(MessageType type, String payload) throws IOException {
+        byte[] frame = codec.encode(Message.of(type, payload));
+        writeLock.lock();
+        try {
+            out.write(frame);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            System.err.println("Error closing connection: " + e.getMessage());
+        }
+    }
+
+    // Wait for AUTH_OK or AUTH_FAIL; call before start()
+    private void authenticate(MessageType type, String payload) throws IOException {
+        send(type, payload);
+        socket.setSoTimeout(AUTH_TIMEOUT_MS);
+        try {
+            Message reply;
+            while ((reply = reader.read()) != null) {
+                if (reply.type() == MessageType.AUTH_OK) {
+                    username = reply.fields(2)[0];
+                    return;
+                }
+                if (reply.type() == MessageType.AUTH_FAIL) throw new IOException(reply.payload());
+            }
+            throw new IOException("Connection closed by server");
+        } catch (SocketTimeoutException e) {
+            throw new IOException("Server did not answer in time");
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
+    private void negotiate(FrameCodec[] offer) throws IOException {
+        out.write(TextCodec.INSTANCE.encode(Handshake.offer(offer)));
+        out.flush();
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        try {
+            Message reply = reader.read();
+            if (reply != null && reply.type() == MessageType.HELLO) {
+                FrameCodec chosen = Handshake.forVersion(reply.payload());
+                if (chosen != null) {
+                    codec = chosen;
+                    reader.setCodec(chosen);
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            // Old server; stay on the text protocol
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import protocol.BinaryCodec;
+import protocol.FrameCodec;
+import protocol.TextCodec;
+import server.Histogram;
+import server.ServerConfig;
+
+/**
+ * Simulates a busy interview day against a running Server: participants spread over rooms,
+ * connected gradually over the ramp-up, each typing, moving its cursor, chatting and using the
+ * timer at the configured rates. Prints progress while it runs, then edit latency percentiles,
+ * throughput and disconnects. Every participant runs on virtual threads, so thousands fit in one
+ * process.
+ *
+ * Without --password participants only send USERNAME, so start the server with
+ * --auth-required=false; with one, they log in as <user-prefix><n>, signing up the first time.
+ */
+public class LoadGenerator {
+    // Usage: LoadGenerator [--host=localhost] [--port=8080] [--participants=100] [--rooms=25]
+    //                      [--duration-seconds=60] [--ramp-seconds=10] [--type-rate=5] [--cursor-rate=2]
+    //                      [--chat-per-minute=2] [--timer-seconds=30] [--max-document=4000]
+    //                      [--protocol=bin2|bin1|text] [--password=] [--user-prefix=load] [--room-prefix=load]
+    //                      [--report-seconds=5]
+    public static void main(String[] args) throws InterruptedException {
+        ServerConfig config = ServerConfig.fromArgs(args);
+        Settings settings = new Settings(config);
+        int participants = config.getInt("participants", 100);
+        int rooms = Math.max(1, Math.min(participants, config.getInt("rooms", 25)));
+        long rampNanos = TimeUnit.SECONDS.toNanos(config.getLong("ramp-seconds", 10));
+        long durationNanos = TimeUnit.SECONDS.toNanos(config.getLong("duration-seconds", 60));
+        long reportNanos = TimeUnit.SECONDS.toNanos(Math.max(1, config.getLong("report-seconds", 5)));
+        String roomPrefix = config.getString("room-prefix", "load");
+
+        System.out.println("Load: " + participants + " participant(s) in " + rooms + " room(s) on "
+                + settings.host + ":" + settings.port + " for " + TimeUnit.NANOSECONDS.toSeconds(durationNanos) + "s");
+        LoadStats stats = new LoadStats();
+        ThreadFactory workers = Thread.ofVirtual().name("participant-", 0).factory();
+        ThreadFactory readers = Thread.ofVirtual().name("participant-reader-", 0).factory();
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+        List<Thread> threads = new ArrayList<>(participants);
+        for (int i = 0; i < participants; i++) {
+            // Round-robin, so the first participant in each room leads it
+            Participant participant = new Participant(i, roomPrefix + (i % rooms), i < rooms, settings, stats);
+            long startAt = start + rampNanos * i / participants;
+            Thread thread = workers.newThread(() -> participant.run(startAt, end, readers));
+            thread.start();
+            threads.add(thread);
+        }
+
+        Snapshot last = new Snapshot(stats, start);
+        while (System.nanoTime() < end) {
+            TimeUnit.NANOSECONDS.sleep(Math.min(reportNanos, end - System.nanoTime()));
+            Snapshot now = new Snapshot(stats, System.nanoTime());
+            double seconds = (now.at - last.at) / 1e9;
+            System.out.printf("%4ds connected=%d edits=%.0f/s delivered=%.0f/s messages in=%.0f/s out=%.0f/s"
+                            + " p99=%s disconnects=%d errors=%d%n",
+                    TimeUnit.NANOSECONDS.toSeconds(now.at - start), stats.connected.sum() - stats.disconnects.sum(),
+                    (now.editsSent - last.editsSent) / seconds, (now.editsReceived - last.editsReceived) / seconds,
+                    (now.messagesReceived - last.messagesReceived) / seconds, (now.messagesSent - last.messagesSent) / seconds,
+                    millis(stats.propagation.quantile(0.99)), stats.disconnects.sum(), stats.errors.sum());
+            last = now;
+        }
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        report(stats, (System.nanoTime() - start) / 1e9);
+    }
+
+    private static void report(LoadStats stats, double seconds) {
+        System.out.println();
+        System.out.printf("Connected %d, failed to connect %d, disconnected %d%n",
+                stats.connected.sum(), stats.connectFailures.sum(), stats.disconnects.sum());
+        System.out.printf("Edits sent %d (%.0f/s), delivered to other members %d (%.0f/s)%n",
+                stats.editsSent.sum(), stats.editsSent.sum() / seconds,
+                stats.editsReceived.sum(), stats.editsReceived.sum() / seconds);
+        System.out.printf("Messages sent %d (%.0f/s), received %d (%.0f/s)%n",
+                stats.messagesSent.sum(), stats.messagesSent.sum() / seconds,
+                stats.messagesReceived.sum(), stats.messagesReceived.sum() / seconds);
+        System.out.printf("Errors %d, snapshots instead of edits %d, redirects %d%n",
+                stats.errors.sum(), stats.snapshots.sum(), stats.redirects.sum());
+        percentiles("Edit propagation", stats.propagation);
+        percentiles("Edit acknowledgement", stats.acknowledgement);
+    }
+
+    private static void percentiles(String name, Histogram histogram) {
+        System.out.printf("%s (ms, %d samples): p50=%s p90=%s p99=%s p99.9=%s max=%s%n", name, histogram.getCount(),
+                millis(histogram.quantile(0.5)), millis(histogram.quantile(0.9)), millis(histogram.quantile(0.99)),
+                millis(histogram.quantile(0.999)), millis(histogram.getMax()));
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1e6);
+    }
+
+    // Options every participant shares
+    static final class Settings {
+        final String host;
+        final int port;
+        final FrameCodec[] offer;
+        final String password;
+        final String userPrefix;
+        final double typeRate;      // Keystrokes per second
+        final double cursorRate;    // Cursor moves per second
+        final double chatPerMinute;
+        final long timerSeconds;    // Between the room leader's timer starts and pauses, 0 for never
+        final int maxDocument;      // Characters, past which edits delete
+
+        Settings(ServerConfig config) {
+            host = config.getString("host", "localhost");
+            port = config.getInt("port", 8080);
+            switch (config.getString("protocol", "bin2")) {
+                case "bin2":
+                    offer = new FrameCodec[] {BinaryCodec.SEQUENCED, BinaryCodec.INSTANCE, TextCodec.INSTANCE};
+                    break;
+                case "bin1":
+                    offer = new FrameCodec[] {BinaryCodec.INSTANCE, TextCodec.INSTANCE};
+                    break;
+                case "text":
+                    offer = new FrameCodec[0];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown protocol (expected bin2, bin1 or text)");
+            }
+            password = config.getString("password", "");
+            userPrefix = config.getString("user-prefix", "load");
+            typeRate = Double.parseDouble(config.getString("type-rate", "5"));
+            cursorRate = Double.parseDouble(config.getString("cursor-rate", "2"));
+            chatPerMinute = Double.parseDouble(config.getString("chat-per-minute", "2"));
+            timerSeconds = config.getLong("timer-seconds", 30);
+            maxDocument = config.getInt("max-document", 4000);
+        }
+    }
+
+    // Counters at one moment, for rates between progress lines
+    private static final class Snapshot {
+        final long at;
+        final long editsSent;
+        final long editsReceived;
+        final long messagesSent;
+        final long messagesReceived;
+
+        Snapshot(LoadStats stats, long at) {
+            this.at = at;
+            this.editsSent = stats.editsSent.sum();
+            this.editsReceived = stats.editsReceived.sum();
+            this.messagesSent = stats.messagesSent.sum();
+            this.messagesReceived = stats.messagesReceived.sum();
+        }
+    }
+}
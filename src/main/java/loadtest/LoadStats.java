@@ -0,0 +1,67 @@
+package loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import server.Histogram;
+
+/**
+ * Counters and latency histograms shared by every participant of a run.
+ *
+ * Each edit inserts a tag "#<id>;" with the id in base 36. The time it was sent is kept under
+ * that id, so whoever receives the edit, its author included, can tell how long it took. The
+ * server transforms edits but never splits an insert, so tags arrive intact.
+ */
+class LoadStats {
+    private static final int SENT_SLOTS = 1 << 20; // Edits that can be in flight at once
+
+    private final AtomicLong nextEdit = new AtomicLong();
+    private final AtomicLongArray sentAt = new AtomicLongArray(SENT_SLOTS);
+
+    // Time from sending an edit until another member of the room receives it
+    final Histogram propagation = new Histogram();
+    // Time from sending an edit until the author gets it back as the acknowledgement
+    final Histogram acknowledgement = new Histogram();
+    final LongAdder connected = new LongAdder();
+    final LongAdder connectFailures = new LongAdder();
+    final LongAdder disconnects = new LongAdder();
+    final LongAdder editsSent = new LongAdder();
+    final LongAdder editsReceived = new LongAdder();
+    final LongAdder messagesSent = new LongAdder();
+    final LongAdder messagesReceived = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    // REDIRECTs followed to another cluster node
+    final LongAdder redirects = new LongAdder();
+    // Snapshots sent instead of edits, after a rejected edit or a collapsed backlog
+    final LongAdder snapshots = new LongAdder();
+
+    // A tag for an edit about to be sent now
+    String tagEdit() {
+        long id = nextEdit.incrementAndGet();
+        sentAt.set((int) (id & (SENT_SLOTS - 1)), System.nanoTime());
+        editsSent.increment();
+        return "#" + Long.toString(id, 36) + ";";
+    }
+
+    // Record the latency of every tagged edit in an insert
+    void received(String insert, boolean own) {
+        long now = System.nanoTime();
+        int hash = insert.indexOf('#');
+        while (hash >= 0) {
+            int end = insert.indexOf(';', hash);
+            if (end < 0) return;
+            try {
+                long id = Long.parseLong(insert, hash + 1, end, 36);
+                // Ignore ids whose slot has been reused since
+                if (id > 0 && id > nextEdit.get() - SENT_SLOTS) {
+                    long latency = now - sentAt.get((int) (id & (SENT_SLOTS - 1)));
+                    (own ? acknowledgement : propagation).record(latency);
+                }
+            } catch (NumberFormatException e) {
+                // Not a tag
+            }
+            hash = insert.indexOf('#', end);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package loadtest;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import protocol.Message;
+import protocol.MessageType;
+import protocol.TextOperation;
+
+/**
+ * One simulated member of a room: joins, then types, moves its cursor, chats and, if it leads the
+ * room, starts and pauses the timer, each at its configured rate, until the run ends.
+ *
+ * Typing follows the real client's rule of one edit in flight: keystrokes made while waiting for
+ * the server to acknowledge an edit go out together in the next one. Edits are built against the
+ * latest document the server broadcast, which the server can always transform. Once the document
+ * passes the size limit, participants delete instead of insert.
+ *
+ * Against a cluster, a participant sent a REDIRECT connects to the named node and joins there.
+ */
+class Participant implements HeadlessClient.Listener {
+    private final int id;
+    private final String clientId;
+    private final String room;
+    private final boolean leader;
+    private final LoadGenerator.Settings settings;
+    private final LoadStats stats;
+    private volatile HeadlessClient client;
+    private volatile boolean stopping;
+    // Where to connect, changed by a REDIRECT; redirected is set until the participant has followed it
+    private volatile String host;
+    private volatile int port;
+    private volatile boolean redirected;
+
+    // The server's document as of the last broadcast, and this participant's edit in flight; guarded by this
+    private boolean joined;
+    private int revision;
+    private int length;
+    private boolean awaitingAck;
+    private int pendingKeys;
+
+    Participant(int id, String room, boolean leader, LoadGenerator.Settings settings, LoadStats stats) {
+        this.id = id;
+        this.clientId = "load-" + id;
+        this.room = room;
+        this.leader = leader;
+        this.settings = settings;
+        this.stats = stats;
+        this.host = settings.host;
+        this.port = settings.port;
+    }
+
+    // Runs on the participant's own thread from startAt until endAt, both System.nanoTime() readings
+    void run(long startAt, long endAt, ThreadFactory readers) {
+        try {
+            sleepUntil(startAt);
+            if (!connect(readers)) return;
+            stats.connected.increment();
+            act(endAt, readers);
+        } catch (IOException e) {
+            if (!stopping) System.err.println(clientId + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopping = true;
+            if (client != null) client.close();
+        }
+    }
+
+    private boolean connect(ThreadFactory readers) throws IOException {
+        String username = settings.userPrefix + id;
+        try {
+            client = new HeadlessClient(host, port, 10_000, settings.offer);
+            if (settings.password.isEmpty()) {
+                client.setUsername(username);
+            } else {
+                try {
+                    client.login(username, settings.password);
+                } catch (IOException e) {
+                    client.signup(username, settings.password);
+                }
+            }
+        } catch (IOException e) {
+            stats.connectFailures.increment();
+            System.err.println(clientId + " could not connect: " + e.getMessage());
+            if (client != null) client.close();
+            client = null;
+            return false;
+        }
+        client.start(readers, this);
+        send(MessageType.CLIENT_ID, clientId);
+        send(MessageType.JOIN, room);
+        return true;
+    }
+
+    private void act(long endAt, ThreadFactory readers) throws IOException, InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long now = System.nanoTime();
+        // Random first offsets, so participants do not act in lockstep
+        long nextKey = now + jitter(settings.typeRate);
+        long nextCursor = now + jitter(settings.cursorRate);
+        long nextChat = now + jitter(settings.chatPerMinute / 60.0);
+        long nextTimer = leader && settings.timerSeconds > 0 ? now + TimeUnit.SECONDS.toNanos(settings.timerSeconds) : Long.MAX_VALUE;
+        boolean timerRunning = false;
+        while (!stopping) {
+            long next = Math.min(Math.min(nextKey, nextCursor), Math.min(nextChat, nextTimer));
+            if (next >= endAt) break;
+            sleepUntil(next);
+            if (stopping) break;
+            if (redirected && !follow(readers)) break;
+            now = System.nanoTime();
+            if (now >= nextKey) {
+                type();
+                nextKey += interval(settings.typeRate);
+            }
+            if (now >= nextCursor) {
+                int position;
+                synchronized (this) {
+                    position = random.nextInt(length + 1);
+                }
+                send(MessageType.CURSOR, clientId + ":" + position);
+                nextCursor += interval(settings.cursorRate);
+            }
+            if (now >= nextChat) {
+                send(MessageType.CHAT, client.getUsername() + ":load message " + random.nextInt(1_000_000));
+                nextChat += interval(settings.chatPerMinute / 60.0);
+            }
+            if (now >= nextTimer) {
+                send(timerRunning ? MessageType.TIMER_PAUSE : MessageType.TIMER_START, "");
+                timerRunning = !timerRunning;
+                nextTimer += TimeUnit.SECONDS.toNanos(settings.timerSeconds);
+            }
+        }
+        stopping = true;
+    }
+
+    // Leave the old connection and join the room on the node the REDIRECT named
+    private boolean follow(ThreadFactory readers) throws IOException {
+        HeadlessClient old = client;
+        synchronized (this) {
+            joined = false;
+            awaitingAck = false;
+        }
+        redirected = false;
+        old.close();
+        return connect(readers);
+    }
+
+    // A keystroke: send it now unless an edit is still in flight
+    private void type() throws IOException {
+        String payload;
+        synchronized (this) {
+            pendingKeys++;
+            if (!joined || awaitingAck) return;
+            TextOperation op;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (length > settings.maxDocument) {
+                int count = Math.min(length, Math.max(pendingKeys, 16));
+                int position = random.nextInt(length - count + 1);
+                op = new TextOperation().retain(position).delete(count).retain(length - position - count);
+            } else {
+                StringBuilder text = new StringBuilder(stats.tagEdit());
+                for (int i = 1; i < pendingKeys; i++) text.append('x');
+                int position = random.nextInt(length + 1);
+                op = new TextOperation().retain(position).insert(text.toString()).retain(length - position);
+            }
+            pendingKeys = 0;
+            awaitingAck = true;
+            payload = revision + ":" + op.serialize();
+        }
+        send(MessageType.OP, payload);
+    }
+
+    private void send(MessageType type, String payload) throws IOException {
+        try {
+            client.send(type, payload);
+        } catch (IOException e) {
+            if (redirected) return; // Sent again on the new connection
+            throw e;
+        }
+        stats.messagesSent.increment();
+    }
+
+    @Override
+    public void onMessage(Message message) {
+        stats.messagesReceived.increment();
+        switch (message.type()) {
+            case DOC: {
+                // The welcome snapshot, or a resync after a rejected edit or a collapsed backlog
+                int colon = message.payload().indexOf(':');
+                synchronized (this) {
+                    if (joined) stats.snapshots.increment();
+                    revision = Integer.parseInt(message.payload(), 0, colon, 10);
+                    length = message.payload().length() - colon - 1;
+                    awaitingAck = false;
+                    joined = true;
+                }
+                break;
+            }
+            case OP: {
+                // <revision>:<author>:<operation>
+                String[] fields = message.fields(3);
+                TextOperation op = TextOperation.parse(fields[2]);
+                boolean own = fields[1].equals(clientId);
+                synchronized (this) {
+                    revision = Integer.parseInt(fields[0]);
+                    length = op.getTargetLength();
+                    if (own) awaitingAck = false;
+                }
+                if (!own) stats.editsReceived.increment();
+                for (Object component : op.components()) {
+                    if (TextOperation.isInsert(component)) stats.received((String) component, own);
+                }
+                break;
+            }
+            case ERROR:
+                stats.errors.increment();
+                break;
+            case REDIRECT: {
+                // <room>:<host>:<port>; the participant's own thread reconnects
+                int hostStart = message.payload().indexOf(':');
+                int portStart = message.payload().lastIndexOf(':');
+                host = message.payload().substring(hostStart + 1, portStart);
+                port = Integer.parseInt(message.payload().substring(portStart + 1));
+                stats.redirects.increment();
+                redirected = true;
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void onClosed(IOException cause) {
+        // A null cause is a connection closed from this side, e.g. to follow a redirect
+        if (!stopping && cause != null) {
+            stats.disconnects.increment();
+            System.err.println(clientId + " disconnected: " + cause.getMessage());
+            stopping = true;
+        }
+    }
+
+    // Time between actions at a rate per second, 0 for never
+    private static long interval(double perSecond) {
+        return perSecond > 0 ? (long) (1e9 / perSecond) : Long.MAX_VALUE / 2;
+    }
+
+    private static long jitter(double perSecond) {
+        long interval = interval(perSecond);
+        return interval >= Long.MAX_VALUE / 2 ? interval : ThreadLocalRandom.current().nextLong(interval + 1);
+    }
+
+    private static void sleepUntil(long deadline) throws InterruptedException {
+        long remaining = deadline - System.nanoTime();
+        if (remaining > 0) TimeUnit.NANOSECONDS.sleep(remaining);
+    }
+}
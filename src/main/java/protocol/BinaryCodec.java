@@ -0,0 +1,107 @@
+package protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Length-prefixed binary frames: a 4 byte big-endian length, a 1 byte opcode, then the
+ * payload as raw UTF-8. The length counts the opcode and payload. No escaping or Base64 needed.
+ *
+ * Version bin2 adds the message's sequence number after the opcode, as an unsigned LEB128
+ * varint (one byte for unsequenced messages), so clients can resume after a reconnect.
+ */
+public final class BinaryCodec implements FrameCodec {
+    public static final BinaryCodec INSTANCE = new BinaryCodec("bin1", false);
+    public static final BinaryCodec SEQUENCED = new BinaryCodec("bin2", true);
+    public static final String VERSION = "bin1";
+    public static final String SEQUENCED_VERSION = "bin2";
+    public static final int HEADER_LENGTH = 5;
+    static final int MAX_VARINT_LENGTH = 10;
+
+    private final String version;
+    private final boolean sequenced;
+
+    private BinaryCodec(String version, boolean sequenced) {
+        this.version = version;
+        this.sequenced = sequenced;
+    }
+
+    @Override
+    public String version() {
+        return version;
+    }
+
+    public boolean isSequenced() {
+        return sequenced;
+    }
+
+    @Override
+    public byte[] encode(Message message) {
+        byte[] payload = message.payload().getBytes(StandardCharsets.UTF_8);
+        int seqLength = sequenced ? varintLength(message.seq()) : 0;
+        byte[] frame = new byte[HEADER_LENGTH + seqLength + payload.length];
+        int length = seqLength + payload.length + 1;
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        frame[4] = message.type().opcode();
+        if (sequenced) writeVarint(message.seq(), frame, HEADER_LENGTH);
+        System.arraycopy(payload, 0, frame, HEADER_LENGTH + seqLength, payload.length);
+        return frame;
+    }
+
+    @Override
+    public Message decode(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        if (buffer.limit() - start < 4) return null;
+        int length = buffer.getInt(start);
+        checkLength(length);
+        if (buffer.limit() - start - 4 < length) return null;
+        int offset = start + HEADER_LENGTH;
+        int end = start + 4 + length;
+        long seq = 0;
+        if (sequenced) {
+            int shift = 0;
+            int b;
+            do {
+                if (offset == end || shift >= 7 * MAX_VARINT_LENGTH) throw new IOException("Invalid sequence number");
+                b = buffer.get(offset++);
+                seq |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+        }
+        Message message = toMessage(buffer.get(start + 4), TextCodec.decodeUtf8(buffer, offset, end - offset)).withSeq(seq);
+        buffer.position(end);
+        return message;
+    }
+
+    static int varintLength(long value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) length++;
+        return length;
+    }
+
+    private static void writeVarint(long value, byte[] frame, int offset) {
+        while ((value & ~0x7fL) != 0) {
+            frame[offset++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        frame[offset] = (byte) value;
+    }
+
+    static void checkLength(int length) throws IOException {
+        if (length < 1 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length " + length);
+        }
+    }
+
+    static Message toMessage(byte opcode, String payload) throws IOException {
+        MessageType type = MessageType.fromOpcode(opcode);
+        if (type == null) {
+            throw new IOException("Unknown opcode " + opcode);
+        }
+        return new Message(type, payload);
+    }
+}
@@ -0,0 +1,23 @@
+package protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Turns messages into bytes on the wire and back. Implementations are stateless and shared.
+ */
+public interface FrameCodec {
+    // Largest frame either side will accept
+    int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    // Name used in the HELLO handshake
+    String version();
+
+    byte[] encode(Message message);
+
+    /**
+     * Decode one message from the buffer, advancing its position past it.
+     * Returns null, leaving the position untouched, if the buffer does not hold a whole frame yet.
+     */
+    Message decode(ByteBuffer buffer) throws IOException;
+}
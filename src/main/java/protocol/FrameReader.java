@@ -0,0 +1,87 @@
+package protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Blocking reader for either framing, reusing one scratch buffer for every frame.
+ * The codec can be switched between frames once the handshake settles on a version.
+ */
+public class FrameReader {
+    private final InputStream in;
+    private byte[] scratch = new byte[8 * 1024];
+    private volatile FrameCodec codec = TextCodec.INSTANCE;
+
+    public FrameReader(InputStream in) {
+        this.in = in;
+    }
+
+    public void setCodec(FrameCodec codec) {
+        this.codec = codec;
+    }
+
+    public FrameCodec getCodec() {
+        return codec;
+    }
+
+    // Next message, or null at end of stream
+    public Message read() throws IOException {
+        return codec instanceof BinaryCodec ? readFrame(((BinaryCodec) codec).isSequenced()) : readLine();
+    }
+
+    private Message readLine() throws IOException {
+        int length = 0;
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                if (length == 0) return null;
+                break;
+            }
+            if (length == scratch.length) grow(length + 1);
+            scratch[length++] = (byte) b;
+        }
+        if (length > 0 && scratch[length - 1] == '\r') length--;
+        return TextCodec.fromLine(new String(scratch, 0, length, StandardCharsets.UTF_8));
+    }
+
+    private Message readFrame(boolean sequenced) throws IOException {
+        int b0 = in.read();
+        if (b0 < 0) return null;
+        int length = (b0 << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        BinaryCodec.checkLength(length);
+        byte opcode = (byte) readByte();
+        long seq = 0;
+        int payloadLength = length - 1;
+        if (sequenced) {
+            int shift = 0;
+            int b;
+            do {
+                if (payloadLength == 0 || shift >= 7 * BinaryCodec.MAX_VARINT_LENGTH) throw new IOException("Invalid sequence number");
+                b = readByte();
+                payloadLength--;
+                seq |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+        }
+        if (payloadLength > scratch.length) grow(payloadLength);
+        if (in.readNBytes(scratch, 0, payloadLength) < payloadLength) {
+            throw new EOFException("Connection closed mid-frame");
+        }
+        return BinaryCodec.toMessage(opcode, new String(scratch, 0, payloadLength, StandardCharsets.UTF_8)).withSeq(seq);
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) throw new EOFException("Connection closed mid-frame");
+        return b;
+    }
+
+    private void grow(int needed) throws IOException {
+        if (needed > FrameCodec.MAX_FRAME_LENGTH) {
+            throw new IOException("Frame longer than " + FrameCodec.MAX_FRAME_LENGTH + " bytes");
+        }
+        scratch = java.util.Arrays.copyOf(scratch, Math.max(needed, scratch.length * 2));
+    }
+}
@@ -0,0 +1,37 @@
+package protocol;
+
+/**
+ * Protocol negotiation. A client that supports binary framing sends HELLO:<versions> as its
+ * first line, e.g. HELLO:bin2,bin1,text. The server answers HELLO:<chosen version> as a text line and
+ * both sides switch codecs right after it. Clients that skip HELLO stay on the text protocol.
+ */
+public final class Handshake {
+    private Handshake() {}
+
+    public static Message offer(FrameCodec... codecs) {
+        StringBuilder versions = new StringBuilder();
+        for (FrameCodec codec : codecs) {
+            if (versions.length() > 0) versions.append(',');
+            versions.append(codec.version());
+        }
+        return Message.of(MessageType.HELLO, versions.toString());
+    }
+
+    // Pick the first offered version this side understands
+    public static FrameCodec choose(String offered) {
+        for (String version : offered.split(",")) {
+            FrameCodec codec = forVersion(version.trim());
+            if (codec != null) return codec;
+        }
+        return TextCodec.INSTANCE;
+    }
+
+    public static FrameCodec forVersion(String version) {
+        switch (version) {
+            case BinaryCodec.SEQUENCED_VERSION: return BinaryCodec.SEQUENCED;
+            case BinaryCodec.VERSION: return BinaryCodec.INSTANCE;
+            case TextCodec.VERSION: return TextCodec.INSTANCE;
+            default: return null;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One protocol message: a type and its payload as plain text. Fields inside the payload are
+ * separated by ':' and the last field may contain any character, including newlines.
+ *
+ * Messages are immutable. The encoded frame is cached per codec the first time it is needed,
+ * so a broadcast is encoded once no matter how many recipients share the same framing.
+ *
+ * Messages a room broadcasts carry the room's sequence number for them; others have seq 0.
+ * Only the sequenced binary framing puts it on the wire.
+ */
+public final class Message {
+    private final MessageType type;
+    private final String payload;
+    private final long seq;
+    // Encoded frames, filled in lazily; racing writers compute identical bytes
+    private volatile byte[] binaryFrame;
+    private volatile byte[] sequencedFrame;
+    private volatile byte[] textFrame;
+
+    public Message(MessageType type, String payload) {
+        this(type, payload, 0);
+    }
+
+    private Message(MessageType type, String payload, long seq) {
+        this.type = type;
+        this.payload = payload;
+        this.seq = seq;
+    }
+
+    public static Message of(MessageType type) {
+        return new Message(type, "");
+    }
+
+    public static Message of(MessageType type, String payload) {
+        return new Message(type, payload);
+    }
+
+    public MessageType type() {
+        return type;
+    }
+
+    public String payload() {
+        return payload;
+    }
+
+    public long seq() {
+        return seq;
+    }
+
+    // The same message with a sequence number
+    public Message withSeq(long seq) {
+        return seq == this.seq ? this : new Message(type, payload, seq);
+    }
+
+    // Payload split into at most limit fields, like String.split(":", limit)
+    public String[] fields(int limit) {
+        return payload.split(":", limit);
+    }
+
+    /**
+     * The encoded frame as a read-only view over the cached bytes. Each caller gets its own
+     * position and limit, but the bytes themselves are shared, never copied.
+     */
+    public ByteBuffer frame(FrameCodec codec) {
+        return ByteBuffer.wrap(encodedWith(codec)).asReadOnlyBuffer();
+    }
+
+    // Cached encoding; callers must not modify the returned array
+    byte[] encodedWith(FrameCodec codec) {
+        if (codec == BinaryCodec.INSTANCE) {
+            byte[] frame = binaryFrame;
+            if (frame == null) binaryFrame = frame = codec.encode(this);
+            return frame;
+        }
+        if (codec == BinaryCodec.SEQUENCED) {
+            byte[] frame = sequencedFrame;
+            if (frame == null) sequencedFrame = frame = codec.encode(this);
+            return frame;
+        }
+        if (codec == TextCodec.INSTANCE) {
+            byte[] frame = textFrame;
+            if (frame == null) textFrame = frame = codec.encode(this);
+            return frame;
+        }
+        return codec.encode(this);
+    }
+
+    @Override
+    public String toString() {
+        return type + ":" + payload;
+    }
+}
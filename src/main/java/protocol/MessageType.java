@@ -0,0 +1,127 @@
+package protocol;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Every message in the protocol. The text protocol writes the prefix, the binary protocol the opcode.
+ */
+public enum MessageType {
+    HELLO("HELLO", 0),
+    CLIENT_ID("CLIENT_ID", 1),
+    USERNAME("USERNAME", 2),
+    JOIN("JOIN", 3),
+    JOINED("JOINED", 4),
+    DOC("DOC", 5),
+    OP("OP", 6),
+    EDITOR("EDITOR", 7),
+    CURSOR("CURSOR", 8),
+    FOCUS("FOCUS", 9),
+    // The client sends the text; the server broadcasts "<username>:<text>"
+    CHAT("CHAT", 10),
+    DISCONNECT("DISCONNECT", 11),
+    TIMER_START("TIMER_START", 12),
+    TIMER_PAUSE("TIMER_PAUSE", 13),
+    TIMER_RESET("TIMER_RESET", 14),
+    // Sent only when the timer changes: <elapsedMs>:<running|paused|expired>:<serverTimeMs>:<durationMs>:<event>.
+    // Recordings carry the older <elapsedSeconds>:<status>
+    TIMER_UPDATE("TIMER_UPDATE", 15),
+    ERROR("ERROR", 16),
+    // Batched cursor and focus changes for a room, one "<pos>,<focused>,<user>" entry per line
+    PRESENCE("PRESENCE", 17),
+    // Replay of a recorded session: the client sends REPLAY with a room code and gets REPLAY with
+    // the duration in ms; REPLAY_SEEK, REPLAY_SPEED, REPLAY_PAUSE and REPLAY_RESUME control playback.
+    // The server echoes REPLAY_SEEK when the state was reset, REPLAY_PAUSE when playback stops,
+    // and reports progress with REPLAY_POS
+    REPLAY("REPLAY", 18),
+    REPLAY_SEEK("REPLAY_SEEK", 19),
+    REPLAY_SPEED("REPLAY_SPEED", 20),
+    REPLAY_PAUSE("REPLAY_PAUSE", 21),
+    REPLAY_RESUME("REPLAY_RESUME", 22),
+    REPLAY_POS("REPLAY_POS", 23),
+    // Run the room's code; the payload is the program's standard input
+    RUN("RUN", 24),
+    // <user>:queued:<position>, <user>:running, or <user>:busy:<position> when the run was turned away
+    RUN_STATUS("RUN_STATUS", 25),
+    // <user>:<status and timings>, after the output was streamed as RUN_OUTPUT
+    RUN_RESULT("RUN_RESULT", 26),
+    // Judge the room's code against a problem's tests, payload: <problemId>[:stop] to stop at the first failure
+    JUDGE("JUDGE", 27),
+    // <user>:<verdict line, then one line per test case>
+    JUDGE_RESULT("JUDGE_RESULT", 28),
+    // <user>:<out|err>:<text>, part of a run's output as it is produced
+    RUN_OUTPUT("RUN_OUTPUT", 29),
+    // Authentication, checked by the server before anything else: LOGIN and SIGNUP carry
+    // <username>:<password>, AUTH_TOKEN a session token from an earlier AUTH_OK.
+    // The server answers AUTH_OK with <username>:<token> or AUTH_FAIL with the reason
+    LOGIN("LOGIN", 30),
+    SIGNUP("SIGNUP", 31),
+    AUTH_TOKEN("AUTH_TOKEN", 32),
+    AUTH_OK("AUTH_OK", 33),
+    AUTH_FAIL("AUTH_FAIL", 34),
+    // Rejoin after a dropped connection: <token>:<room>:<epoch>:<lastSeq>, the last two from the
+    // JOINED or RESUMED that opened the room and the highest sequence number seen since. The server
+    // answers with the missed frames then RESUMED <room>:<epoch>:<seq>, or JOINED and a snapshot
+    // when it no longer holds them
+    RESUME("RESUME", 35),
+    RESUMED("RESUMED", 36),
+    // Seconds to count down from, 0 to count up; an expired countdown locks the editor until reset
+    TIMER_DURATION("TIMER_DURATION", 37),
+    // Clock offset estimate: the client sends its clock reading and the server echoes it as
+    // <clientTimeMs>:<serverTimeMs>
+    TIME_SYNC("TIME_SYNC", 38),
+    // Chat history: the client sends the number of the oldest line it has and gets the lines
+    // before it as <first>:<older>, then one line per message. The server also sends the latest
+    // lines this way after JOINED; chat after that is numbered on from there
+    CHAT_PAGE("CHAT_PAGE", 39),
+    // In cluster mode, the room is served by another node: <room>:<host>:<port>. The client
+    // connects there and resumes the room the same way it would after a dropped connection
+    REDIRECT("REDIRECT", 40),
+    // Between cluster nodes only, over the cluster bus. CLUSTER_HELLO is the heartbeat: one
+    // "<id>,<host>,<port>,<busPort>" line for the sender, then one for every node it sees alive.
+    // CLUSTER_LEAVE <id> announces a shutdown
+    CLUSTER_HELLO("CLUSTER_HELLO", 41),
+    CLUSTER_LEAVE("CLUSTER_LEAVE", 42),
+    // A room moving to its new owner: <from>:<room>:<state>, answered with
+    // ROOM_HANDOFF_ACK <room>:<1 if the state was adopted, 0 if the owner kept its own>
+    ROOM_HANDOFF("ROOM_HANDOFF", 43),
+    ROOM_HANDOFF_ACK("ROOM_HANDOFF_ACK", 44),
+    // Heartbeat, sent by either side when it has heard nothing for a while; the other side answers
+    // PONG with the same payload. Any message shows the connection is alive, PONG included
+    PING("PING", 45),
+    PONG("PONG", 46),
+    // In cluster mode, sent before a REDIRECT: the client address of every node, <host>:<port>
+    // separated by commas. A client only follows a REDIRECT to one of them
+    CLUSTER_NODES("CLUSTER_NODES", 47),
+    // Anything else; the payload is the whole original line
+    RAW("", 127);
+
+    private static final Map<String, MessageType> BY_PREFIX = new HashMap<>();
+    private static final MessageType[] BY_OPCODE = new MessageType[128];
+
+    static {
+        for (MessageType type : values()) {
+            if (type != RAW) BY_PREFIX.put(type.prefix, type);
+            BY_OPCODE[type.opcode] = type;
+        }
+    }
+
+    private final String prefix;
+    private final byte opcode;
+
+    MessageType(String prefix, int opcode) {
+        this.prefix = prefix;
+        this.opcode = (byte) opcode;
+    }
+
+    public String prefix() { return prefix; }
+    public byte opcode() { return opcode; }
+
+    public static MessageType fromPrefix(String prefix) {
+        return BY_PREFIX.get(prefix);
+    }
+
+    public static MessageType fromOpcode(byte opcode) {
+        return opcode >= 0 ? BY_OPCODE[opcode] : null;
+    }
+}
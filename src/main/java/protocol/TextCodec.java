@@ -0,0 +1,117 @@
+package protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The original line protocol: PREFIX:payload followed by a newline.
+ * Newlines, carriage returns and backslashes in the payload are escaped with a backslash.
+ */
+public final class TextCodec implements FrameCodec {
+    public static final TextCodec INSTANCE = new TextCodec();
+    public static final String VERSION = "text";
+
+    private TextCodec() {}
+
+    @Override
+    public String version() {
+        return VERSION;
+    }
+
+    @Override
+    public byte[] encode(Message message) {
+        return (toLine(message) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    // The message as one line, without the trailing newline
+    public static String toLine(Message message) {
+        String payload = escape(message.payload());
+        if (message.type() == MessageType.RAW) {
+            return payload;
+        }
+        if (payload.isEmpty()) {
+            return message.type().prefix();
+        }
+        return message.type().prefix() + ":" + payload;
+    }
+
+    public static Message fromLine(String line) {
+        int colon = line.indexOf(':');
+        String prefix = colon < 0 ? line : line.substring(0, colon);
+        MessageType type = MessageType.fromPrefix(prefix);
+        if (type == null) {
+            return new Message(MessageType.RAW, unescape(line));
+        }
+        return new Message(type, colon < 0 ? "" : unescape(line.substring(colon + 1)));
+    }
+
+    @Override
+    public Message decode(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        for (int i = start; i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                int end = i > start && buffer.get(i - 1) == '\r' ? i - 1 : i;
+                String line = decodeUtf8(buffer, start, end - start);
+                buffer.position(i + 1);
+                return fromLine(line);
+            }
+        }
+        if (buffer.limit() - start > MAX_FRAME_LENGTH) {
+            throw new IOException("Line longer than " + MAX_FRAME_LENGTH + " bytes");
+        }
+        return null;
+    }
+
+    static String decodeUtf8(ByteBuffer buffer, int offset, int length) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Only allocates when the text actually contains something to escape
+    static String escape(String text) {
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\\') break;
+            i++;
+        }
+        if (i == text.length()) return text;
+        StringBuilder sb = new StringBuilder(text.length() + 16).append(text, 0, i);
+        for (; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\\' -> sb.append("\\\\");
+                default -> sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    static String unescape(String text) {
+        int i = text.indexOf('\\');
+        if (i < 0) return text;
+        StringBuilder sb = new StringBuilder(text.length()).append(text, 0, i);
+        for (; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(i + 1);
+                switch (next) {
+                    case 'n' -> { sb.append('\n'); i++; }
+                    case 'r' -> { sb.append('\r'); i++; }
+                    case '\\' -> { sb.append('\\'); i++; }
+                    default -> sb.append(c); // Not an escape we produce, keep it as typed
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
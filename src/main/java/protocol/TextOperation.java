@@ -0,0 +1,342 @@
+package protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An operation over a whole document, built from retain, insert and delete components.
+ * Retains are stored as positive Integers, deletes as negative Integers and inserts as Strings.
+ * Positions and lengths are counted in Java chars so they line up with Swing documents.
+ */
+public final class TextOperation {
+    private final List<Object> ops = new ArrayList<>();
+    private int baseLength = 0;   // Length the document must have before applying
+    private int targetLength = 0; // Length of the document after applying
+
+    public TextOperation retain(int n) {
+        if (n < 0) throw new IllegalArgumentException("retain expects a non-negative count");
+        if (n == 0) return this;
+        baseLength += n;
+        targetLength += n;
+        if (!ops.isEmpty() && isRetain(last())) {
+            ops.set(ops.size() - 1, (Integer) last() + n);
+        } else {
+            ops.add(n);
+        }
+        return this;
+    }
+
+    public TextOperation insert(String str) {
+        if (str.isEmpty()) return this;
+        targetLength += str.length();
+        int size = ops.size();
+        if (size > 0 && isInsert(last())) {
+            ops.set(size - 1, last() + str);
+        } else if (size > 0 && isDelete(last())) {
+            // Keep inserts before deletes so equal operations have equal component lists
+            if (size > 1 && isInsert(ops.get(size - 2))) {
+                ops.set(size - 2, ops.get(size - 2) + str);
+            } else {
+                ops.add(size - 1, str);
+            }
+        } else {
+            ops.add(str);
+        }
+        return this;
+    }
+
+    public TextOperation delete(int n) {
+        if (n < 0) throw new IllegalArgumentException("delete expects a non-negative count");
+        if (n == 0) return this;
+        baseLength += n;
+        if (!ops.isEmpty() && isDelete(last())) {
+            ops.set(ops.size() - 1, (Integer) last() - n);
+        } else {
+            ops.add(-n);
+        }
+        return this;
+    }
+
+    public boolean isNoop() {
+        return ops.isEmpty() || (ops.size() == 1 && isRetain(ops.get(0)));
+    }
+
+    public int getBaseLength() { return baseLength; }
+    public int getTargetLength() { return targetLength; }
+
+    // Components in order; callers check the type with the static helpers below
+    public List<Object> components() { return java.util.Collections.unmodifiableList(ops); }
+
+    public static boolean isRetain(Object op) { return op instanceof Integer && (Integer) op > 0; }
+    public static boolean isDelete(Object op) { return op instanceof Integer && (Integer) op < 0; }
+    public static boolean isInsert(Object op) { return op instanceof String; }
+
+    private Object last() {
+        return ops.get(ops.size() - 1);
+    }
+
+    // Apply this operation to the given text and return the result
+    public String apply(String doc) {
+        StringBuilder sb = new StringBuilder(doc);
+        applyTo(sb);
+        return sb.toString();
+    }
+
+    // Apply this operation in place
+    public void applyTo(StringBuilder doc) {
+        if (doc.length() != baseLength) {
+            throw new IllegalArgumentException("Operation base length " + baseLength
+                    + " does not match document length " + doc.length());
+        }
+        int index = 0;
+        for (Object op : ops) {
+            if (isRetain(op)) {
+                index += (Integer) op;
+            } else if (isInsert(op)) {
+                String s = (String) op;
+                doc.insert(index, s);
+                index += s.length();
+            } else {
+                doc.delete(index, index - (Integer) op);
+            }
+        }
+    }
+
+    // Combine this operation with one that directly follows it into a single operation
+    public TextOperation compose(TextOperation other) {
+        if (targetLength != other.baseLength) {
+            throw new IllegalArgumentException("Cannot compose operations: lengths do not line up");
+        }
+        TextOperation result = new TextOperation();
+        List<Object> ops1 = ops, ops2 = other.ops;
+        int i1 = 0, i2 = 0;
+        Object op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+        Object op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+        while (op1 != null || op2 != null) {
+            if (isDelete(op1)) {
+                result.delete(-(Integer) op1);
+                op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                continue;
+            }
+            if (isInsert(op2)) {
+                result.insert((String) op2);
+                op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                continue;
+            }
+            if (op1 == null || op2 == null) {
+                throw new IllegalArgumentException("Cannot compose operations: one is too short");
+            }
+            if (isRetain(op1) && isRetain(op2)) {
+                int a = (Integer) op1, b = (Integer) op2;
+                if (a > b) {
+                    result.retain(b);
+                    op1 = a - b;
+                    op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                } else if (a == b) {
+                    result.retain(a);
+                    op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                    op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                } else {
+                    result.retain(a);
+                    op2 = b - a;
+                    op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                }
+            } else if (isInsert(op1) && isDelete(op2)) {
+                String s = (String) op1;
+                int d = -(Integer) op2;
+                if (s.length() > d) {
+                    op1 = s.substring(d);
+                    op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                } else if (s.length() == d) {
+                    op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                    op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                } else {
+                    op2 = -(d - s.length());
+                    op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                }
+            } else if (isInsert(op1) && isRetain(op2)) {
+                String s = (String) op1;
+                int r = (Integer) op2;
+                if (s.length() > r) {
+                    result.insert(s.substring(0, r));
+                    op1 = s.substring(r);
+                    op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                } else if (s.length() == r) {
+                    result.insert(s);
+                    op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                    op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                } else {
+                    result.insert(s);
+                    op2 = r - s.length();
+                    op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                }
+            } else {
+                // Retain in the first operation, delete in the second
+                int r = (Integer) op1, d = -(Integer) op2;
+                if (r > d) {
+                    result.delete(d);
+                    op1 = r - d;
+                    op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                } else if (r == d) {
+                    result.delete(d);
+                    op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                    op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                } else {
+                    result.delete(r);
+                    op2 = -(d - r);
+                    op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Transform two concurrent operations a and b into a' and b' so that applying a then b'
+     * gives the same document as applying b then a'. Inserts from a win ties at the same position.
+     */
+    public static TextOperation[] transform(TextOperation a, TextOperation b) {
+        if (a.baseLength != b.baseLength) {
+            throw new IllegalArgumentException("Cannot transform operations with different base lengths");
+        }
+        TextOperation aPrime = new TextOperation();
+        TextOperation bPrime = new TextOperation();
+        List<Object> ops1 = a.ops, ops2 = b.ops;
+        int i1 = 0, i2 = 0;
+        Object op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+        Object op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+        while (op1 != null || op2 != null) {
+            if (isInsert(op1)) {
+                aPrime.insert((String) op1);
+                bPrime.retain(((String) op1).length());
+                op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                continue;
+            }
+            if (isInsert(op2)) {
+                aPrime.retain(((String) op2).length());
+                bPrime.insert((String) op2);
+                op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                continue;
+            }
+            if (op1 == null || op2 == null) {
+                throw new IllegalArgumentException("Cannot transform operations: one is too short");
+            }
+            int x = (Integer) op1, y = (Integer) op2;
+            int min;
+            if (isRetain(op1) && isRetain(op2)) {
+                if (x > y) {
+                    min = y;
+                    op1 = x - y;
+                    op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                } else if (x == y) {
+                    min = y;
+                    op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                    op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                } else {
+                    min = x;
+                    op2 = y - x;
+                    op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                }
+                aPrime.retain(min);
+                bPrime.retain(min);
+            } else if (isDelete(op1) && isDelete(op2)) {
+                // Both deleted the same range, nothing left to do for it
+                if (-x > -y) {
+                    op1 = x - y;
+                    op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                } else if (x == y) {
+                    op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                    op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                } else {
+                    op2 = y - x;
+                    op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                }
+            } else if (isDelete(op1)) {
+                if (-x > y) {
+                    min = y;
+                    op1 = x + y;
+                    op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                } else if (-x == y) {
+                    min = y;
+                    op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                    op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                } else {
+                    min = -x;
+                    op2 = y + x;
+                    op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                }
+                aPrime.delete(min);
+            } else {
+                if (x > -y) {
+                    min = -y;
+                    op1 = x + y;
+                    op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                } else if (x == -y) {
+                    min = x;
+                    op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                    op2 = i2 < ops2.size() ? ops2.get(i2++) : null;
+                } else {
+                    min = x;
+                    op2 = y + x;
+                    op1 = i1 < ops1.size() ? ops1.get(i1++) : null;
+                }
+                bPrime.delete(min);
+            }
+        }
+        return new TextOperation[] { aPrime, bPrime };
+    }
+
+    // Operation that replaces the whole document with new text
+    public static TextOperation replaceAll(int docLength, String text) {
+        return new TextOperation().delete(docLength).insert(text);
+    }
+
+    /**
+     * Compact wire form: "r<n>" retain, "d<n>" delete, "i<len>:<text>" insert.
+     * Inserts are length prefixed so the text may contain any character.
+     */
+    public String serialize() {
+        StringBuilder sb = new StringBuilder();
+        for (Object op : ops) {
+            if (isRetain(op)) {
+                sb.append('r').append((int) (Integer) op);
+            } else if (isDelete(op)) {
+                sb.append('d').append(-(Integer) op);
+            } else {
+                String s = (String) op;
+                sb.append('i').append(s.length()).append(':').append(s);
+            }
+        }
+        return sb.toString();
+    }
+
+    public static TextOperation parse(String data) {
+        TextOperation op = new TextOperation();
+        int i = 0;
+        while (i < data.length()) {
+            char tag = data.charAt(i++);
+            int start = i;
+            while (i < data.length() && Character.isDigit(data.charAt(i))) i++;
+            if (start == i) throw new IllegalArgumentException("Malformed operation: " + data);
+            int n = Integer.parseInt(data, start, i, 10);
+            switch (tag) {
+                case 'r' -> op.retain(n);
+                case 'd' -> op.delete(n);
+                case 'i' -> {
+                    if (i >= data.length() || data.charAt(i) != ':' || i + 1 + n > data.length()) {
+                        throw new IllegalArgumentException("Malformed insert in operation: " + data);
+                    }
+                    op.insert(data.substring(i + 1, i + 1 + n));
+                    i += 1 + n;
+                }
+                default -> throw new IllegalArgumentException("Unknown operation component: " + tag);
+            }
+        }
+        return op;
+    }
+
+    @Override
+    public String toString() {
+        return serialize();
+    }
+}
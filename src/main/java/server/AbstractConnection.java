@@ -0,0 +1,74 @@
+package server;
+
+import java.nio.ByteBuffer;
+
+import protocol.FrameCodec;
+import protocol.Handshake;
+import protocol.Message;
+import protocol.MessageType;
+import protocol.TextCodec;
+
+/**
+ * State shared by the engines' connections: the outbound queue and the negotiated framing.
+ * Every connection starts on the text protocol; a HELLO as the first message can switch it.
+ */
+abstract class AbstractConnection implements Connection {
+    protected final OutboundQueue queue;
+    private volatile FrameCodec negotiatedCodec;
+    private FrameCodec writeCodec = TextCodec.INSTANCE; // Writer side only
+    private boolean firstMessageSeen;                   // Reader side only
+
+    protected AbstractConnection(OutboundQueue queue) {
+        this.queue = queue;
+    }
+
+    @Override
+    public void send(Message message) {
+        if (!queue.offer(message)) {
+            System.err.println("Disconnecting slow client " + getRemoteAddress());
+            close();
+            return;
+        }
+        messageQueued();
+    }
+
+    // Called after a message was queued so the writer can be woken
+    protected void messageQueued() {}
+
+    /**
+     * Reader side: answers a HELLO sent as the first message and returns the codec to read the
+     * following frames with. Returns null if the message is not a handshake and should be handled.
+     */
+    protected FrameCodec handshake(Message message) {
+        boolean first = !firstMessageSeen;
+        firstMessageSeen = true;
+        if (!first || message.type() != MessageType.HELLO) {
+            return null;
+        }
+        FrameCodec codec = Handshake.choose(message.payload());
+        negotiatedCodec = codec;
+        send(Message.of(MessageType.HELLO, codec.version()));
+        return codec;
+    }
+
+    // Largest number of frames handed to one gathering write
+    protected static final int WRITE_BATCH = 64;
+
+    /**
+     * Writer side: a view over the message's shared encoded frame for the current codec,
+     * switching codecs after the HELLO reply goes out.
+     */
+    protected ByteBuffer encode(Message message) {
+        ByteBuffer frame = message.frame(writeCodec);
+        Metrics.sent(message.type(), frame.remaining());
+        if (message.type() == MessageType.HELLO && negotiatedCodec != null) {
+            writeCodec = negotiatedCodec;
+        }
+        return frame;
+    }
+
+    @Override
+    public OutboundQueue getOutboundQueue() {
+        return queue;
+    }
+}
@@ -0,0 +1,223 @@
+package server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Logs users in against the user store and issues session tokens.
+ *
+ * Password hashing runs on a small pool of its own with a bounded queue, so I/O threads never
+ * hash. When a burst of logins fills the queue, further ones are turned away at once with a
+ * "busy" failure instead of piling up. A successful login or signup gets a token signed with
+ * HMAC-SHA256 that names the user and an expiry; presenting it logs in again without hashing,
+ * which is how reconnects avoid the pool.
+ */
+public class AuthService {
+    private static final Pattern VALID_USERNAME = Pattern.compile("[\\p{L}\\p{N}_.-]{1,32}");
+    private static final Pattern STRONG_PASSWORD =
+            Pattern.compile("^(?=.*[a-z])(?=.*[A-Z])(?=.*\\d)(?=.*[@$!%*?&])[A-Za-z\\d@$!%*?&]{8,}$");
+    private static final String BUSY = "Server busy, try logging in again shortly";
+    private static final String INVALID = "Invalid username or password.";
+
+    // Outcome of a login, signup or token check
+    public static final class Result {
+        private final String username;
+        private final String token;
+        private final String failure;
+
+        private Result(String username, String token, String failure) {
+            this.username = username;
+            this.token = token;
+            this.failure = failure;
+        }
+
+        static Result failed(String failure) {
+            return new Result(null, null, failure);
+        }
+
+        public boolean isOk() { return failure == null; }
+        public String getUsername() { return username; }
+        public String getToken() { return token; }
+        // Reason to show the user, null on success
+        public String getFailure() { return failure; }
+    }
+
+    private final UserStore users;
+    private final PasswordHasher hasher;
+    private final boolean required;
+    private final long tokenTtlMs;
+    private final byte[] secret;
+    private final ThreadPoolExecutor pool;
+    // Verified against for unknown users, so they take as long as wrong passwords
+    private final String dummyHash;
+
+    AuthService(UserStore users, PasswordHasher hasher, boolean required, long tokenTtlMs, byte[] secret,
+                int threads, int queueLimit) {
+        this.users = users;
+        this.hasher = hasher;
+        this.required = required;
+        this.tokenTtlMs = tokenTtlMs;
+        this.secret = secret;
+        AtomicInteger count = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueLimit),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "auth-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.dummyHash = hasher.hash("not a password");
+    }
+
+    public static AuthService fromConfig(ServerConfig config) throws IOException {
+        UserStore users = UserStore.open(Paths.get(config.getString("users-file", "users.csv")));
+        String configuredSecret = configuredSecret(config);
+        byte[] secret;
+        if (configuredSecret.isEmpty()) {
+            // Tokens from before a restart stop working, which only costs those users a password login
+            secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+        } else {
+            secret = configuredSecret.getBytes(StandardCharsets.UTF_8);
+        }
+        int threads = config.getInt("auth-threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        AuthService auth = new AuthService(users,
+                new PasswordHasher(config.getInt("auth-iterations", 120_000)),
+                config.getBoolean("auth-required", true),
+                config.getLong("auth-token-ttl-ms", 15 * 60 * 1000),
+                secret, threads, config.getInt("auth-queue", 64));
+        System.out.println("Authentication: " + users.size() + " account(s), " + threads + " hashing thread(s)"
+                + (auth.required ? "" : ", login optional"));
+        return auth;
+    }
+
+    /**
+     * The shared secret from --auth-secret-file, or else --auth-secret; "" if neither is set.
+     * The file keeps it off the command line, which every process on the machine can read.
+     */
+    static String configuredSecret(ServerConfig config) throws IOException {
+        String file = config.getString("auth-secret-file", "");
+        if (!file.isEmpty()) return Files.readString(Paths.get(file), StandardCharsets.UTF_8).strip();
+        return config.getString("auth-secret", "");
+    }
+
+    // Whether clients must log in before joining; if not, a USERNAME message is trusted as before
+    public boolean isRequired() {
+        return required;
+    }
+
+    // done is called on a hashing thread, or at once if the server is too busy
+    public void login(String username, String password, Consumer<Result> done) {
+        offload(done, () -> {
+            User user = users.find(username);
+            if (user == null) {
+                hasher.verify(password, dummyHash);
+                return Result.failed(INVALID);
+            }
+            // Plain passwords from older files are compared at once; hash anyway to take as long
+            if (!PasswordHasher.isHash(user.getPassword())) hasher.verify(password, dummyHash);
+            if (!hasher.verify(password, user.getPassword())) return Result.failed(INVALID);
+            if (hasher.needsRehash(user.getPassword())) {
+                users.update(new User(username, hasher.hash(password)));
+            }
+            return success(username);
+        });
+    }
+
+    public void signup(String username, String password, Consumer<Result> done) {
+        if (!VALID_USERNAME.matcher(username).matches()) {
+            done.accept(Result.failed("Usernames are 1-32 letters, digits, '.', '-' or '_'."));
+            return;
+        }
+        if (!STRONG_PASSWORD.matcher(password).matches()) {
+            done.accept(Result.failed("Password must be at least 8 characters, contain uppercase, lowercase, number, and special character."));
+            return;
+        }
+        offload(done, () -> {
+            if (users.find(username) != null) return Result.failed("Username already exists.");
+            if (!users.insert(new User(username, hasher.hash(password)))) return Result.failed("Username already exists.");
+            return success(username);
+        });
+    }
+
+    // Cheap enough for an I/O thread; a valid token is exchanged for a fresh one
+    public Result resume(String token) {
+        String[] parts = token.split("\\.");
+        if (parts.length != 3) return Result.failed("Invalid session token");
+        String username;
+        long expires;
+        try {
+            username = new String(Base64.getUrlDecoder().decode(parts[0]), StandardCharsets.UTF_8);
+            expires = Long.parseLong(parts[1]);
+        } catch (IllegalArgumentException e) {
+            return Result.failed("Invalid session token");
+        }
+        byte[] signature = sign(parts[0] + "." + parts[1]);
+        byte[] presented;
+        try {
+            presented = Base64.getUrlDecoder().decode(parts[2]);
+        } catch (IllegalArgumentException e) {
+            return Result.failed("Invalid session token");
+        }
+        if (!MessageDigest.isEqual(signature, presented)) return Result.failed("Invalid session token");
+        if (expires < System.currentTimeMillis()) return Result.failed("Session expired, please log in again");
+        return success(username);
+    }
+
+    public int getQueued() {
+        return pool.getQueue().size();
+    }
+
+    private interface Task {
+        Result run() throws IOException;
+    }
+
+    private void offload(Consumer<Result> done, Task task) {
+        try {
+            pool.execute(() -> {
+                Result result;
+                try {
+                    result = task.run();
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Authentication failed: " + e.getMessage());
+                    result = Result.failed("Cannot log in right now: " + e.getMessage());
+                }
+                done.accept(result);
+            });
+        } catch (RejectedExecutionException e) {
+            done.accept(Result.failed(BUSY));
+        }
+    }
+
+    private Result success(String username) {
+        Base64.Encoder base64 = Base64.getUrlEncoder().withoutPadding();
+        String body = base64.encodeToString(username.getBytes(StandardCharsets.UTF_8)) + "."
+                + (System.currentTimeMillis() + tokenTtlMs);
+        return new Result(username, body + "." + base64.encodeToString(sign(body)), null);
+    }
+
+    private byte[] sign(String body) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            return mac.doFinal(body.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
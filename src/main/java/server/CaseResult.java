@@ -0,0 +1,46 @@
+package server;
+
+/**
+ * Outcome of running a program on one test case. Memory is the peak heap in use while the
+ * case ran, or 0 where it was not measured.
+ */
+public class CaseResult {
+    public enum Verdict {
+        ACCEPTED, WRONG_ANSWER, TIME_LIMIT, CPU_LIMIT, MEMORY_LIMIT, OUTPUT_LIMIT, RUNTIME_ERROR, COMPILE_ERROR,
+        SKIPPED, REJECTED
+    }
+
+    private final Verdict verdict;
+    private final String detail;
+    private final long runMillis;
+    private final long memoryBytes;
+
+    public CaseResult(Verdict verdict, String detail, long runMillis, long memoryBytes) {
+        this.verdict = verdict;
+        this.detail = detail;
+        this.runMillis = runMillis;
+        this.memoryBytes = memoryBytes;
+    }
+
+    public Verdict getVerdict() { return verdict; }
+    public String getDetail() { return detail; }
+    public long getRunMillis() { return runMillis; }
+    public long getMemoryBytes() { return memoryBytes; }
+
+    // Rough size in memory, for the result cache
+    long sizeInBytes() {
+        return detail.length() * 2L + 64;
+    }
+
+    // Verdict, time and memory on one line, with the detail after it if there is one
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder().append(verdict);
+        if (verdict != Verdict.SKIPPED && verdict != Verdict.REJECTED && verdict != Verdict.COMPILE_ERROR) {
+            text.append(", ").append(runMillis).append(" ms, ")
+                    .append(String.format("%.1f MB", memoryBytes / (1024.0 * 1024.0)));
+        }
+        if (!detail.isEmpty()) text.append(" - ").append(detail);
+        return text.toString();
+    }
+}
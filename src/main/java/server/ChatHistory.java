@@ -0,0 +1,169 @@
+package server;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A room's chat, numbered from 1 in the order it was posted. The latest lines are kept in a ring;
+ * older ones are either dropped or, with spilling on, appended to a temporary file so they can
+ * still be paged back through. The file lasts as long as the room instance and is deleted with it.
+ *
+ * Its monitor is only ever taken last, so it can be used under any of the room's locks.
+ */
+class ChatHistory {
+    private final String[] ring;
+    private boolean spilling;    // Off if the spill file fails
+    private long newest;         // Number of the latest line, 0 before the first
+    private int size;            // Lines in the ring, ending with newest
+    // Spilled lines spillStart..spilled, with the offset of each in the file
+    private RandomAccessFile spillFile;
+    private Path spillPath;
+    private long[] offsets = new long[0];
+    private long spillLength;
+    private long spilled;
+    private long spillStart = 1; // Number of the first line in the file; earlier ones were dropped
+
+    ChatHistory(int capacity, boolean spill) {
+        this.ring = new String[Math.max(1, capacity)];
+        this.spilling = spill;
+    }
+
+    synchronized long add(String line) {
+        if (size == ring.length) {
+            long oldest = newest - size + 1;
+            spill(oldest, ring[index(oldest)]);
+            size--;
+        }
+        newest++;
+        ring[index(newest)] = line;
+        size++;
+        return newest;
+    }
+
+    synchronized long getNewest() {
+        return newest;
+    }
+
+    // The latest count lines in the ring, oldest first
+    synchronized List<String> recent(int count) {
+        int n = Math.min(count, size);
+        List<String> lines = new ArrayList<>(n);
+        for (long number = newest - n + 1; number <= newest; number++) {
+            lines.add(ring[index(number)]);
+        }
+        return lines;
+    }
+
+    /**
+     * Up to count lines ending just before line number before, oldest first, read from the spill
+     * file once they are older than the ring. Lines that were dropped are not returned.
+     */
+    synchronized Page page(long before, int count) {
+        long end = Math.min(before, newest + 1); // Exclusive
+        long oldestHeld = spillFile != null && spilled >= spillStart ? spillStart : newest - size + 1;
+        long start = Math.max(oldestHeld, end - count);
+        List<String> lines = new ArrayList<>();
+        for (long number = start; number < end; number++) {
+            String line = number > newest - size ? ring[index(number)] : readSpilled(number);
+            if (line == null) {
+                // The spill file failed; return what follows
+                lines.clear();
+                start = number + 1;
+                continue;
+            }
+            lines.add(line);
+        }
+        return new Page(start, start > oldestHeld, lines);
+    }
+
+    // Forget every line, numbering from 1 again
+    synchronized void clear() {
+        Arrays.fill(ring, null);
+        newest = 0;
+        size = 0;
+        closeSpill();
+        spilled = 0;
+        spillStart = 1;
+    }
+
+    // Delete the spill file
+    synchronized void close() {
+        closeSpill();
+    }
+
+    static final class Page {
+        final long first;    // Number of the first line, or where it would be if there are none
+        final boolean older; // Earlier lines are still held
+        final List<String> lines;
+
+        Page(long first, boolean older, List<String> lines) {
+            this.first = first;
+            this.older = older;
+            this.lines = lines;
+        }
+    }
+
+    private int index(long number) {
+        return (int) ((number - 1) % ring.length);
+    }
+
+    private void spill(long number, String line) {
+        if (!spilling) return;
+        try {
+            if (spillFile == null) {
+                spillPath = Files.createTempFile("coderounds-chat-", ".spill");
+                spillPath.toFile().deleteOnExit();
+                spillFile = new RandomAccessFile(spillPath.toFile(), "rw");
+                spillStart = number;
+                spillLength = 0;
+            }
+            int slot = (int) (number - spillStart);
+            if (slot == offsets.length) {
+                offsets = Arrays.copyOf(offsets, Math.max(1024, offsets.length * 2));
+            }
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            spillFile.seek(spillLength);
+            spillFile.writeInt(bytes.length);
+            spillFile.write(bytes);
+            offsets[slot] = spillLength;
+            spillLength += 4 + bytes.length;
+            spilled = number;
+        } catch (IOException e) {
+            System.err.println("Chat history spill failed, older lines are dropped from now on: " + e.getMessage());
+            spilling = false;
+            closeSpill();
+        }
+    }
+
+    private String readSpilled(long number) {
+        if (spillFile == null || number < spillStart || number > spilled) return null;
+        try {
+            spillFile.seek(offsets[(int) (number - spillStart)]);
+            byte[] bytes = new byte[spillFile.readInt()];
+            spillFile.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("Could not read spilled chat: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void closeSpill() {
+        if (spillFile == null) return;
+        try {
+            spillFile.close();
+            Files.deleteIfExists(spillPath);
+        } catch (IOException e) {
+            System.err.println("Could not delete chat spill file: " + e.getMessage());
+        }
+        spillFile = null;
+        spillPath = null;
+        offsets = new long[0];
+    }
+}
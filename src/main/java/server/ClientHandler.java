@@ -1,100 +1,599 @@
 package server;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
+import java.io.IOException;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class ClientHandler extends Thread {
-    private final Socket socket;
-    private PrintWriter out;
-    private final List<ClientHandler> clients;
-    private String clientId;
-    private String username;
-
-    public ClientHandler(Socket socket, List<ClientHandler> clients) {
-        this.socket = socket;
-        this.clients = clients;
-    }
-
-    @Override
-    public void run() {
-        try (
-            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            PrintWriter writer = new PrintWriter(socket.getOutputStream(), true)
-        ) {
-            this.out = writer;
-
-            // Send latest editor content to new clients
-            if (Server.latestEditorContent != null) {
-                this.out.println(Server.latestEditorContent);
-            }
+import protocol.Message;
+import protocol.MessageType;
+import protocol.TextOperation;
+
+/**
+ * Protocol logic for one connected client. The I/O engine owns the socket and calls
+ * onConnect, onMessage and onDisconnect; replies go out through the Connection.
+ * A client has to log in, unless the server allows anonymous users, and then JOIN a room
+ * before it can edit, chat or use the timer.
+ *
+ * A client whose connection dropped can RESUME on a new one with the last sequence number it
+ * saw. It is sent the broadcasts it missed, or a fresh snapshot if the room no longer holds them,
+ * and the old connection, if the server has not noticed it is gone, is closed quietly.
+ *
+ * In cluster mode, joining a room another node serves gets a REDIRECT to that node instead, and
+ * so do the members of a room when it moves there.
+ *
+ * Every message received counts as a sign of life. A client that goes quiet is pinged, and one
+ * that stops answering is evicted by the IdleReaper.
+ */
+public class ClientHandler {
+    // The only messages passed on to the room as they are: free-form lines from text clients.
+    // Anything the server itself sends (DOC, JOINED, TIMER_UPDATE, RUN_OUTPUT, REDIRECT, ...) is
+    // refused, so a member cannot forge it for the others
+    private static final Set<MessageType> RELAYED = EnumSet.of(MessageType.RAW);
+
+    private final Connection connection;
+    private final RoomRegistry rooms;
+    private final AuthService auth;
+    private volatile String clientId; // Read by a resuming connection taking over this one
+    private volatile String username; // Set by a hashing thread after a login
+    private final AtomicBoolean authenticating = new AtomicBoolean();
+    private volatile Room room;
+    private ReplaySession replay;
+    // Where a RESUME left off, until the room's welcome is sent; resumeEpoch -1 means a plain join
+    private long resumeEpoch = -1;
+    private long resumeSeq;
+    // Set when a resumed connection took this client's place in the room
+    private volatile boolean superseded;
+    // System.nanoTime() of the last message from the client, and of the last PING sent to it
+    private volatile long lastReceived = System.nanoTime();
+    private volatile long pingSentAt;
+
+    public ClientHandler(Connection connection, RoomRegistry rooms, AuthService auth) {
+        this.connection = connection;
+        this.rooms = rooms;
+        this.auth = auth;
+    }
+
+    public void onConnect() {
+        // Nothing to send until the client joins a room
+        Metrics.connected(this);
+        IdleReaper.connected(this);
+    }
 
-            String message;
-            while ((message = in.readLine()) != null) {
-                // Handle client registration messages
-                if (message.startsWith("CLIENT_ID:")) {
-                    this.clientId = message.substring("CLIENT_ID:".length());
-                } else if (message.startsWith("USERNAME:")) {
-                    this.username = message.substring("USERNAME:".length());
-                    Server.clientIdToUsername.put(clientId, username);
+    public void onMessage(Message message) {
+        Metrics.received(message);
+        lastReceived = System.nanoTime();
+        if (superseded) return;
+        // Handle client registration messages
+        switch (message.type()) {
+            case CLIENT_ID:
+                this.clientId = message.payload();
+                return;
+            case USERNAME:
+                if (auth.isRequired()) {
+                    sendMessage(Message.of(MessageType.ERROR, "Log in first"));
+                } else {
+                    this.username = message.payload();
                 }
-                // Update server's latest editor content if needed
-                else if (message.startsWith("EDITOR:")) {
-                    Server.latestEditorContent = message;
-                    broadcast(message);
+                return;
+            case LOGIN:
+            case SIGNUP:
+            case AUTH_TOKEN:
+                authenticate(message);
+                return;
+            case RESUME:
+                resume(message);
+                return;
+            case TIME_SYNC:
+                sendMessage(Message.of(MessageType.TIME_SYNC, message.payload() + ":" + System.currentTimeMillis()));
+                return;
+            case PING:
+                sendMessage(Message.of(MessageType.PONG, message.payload()));
+                return;
+            case PONG:
+                // Payload: the System.nanoTime() the PING was sent at
+                try {
+                    Metrics.ponged(System.nanoTime() - Long.parseLong(message.payload()));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+                return;
+            default:
+                break;
+        }
+
+        if (auth.isRequired() && username == null) {
+            sendMessage(Message.of(MessageType.ERROR, "Log in first"));
+            return;
+        }
+        switch (message.type()) {
+            case JOIN:
+                closeReplay();
+                joinRoom(message.payload(), false);
+                return;
+            case REPLAY:
+                startReplay(message.payload());
+                return;
+            case REPLAY_SEEK:
+            case REPLAY_SPEED:
+            case REPLAY_PAUSE:
+            case REPLAY_RESUME:
+                controlReplay(message);
+                return;
+            default:
+                break;
+        }
+
+        Room room = this.room;
+        if (room == null) {
+            sendMessage(Message.of(MessageType.ERROR, "Join a room first"));
+            return;
+        }
+        room.countReceived();
+        switch (message.type()) {
+            // Apply an editor operation to the shared document
+            case OP:
+                handleOperation(room, message);
+                break;
+            // Full-text update: replace the document and send everyone the equivalent operation
+            case EDITOR: {
+                synchronized (room.getDocument()) {
+                    if (rejectIfLocked(room)) break;
+                    TextOperation op = room.replaceDocument(message.payload(), clientId);
+                    broadcastOperation(room, op);
                 }
-                // Handle cursor position updates with username
-                else if (message.startsWith("CURSOR:")) {
-                    String[] parts = message.split(":", 3);
-                    if (parts.length == 3 && clientId != null) {
-                        String username = Server.clientIdToUsername.getOrDefault(clientId, "Unknown");
-                        String updatedMessage = "CURSOR:" + username + ":" + parts[2];
-                        broadcast(updatedMessage);
+                break;
+            }
+            // Cursor and focus changes only update presence; the room flushes them on its tick
+            case CURSOR: {
+                int colon = message.payload().indexOf(':');
+                if (colon >= 0 && clientId != null) {
+                    try {
+                        room.getPresence().updateCursor(getUsername(), Integer.parseInt(message.payload().substring(colon + 1)));
+                    } catch (NumberFormatException e) {
+                        // Ignore malformed positions
                     }
                 }
-                // Handle timer control commands
-                else if (message.equals("TIMER_START")) {
-                    Server.startTimer();
-                } else if (message.equals("TIMER_PAUSE")) {
-                    Server.pauseTimer();
-                } else if (message.equals("TIMER_RESET")) {
-                    Server.resetTimer();
+                break;
+            }
+            case FOCUS: {
+                int colon = message.payload().indexOf(':');
+                if (colon >= 0 && clientId != null) {
+                    boolean focused = message.payload().substring(colon + 1).equalsIgnoreCase("gained");
+                    room.getPresence().updateFocus(getUsername(), focused);
+                }
+                break;
+            }
+            // Handle timer control commands
+            case TIMER_START:
+                room.startTimer();
+                break;
+            case TIMER_PAUSE:
+                room.pauseTimer();
+                break;
+            case TIMER_RESET:
+                room.resetTimer();
+                break;
+            case TIMER_DURATION:
+                try {
+                    room.setTimerDuration(Long.parseLong(message.payload()) * 1000);
+                } catch (NumberFormatException e) {
+                    sendMessage(Message.of(MessageType.ERROR, "Invalid timer duration"));
                 }
-                // Broadcast other messages normally
-                else {
-                    broadcast(message);
+                break;
+            case CHAT:
+                if (!room.chat(getUsername(), message.payload())) {
+                    sendMessage(Message.of(MessageType.ERROR, "Room is moving to another server, try again in a moment"));
                 }
+                break;
+            case CHAT_PAGE:
+                try {
+                    sendMessage(room.chatPage(Long.parseLong(message.payload())));
+                } catch (NumberFormatException e) {
+                    sendMessage(Message.of(MessageType.ERROR, "Invalid chat position"));
+                }
+                break;
+            case RUN:
+                runCode(room, message.payload());
+                break;
+            case JUDGE:
+                judgeCode(room, message.payload());
+                break;
+            // Sent by a client that is closing; the room hears DISCONNECT with the username
+            case DISCONNECT:
+                leaveRoom();
+                break;
+            default:
+                if (RELAYED.contains(message.type())) {
+                    room.broadcast(message, this);
+                } else {
+                    sendMessage(Message.of(MessageType.ERROR, "Unexpected " + message.type().prefix()));
+                }
+        }
+    }
+
+    public void onDisconnect() {
+        Metrics.disconnected(this);
+        IdleReaper.disconnected(this);
+        closeReplay();
+        leaveRoom();
+    }
+
+    // Passwords are checked on the auth service's hashing threads; tokens right here
+    private void authenticate(Message message) {
+        if (username != null && message.type() == MessageType.AUTH_TOKEN) {
+            // A logged-in client renewing its token before it expires
+            AuthService.Result result = auth.resume(message.payload());
+            if (result.isOk() && result.getUsername().equals(username)) {
+                sendMessage(Message.of(MessageType.AUTH_OK, username + ":" + result.getToken()));
+            } else {
+                sendMessage(Message.of(MessageType.AUTH_FAIL, result.isOk() ? "Token is for another user" : result.getFailure()));
             }
-        } catch (Exception e) {
-            System.err.println("ClientHandler error: " + e.getMessage());
-        } finally {
-            clients.remove(this);
-            // Clean up user tracking
-            if (clientId != null) {
-                String removedUser = Server.clientIdToUsername.remove(clientId);
-                if (removedUser != null) {
-                    broadcast("DISCONNECT:" + removedUser);
+            return;
+        }
+        if (username != null) {
+            sendMessage(Message.of(MessageType.AUTH_FAIL, "Already logged in as " + username));
+            return;
+        }
+        if (message.type() == MessageType.AUTH_TOKEN) {
+            completeAuthentication(auth.resume(message.payload()));
+            return;
+        }
+        String[] parts = message.fields(2);
+        if (parts.length != 2) {
+            sendMessage(Message.of(MessageType.AUTH_FAIL, "Expected <username>:<password>"));
+            return;
+        }
+        // One password check at a time per connection
+        if (!authenticating.compareAndSet(false, true)) {
+            sendMessage(Message.of(MessageType.AUTH_FAIL, "Already logging in"));
+            return;
+        }
+        if (message.type() == MessageType.LOGIN) {
+            auth.login(parts[0], parts[1], this::completeAuthentication);
+        } else {
+            auth.signup(parts[0], parts[1], this::completeAuthentication);
+        }
+    }
+
+    private void completeAuthentication(AuthService.Result result) {
+        authenticating.set(false);
+        if (!result.isOk()) {
+            sendMessage(Message.of(MessageType.AUTH_FAIL, result.getFailure()));
+            return;
+        }
+        username = result.getUsername();
+        sendMessage(Message.of(MessageType.AUTH_OK, result.getUsername() + ":" + result.getToken()));
+    }
+
+    // Payload: <token>:<room>:<epoch>:<lastSeq>; the token logs in again if this connection has not
+    private void resume(Message message) {
+        String[] parts = message.fields(4);
+        if (parts.length != 4) {
+            sendMessage(Message.of(MessageType.ERROR, "Expected <token>:<room>:<epoch>:<lastSeq>"));
+            return;
+        }
+        if (username == null && !parts[0].isEmpty()) {
+            AuthService.Result result = auth.resume(parts[0]);
+            completeAuthentication(result);
+            if (!result.isOk()) return;
+        }
+        if (auth.isRequired() && username == null) {
+            sendMessage(Message.of(MessageType.ERROR, "Log in first"));
+            return;
+        }
+        try {
+            resumeEpoch = Long.parseLong(parts[2]);
+            resumeSeq = Long.parseLong(parts[3]);
+        } catch (NumberFormatException e) {
+            resumeEpoch = -1; // Join with a snapshot instead
+        }
+        closeReplay();
+        joinRoom(parts[1], true);
+        resumeEpoch = -1;
+    }
+
+    private void joinRoom(String code, boolean resuming) {
+        if (!RoomRegistry.isValidCode(code)) {
+            sendMessage(Message.of(MessageType.ERROR, "Invalid room code"));
+            return;
+        }
+        String redirect = rooms.redirect(code);
+        if (redirect != null) {
+            leaveRoom();
+            sendRedirect(Message.of(MessageType.REDIRECT, code + ":" + redirect));
+            return;
+        }
+        leaveRoom();
+        Room joined = rooms.join(code, this);
+        if (resuming) {
+            // Joined first, so the room is not removed if the old connection was its last member
+            for (ClientHandler member : joined.getMembers()) {
+                if (member != this && clientId != null && clientId.equals(member.clientId)
+                        && getUsername().equals(member.getUsername())) {
+                    member.supersede();
                 }
             }
-            // Clear editor state when last client disconnects
-            if (clients.isEmpty()) {
-                Server.clearEditorState();
+        }
+    }
+
+    /**
+     * Called by the room, under its document lock, as this client is added. A resuming client
+     * gets the broadcasts it missed and RESUMED <room>:<epoch>:<seq>; anyone else, JOINED with
+     * the same fields, the document, the timer, the latest chat and the presence snapshot.
+     */
+    void onJoined(Room joined) {
+        this.room = joined;
+        // Lets a backed-up outbound queue swap queued operations for one snapshot
+        connection.getOutboundQueue().setSnapshotSource(() -> snapshotMessage(joined));
+        String position = joined.getCode() + ":" + joined.getEpoch() + ":" + joined.getSeq();
+        if (resumeEpoch == joined.getEpoch()) {
+            List<Message> missed = joined.missedSince(resumeSeq, clientId);
+            if (missed != null) {
+                for (Message frame : missed) {
+                    sendMessage(frame);
+                }
+                sendMessage(Message.of(MessageType.RESUMED, position));
+                return;
             }
         }
+        sendMessage(Message.of(MessageType.JOINED, position));
+        // Send the current document and its revision to the new member
+        sendMessage(snapshotMessage(joined));
+        sendMessage(joined.getTimerUpdate());
+        sendMessage(joined.chatBackfill());
+        Message presence = joined.getPresence().snapshot();
+        if (presence != null) {
+            sendMessage(presence);
+        }
     }
 
-    // Public method to send a message to this client
-    public void sendMessage(String message) {
-        out.println(message);
+    // The room moved to another node; the client follows the redirect and resumes there
+    void redirect(Room from, Message redirect) {
+        if (room == from) room = null;
+        sendRedirect(redirect);
+    }
+
+    // The client checks the target against the nodes announced first
+    private void sendRedirect(Message redirect) {
+        Cluster cluster = rooms.getCluster();
+        if (cluster != null) sendMessage(Message.of(MessageType.CLUSTER_NODES, cluster.getClientAddresses()));
+        sendMessage(redirect);
     }
 
-    private void broadcast(String message) {
-        for (ClientHandler client : clients) {
-            if (client != this) {
-                client.out.println(message);
+    // The client resumed on another connection; leave without telling the room
+    private void supersede() {
+        superseded = true;
+        connection.close();
+    }
+
+    private void leaveRoom() {
+        Room current;
+        // The reaper may evict the client while its engine thread reports the disconnect
+        synchronized (this) {
+            current = this.room;
+            this.room = null;
+        }
+        if (current == null) return;
+        rooms.leave(current, this);
+        if (superseded) return; // The client is still in the room on its new connection
+        current.getPresence().remove(getUsername());
+        if (clientId != null) {
+            current.announceDeparture(getUsername(), this);
+        }
+    }
+
+    // Watch a recorded session instead of joining the live room
+    private void startReplay(String code) {
+        if (!RoomRegistry.isValidCode(code)) {
+            sendMessage(Message.of(MessageType.ERROR, "Invalid room code"));
+            return;
+        }
+        SessionStore sessions = rooms.getSessions();
+        if (sessions == null) {
+            sendMessage(Message.of(MessageType.ERROR, "Sessions are not recorded on this server"));
+            return;
+        }
+        leaveRoom();
+        closeReplay();
+        try {
+            ReplaySession opened = sessions.openReplay(code, this);
+            if (opened == null) {
+                sendMessage(Message.of(MessageType.ERROR, "No recording for room " + code));
+                return;
+            }
+            replay = opened;
+            opened.start();
+        } catch (IOException e) {
+            System.err.println("Could not open recording of room " + code + ": " + e.getMessage());
+            sendMessage(Message.of(MessageType.ERROR, "Recording could not be read"));
+        }
+    }
+
+    private void controlReplay(Message message) {
+        ReplaySession current = replay;
+        if (current == null) {
+            sendMessage(Message.of(MessageType.ERROR, "Not replaying a session"));
+            return;
+        }
+        try {
+            switch (message.type()) {
+                case REPLAY_SEEK:
+                    current.seek(Long.parseLong(message.payload()));
+                    break;
+                case REPLAY_SPEED:
+                    current.setSpeed(Integer.parseInt(message.payload()));
+                    break;
+                case REPLAY_PAUSE:
+                    current.pause();
+                    break;
+                default:
+                    current.resume();
+            }
+        } catch (NumberFormatException e) {
+            sendMessage(Message.of(MessageType.ERROR, "Invalid replay position or speed"));
+        }
+    }
+
+    private void closeReplay() {
+        if (replay != null) {
+            replay.close();
+            replay = null;
+        }
+    }
+
+    // Payload: <baseRevision>:<operation>
+    private void handleOperation(Room room, Message message) {
+        String payload = message.payload();
+        int colon = payload.indexOf(':');
+        if (colon < 0 || clientId == null) return;
+        SharedDocument document = room.getDocument();
+        try {
+            int baseRevision = Integer.parseInt(payload, 0, colon, 10);
+            TextOperation op = TextOperation.parse(payload.substring(colon + 1));
+            // Apply and broadcast under the document lock so every member sees operations in revision order
+            synchronized (document) {
+                if (rejectIfLocked(room)) return;
+                TextOperation applied = room.applyOperation(baseRevision, op, clientId);
+                broadcastOperation(room, applied);
             }
+        } catch (RuntimeException e) {
+            // Operation could not be applied, so bring this client back in sync
+            System.err.println("Rejected operation from " + clientId + ": " + e.getMessage());
+            sendSnapshot(room);
+        }
+    }
+
+    // Once a countdown expires, or while the room moves to another node, edits are turned away;
+    // the snapshot undoes the client's local edit
+    private boolean rejectIfLocked(Room room) {
+        if (room.isMoving()) {
+            sendMessage(Message.of(MessageType.ERROR, "Room is moving to another server, try again in a moment"));
+            sendSnapshot(room);
+            return true;
+        }
+        if (!room.isEditorLocked()) return false;
+        sendMessage(Message.of(MessageType.ERROR, "Time is up, the editor is locked"));
+        sendSnapshot(room);
+        return true;
+    }
+
+    // Run the room's current code; the room sees when it is queued and starts,
+    // its output as it is produced, and how it ended
+    private void runCode(Room room, String stdin) {
+        String code;
+        synchronized (room.getDocument()) {
+            code = room.getDocument().getText();
+        }
+        String user = getUsername();
+        OutputRelay output = new OutputRelay(room, user);
+        ExecutionScheduler.Ticket<ExecutionResult> ticket = CodeExecution.submit(room.getCode(), code, "java", stdin, output);
+        if (ticket.isRejected()) {
+            sendMessage(Message.of(MessageType.RUN_STATUS, user + ":busy:" + ticket.getPosition()));
+            return;
+        }
+        if (ticket.getPosition() > 0) {
+            room.broadcast(Message.of(MessageType.RUN_STATUS, user + ":queued:" + ticket.getPosition()), null);
+        }
+        ticket.started().thenRun(() ->
+                room.broadcast(Message.of(MessageType.RUN_STATUS, user + ":running"), null));
+        ticket.result().thenAccept(result -> {
+            output.finish();
+            room.broadcast(Message.of(MessageType.RUN_RESULT, user + ":" + result.summary()), null);
+        });
+    }
+
+    // Payload: <problemId>[:stop]
+    private void judgeCode(Room room, String payload) {
+        String[] parts = payload.split(":", 2);
+        boolean stopOnFailure = parts.length == 2 && parts[1].equals("stop");
+        String code;
+        synchronized (room.getDocument()) {
+            code = room.getDocument().getText();
+        }
+        Judge.Run run;
+        try {
+            run = CodeExecution.judge(room.getCode(), parts[0], code, stopOnFailure);
+        } catch (IOException e) {
+            sendMessage(Message.of(MessageType.ERROR, e.getMessage()));
+            return;
         }
+        String user = getUsername();
+        ExecutionScheduler.Ticket<CaseResult> ticket = run.getTicket();
+        if (ticket.isRejected()) {
+            sendMessage(Message.of(MessageType.RUN_STATUS, user + ":busy:" + ticket.getPosition()));
+            return;
+        }
+        if (ticket.getPosition() > 0) {
+            room.broadcast(Message.of(MessageType.RUN_STATUS, user + ":queued:" + ticket.getPosition()), null);
+        }
+        ticket.started().thenRun(() ->
+                room.broadcast(Message.of(MessageType.RUN_STATUS, user + ":running"), null));
+        run.getReport().thenAccept(report ->
+                room.broadcast(Message.of(MessageType.JUDGE_RESULT, user + ":" + report), null));
+    }
+
+    // Sent to every member including the author, who treats it as the acknowledgement
+    private void broadcastOperation(Room room, TextOperation op) {
+        String payload = room.getDocument().getRevision() + ":" + clientId + ":" + op.serialize();
+        room.broadcast(Message.of(MessageType.OP, payload), null);
+    }
+
+    private void sendSnapshot(Room room) {
+        SharedDocument document = room.getDocument();
+        synchronized (document) {
+            sendMessage(snapshotMessage(room));
+        }
+    }
+
+    private static Message snapshotMessage(Room room) {
+        SharedDocument document = room.getDocument();
+        synchronized (document) {
+            return Message.of(MessageType.DOC, document.getRevision() + ":" + document.getText());
+        }
+    }
+
+    // Called by the reaper when the client has been quiet for a ping interval; pings at most once per interval
+    void ping(long now, long intervalNanos) {
+        if (now - pingSentAt < intervalNanos) return;
+        pingSentAt = now;
+        sendMessage(Message.of(MessageType.PING, String.valueOf(now)));
+    }
+
+    /**
+     * Called by the reaper once the client stopped answering. Tells the room right away instead of
+     * when the socket finally fails, then closes the connection, which the engine reports as the
+     * disconnect as usual.
+     */
+    void evict() {
+        leaveRoom();
+        connection.close();
+    }
+
+    long getLastReceived() {
+        return lastReceived;
+    }
+
+    // The room this client is in, or null
+    Room getRoom() {
+        return room;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public String getUsername() {
+        return username != null ? username : "Unknown";
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    // Public method to send a message to this client
+    public void sendMessage(Message message) {
+        connection.send(message);
     }
 }
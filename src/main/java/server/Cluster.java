@@ -0,0 +1,357 @@
+package server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import protocol.Message;
+import protocol.MessageType;
+
+/**
+ * Cluster mode: rooms are spread over several server nodes by consistent hashing of their codes.
+ * A client can connect to any node; joining a room another node owns gets a REDIRECT there.
+ *
+ * Nodes find each other through the seeds and a heartbeat on the cluster bus. Every tick a node
+ * sends CLUSTER_HELLO to the seeds and every node it knows, listing the nodes it sees alive, so
+ * membership spreads without a broker. A node not heard from within the timeout, or that sent
+ * CLUSTER_LEAVE, drops out of the ring. When the ring changes, each node hands the rooms it no
+ * longer owns to their new owner with ROOM_HANDOFF; once acknowledged, the room's members are
+ * redirected and the room is dropped here. Only rooms whose owner changed move.
+ */
+public class Cluster {
+    private final String nodeId;
+    private final String host;   // Advertised to clients and to the other nodes
+    private final int port;
+    private final int busPort;
+    private final List<String> seeds; // "<host>:<busPort>"
+    private final long heartbeatMs;
+    private final long timeoutNanos;
+    private final long handoffNanos;
+    private final RoomRegistry rooms;
+    private final byte[] secret; // Authenticates the bus
+    // Every other node heard of, by id
+    private final ConcurrentHashMap<String, Member> members = new ConcurrentHashMap<>();
+    // Rooms sent to their new owner and not yet acknowledged, by code
+    private final ConcurrentHashMap<String, Handoff> handoffs = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cluster");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ClusterBus bus;
+    // Replaced together, under this object's monitor, when the alive members change
+    private volatile HashRing ring;
+    private volatile List<String> ringIds = List.of();
+    private volatile String clientAddresses = ""; // "<host>:<port>" of each node in the ring, comma-separated
+    private volatile boolean leaving;
+
+    Cluster(String nodeId, String host, int port, int busPort, List<String> seeds, long heartbeatMs, long timeoutMs,
+            long handoffMs, RoomRegistry rooms, byte[] secret) {
+        this.nodeId = nodeId;
+        this.host = host;
+        this.port = port;
+        this.busPort = busPort;
+        this.seeds = seeds;
+        this.heartbeatMs = heartbeatMs;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        this.handoffNanos = TimeUnit.MILLISECONDS.toNanos(handoffMs);
+        this.rooms = rooms;
+        this.secret = secret;
+        updateRing(System.nanoTime());
+    }
+
+    // Returns null unless --cluster-node is set
+    public static Cluster fromConfig(ServerConfig config, int port, RoomRegistry rooms) throws IOException {
+        String nodeId = config.getString("cluster-node", "");
+        if (nodeId.isEmpty()) return null;
+        if (!RoomRegistry.isValidCode(nodeId)) {
+            throw new IllegalArgumentException("Invalid cluster node id (letters, digits, _ and - only)");
+        }
+        // Nodes trust each other's room state, so only nodes holding the secret may talk on the bus
+        String secret = AuthService.configuredSecret(config);
+        if (secret.isEmpty()) {
+            throw new IllegalArgumentException("Cluster mode needs --auth-secret or --auth-secret-file, the same on every node");
+        }
+        List<String> seeds = new ArrayList<>();
+        for (String seed : config.getString("cluster-seeds", "").split(",")) {
+            if (!seed.isBlank()) seeds.add(seed.trim());
+        }
+        return new Cluster(nodeId, config.getString("cluster-host", "127.0.0.1"), port,
+                config.getInt("cluster-bus-port", port + 1000), seeds,
+                config.getLong("cluster-heartbeat-ms", 500),
+                config.getLong("cluster-timeout-ms", 3000),
+                config.getLong("cluster-handoff-ms", 5000), rooms, secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Open the bus and start the heartbeat; other nodes learn of this one from the first
+    public void start() throws IOException {
+        bus = new ClusterBus(host, busPort, secret, this::onMessage);
+        ticker.scheduleWithFixedDelay(() -> {
+            try {
+                tick();
+            } catch (RuntimeException e) {
+                System.err.println("Cluster tick failed: " + e.getMessage());
+            }
+        }, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+        System.out.println("Cluster node " + nodeId + " on bus port " + busPort
+                + (seeds.isEmpty() ? "" : ", seeds " + String.join(",", seeds)));
+    }
+
+    /**
+     * Graceful shutdown: tell the other nodes this one is leaving, so they stop sending clients
+     * here, then hand every room to its new owner, waiting up to the handoff timeout.
+     */
+    public void leave() {
+        leaving = true;
+        ticker.shutdown();
+        try {
+            ticker.awaitTermination(heartbeatMs, TimeUnit.MILLISECONDS);
+            for (Member member : members.values()) {
+                if (member.isAlive(System.nanoTime(), timeoutNanos)) {
+                    bus.send(member.busAddress(), Message.of(MessageType.CLUSTER_LEAVE, nodeId));
+                }
+            }
+            updateRing(System.nanoTime());
+            long deadline = System.nanoTime() + handoffNanos;
+            while (!ringIds.isEmpty() && !rooms.getRooms().isEmpty() && System.nanoTime() - deadline < 0) {
+                moveRooms(System.nanoTime());
+                Thread.sleep(50);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int left = rooms.getRooms().size();
+        System.out.println("Cluster node " + nodeId + " left" + (left > 0 ? ", " + left + " room(s) could not be handed off" : ""));
+        bus.close();
+    }
+
+    // Id of the node that owns the room, or null if it is this one
+    String ownerOf(String code) {
+        String owner = ring.owner(code);
+        return owner == null || owner.equals(nodeId) ? null : owner;
+    }
+
+    // "<host>:<port>" for clients of a node, or null if it is this one or unknown
+    String clientAddress(String id) {
+        Member member = id != null ? members.get(id) : null;
+        return member != null ? member.host + ":" + member.port : null;
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    // Where clients reach the nodes in the ring, as announced to them with CLUSTER_NODES
+    String getClientAddresses() {
+        return clientAddresses;
+    }
+
+    // Ids of the nodes in the ring, this one included unless it is leaving
+    List<String> getRingIds() {
+        return ringIds;
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        sendHello();
+        // Forget nodes gone for long; seeds are still tried, so a restarted node is found again
+        members.values().removeIf(member -> member.lastSeen != 0 && now - member.lastSeen > 20 * timeoutNanos);
+        updateRing(now);
+        moveRooms(now);
+    }
+
+    private void sendHello() {
+        long now = System.nanoTime();
+        StringBuilder payload = new StringBuilder(describe(nodeId, host, port, busPort));
+        Set<String> targets = new LinkedHashSet<>(seeds);
+        for (Member member : members.values()) {
+            if (member.left) continue;
+            targets.add(member.busAddress());
+            if (member.isAlive(now, timeoutNanos)) {
+                payload.append('\n').append(describe(member.id, member.host, member.port, member.busPort));
+            }
+        }
+        targets.remove(host + ":" + busPort);
+        Message hello = Message.of(MessageType.CLUSTER_HELLO, payload.toString());
+        for (String target : targets) {
+            bus.send(target, hello);
+        }
+    }
+
+    private static String describe(String id, String host, int port, int busPort) {
+        return id + "," + host + "," + port + "," + busPort;
+    }
+
+    // Rebuild the ring if the alive nodes changed
+    private synchronized void updateRing(long now) {
+        Set<String> alive = new TreeSet<>();
+        if (!leaving) alive.add(nodeId);
+        for (Member member : members.values()) {
+            if (member.isAlive(now, timeoutNanos)) alive.add(member.id);
+        }
+        List<String> ids = List.copyOf(alive);
+        if (ids.equals(ringIds)) return;
+        List<String> addresses = new ArrayList<>();
+        for (String id : ids) {
+            addresses.add(id.equals(nodeId) ? host + ":" + port : clientAddress(id));
+        }
+        ring = new HashRing(ids);
+        ringIds = ids;
+        clientAddresses = String.join(",", addresses);
+        System.out.println("Cluster members: " + (ids.isEmpty() ? "none" : String.join(", ", ids)));
+    }
+
+    // Hand off every room owned by another node, and give up on handoffs that were never acknowledged
+    private void moveRooms(long now) {
+        for (Room room : rooms.getRooms()) {
+            String code = room.getCode();
+            Handoff pending = handoffs.get(code);
+            if (pending != null) {
+                if (now - pending.deadline > 0 && handoffs.remove(code, pending)) {
+                    room.cancelHandoff();
+                    System.err.println("Handoff of room " + code + " to node " + pending.target + " timed out, retrying");
+                }
+                continue;
+            }
+            String owner = ownerOf(code);
+            Member target = owner != null ? members.get(owner) : null;
+            if (target != null) handOff(room, target, now);
+        }
+    }
+
+    private void handOff(Room room, Member target, long now) {
+        String code = room.getCode();
+        String state = room.beginHandoff(target.host + ":" + target.port);
+        if (state == null) return; // Already moving
+        Handoff pending = new Handoff(target.id, now + handoffNanos);
+        handoffs.put(code, pending);
+        Message handoff = Message.of(MessageType.ROOM_HANDOFF, nodeId + ":" + code + ":" + state);
+        if (!bus.send(target.busAddress(), handoff) && handoffs.remove(code, pending)) {
+            room.cancelHandoff();
+        }
+    }
+
+    // Runs on a bus reader thread
+    private void onMessage(Message message) {
+        switch (message.type()) {
+            case CLUSTER_HELLO:
+                onHello(message.payload());
+                break;
+            case CLUSTER_LEAVE: {
+                Member member = members.get(message.payload());
+                if (member != null) {
+                    member.left = true;
+                    System.out.println("Cluster node " + member.id + " is leaving");
+                    updateRing(System.nanoTime());
+                }
+                break;
+            }
+            case ROOM_HANDOFF: {
+                // <from>:<room>:<state>
+                String[] fields = message.fields(3);
+                if (fields.length != 3 || !RoomRegistry.isValidCode(fields[1])) break;
+                boolean adopted = rooms.adopt(fields[1], fields[2]);
+                System.out.println(adopted ? "Room " + fields[1] + " moved here from node " + fields[0]
+                        : "Room " + fields[1] + " from node " + fields[0] + " not adopted, the copy here is newer");
+                Member sender = members.get(fields[0]);
+                if (sender == null || !bus.send(sender.busAddress(),
+                        Message.of(MessageType.ROOM_HANDOFF_ACK, fields[1] + ":" + (adopted ? 1 : 0)))) {
+                    System.err.println("Could not acknowledge handoff of room " + fields[1] + " to node " + fields[0]);
+                }
+                break;
+            }
+            case ROOM_HANDOFF_ACK: {
+                // <room>:<adopted>
+                String[] fields = message.fields(2);
+                Handoff pending = handoffs.remove(fields[0]);
+                Room room = rooms.get(fields[0]);
+                if (pending == null || room == null) break;
+                rooms.handedOff(room);
+                System.out.println("Room " + fields[0] + " handed off to node " + pending.target);
+                break;
+            }
+            default:
+                System.err.println("Unexpected cluster message " + message.type());
+        }
+    }
+
+    // The first line is the sender, the rest the nodes it sees alive
+    private void onHello(String payload) {
+        long now = System.nanoTime();
+        boolean sender = true;
+        for (String line : payload.split("\n")) {
+            String[] fields = line.split(",");
+            if (fields.length != 4) return;
+            String id = fields[0];
+            if (id.equals(nodeId)) {
+                sender = false;
+                continue;
+            }
+            Member member;
+            try {
+                member = new Member(id, fields[1], Integer.parseInt(fields[2]), Integer.parseInt(fields[3]));
+            } catch (NumberFormatException e) {
+                return;
+            }
+            if (sender) {
+                // A node that left or restarted comes back with its next heartbeat
+                Member known = members.get(id);
+                if (known == null || !known.sameAddress(member)) {
+                    members.put(id, member);
+                    known = member;
+                }
+                known.left = false;
+                known.lastSeen = now;
+            } else {
+                members.putIfAbsent(id, member); // Heard of; alive once it says hello itself
+            }
+            sender = false;
+        }
+    }
+
+    private static final class Member {
+        final String id;
+        final String host;
+        final int port;
+        final int busPort;
+        volatile long lastSeen; // System.nanoTime() of its last heartbeat, 0 for never
+        volatile boolean left;
+
+        Member(String id, String host, int port, int busPort) {
+            this.id = id;
+            this.host = host;
+            this.port = port;
+            this.busPort = busPort;
+        }
+
+        String busAddress() {
+            return host + ":" + busPort;
+        }
+
+        boolean sameAddress(Member other) {
+            return host.equals(other.host) && port == other.port && busPort == other.busPort;
+        }
+
+        boolean isAlive(long now, long timeoutNanos) {
+            return !left && lastSeen != 0 && now - lastSeen < timeoutNanos;
+        }
+    }
+
+    private static final class Handoff {
+        final String target;
+        final long deadline; // System.nanoTime()
+
+        Handoff(String target, long deadline) {
+            this.target = target;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import protocol.BinaryCodec;
+import protocol.FrameReader;
+import protocol.Message;
+
+/**
+ * TCP links between cluster nodes, framed like the client protocol with bin1 and no handshake.
+ * Each node listens on its bus port and opens one outgoing connection per peer on first send,
+ * so every message between two nodes travels in order on one socket. A failed send closes the
+ * link; the next send dials again. Received messages are handed over on the link's reader thread.
+ *
+ * Links are authenticated with a key derived from the shared auth secret. The accepting node
+ * starts each link by sending a random nonce, and every frame is followed by an HMAC-SHA256 of
+ * the nonce, the number of frames before it on the link, and the frame. A frame that fails the
+ * check closes the link unread, so a node without the secret cannot join the ring or hand over
+ * rooms, and recorded frames cannot be replayed on a new link.
+ */
+class ClusterBus {
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+    private static final int NONCE_BYTES = 16;
+    private static final int TAG_BYTES = 32;
+
+    private final ServerSocket listener;
+    private final byte[] key;
+    private final SecureRandom random = new SecureRandom();
+    private final Consumer<Message> handler;
+    // Outgoing links by "<host>:<busPort>"
+    private final ConcurrentHashMap<String, Link> links = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    ClusterBus(String bindHost, int port, byte[] secret, Consumer<Message> handler) throws IOException {
+        // Its own key, so a bus tag can never pass as a session token signature or the reverse
+        this.key = newMac(secret).doFinal("coderounds cluster bus".getBytes(StandardCharsets.UTF_8));
+        this.listener = new ServerSocket();
+        listener.bind(new InetSocketAddress(bindHost, port));
+        this.handler = handler;
+        Thread acceptor = new Thread(this::accept, "cluster-bus");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    // Returns false if the peer could not be reached
+    boolean send(String address, Message message) {
+        if (closed) return false;
+        byte[] frame = BinaryCodec.INSTANCE.encode(message);
+        Link link = links.computeIfAbsent(address, Link::new);
+        synchronized (link) {
+            try {
+                if (link.out == null) link.connect(key);
+                link.out.write(frame);
+                link.out.write(link.tag(frame));
+                link.out.flush();
+                return true;
+            } catch (IOException e) {
+                link.close();
+                return false;
+            }
+        }
+    }
+
+    void close() {
+        closed = true;
+        try {
+            listener.close();
+        } catch (IOException e) {
+            System.err.println("Error closing cluster bus: " + e.getMessage());
+        }
+        for (Link link : links.values()) {
+            synchronized (link) {
+                link.close();
+            }
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = listener.accept();
+                Thread reader = new Thread(() -> read(socket), "cluster-bus-" + socket.getRemoteSocketAddress());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (!closed) System.err.println("Cluster bus accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void read(Socket socket) {
+        try (Socket peer = socket) {
+            byte[] nonce = new byte[NONCE_BYTES];
+            random.nextBytes(nonce);
+            peer.getOutputStream().write(nonce);
+            peer.getOutputStream().flush();
+            Signer signer = new Signer(key, nonce);
+            InputStream in = new BufferedInputStream(peer.getInputStream());
+            DataInputStream tags = new DataInputStream(in);
+            FrameReader reader = new FrameReader(in);
+            reader.setCodec(BinaryCodec.INSTANCE);
+            byte[] tag = new byte[TAG_BYTES];
+            Message message;
+            while ((message = reader.read()) != null) {
+                tags.readFully(tag);
+                // The codec is canonical, so re-encoding gives back the bytes the peer signed
+                if (!MessageDigest.isEqual(tag, signer.tag(BinaryCodec.INSTANCE.encode(message)))) {
+                    System.err.println("Cluster bus: bad signature from " + peer.getRemoteSocketAddress()
+                            + ", closing the link (is --auth-secret the same on every node?)");
+                    return;
+                }
+                try {
+                    handler.accept(message);
+                } catch (RuntimeException e) {
+                    System.err.println("Cluster message " + message.type() + " failed: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            // The peer went away; it dials again when it has something to send
+        }
+    }
+
+    private static Mac newMac(byte[] key) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Tags the frames of one link in order; used by one thread at a time
+    private static final class Signer {
+        private final Mac mac;
+        private final byte[] nonce;
+        private long frames;
+
+        Signer(byte[] key, byte[] nonce) {
+            this.mac = newMac(key);
+            this.nonce = nonce;
+        }
+
+        byte[] tag(byte[] frame) {
+            mac.update(nonce);
+            long count = frames++;
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                mac.update((byte) (count >>> shift));
+            }
+            return mac.doFinal(frame);
+        }
+    }
+
+    // Outgoing connection to one peer, guarded by its own monitor
+    private static final class Link {
+        private final String host;
+        private final int port;
+        private Socket socket;
+        private OutputStream out;
+        private Signer signer;
+
+        Link(String address) {
+            int colon = address.lastIndexOf(':');
+            this.host = address.substring(0, colon);
+            this.port = Integer.parseInt(address.substring(colon + 1));
+        }
+
+        void connect(byte[] key) throws IOException {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            // The peer's nonce is the only thing ever read from an outgoing link
+            socket.setSoTimeout(CONNECT_TIMEOUT_MS);
+            byte[] nonce = new byte[NONCE_BYTES];
+            new DataInputStream(socket.getInputStream()).readFully(nonce);
+            socket.setSoTimeout(0);
+            signer = new Signer(key, nonce);
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        byte[] tag(byte[] frame) {
+            return signer.tag(frame);
+        }
+
+        void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Already gone
+                }
+            }
+            socket = null;
+            out = null;
+            signer = null;
+        }
+    }
+}
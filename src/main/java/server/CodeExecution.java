@@ -1,35 +1,136 @@
 package server;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
 
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-
-
+/**
+ * Entry point for running submitted code. Runs are queued on an ExecutionScheduler and go to the
+ * configured backend: "jdoodle" calls the remote JDoodle API, "process" runs Java in a pool of
+ * separate worker JVMs that are killed when they overrun, "local" compiles and runs Java inside
+ * the server. Neither of the last two is a sandbox, so they need --exec-trusted-code=true.
+ *
+ * Judged cases of deterministic problems are looked up in a result cache first, keyed by the
+ * source, language, input and limits. Only outcomes that depend on the program alone are cached,
+ * never timeouts or other limit kills, and nothing from the remote backend. Plain runs are never
+ * cached: their code and input are arbitrary, so nothing says the program is deterministic.
+ */
 public class CodeExecution {
     private static final String API_KEY = "YOUR_JDoodle_API_KEY";
     private static final String CLIENT_SECRET = "YOUR_JDoodle_CLIENT_SECRET";
 
+    private static ExecutionScheduler scheduler; // Set by configure
+    private static Path problemsDir = Paths.get("problems");
+    // Off until configured
+    private static ExecutionCache<CaseResult> caseCache = new ExecutionCache<>("cases", 0, 0, CaseResult::sizeInBytes);
+    // Backend and limits, part of every cache key
+    private static String limits = "local:10000:65536";
+
+    // Pick the backend from --exec-backend=jdoodle|process|local and its limits
+    public static synchronized void configure(ServerConfig config) {
+        long timeoutMs = config.getLong("exec-timeout-ms", 10_000);
+        long cpuMs = config.getLong("exec-cpu-ms", 5_000);
+        int maxOutput = config.getInt("exec-max-output", 64 * 1024);
+        int cacheSize = config.getInt("exec-cache-size", 128);
+        int workers = config.getInt("exec-workers", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        String name = config.getString("exec-backend", "jdoodle");
+        String heap = config.getString("exec-worker-heap", "256m");
+        problemsDir = Paths.get(config.getString("problems-dir", "problems"));
+        long cacheBytes = config.getLong("result-cache-bytes", 64L * 1024 * 1024);
+        long cacheTtlMs = config.getLong("result-cache-ttl-ms", 60 * 60 * 1000);
 
-    public static String executeCode(String code, String language) {
-        try {
-            HttpClient client = HttpClient.newHttpClient();
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create("https://api.jdoodle.com/v1/execute"))
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(
-                            String.format("{\"clientId\": \"%s\", \"clientSecret\": \"%s\", \"script\": \"%s\", \"language\": \"%s\"}",
-                                    API_KEY, CLIENT_SECRET, code, language)
-                    ))
-                    .build();
-
-
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            return response.body();
-        } catch (Exception e) {
-            e.printStackTrace();
-            return "Error executing code: " + e.getMessage();
+        Supplier<ExecutionBackend> backends;
+        switch (name) {
+            case "process": {
+                requireTrustedCode(config, name, "runs code in worker JVMs as the server's own OS user, with no sandbox");
+                List<String> command = WorkerProcess.workerCommand(timeoutMs, maxOutput, cacheSize,
+                        heap);
+                ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "exec-watchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                backends = () -> {
+                    WorkerProcess worker = new WorkerProcess(command, timeoutMs, cpuMs, maxOutput, watchdog);
+                    try {
+                        worker.start(); // Warm up before the first run
+                    } catch (IOException e) {
+                        System.err.println("Execution worker failed to start, retrying on first run: " + e.getMessage());
+                    }
+                    return worker;
+                };
+                break;
+            }
+            case "local": {
+                requireTrustedCode(config, name, "runs code inside the server with no sandbox");
+                LocalJavaExecutor local = new LocalJavaExecutor(timeoutMs, maxOutput, cacheSize);
+                backends = () -> local;
+                break;
+            }
+            case "jdoodle": {
+                JDoodleExecutor jdoodle = new JDoodleExecutor(config.getString("jdoodle-client-id", API_KEY),
+                        config.getString("jdoodle-client-secret", CLIENT_SECRET), timeoutMs);
+                backends = () -> jdoodle;
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown execution backend: " + name);
         }
+        if (name.equals("jdoodle")) cacheBytes = 0; // Its results do not tell failures apart
+        limits = name + ":" + timeoutMs + ":" + cpuMs + ":" + maxOutput + ":" + heap;
+        caseCache = new ExecutionCache<>("cases", cacheBytes, cacheTtlMs, CaseResult::sizeInBytes);
+        scheduler = new ExecutionScheduler(workers,
+                config.getInt("exec-queue-limit", 32),
+                config.getInt("exec-queue-per-room", 4),
+                backends);
+        scheduler.start();
+        System.out.println("Code execution: " + name + " backend, " + workers + " worker(s)");
+    }
+
+    // Submitted code would run with the server's own permissions: its files, its secrets, its network
+    private static void requireTrustedCode(ServerConfig config, String backend, String what) {
+        if (!config.getBoolean("exec-trusted-code", false)) {
+            throw new IllegalArgumentException("The " + backend + " backend " + what
+                    + "; use it only if every user is trusted, with --exec-trusted-code=true");
+        }
+    }
+
+    /**
+     * Queue a run on behalf of a room without waiting for it; rooms share the workers in turn.
+     * listener, if not null, is called on a worker thread with the output as it is produced.
+     */
+    public static ExecutionScheduler.Ticket<ExecutionResult> submit(String room, String code, String language, String stdin,
+                                                                    OutputListener listener) {
+        return scheduler().submit(room, code, language, stdin, listener);
+    }
+
+    // Judge code against a problem's test suite under problems-dir
+    public static Judge.Run judge(String room, String problemId, String code, boolean stopOnFailure) throws IOException {
+        Problem problem = Problem.load(problemsDir, problemId);
+        return Judge.start(scheduler(), room, problem, code, stopOnFailure, caseCache, limits);
+    }
+
+    public static ExecutionCache<CaseResult> getCaseCache() {
+        return caseCache;
+    }
+
+    // Runs and judged cases waiting for a worker
+    public static synchronized int getQueued() {
+        return scheduler != null ? scheduler.getQueued() : 0;
+    }
+
+    // Log the result cache's hit rate if it changed
+    public static void reportCaches() {
+        caseCache.report();
+    }
+
+    private static synchronized ExecutionScheduler scheduler() {
+        // Never fall back to running code in-process: that would skip the backend checks in configure
+        if (scheduler == null) throw new IllegalStateException("Code execution is not configured");
+        return scheduler;
     }
 }
@@ -0,0 +1,20 @@
+package server;
+
+import protocol.Message;
+
+/**
+ * A client connection as seen by the message handling logic, independent of the I/O engine
+ * and of the framing negotiated with the client.
+ */
+public interface Connection {
+    // Queue one message for the client's writer; never blocks and is safe from any thread
+    void send(Message message);
+
+    // Close the connection; the engine then reports the disconnect to the handler once
+    void close();
+
+    String getRemoteAddress();
+
+    // Messages waiting to be written, for monitoring slow consumers
+    OutboundQueue getOutboundQueue();
+}
@@ -0,0 +1,28 @@
+package server;
+
+import java.nio.file.Path;
+
+/**
+ * Something that can compile and run a submitted program.
+ */
+public interface ExecutionBackend {
+    ExecutionResult execute(String code, String language, String stdin);
+
+    /**
+     * Run a program and pass its output to listener as it is produced. Backends that only get
+     * the output once the program ends pass it on in one piece.
+     */
+    default ExecutionResult execute(String code, String language, String stdin, OutputListener listener) {
+        ExecutionResult result = execute(code, language, stdin);
+        if (!result.getOutput().isEmpty()) listener.onOutput(false, result.getOutput());
+        return result;
+    }
+
+    /**
+     * Run a program on one test case: input is streamed to it from a file and its output is
+     * checked against the expected file as it is produced.
+     */
+    default CaseResult judge(String code, String language, Path input, Path expected, long timeLimitMs) {
+        return new CaseResult(CaseResult.Verdict.REJECTED, "Judging is not supported by this backend", 0, 0);
+    }
+}
@@ -0,0 +1,123 @@
+package server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Results of earlier runs, so the same program on the same input is not run again.
+ * Keys are built by the caller from hashes of everything that decides the outcome: source,
+ * language, input and limits. Entries expire after a time to live, and the least recently used
+ * ones are evicted once the estimated size of all entries passes the byte cap.
+ *
+ * Only results of programs known to be deterministic belong here; callers decide that.
+ */
+public class ExecutionCache<V> {
+    private static final class Entry<V> {
+        final V value;
+        final long bytes;
+        final long expiresAt;
+
+        Entry(V value, long bytes, long expiresAt) {
+            this.value = value;
+            this.bytes = bytes;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final String name;
+    private final long maxBytes;
+    private final long ttlMs;
+    private final ToLongFunction<V> sizer;
+    // Guarded by this
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private String lastReport = "";
+
+    /**
+     * sizer estimates how many bytes a value takes. A cap of 0 turns the cache off.
+     */
+    public ExecutionCache(String name, long maxBytes, long ttlMs, ToLongFunction<V> sizer) {
+        this.name = name;
+        this.maxBytes = maxBytes;
+        this.ttlMs = ttlMs;
+        this.sizer = sizer;
+    }
+
+    // Key for the given parts; each part should already be a hash or a short value
+    public static String key(String... parts) {
+        return LocalJavaExecutor.sha256(String.join("\0", parts));
+    }
+
+    public synchronized V get(String key) {
+        if (maxBytes <= 0) return null;
+        Entry<V> entry = entries.get(key);
+        if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+            remove(key, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    public synchronized void put(String key, V value) {
+        long size = sizer.applyAsLong(value) + key.length() * 2L + 64;
+        if (maxBytes <= 0 || size > maxBytes) return;
+        Entry<V> old = entries.remove(key);
+        if (old != null) bytes -= old.bytes;
+        entries.put(key, new Entry<>(value, size, System.currentTimeMillis() + ttlMs));
+        bytes += size;
+        // Expired entries go first, then the least recently used
+        long now = System.currentTimeMillis();
+        for (Iterator<Entry<V>> it = entries.values().iterator(); bytes > maxBytes && it.hasNext(); ) {
+            Entry<V> entry = it.next();
+            if (entry.expiresAt < now) {
+                it.remove();
+                bytes -= entry.bytes;
+                evictions++;
+            }
+        }
+        for (Iterator<Entry<V>> it = entries.values().iterator(); bytes > maxBytes && it.hasNext(); ) {
+            Entry<V> entry = it.next();
+            it.remove();
+            bytes -= entry.bytes;
+            evictions++;
+        }
+    }
+
+    private void remove(String key, Entry<V> entry) {
+        entries.remove(key);
+        bytes -= entry.bytes;
+        evictions++;
+    }
+
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized long getEvictions() { return evictions; }
+    public synchronized long getBytes() { return bytes; }
+    public synchronized int getEntries() { return entries.size(); }
+
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    // Log the statistics if anything changed since the last report
+    public synchronized void report() {
+        if (maxBytes <= 0 || hits + misses == 0) return;
+        String report = "Result cache " + name + ": hits=" + hits + " misses=" + misses
+                + String.format(" ratio=%.1f%%", getHitRatio() * 100) + " entries=" + entries.size()
+                + " bytes=" + bytes + " evictions=" + evictions;
+        if (!report.equals(lastReport)) {
+            System.out.println(report);
+            lastReport = report;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package server;
+
+/**
+ * Outcome of one code run. Compile and run time are measured separately, so a cached
+ * compilation shows up as a near-zero compile time.
+ */
+public class ExecutionResult {
+    public enum Status { OK, COMPILE_ERROR, RUNTIME_ERROR, TIMEOUT, CPU_LIMIT, MEMORY_LIMIT, OUTPUT_LIMIT, REJECTED }
+
+    private final Status status;
+    private final String output;
+    private final long compileMillis;
+    private final boolean cached;
+    private final long runMillis;
+
+    public ExecutionResult(Status status, String output, long compileMillis, boolean cached, long runMillis) {
+        this.status = status;
+        this.output = output;
+        this.compileMillis = compileMillis;
+        this.cached = cached;
+        this.runMillis = runMillis;
+    }
+
+    public static ExecutionResult rejected(String reason) {
+        return new ExecutionResult(Status.REJECTED, reason, 0, false, 0);
+    }
+
+    public Status getStatus() { return status; }
+    public String getOutput() { return output; }
+    public long getCompileMillis() { return compileMillis; }
+    public boolean isCached() { return cached; }
+    public long getRunMillis() { return runMillis; }
+
+    // Output followed by a one-line summary, as shown to users
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(output);
+        if (text.length() > 0 && text.charAt(text.length() - 1) != '\n') text.append('\n');
+        return text.append(summary()).toString();
+    }
+
+    // Status and timings, for when the output itself was streamed
+    public String summary() {
+        StringBuilder text = new StringBuilder().append('[').append(status);
+        if (status != Status.REJECTED) {
+            text.append(", compile ").append(compileMillis).append(" ms").append(cached ? " (cached)" : "")
+                    .append(", run ").append(runMillis).append(" ms");
+        }
+        return text.append(']').toString();
+    }
+}
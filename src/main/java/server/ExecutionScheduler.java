@@ -0,0 +1,210 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs code on a fixed number of worker threads, each with its own backend. Waiting tasks are
+ * queued per room and rooms take turns, so one busy room cannot starve the others. The queue is
+ * bounded both overall and per room; a submission that does not fit is turned away at once with
+ * its would-be position instead of waiting indefinitely.
+ *
+ * A submission can hold several tasks, such as the test cases of one judging run. It counts once
+ * against the queue limits, and its tasks are spread over the workers as they come free.
+ */
+public class ExecutionScheduler {
+    // Handle for one submission
+    public static final class Ticket<T> {
+        private final int position;
+        private final String rejection;
+        private final CompletableFuture<Void> started = new CompletableFuture<>();
+        private final List<CompletableFuture<T>> results;
+
+        private Ticket(int position, String rejection, int tasks) {
+            this.position = position;
+            this.rejection = rejection;
+            List<CompletableFuture<T>> results = new ArrayList<>(tasks);
+            for (int i = 0; i < tasks; i++) results.add(new CompletableFuture<>());
+            this.results = Collections.unmodifiableList(results);
+        }
+
+        // A ticket whose results are already known, such as ones served from a cache
+        public static <T> Ticket<T> completed(List<T> values) {
+            Ticket<T> ticket = new Ticket<>(0, null, values.size());
+            ticket.started.complete(null);
+            for (int i = 0; i < values.size(); i++) ticket.results.get(i).complete(values.get(i));
+            return ticket;
+        }
+
+        // Tasks ahead of this submission when it was made; 0 if it started right away
+        public int getPosition() { return position; }
+        public boolean isRejected() { return rejection != null; }
+        // "busy" message for a rejected submission, null otherwise
+        public String getRejection() { return rejection; }
+        // Completes when a worker picks up the first task
+        public CompletableFuture<Void> started() { return started; }
+        public CompletableFuture<T> result() { return results.get(0); }
+        // One result per task, in submission order; never completed if rejected
+        public List<CompletableFuture<T>> results() { return results; }
+    }
+
+    private static final class Job<T> {
+        final Function<ExecutionBackend, T> task;
+        final CompletableFuture<T> result;
+        final Submission submission;
+
+        Job(Function<ExecutionBackend, T> task, CompletableFuture<T> result, Submission submission) {
+            this.task = task;
+            this.result = result;
+            this.submission = submission;
+        }
+    }
+
+    private static final class Submission {
+        final String room;
+        final CompletableFuture<Void> started;
+        int waiting; // Tasks not picked up yet
+
+        Submission(String room, CompletableFuture<Void> started, int waiting) {
+            this.room = room;
+            this.started = started;
+            this.waiting = waiting;
+        }
+    }
+
+    private final int workers;
+    private final int maxQueued;
+    private final int maxPerRoom;
+    private final Supplier<ExecutionBackend> backends;
+
+    // Guarded by this
+    private final Map<String, ArrayDeque<Job<?>>> queues = new HashMap<>();
+    private final ArrayDeque<String> turns = new ArrayDeque<>(); // Rooms with queued tasks, next first
+    private final Map<String, Integer> waitingPerRoom = new HashMap<>(); // Submissions not fully started
+    private int waiting;
+    private int queued;
+    private int idle;
+
+    /**
+     * backends is called once per worker thread, so a backend that is not thread-safe
+     * (such as a WorkerProcess) is never shared.
+     */
+    public ExecutionScheduler(int workers, int maxQueued, int maxPerRoom, Supplier<ExecutionBackend> backends) {
+        this.workers = workers;
+        this.maxQueued = maxQueued;
+        this.maxPerRoom = maxPerRoom;
+        this.backends = backends;
+    }
+
+    public void start() {
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(this::work, "exec-worker-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // Queue a single run for a room; listener, if not null, gets its output as it is produced
+    public Ticket<ExecutionResult> submit(String room, String code, String language, String stdin, OutputListener listener) {
+        return submit(room, List.of(backend -> {
+            try {
+                return listener == null ? backend.execute(code, language, stdin)
+                        : backend.execute(code, language, stdin, listener);
+            } catch (Throwable e) {
+                // Errors too, e.g. a StackOverflowError compiling deeply nested code: the room still gets a result
+                return new ExecutionResult(ExecutionResult.Status.RUNTIME_ERROR, "Execution failed: " + e.getMessage(), 0, false, 0);
+            }
+        }));
+    }
+
+    /**
+     * Queue tasks for a room as one submission. Each task is called on a worker thread with
+     * that worker's backend.
+     */
+    public synchronized <T> Ticket<T> submit(String room, List<Function<ExecutionBackend, T>> tasks) {
+        int ahead = Math.max(0, queued - idle);
+        if (waiting >= maxQueued || waitingPerRoom.getOrDefault(room, 0) >= maxPerRoom) {
+            return new Ticket<>(ahead + 1, "Execution server busy, position " + (ahead + 1)
+                    + " in queue; try again shortly", 0);
+        }
+        Ticket<T> ticket = new Ticket<>(ahead, null, tasks.size());
+        if (tasks.isEmpty()) {
+            ticket.started.complete(null);
+            return ticket;
+        }
+        Submission submission = new Submission(room, ticket.started, tasks.size());
+        ArrayDeque<Job<?>> queue = queues.get(room);
+        if (queue == null) {
+            queue = new ArrayDeque<>();
+            queues.put(room, queue);
+            turns.addLast(room);
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            queue.addLast(new Job<>(tasks.get(i), ticket.results.get(i), submission));
+        }
+        queued += tasks.size();
+        waiting++;
+        waitingPerRoom.merge(room, 1, Integer::sum);
+        notifyAll();
+        return ticket;
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    // Next task in round-robin order over the rooms
+    private synchronized Job<?> take() throws InterruptedException {
+        idle++;
+        try {
+            while (queued == 0) wait();
+        } finally {
+            idle--;
+        }
+        String room = turns.removeFirst();
+        ArrayDeque<Job<?>> queue = queues.get(room);
+        Job<?> job = queue.removeFirst();
+        if (queue.isEmpty()) {
+            queues.remove(room);
+        } else {
+            turns.addLast(room);
+        }
+        queued--;
+        Submission submission = job.submission;
+        if (--submission.waiting == 0) {
+            waiting--;
+            waitingPerRoom.computeIfPresent(submission.room, (key, count) -> count > 1 ? count - 1 : null);
+        }
+        return job;
+    }
+
+    private void work() {
+        ExecutionBackend backend = backends.get();
+        while (true) {
+            Job<?> job;
+            try {
+                job = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            job.submission.started.complete(null);
+            run(job, backend);
+        }
+    }
+
+    // Nothing escapes: the result is always completed and the worker thread lives on
+    private static <T> void run(Job<T> job, ExecutionBackend backend) {
+        try {
+            job.result.complete(job.task.apply(backend));
+        } catch (Throwable e) {
+            job.result.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Main class of a worker JVM started by WorkerProcess. It compiles and runs jobs one at a time
+ * with a LocalJavaExecutor.
+ *
+ * Jobs and results travel over a loopback connection to the server, never over stdin or stdout,
+ * which programs can reach. The worker reads a TOKEN_BYTES token from stdin, connects to the
+ * port it was given and sends the token back, so the server knows the connection is its own.
+ *
+ * Strings are sent as [int length][UTF-8 bytes]. A job starts with [byte kind][long nonce]
+ * [string code][string language], and every frame of its answer starts with [byte tag][long nonce],
+ * so output a program writes into the connection cannot pass for the worker's. EXECUTE is
+ * followed by stdin. While it runs, its output is sent as STDOUT or STDERR frames followed by a
+ * string; then comes a DONE frame with [byte status][long compile ms][boolean cached][long run ms]
+ * [string output]. JUDGE is followed by [long time limit ms][long output limit][int length] and
+ * the input bytes. The program's stdout is sent as STDOUT frames of raw bytes for the server to
+ * check, so the expected output is never sent here; then comes a DONE frame with
+ * [byte verdict][long run ms][long memory bytes][string detail]. Every answer ends with
+ * [boolean exiting].
+ *
+ * The worker writes READY once the compiler is warmed up, and exits after a job that left
+ * program threads running, since only ending the JVM stops them.
+ *
+ * Usage: java -cp <classpath> server.ExecutionWorker <timeoutMs> <maxOutput> <cacheSize> <port>
+ */
+public class ExecutionWorker {
+    static final int TOKEN_BYTES = 16;
+    static final byte READY = 'R';
+    static final byte EXECUTE = 'E';
+    static final byte JUDGE = 'J';
+    static final byte STDOUT = 'o';
+    static final byte STDERR = 'e';
+    static final byte DONE = 'd';
+
+    private static final String WARM_UP = "public class Main { public static void main(String[] args) { System.out.print(\"ok\"); } }";
+
+    public static void main(String[] args) throws IOException {
+        byte[] token = new byte[TOKEN_BYTES];
+        new DataInputStream(new FileInputStream(FileDescriptor.in)).readFully(token);
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[3]));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.write(token);
+        out.flush();
+        // Stray prints end up in the server's log
+        System.setOut(System.err);
+
+        LocalJavaExecutor executor = new LocalJavaExecutor(Long.parseLong(args[0]), Integer.parseInt(args[1]),
+                Integer.parseInt(args[2]));
+        executor.execute(WARM_UP, "java", "");
+        out.writeByte(READY);
+        out.flush();
+
+        while (true) {
+            int kind = in.read();
+            if (kind == -1) return; // The server closed the connection
+            long nonce = in.readLong();
+            String code = readString(in);
+            String language = readString(in);
+            boolean failed;
+            if (kind == JUDGE) {
+                long timeLimitMs = in.readLong();
+                Pending output = new Pending(in.readLong());
+                byte[] input = in.readNBytes(in.readInt());
+                Runnable send = () -> {
+                    try {
+                        byte[] bytes = output.take();
+                        if (bytes.length == 0) return;
+                        writeTag(out, STDOUT, nonce);
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                        out.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                };
+                CaseResult result = executor.runCase(code, language, new ByteArrayInputStream(input), output,
+                        output::isExceeded, send, timeLimitMs);
+                send.run();
+                writeTag(out, DONE, nonce);
+                out.writeByte(result.getVerdict().ordinal());
+                out.writeLong(result.getRunMillis());
+                out.writeLong(result.getMemoryBytes());
+                writeString(out, result.getDetail());
+                failed = result.getVerdict() == CaseResult.Verdict.MEMORY_LIMIT;
+            } else {
+                ExecutionResult result = executor.execute(code, language, readString(in), (stderr, text) -> {
+                    try {
+                        writeTag(out, stderr ? STDERR : STDOUT, nonce);
+                        writeString(out, text);
+                        out.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                writeTag(out, DONE, nonce);
+                out.writeByte(result.getStatus().ordinal());
+                out.writeLong(result.getCompileMillis());
+                out.writeBoolean(result.isCached());
+                out.writeLong(result.getRunMillis());
+                writeString(out, result.getOutput());
+                failed = result.getStatus() == ExecutionResult.Status.MEMORY_LIMIT;
+            }
+            // After running out of memory the JVM is not worth trusting with another job
+            boolean exiting = failed || LocalJavaExecutor.hasRunningPrograms();
+            out.writeBoolean(exiting);
+            out.flush();
+            if (exiting) System.exit(0);
+        }
+    }
+
+    private static void writeTag(DataOutputStream out, byte tag, long nonce) throws IOException {
+        out.writeByte(tag);
+        out.writeLong(nonce);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // A judged program's output, held until the main thread sends it; the run stops past the limit
+    private static final class Pending extends OutputStream {
+        private final long limit;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private long written;
+        private volatile boolean exceeded;
+
+        Pending(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            if (exceeded) return;
+            written += len;
+            if (written > limit) {
+                exceeded = true;
+                return;
+            }
+            buffer.write(b, off, len);
+        }
+
+        boolean isExceeded() {
+            return exceeded;
+        }
+
+        synchronized byte[] take() {
+            byte[] bytes = buffer.toByteArray();
+            buffer.reset();
+            return bytes;
+        }
+    }
+}
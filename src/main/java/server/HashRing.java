@@ -0,0 +1,51 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of room codes onto cluster nodes. Each node is placed on the ring at many
+ * points, and a room belongs to the first node point at or after the room's own hash. Adding or
+ * removing a node only moves the rooms next to its points, about 1/N of them, and every node
+ * that sees the same members computes the same owners.
+ *
+ * Immutable; the cluster builds a new ring whenever its members change.
+ */
+class HashRing {
+    private static final int POINTS_PER_NODE = 128;
+
+    private final TreeMap<Long, String> points = new TreeMap<>();
+
+    HashRing(Collection<String> nodeIds) {
+        for (String id : nodeIds) {
+            for (int i = 0; i < POINTS_PER_NODE; i++) {
+                points.put(hash(id + "#" + i), id);
+            }
+        }
+    }
+
+    // Id of the node that owns the room, or null if the ring is empty
+    String owner(String roomCode) {
+        if (points.isEmpty()) return null;
+        Map.Entry<Long, String> entry = points.ceilingEntry(hash(roomCode));
+        return (entry != null ? entry : points.firstEntry()).getValue();
+    }
+
+    // First 8 bytes of MD5: not for security, just evenly spread and the same on every node
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (digest[i] & 0xff);
+            }
+            return value;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+}
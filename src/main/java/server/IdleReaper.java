@@ -0,0 +1,88 @@
+package server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds connections whose client is gone without the socket saying so, e.g. after a laptop went
+ * to sleep or a NAT dropped the flow. A client that has sent nothing for the ping interval is sent
+ * a PING, which it answers with PONG. One that has sent nothing at all for the read timeout, or
+ * whose messages have waited unwritten for the write timeout, is disconnected: its room is told
+ * at once, and the engine frees the connection's threads and buffers.
+ *
+ * One thread checks every connection; a check only reads a few volatile fields.
+ */
+final class IdleReaper {
+    private static final Set<ClientHandler> HANDLERS = ConcurrentHashMap.newKeySet();
+    private static volatile long pingIntervalNanos;
+    private static volatile long readTimeoutNanos;
+    private static volatile long writeTimeoutNanos;
+
+    private IdleReaper() {}
+
+    static void start(ServerConfig config) {
+        long pingMs = config.getLong("ping-interval-ms", 15_000);
+        long readMs = config.getLong("read-idle-timeout-ms", 45_000);
+        long writeMs = config.getLong("write-idle-timeout-ms", 30_000);
+        pingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, pingMs));
+        readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, readMs));
+        writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, writeMs));
+        long shortest = Long.MAX_VALUE;
+        for (long ms : new long[] {pingMs, readMs, writeMs}) {
+            if (ms > 0) shortest = Math.min(shortest, ms);
+        }
+        if (shortest == Long.MAX_VALUE) return; // All off
+        // Often enough that nobody is evicted much later than their timeout
+        long checkMs = Math.max(100, Math.min(1000, shortest / 4));
+        ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idle-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(IdleReaper::check, checkMs, checkMs, TimeUnit.MILLISECONDS);
+        System.out.println("Heartbeats: ping after " + pingMs + "ms quiet, disconnect after " + readMs
+                + "ms without a message or " + writeMs + "ms without a write (0 is off)");
+    }
+
+    static void connected(ClientHandler handler) {
+        HANDLERS.add(handler);
+    }
+
+    static void disconnected(ClientHandler handler) {
+        HANDLERS.remove(handler);
+    }
+
+    private static void check() {
+        long now = System.nanoTime();
+        for (ClientHandler handler : HANDLERS) {
+            try {
+                check(handler, now);
+            } catch (RuntimeException e) {
+                System.err.println("Idle check failed for " + handler.getUsername() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void check(ClientHandler handler, long now) {
+        long quiet = now - handler.getLastReceived();
+        long stalled = handler.getConnection().getOutboundQueue().getStalledNanos(now);
+        if (readTimeoutNanos > 0 && quiet >= readTimeoutNanos) {
+            evict(handler, "sent nothing for " + TimeUnit.NANOSECONDS.toSeconds(quiet) + "s", false);
+        } else if (writeTimeoutNanos > 0 && stalled >= writeTimeoutNanos) {
+            evict(handler, "read nothing for " + TimeUnit.NANOSECONDS.toSeconds(stalled) + "s", true);
+        } else if (pingIntervalNanos > 0 && quiet >= pingIntervalNanos) {
+            handler.ping(now, pingIntervalNanos);
+        }
+    }
+
+    private static void evict(ClientHandler handler, String reason, boolean stalled) {
+        if (!HANDLERS.remove(handler)) return; // Already gone
+        System.out.println("Disconnecting " + handler.getUsername() + " at "
+                + handler.getConnection().getRemoteAddress() + ": " + reason);
+        Metrics.evicted(stalled);
+        handler.evict();
+    }
+}
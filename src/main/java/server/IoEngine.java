@@ -0,0 +1,30 @@
+package server;
+
+import java.io.IOException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Accepts client connections and drives their handlers.
+ * Engines call onConnect once, then onMessage for every received line in order, then onDisconnect once.
+ */
+public interface IoEngine {
+    void serve(int port, Function<Connection, ClientHandler> handlerFactory) throws IOException;
+
+    static IoEngine create(ServerConfig config) {
+        String engine = config.getString("engine", "thread");
+        Supplier<OutboundQueue> queues = OutboundQueue.factory(config);
+        switch (engine) {
+            case "thread":
+                return new ThreadPerConnectionEngine(Thread.ofPlatform().name("client-", 0).factory(), queues);
+            case "virtual":
+                return new ThreadPerConnectionEngine(Thread.ofVirtual().name("client-", 0).factory(), queues);
+            case "nio":
+                int cores = Runtime.getRuntime().availableProcessors();
+                return new NioEngine(config.getInt("io-threads", cores),
+                        config.getInt("handler-threads", Math.max(4, 2 * cores)), queues);
+            default:
+                throw new IllegalArgumentException("Unknown engine: " + engine + " (expected thread, virtual or nio)");
+        }
+    }
+}
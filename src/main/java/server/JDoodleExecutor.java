@@ -0,0 +1,74 @@
+package server;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+
+/**
+ * Runs code on the remote JDoodle API. Needs network access and real credentials.
+ */
+public class JDoodleExecutor implements ExecutionBackend {
+    private static final URI ENDPOINT = URI.create("https://api.jdoodle.com/v1/execute");
+
+    // One client for every run, so connections are pooled and reused
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final String clientId;
+    private final String clientSecret;
+    private final Duration timeout;
+
+    public JDoodleExecutor(String clientId, String clientSecret, long timeoutMs) {
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        this.timeout = Duration.ofMillis(timeoutMs);
+    }
+
+    @Override
+    public ExecutionResult execute(String code, String language, String stdin) {
+        long start = System.nanoTime();
+        try {
+            HttpRequest request = HttpRequest.newBuilder(ENDPOINT)
+                    .timeout(timeout)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(String.format(
+                            "{\"clientId\": \"%s\", \"clientSecret\": \"%s\", \"script\": \"%s\", \"stdin\": \"%s\", \"language\": \"%s\"}",
+                            json(clientId), json(clientSecret), json(code), json(stdin), json(language))))
+                    .build();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            // JDoodle compiles and runs in one call, so the whole round trip counts as run time
+            return new ExecutionResult(ExecutionResult.Status.OK, response.body(), 0, false,
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ExecutionResult.rejected("Execution interrupted");
+        } catch (Exception e) {
+            System.err.println("JDoodle request failed: " + e.getMessage());
+            return ExecutionResult.rejected("Error executing code: " + e.getMessage());
+        }
+    }
+
+    // Escape a string for a JSON string literal
+    private static String json(String value) {
+        StringBuilder out = new StringBuilder(value.length() + 16);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.append("\\\""); break;
+                case '\\': out.append("\\\\"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case '\t': out.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.toString();
+    }
+}
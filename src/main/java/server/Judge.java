@@ -0,0 +1,221 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Judges a submission against a problem's test suite. Each case is a separate task on the
+ * execution scheduler, so the cases of one suite run in parallel on every free worker while
+ * still counting as one submission against the room's queue limit. Inputs are streamed from
+ * the case files and outputs checked as they are produced.
+ *
+ * With stop-on-failure set, cases that have not started yet once one fails are skipped.
+ * A compile error always stops the rest.
+ *
+ * For deterministic problems, case results are kept in a result cache keyed by the source, the
+ * case files' contents and the limits, and only cases not found there are run. Only verdicts
+ * that depend on the program alone are cached; limit kills and failures are always rerun.
+ */
+public class Judge {
+    // Above this many cases, accepted ones are summarised instead of listed
+    private static final int LISTED_CASES = 20;
+    // Content hashes of case files, by path, size and modification time
+    private static final Map<String, String> fileHashes = new ConcurrentHashMap<>();
+
+    // A judging run in progress
+    public static final class Run {
+        private final ExecutionScheduler.Ticket<CaseResult> ticket;
+        private final CompletableFuture<String> report;
+
+        private Run(ExecutionScheduler.Ticket<CaseResult> ticket, CompletableFuture<String> report) {
+            this.ticket = ticket;
+            this.report = report;
+        }
+
+        public ExecutionScheduler.Ticket<CaseResult> getTicket() { return ticket; }
+        // Verdict and per-case results, completed when every case is done
+        public CompletableFuture<String> getReport() { return report; }
+    }
+
+    /**
+     * cache may be null; it is only used for deterministic problems. limits describes the
+     * backend's limits for the cache key, so results from other settings are not reused.
+     */
+    public static Run start(ExecutionScheduler scheduler, String room, Problem problem, String code, boolean stopOnFailure,
+                            ExecutionCache<CaseResult> cache, String limits) {
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Problem.TestCase> cases = problem.getCases();
+        String[] keys = cacheKeys(problem, code, cache, limits);
+        List<CompletableFuture<CaseResult>> results = new ArrayList<>(cases.size());
+        List<Function<ExecutionBackend, CaseResult>> tasks = new ArrayList<>();
+        List<CompletableFuture<CaseResult>> pending = new ArrayList<>();
+        for (int i = 0; i < cases.size(); i++) {
+            Problem.TestCase testCase = cases.get(i);
+            String key = keys == null ? null : keys[i];
+            CaseResult known = key == null ? null : cache.get(key);
+            if (known == null && stop.get()) known = new CaseResult(CaseResult.Verdict.SKIPPED, "", 0, 0);
+            if (known != null) {
+                if (stops(known.getVerdict(), stopOnFailure)) stop.set(true);
+                results.add(CompletableFuture.completedFuture(known));
+                continue;
+            }
+            tasks.add(backend -> {
+                if (stop.get()) return new CaseResult(CaseResult.Verdict.SKIPPED, "", 0, 0);
+                CaseResult result;
+                try {
+                    result = backend.judge(code, "java", testCase.getInput(), testCase.getExpected(), problem.getTimeLimitMs());
+                } catch (RuntimeException e) {
+                    result = new CaseResult(CaseResult.Verdict.REJECTED, "Judging failed: " + e.getMessage(), 0, 0);
+                }
+                if (stops(result.getVerdict(), stopOnFailure)) stop.set(true);
+                if (key != null && isCacheable(result.getVerdict())) cache.put(key, result);
+                return result;
+            });
+            CompletableFuture<CaseResult> result = new CompletableFuture<>();
+            pending.add(result);
+            results.add(result);
+        }
+
+        long started = System.nanoTime();
+        ExecutionScheduler.Ticket<CaseResult> ticket;
+        if (tasks.isEmpty()) {
+            // Every case was cached
+            ticket = ExecutionScheduler.Ticket.completed(results.stream().map(CompletableFuture::join).toList());
+        } else {
+            ticket = scheduler.submit(room, tasks);
+            if (ticket.isRejected()) {
+                return new Run(ticket, CompletableFuture.completedFuture(ticket.getRejection()));
+            }
+            for (int i = 0; i < pending.size(); i++) {
+                CompletableFuture<CaseResult> result = pending.get(i);
+                ticket.results().get(i).whenComplete((value, error) -> {
+                    if (error != null) result.completeExceptionally(error);
+                    else result.complete(value);
+                });
+            }
+        }
+        CompletableFuture<String> report = CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> format(problem, results.stream().map(CompletableFuture::join).toList(),
+                        (System.nanoTime() - started) / 1_000_000));
+        return new Run(ticket, report);
+    }
+
+    private static boolean stops(CaseResult.Verdict verdict, boolean stopOnFailure) {
+        return verdict == CaseResult.Verdict.COMPILE_ERROR || verdict == CaseResult.Verdict.REJECTED
+                || (stopOnFailure && verdict != CaseResult.Verdict.ACCEPTED && verdict != CaseResult.Verdict.SKIPPED);
+    }
+
+    // Verdicts decided by the program and the case alone, not by load on the server
+    private static boolean isCacheable(CaseResult.Verdict verdict) {
+        return verdict == CaseResult.Verdict.ACCEPTED || verdict == CaseResult.Verdict.WRONG_ANSWER
+                || verdict == CaseResult.Verdict.COMPILE_ERROR;
+    }
+
+    // One key per case, or null if the results are not to be cached
+    private static String[] cacheKeys(Problem problem, String code, ExecutionCache<CaseResult> cache, String limits) {
+        if (cache == null || !problem.isDeterministic()) return null;
+        String codeHash = LocalJavaExecutor.sha256(code);
+        List<Problem.TestCase> cases = problem.getCases();
+        String[] keys = new String[cases.size()];
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                Problem.TestCase testCase = cases.get(i);
+                keys[i] = ExecutionCache.key(codeHash, "java", fileHash(testCase.getInput()),
+                        fileHash(testCase.getExpected()), String.valueOf(problem.getTimeLimitMs()), limits);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot hash test cases of " + problem.getId() + ", not caching: " + e.getMessage());
+            return null;
+        }
+        return keys;
+    }
+
+    private static String fileHash(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        String stamp = file.toAbsolutePath() + "|" + attributes.size() + "|" + attributes.lastModifiedTime().toMillis();
+        String hash = fileHashes.get(stamp);
+        if (hash != null) return hash;
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) digest.update(buffer, 0, read);
+            hash = HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        fileHashes.put(stamp, hash);
+        return hash;
+    }
+
+    // First line is the overall verdict; one line per case follows
+    static String format(Problem problem, List<CaseResult> results, long elapsedMillis) {
+        List<Problem.TestCase> cases = problem.getCases();
+        CaseResult.Verdict overall = CaseResult.Verdict.ACCEPTED;
+        CaseResult firstFailure = null;
+        int passed = 0;
+        long maxMillis = 0;
+        long maxMemory = 0;
+        for (CaseResult result : results) {
+            if (result.getVerdict() == CaseResult.Verdict.ACCEPTED) {
+                passed++;
+                maxMillis = Math.max(maxMillis, result.getRunMillis());
+                maxMemory = Math.max(maxMemory, result.getMemoryBytes());
+            } else if (firstFailure == null && result.getVerdict() != CaseResult.Verdict.SKIPPED) {
+                firstFailure = result;
+                overall = result.getVerdict();
+            }
+        }
+
+        StringBuilder text = new StringBuilder();
+        text.append("Problem ").append(problem.getId()).append(": ").append(overall)
+                .append(" (").append(passed).append('/').append(cases.size()).append(" passed in ")
+                .append(elapsedMillis).append(" ms)");
+        if (overall == CaseResult.Verdict.COMPILE_ERROR || overall == CaseResult.Verdict.REJECTED) {
+            // The same for every case, so only shown once
+            return text.append('\n').append(firstFailure.getDetail()).toString();
+        }
+        boolean listAll = cases.size() <= LISTED_CASES;
+        int listed = 0;
+        int unlisted = 0;
+        int skipped = 0;
+        for (int i = 0; i < results.size(); i++) {
+            CaseResult result = results.get(i);
+            if (result.getVerdict() == CaseResult.Verdict.SKIPPED) skipped++;
+            if (!listAll && (result.getVerdict() == CaseResult.Verdict.ACCEPTED
+                    || result.getVerdict() == CaseResult.Verdict.SKIPPED)) {
+                continue;
+            }
+            if (listed == LISTED_CASES) {
+                unlisted++;
+                continue;
+            }
+            listed++;
+            text.append("\n#").append(i + 1).append(' ').append(cases.get(i).getName()).append(": ").append(result);
+        }
+        if (unlisted > 0) {
+            text.append("\n... and ").append(unlisted).append(" more failing");
+        }
+        if (!listAll && passed > 0) {
+            text.append('\n').append(passed).append(" accepted, slowest ").append(maxMillis).append(" ms, most memory ")
+                    .append(String.format("%.1f MB", maxMemory / (1024.0 * 1024.0)));
+        }
+        if (!listAll && skipped > 0) {
+            text.append('\n').append(skipped).append(" skipped after the first failure");
+        }
+        return text.toString();
+    }
+}
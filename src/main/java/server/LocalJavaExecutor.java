@@ -0,0 +1,576 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles Java with the JDK's built-in compiler straight into memory and runs it inside the
+ * server, each run in its own class loader that only sees the JDK. Compiled classes are cached by
+ * the SHA-256 of the source, so running unchanged code again skips the compiler.
+ *
+ * Runs share the server's JVM: the class loader isolates classes and static state, not CPU or
+ * memory, and a run that times out is interrupted but cannot be forced to stop. Nothing in the
+ * code is checked or blocked; a program can read files, start processes or exit the JVM. Only use
+ * this backend directly for code you trust; ExecutionWorker runs it in a separate JVM that can be killed.
+ */
+public class LocalJavaExecutor implements ExecutionBackend {
+    private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+    private static final Pattern PUBLIC_CLASS = Pattern.compile("public\\s+(?:final\\s+|abstract\\s+)*class\\s+(\\w+)");
+    private static final Pattern ANY_CLASS = Pattern.compile("\\bclass\\s+(\\w+)");
+    private static final String LOADER_NAME = "local-run";
+    // Every program thread, including the ones programs start themselves
+    private static final ThreadGroup RUNS = new ThreadGroup(LOADER_NAME);
+    private static final long OUTPUT_CHECK_MS = 50;
+    // How much of a judged program's stderr is kept for the report
+    private static final int JUDGE_ERROR_OUTPUT = 2048;
+
+    // A compiled program, or the result to report instead of running it
+    private static final class Build {
+        final Compiled compiled;
+        final long compileMillis;
+        final boolean cached;
+        final ExecutionResult failure;
+
+        Build(Compiled compiled, long compileMillis, boolean cached) {
+            this.compiled = compiled;
+            this.compileMillis = compileMillis;
+            this.cached = cached;
+            this.failure = null;
+        }
+
+        Build(ExecutionResult failure) {
+            this.compiled = null;
+            this.compileMillis = 0;
+            this.cached = false;
+            this.failure = failure;
+        }
+    }
+
+    private static final class Compiled {
+        final String mainClass;
+        final Map<String, byte[]> classes;
+
+        Compiled(String mainClass, Map<String, byte[]> classes) {
+            this.mainClass = mainClass;
+            this.classes = classes;
+        }
+    }
+
+    private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    private final long timeoutMs;
+    private final int maxOutput;
+    private final Map<String, Compiled> cache;
+
+    public LocalJavaExecutor(long timeoutMs, int maxOutput, int cacheSize) {
+        this.timeoutMs = timeoutMs;
+        this.maxOutput = maxOutput;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Compiled> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        RoutedStreams.install();
+    }
+
+    @Override
+    public ExecutionResult execute(String code, String language, String stdin) {
+        return execute(code, language, stdin, null);
+    }
+
+    // Output is passed on every OUTPUT_CHECK_MS while the program runs
+    @Override
+    public ExecutionResult execute(String code, String language, String stdin, OutputListener listener) {
+        Build build = build(code, language);
+        if (build.failure != null) {
+            if (listener != null) listener.onOutput(true, build.failure.getOutput());
+            return build.failure;
+        }
+        Capture capture = new Capture(maxOutput);
+        long runStart = System.nanoTime();
+        ExecutionResult.Status status = runProgram(build.compiled,
+                new ByteArrayInputStream(stdin.getBytes(StandardCharsets.UTF_8)), capture, capture.stderr(), timeoutMs,
+                capture::isTruncated, listener == null ? () -> { } : () -> capture.drain(listener, false));
+        if (listener != null) {
+            capture.drain(listener, true);
+            if (capture.isTruncated()) listener.onOutput(true, "[Output truncated at " + maxOutput + " bytes]\n");
+        }
+        if (status == ExecutionResult.Status.TIMEOUT) {
+            capture.note("Time limit of " + timeoutMs + " ms exceeded");
+        }
+        return new ExecutionResult(status, capture.toString(), build.compileMillis, build.cached, elapsedMillis(runStart));
+    }
+
+    @Override
+    public CaseResult judge(String code, String language, Path input, Path expected, long timeLimitMs) {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(input));
+             InputStream answer = new BufferedInputStream(Files.newInputStream(expected))) {
+            OutputChecker checker = new OutputChecker(answer);
+            return checker.verdict(runCase(code, language, in, checker, checker::isFailed, () -> { }, timeLimitMs));
+        } catch (IOException e) {
+            return new CaseResult(CaseResult.Verdict.REJECTED, "Cannot read test case: " + e.getMessage(), 0, 0);
+        }
+    }
+
+    /**
+     * Run a program on one test case, writing its output to out as it is produced. The run is
+     * cut short once stop returns true, reported as OUTPUT_LIMIT; tick is called on this thread
+     * every OUTPUT_CHECK_MS meanwhile. The output is not checked here: ACCEPTED only means the
+     * program ended normally.
+     */
+    CaseResult runCase(String code, String language, InputStream in, OutputStream out, BooleanSupplier stop,
+                       Runnable tick, long timeLimitMs) {
+        Build build = build(code, language);
+        if (build.failure != null) {
+            CaseResult.Verdict verdict = build.failure.getStatus() == ExecutionResult.Status.COMPILE_ERROR
+                    ? CaseResult.Verdict.COMPILE_ERROR : CaseResult.Verdict.REJECTED;
+            return new CaseResult(verdict, build.failure.getOutput().strip(), 0, 0);
+        }
+        Capture errors = new Capture(JUDGE_ERROR_OUTPUT);
+        resetPeakHeap();
+        long runStart = System.nanoTime();
+        ExecutionResult.Status status = runProgram(build.compiled, in, out, errors, timeLimitMs, stop, tick);
+        long runMillis = elapsedMillis(runStart);
+        long memory = peakHeap();
+        switch (status) {
+            case OK:
+                return new CaseResult(CaseResult.Verdict.ACCEPTED, "", runMillis, memory);
+            case OUTPUT_LIMIT:
+                return new CaseResult(CaseResult.Verdict.OUTPUT_LIMIT, "", runMillis, memory);
+            case TIMEOUT:
+                return new CaseResult(CaseResult.Verdict.TIME_LIMIT, "", runMillis, memory);
+            case MEMORY_LIMIT:
+                return new CaseResult(CaseResult.Verdict.MEMORY_LIMIT, "", runMillis, memory);
+            default:
+                return new CaseResult(CaseResult.Verdict.RUNTIME_ERROR, errors.toString().strip(), runMillis, memory);
+        }
+    }
+
+    // Compiled program from the cache or the compiler, or why there is none
+    private Build build(String code, String language) {
+        if (!"java".equalsIgnoreCase(language)) {
+            return new Build(ExecutionResult.rejected("Language " + language + " is not supported by the local backend"));
+        }
+        if (compiler == null) {
+            return new Build(ExecutionResult.rejected("No Java compiler available, run the server on a JDK"));
+        }
+
+        long compileStart = System.nanoTime();
+        String key = sha256(code);
+        Compiled compiled;
+        synchronized (cache) {
+            compiled = cache.get(key);
+        }
+        boolean cached = compiled != null;
+        if (!cached) {
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            compiled = compile(code, diagnostics);
+            if (compiled == null) {
+                return new Build(new ExecutionResult(ExecutionResult.Status.COMPILE_ERROR, format(diagnostics),
+                        elapsedMillis(compileStart), false, 0));
+            }
+            synchronized (cache) {
+                cache.put(key, compiled);
+            }
+        }
+        return new Build(compiled, elapsedMillis(compileStart), cached);
+    }
+
+    private Compiled compile(String code, DiagnosticCollector<JavaFileObject> diagnostics) {
+        // The source file has to be named after its public class
+        String packageName = firstGroup(PACKAGE, code);
+        String className = firstGroup(PUBLIC_CLASS, code);
+        if (className == null) className = firstGroup(ANY_CLASS, code);
+        if (className == null) className = "Main";
+        String mainClass = packageName != null ? packageName + "." + className : className;
+
+        JavaFileObject source = new SimpleJavaFileObject(
+                URI.create("string:///" + mainClass.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return code;
+            }
+        };
+        Map<String, ByteArrayOutputStream> output = new LinkedHashMap<>();
+        try (MemoryFileManager files = new MemoryFileManager(
+                compiler.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8), output)) {
+            boolean ok = compiler.getTask(null, files, diagnostics, List.of("-proc:none", "-g"), null, List.of(source)).call();
+            if (!ok) return null;
+        } catch (IOException e) {
+            return null;
+        }
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        output.forEach((name, bytes) -> classes.put(name, bytes.toByteArray()));
+        return new Compiled(mainClass, classes);
+    }
+
+    /**
+     * Run a program's main method on its own thread with the given streams, for at most limitMs.
+     * OUTPUT_LIMIT means it was stopped early because stop returned true. tick is called on
+     * this thread every OUTPUT_CHECK_MS while it runs. After TIMEOUT or OUTPUT_LIMIT the
+     * program's thread may still be running.
+     */
+    private ExecutionResult.Status runProgram(Compiled compiled, InputStream in, OutputStream out, OutputStream err,
+                                              long limitMs, BooleanSupplier stop, Runnable tick) {
+        ExecutionResult.Status[] status = {ExecutionResult.Status.OK};
+        long runStart = System.nanoTime();
+        Thread runner = new Thread(RUNS, () -> {
+            RoutedStreams.bind(out, err, in);
+            try {
+                ClassLoader loader = new MemoryClassLoader(compiled.classes);
+                Method main = loader.loadClass(compiled.mainClass).getMethod("main", String[].class);
+                if (!Modifier.isStatic(main.getModifiers())) {
+                    throw new NoSuchMethodException("main must be static");
+                }
+                main.setAccessible(true); // The class itself need not be public
+                main.invoke(null, (Object) new String[0]);
+            } catch (InvocationTargetException e) {
+                Throwable failure = e.getCause();
+                status[0] = failure instanceof OutOfMemoryError
+                        ? ExecutionResult.Status.MEMORY_LIMIT : ExecutionResult.Status.RUNTIME_ERROR;
+                // Only show the program's own frames, not the server's
+                failure.setStackTrace(Arrays.stream(failure.getStackTrace())
+                        .filter(frame -> LOADER_NAME.equals(frame.getClassLoaderName()))
+                        .toArray(StackTraceElement[]::new));
+                failure.printStackTrace(System.err);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                status[0] = ExecutionResult.Status.RUNTIME_ERROR;
+                System.err.println("Cannot run " + compiled.mainClass + ": " + e);
+            } finally {
+                System.out.flush();
+                RoutedStreams.unbind();
+            }
+        }, "local-run");
+        runner.setDaemon(true);
+        runner.start();
+        // Wait in short slices so a program flooding or failing its output is stopped early
+        long deadline = runStart + limitMs * 1_000_000;
+        try {
+            while (runner.isAlive() && !stop.getAsBoolean() && System.nanoTime() < deadline) {
+                runner.join(OUTPUT_CHECK_MS);
+                tick.run();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (runner.isAlive()) {
+            runner.interrupt();
+            return stop.getAsBoolean() ? ExecutionResult.Status.OUTPUT_LIMIT : ExecutionResult.Status.TIMEOUT;
+        }
+        return status[0];
+    }
+
+    // Whether a program that timed out or was stopped early still has threads running
+    static boolean hasRunningPrograms() {
+        return RUNS.activeCount() > 0;
+    }
+
+    // Forget the heap's high-water mark, so peakHeap() covers what runs next
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    private static long peakHeap() {
+        long total = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) total += pool.getPeakUsage().getUsed();
+        }
+        return total;
+    }
+
+    private static String format(DiagnosticCollector<JavaFileObject> diagnostics) {
+        StringBuilder text = new StringBuilder();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() != Diagnostic.Kind.ERROR) continue;
+            text.append("Line ").append(diagnostic.getLineNumber()).append(": ")
+                    .append(diagnostic.getMessage(null)).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String firstGroup(Pattern pattern, String text) {
+        Matcher matcher = pattern.matcher(text);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Keeps compiler output in memory instead of writing class files
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<String, ByteArrayOutputStream> output;
+
+        MemoryFileManager(StandardJavaFileManager standard, Map<String, ByteArrayOutputStream> output) {
+            super(standard);
+            this.output = output;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                   FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return output.computeIfAbsent(className, name -> new ByteArrayOutputStream());
+                }
+            };
+        }
+    }
+
+    // Defines the compiled classes; everything else comes from the JDK, never from the server
+    private static class MemoryClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        MemoryClassLoader(Map<String, byte[]> classes) {
+            super(LOADER_NAME, ClassLoader.getPlatformClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Output of one run, capped at a maximum size. Writing to the Capture itself is stdout;
+     * stderr() gives the stderr side. Output not yet passed to a listener is kept in order as
+     * segments of one stream each.
+     */
+    private static class Capture extends OutputStream {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final int limit;
+        private boolean truncated;
+        private final List<Boolean> pendingStreams = new ArrayList<>(); // true for stderr
+        private final List<ByteArrayOutputStream> pending = new ArrayList<>();
+
+        Capture(int limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) {
+            write(false, new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            write(false, b, off, len);
+        }
+
+        OutputStream stderr() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    Capture.this.write(true, new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    Capture.this.write(true, b, off, len);
+                }
+            };
+        }
+
+        private synchronized void write(boolean stderr, byte[] b, int off, int len) {
+            int room = limit - bytes.size();
+            if (len > room) truncated = true;
+            int kept = Math.max(0, Math.min(len, room));
+            if (kept == 0) return;
+            bytes.write(b, off, kept);
+            int last = pending.size() - 1;
+            if (last < 0 || pendingStreams.get(last) != stderr) {
+                pendingStreams.add(stderr);
+                pending.add(new ByteArrayOutputStream());
+                last++;
+            }
+            pending.get(last).write(b, off, kept);
+        }
+
+        /**
+         * Pass on the output written since the last drain. Unless all is set, a character
+         * split across two writes is held back until the rest of it arrives.
+         */
+        void drain(OutputListener listener, boolean all) {
+            List<Boolean> streams = new ArrayList<>();
+            List<String> texts = new ArrayList<>();
+            synchronized (this) {
+                for (int i = 0; i < pending.size(); i++) {
+                    byte[] segment = pending.get(i).toByteArray();
+                    int length = all || i < pending.size() - 1 ? segment.length : wholeCharacters(segment);
+                    if (length > 0) {
+                        streams.add(pendingStreams.get(i));
+                        texts.add(new String(segment, 0, length, StandardCharsets.UTF_8));
+                    }
+                    if (length < segment.length) {
+                        // Keep the partial character as the only pending output
+                        ByteArrayOutputStream rest = new ByteArrayOutputStream();
+                        rest.write(segment, length, segment.length - length);
+                        boolean stream = pendingStreams.get(i);
+                        pending.clear();
+                        pendingStreams.clear();
+                        pending.add(rest);
+                        pendingStreams.add(stream);
+                        break;
+                    }
+                    if (i == pending.size() - 1) {
+                        pending.clear();
+                        pendingStreams.clear();
+                    }
+                }
+            }
+            // Outside the lock, so a slow listener never blocks the program's writes
+            for (int i = 0; i < texts.size(); i++) {
+                listener.onOutput(streams.get(i), texts.get(i));
+            }
+        }
+
+        // Length of the bytes up to the end of the last complete UTF-8 character
+        private static int wholeCharacters(byte[] bytes) {
+            int start = bytes.length - 1;
+            while (start >= 0 && start > bytes.length - 4 && (bytes[start] & 0xC0) == 0x80) start--;
+            if (start < 0) return bytes.length;
+            int lead = bytes[start] & 0xFF;
+            int needed = lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : lead >= 0xC0 ? 2 : 1;
+            return bytes.length - start >= needed ? bytes.length : start;
+        }
+
+        synchronized boolean isTruncated() {
+            return truncated;
+        }
+
+        synchronized void note(String line) {
+            if (bytes.size() > 0) bytes.write('\n');
+            bytes.writeBytes(line.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public synchronized String toString() {
+            String text = bytes.toString(StandardCharsets.UTF_8);
+            return truncated ? text + "\n[Output truncated at " + limit + " bytes]" : text;
+        }
+    }
+
+    /**
+     * System.out, System.err and System.in are process-wide, so they are replaced once with
+     * streams that send each thread to the run it belongs to. Threads a program starts inherit
+     * its streams; every other thread keeps using the real console.
+     */
+    private static final class RoutedStreams {
+        private static final InheritableThreadLocal<OutputStream> OUTPUT = new InheritableThreadLocal<>();
+        private static final InheritableThreadLocal<OutputStream> ERROR = new InheritableThreadLocal<>();
+        private static final InheritableThreadLocal<InputStream> INPUT = new InheritableThreadLocal<>();
+        private static boolean installed;
+
+        static synchronized void install() {
+            if (installed) return;
+            installed = true;
+            System.setOut(new PrintStream(new Router(System.out, OUTPUT), true, StandardCharsets.UTF_8));
+            System.setErr(new PrintStream(new Router(System.err, ERROR), true, StandardCharsets.UTF_8));
+            InputStream console = System.in;
+            System.setIn(new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    InputStream in = INPUT.get();
+                    return (in != null ? in : console).read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    InputStream in = INPUT.get();
+                    return (in != null ? in : console).read(b, off, len);
+                }
+            });
+        }
+
+        static void bind(OutputStream output, OutputStream error, InputStream input) {
+            OUTPUT.set(output);
+            ERROR.set(error);
+            INPUT.set(input);
+        }
+
+        static void unbind() {
+            OUTPUT.remove();
+            ERROR.remove();
+            INPUT.remove();
+        }
+
+        private static final class Router extends OutputStream {
+            private final OutputStream console;
+            private final ThreadLocal<OutputStream> target;
+
+            Router(OutputStream console, ThreadLocal<OutputStream> target) {
+                this.console = console;
+                this.target = target;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                OutputStream out = target.get();
+                (out != null ? out : console).write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                OutputStream out = target.get();
+                (out != null ? out : console).write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (target.get() == null) console.flush();
+            }
+        }
+    }
+}
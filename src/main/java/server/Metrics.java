@@ -0,0 +1,359 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import protocol.Message;
+import protocol.MessageType;
+
+/**
+ * Server-wide instrumentation: messages and bytes per message type in each direction, how long
+ * room broadcasts take to fan out, connections and their outbound backlog, rooms, and the JVM's
+ * heap and threads. The hot paths only add to striped counters and lock-free histograms; queue
+ * depths, rooms and JVM figures are read when scraped.
+ *
+ * Everything is published through JMX and, with --metrics-port, as Prometheus-style text on
+ * http://<metrics-host>:<metrics-port>/metrics.
+ */
+public class Metrics implements MetricsMBean {
+    private static final MessageType[] TYPES = MessageType.values();
+    private static final LongAdder[] received = adders();
+    private static final LongAdder[] receivedChars = adders(); // Payload characters, as for outbound queues
+    private static final LongAdder[] sent = adders();
+    private static final LongAdder[] sentBytes = adders();     // Encoded frames, framing included
+    private static final Histogram[] fanout = new Histogram[TYPES.length];
+    // Every connected client, in a room or not
+    private static final Set<ClientHandler> connections = ConcurrentHashMap.newKeySet();
+    // Heartbeats: round trips of answered PINGs, and clients evicted for silence or for not reading
+    private static final Histogram pingRoundTrip = new Histogram();
+    private static final LongAdder evictedSilent = new LongAdder();
+    private static final LongAdder evictedStalled = new LongAdder();
+    private static volatile RoomRegistry rooms = new RoomRegistry();
+    private static volatile AuthService auth;
+
+    static {
+        for (int i = 0; i < TYPES.length; i++) {
+            fanout[i] = new Histogram();
+        }
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[TYPES.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    // Register the JMX bean and start the HTTP endpoint if a port is given
+    static void start(ServerConfig config, RoomRegistry rooms, AuthService auth) {
+        Metrics.rooms = rooms;
+        Metrics.auth = auth;
+        if (config.getBoolean("metrics-jmx", true)) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(), new ObjectName("coderounds:type=Server"));
+            } catch (JMException e) {
+                System.err.println("Could not register metrics with JMX: " + e.getMessage());
+            }
+        }
+        int port = config.getInt("metrics-port", 0);
+        if (port > 0) {
+            String host = config.getString("metrics-host", "127.0.0.1");
+            try {
+                HttpServer server = HttpServer.create(new InetSocketAddress(host, port), 0);
+                server.createContext("/metrics", Metrics::serve);
+                server.start();
+                System.out.println("Metrics on http://" + host + ":" + port + "/metrics");
+            } catch (IOException e) {
+                System.err.println("Could not start metrics endpoint on port " + port + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // A message read from a client
+    static void received(Message message) {
+        int type = message.type().ordinal();
+        received[type].increment();
+        receivedChars[type].add(message.payload().length());
+    }
+
+    // A frame handed to a client's socket
+    static void sent(MessageType type, int bytes) {
+        sent[type.ordinal()].increment();
+        sentBytes[type.ordinal()].add(bytes);
+    }
+
+    // Time a room took to queue one broadcast for all its members
+    static void fannedOut(MessageType type, long nanos) {
+        fanout[type.ordinal()].record(nanos);
+    }
+
+    static void connected(ClientHandler handler) {
+        connections.add(handler);
+    }
+
+    static void disconnected(ClientHandler handler) {
+        connections.remove(handler);
+    }
+
+    static void ponged(long roundTripNanos) {
+        pingRoundTrip.record(roundTripNanos);
+    }
+
+    static void evicted(boolean stalled) {
+        (stalled ? evictedStalled : evictedSilent).increment();
+    }
+
+    private static void serve(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    // Every metric in the Prometheus text format. Connections are listed only while they have a backlog
+    static String render() {
+        StringBuilder out = new StringBuilder(8192);
+        header(out, "coderounds_messages_received_total", "counter", "Messages read from clients");
+        perType(out, "coderounds_messages_received_total", received);
+        header(out, "coderounds_received_chars_total", "counter", "Payload characters read from clients");
+        perType(out, "coderounds_received_chars_total", receivedChars);
+        header(out, "coderounds_messages_sent_total", "counter", "Frames written to clients");
+        perType(out, "coderounds_messages_sent_total", sent);
+        header(out, "coderounds_sent_bytes_total", "counter", "Bytes of frames written to clients");
+        perType(out, "coderounds_sent_bytes_total", sentBytes);
+
+        header(out, "coderounds_fanout_seconds", "summary", "Time to queue a room broadcast for every member");
+        for (int i = 0; i < TYPES.length; i++) {
+            Histogram histogram = fanout[i];
+            if (histogram.getCount() == 0) continue;
+            String type = "type=\"" + typeName(TYPES[i]) + "\"";
+            for (double q : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                sample(out, "coderounds_fanout_seconds", type + ",quantile=\"" + q + "\"", seconds(histogram.quantile(q)));
+            }
+            sample(out, "coderounds_fanout_seconds_max", type, seconds(histogram.getMax()));
+            sample(out, "coderounds_fanout_seconds_sum", type, seconds(histogram.getSum()));
+            sample(out, "coderounds_fanout_seconds_count", type, histogram.getCount());
+        }
+
+        header(out, "coderounds_connections", "gauge", "Connected clients");
+        sample(out, "coderounds_connections", null, connections.size());
+        header(out, "coderounds_evicted_total", "counter", "Clients disconnected by the idle reaper");
+        sample(out, "coderounds_evicted_total", "reason=\"silent\"", evictedSilent.sum());
+        sample(out, "coderounds_evicted_total", "reason=\"not_reading\"", evictedStalled.sum());
+        header(out, "coderounds_ping_seconds", "summary", "Round trip of heartbeat pings");
+        for (double q : new double[] {0.5, 0.99}) {
+            sample(out, "coderounds_ping_seconds", "quantile=\"" + q + "\"", seconds(pingRoundTrip.quantile(q)));
+        }
+        sample(out, "coderounds_ping_seconds_count", null, pingRoundTrip.getCount());
+        long queued = 0;
+        long maxDepth = 0;
+        header(out, "coderounds_outbound_depth", "gauge", "Messages waiting to be written to a client");
+        StringBuilder backlog = new StringBuilder();
+        for (ClientHandler handler : connections) {
+            OutboundQueue queue = handler.getConnection().getOutboundQueue();
+            int depth = queue.getDepth();
+            queued += depth;
+            maxDepth = Math.max(maxDepth, depth);
+            if (depth == 0 && queue.getDropped() == 0) continue;
+            Room room = handler.getRoom();
+            String labels = "room=\"" + escape(room != null ? room.getCode() : "") + "\",user=\""
+                    + escape(handler.getUsername()) + "\",remote=\"" + escape(handler.getConnection().getRemoteAddress()) + "\"";
+            sample(out, "coderounds_outbound_depth", labels, depth);
+            sample(backlog, "coderounds_outbound_chars", labels, queue.getQueuedChars());
+            sample(backlog, "coderounds_outbound_peak_depth", labels, queue.getPeakDepth());
+            sample(backlog, "coderounds_outbound_dropped_total", labels, queue.getDropped());
+        }
+        out.append(backlog);
+        header(out, "coderounds_outbound_queued", "gauge", "Messages waiting in all outbound queues");
+        sample(out, "coderounds_outbound_queued", null, queued);
+        sample(out, "coderounds_outbound_max_depth", null, maxDepth);
+
+        header(out, "coderounds_rooms", "gauge", "Open rooms");
+        sample(out, "coderounds_rooms", null, rooms.getRooms().size());
+        header(out, "coderounds_room_members", "gauge", "Members of each room");
+        StringBuilder roomCounters = new StringBuilder();
+        for (Room room : rooms.getRooms()) {
+            String labels = "room=\"" + escape(room.getCode()) + "\"";
+            sample(out, "coderounds_room_members", labels, room.getMembers().size());
+            sample(roomCounters, "coderounds_room_messages_received_total", labels, room.getMessagesReceived());
+            sample(roomCounters, "coderounds_room_broadcasts_total", labels, room.getBroadcasts());
+            sample(roomCounters, "coderounds_room_frames_total", labels, room.getFramesQueued());
+            sample(roomCounters, "coderounds_room_fanout_seconds_total", labels, seconds(room.getFanoutNanos()));
+        }
+        out.append(roomCounters);
+        Cluster cluster = rooms.getCluster();
+        if (cluster != null) {
+            header(out, "coderounds_cluster_members", "gauge", "Nodes in the cluster ring, as seen by this node");
+            sample(out, "coderounds_cluster_members", "node=\"" + escape(cluster.getNodeId()) + "\"", cluster.getRingIds().size());
+        }
+
+        header(out, "coderounds_auth_queued", "gauge", "Logins waiting for a hashing thread");
+        sample(out, "coderounds_auth_queued", null, getAuthQueuedNow());
+        sample(out, "coderounds_exec_queued", null, CodeExecution.getQueued());
+        cache(out, "cases", CodeExecution.getCaseCache());
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        header(out, "coderounds_heap_used_bytes", "gauge", "JVM heap");
+        sample(out, "coderounds_heap_used_bytes", null, heap.getUsed());
+        sample(out, "coderounds_heap_committed_bytes", null, heap.getCommitted());
+        sample(out, "coderounds_heap_max_bytes", null, heap.getMax());
+        header(out, "coderounds_threads", "gauge", "Live JVM threads");
+        sample(out, "coderounds_threads", null, ManagementFactory.getThreadMXBean().getThreadCount());
+        sample(out, "coderounds_threads_peak", null, ManagementFactory.getThreadMXBean().getPeakThreadCount());
+        header(out, "coderounds_gc_collections_total", "counter", "Garbage collections and the time spent in them");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            String labels = "gc=\"" + escape(gc.getName()) + "\"";
+            sample(out, "coderounds_gc_collections_total", labels, gc.getCollectionCount());
+            sample(out, "coderounds_gc_seconds_total", labels, gc.getCollectionTime() / 1000.0);
+        }
+        return out.toString();
+    }
+
+    private static void perType(StringBuilder out, String name, LongAdder[] counters) {
+        for (int i = 0; i < TYPES.length; i++) {
+            long value = counters[i].sum();
+            if (value > 0) sample(out, name, "type=\"" + typeName(TYPES[i]) + "\"", value);
+        }
+    }
+
+    private static void cache(StringBuilder out, String name, ExecutionCache<?> cache) {
+        String labels = "cache=\"" + name + "\"";
+        sample(out, "coderounds_result_cache_hits_total", labels, cache.getHits());
+        sample(out, "coderounds_result_cache_misses_total", labels, cache.getMisses());
+        sample(out, "coderounds_result_cache_entries", labels, cache.getEntries());
+        sample(out, "coderounds_result_cache_bytes", labels, cache.getBytes());
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name);
+        if (labels != null) out.append('{').append(labels).append('}');
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (labels != null) out.append('{').append(labels).append('}');
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static String typeName(MessageType type) {
+        return type == MessageType.RAW ? "RAW" : type.prefix();
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static int getAuthQueuedNow() {
+        AuthService current = auth;
+        return current != null ? current.getQueued() : 0;
+    }
+
+    private static long total(LongAdder[] counters) {
+        long sum = 0;
+        for (LongAdder counter : counters) {
+            sum += counter.sum();
+        }
+        return sum;
+    }
+
+    @Override
+    public int getConnections() {
+        return connections.size();
+    }
+
+    @Override
+    public int getRooms() {
+        return rooms.getRooms().size();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return total(received);
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return total(sent);
+    }
+
+    @Override
+    public long getBytesSent() {
+        return total(sentBytes);
+    }
+
+    @Override
+    public long getOutboundQueued() {
+        long queued = 0;
+        for (ClientHandler handler : connections) {
+            queued += handler.getConnection().getOutboundQueue().getDepth();
+        }
+        return queued;
+    }
+
+    @Override
+    public int getMaxOutboundDepth() {
+        int max = 0;
+        for (ClientHandler handler : connections) {
+            max = Math.max(max, handler.getConnection().getOutboundQueue().getDepth());
+        }
+        return max;
+    }
+
+    // The highest of the message types' p99s
+    @Override
+    public long getFanoutP99Micros() {
+        long worst = 0;
+        for (Histogram histogram : fanout) {
+            if (histogram.getCount() > 0) worst = Math.max(worst, histogram.quantile(0.99));
+        }
+        return worst / 1000;
+    }
+
+    @Override
+    public int getAuthQueued() {
+        return getAuthQueuedNow();
+    }
+
+    @Override
+    public int getExecQueued() {
+        return CodeExecution.getQueued();
+    }
+
+    @Override
+    public String scrape() {
+        return render();
+    }
+}
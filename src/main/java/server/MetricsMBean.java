@@ -0,0 +1,31 @@
+package server;
+
+/**
+ * The server's metrics as JMX attributes, registered as coderounds:type=Server. Heap, thread and
+ * GC figures are on the JVM's own java.lang beans; scrape() returns everything, per message type,
+ * room and connection, in the same text form as the HTTP endpoint.
+ */
+public interface MetricsMBean {
+    int getConnections();
+
+    int getRooms();
+
+    long getMessagesReceived();
+
+    long getMessagesSent();
+
+    long getBytesSent();
+
+    // Messages waiting in every connection's outbound queue
+    long getOutboundQueued();
+
+    int getMaxOutboundDepth();
+
+    long getFanoutP99Micros();
+
+    int getAuthQueued();
+
+    int getExecQueued();
+
+    String scrape();
+}
@@ -0,0 +1,303 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import protocol.FrameCodec;
+import protocol.Message;
+import protocol.TextCodec;
+
+/**
+ * Non-blocking engine: the accept loop hands channels round-robin to a small pool of reactors,
+ * each running its own selector. Reactors only move bytes; messages are handled on a pool of
+ * handler threads, since handling one may block on disk (journal writes, loading a problem).
+ * A connection's messages run one at a time in the order they arrived, and a connection whose
+ * messages pile up stops being read until its handler catches up.
+ */
+public class NioEngine implements IoEngine {
+    private static final int INITIAL_READ_BUFFER = 16 * 1024;
+    // Messages waiting for a connection's handler before reading from it pauses
+    private static final int INBOX_LIMIT = 256;
+
+    private final int reactorCount;
+    private final int handlerThreads;
+    private final Supplier<OutboundQueue> queues;
+
+    public NioEngine(int reactorCount, int handlerThreads, Supplier<OutboundQueue> queues) {
+        this.reactorCount = Math.max(1, reactorCount);
+        this.handlerThreads = Math.max(1, handlerThreads);
+        this.queues = queues;
+    }
+
+    @Override
+    public void serve(int port, Function<Connection, ClientHandler> handlerFactory) throws IOException {
+        Executor handlers = Executors.newFixedThreadPool(handlerThreads,
+                Thread.ofPlatform().name("nio-handler-", 0).daemon(true).factory());
+        Reactor[] reactors = new Reactor[reactorCount];
+        for (int i = 0; i < reactorCount; i++) {
+            reactors[i] = new Reactor(handlerFactory, queues, handlers);
+            Thread thread = new Thread(reactors[i], "nio-reactor-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            int next = 0;
+            while (true) {
+                SocketChannel channel = server.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                reactors[next++ % reactorCount].register(channel);
+            }
+        }
+    }
+
+    static class Reactor implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Function<Connection, ClientHandler> handlerFactory;
+        private final Supplier<OutboundQueue> queues;
+        private final Executor handlers;
+
+        Reactor(Function<Connection, ClientHandler> handlerFactory, Supplier<OutboundQueue> queues, Executor handlers)
+                throws IOException {
+            this.selector = Selector.open();
+            this.handlerFactory = handlerFactory;
+            this.queues = queues;
+            this.handlers = handlers;
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                NioConnection connection = new NioConnection(this, channel, queues.get());
+                try {
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (ClosedChannelException e) {
+                    return;
+                }
+                connection.handler = handlerFactory.apply(connection);
+                connection.dispatch(connection.handler::onConnect);
+            });
+        }
+
+        // Run a task on the reactor thread
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            System.err.println("ClientHandler error: " + e.getMessage());
+                            connection.closeNow();
+                        }
+                    }
+                } catch (Exception e) {
+                    System.err.println("Reactor error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    static class NioConnection extends AbstractConnection {
+        private final Reactor reactor;
+        private final SocketChannel channel;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+        private FrameCodec readCodec = TextCodec.INSTANCE;
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        // Frames being written with gathering writes, reactor thread only
+        private final Message[] batchMessages = new Message[WRITE_BATCH];
+        private final ByteBuffer[] batch = new ByteBuffer[WRITE_BATCH];
+        private int batchStart;
+        private int batchEnd;
+        private SelectionKey key;
+        private ClientHandler handler;
+        private boolean closed;
+        private boolean readPaused; // Reactor thread only
+        // Handler calls in arrival order, run one at a time on the handler pool
+        private final Queue<Runnable> inbox = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger inboxSize = new AtomicInteger();
+        private final AtomicBoolean handling = new AtomicBoolean();
+
+        NioConnection(Reactor reactor, SocketChannel channel, OutboundQueue queue) {
+            super(queue);
+            this.reactor = reactor;
+            this.channel = channel;
+        }
+
+        @Override
+        protected void messageQueued() {
+            if (writeScheduled.compareAndSet(false, true)) {
+                reactor.execute(this::enableWrite);
+            }
+        }
+
+        private void enableWrite() {
+            if (key != null && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+
+        // Queue a handler call behind the connection's earlier ones
+        void dispatch(Runnable call) {
+            inbox.add(call);
+            inboxSize.incrementAndGet();
+            if (handling.compareAndSet(false, true)) {
+                reactor.handlers.execute(this::handle);
+            }
+        }
+
+        // Handler pool: run the queued calls, resuming reads once the backlog has halved
+        private void handle() {
+            Runnable call;
+            while ((call = inbox.poll()) != null) {
+                try {
+                    call.run();
+                } catch (RuntimeException e) {
+                    System.err.println("ClientHandler error: " + e.getMessage());
+                    close();
+                }
+                if (inboxSize.decrementAndGet() == INBOX_LIMIT / 2) {
+                    reactor.execute(this::resumeRead);
+                }
+            }
+            handling.set(false);
+            // A call may have been queued after the inbox looked empty but before the flag was cleared
+            if (!inbox.isEmpty() && handling.compareAndSet(false, true)) {
+                reactor.handlers.execute(this::handle);
+            }
+        }
+
+        private void resumeRead() {
+            if (readPaused && key.isValid()) {
+                readPaused = false;
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        // Reactor thread: read what is available and hand every complete frame to the handler
+        void read() throws IOException {
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                closeNow();
+                return;
+            }
+            readBuffer.flip();
+            Message message;
+            while (!closed && (message = readCodec.decode(readBuffer)) != null) {
+                FrameCodec negotiated = handshake(message);
+                if (negotiated != null) {
+                    readCodec = negotiated;
+                } else {
+                    Message received = message;
+                    dispatch(() -> handler.onMessage(received));
+                }
+            }
+            if (!closed && inboxSize.get() >= INBOX_LIMIT) {
+                readPaused = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            readBuffer.compact();
+            if (!readBuffer.hasRemaining()) {
+                // A single frame is bigger than the buffer; codecs enforce the maximum frame size
+                ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+                readBuffer.flip();
+                larger.put(readBuffer);
+                readBuffer = larger;
+            }
+        }
+
+        // Reactor thread: write queued frames with gathering writes until the socket buffer fills up
+        void flush() throws IOException {
+            while (true) {
+                if (batchStart == batchEnd) {
+                    batchStart = 0;
+                    batchEnd = queue.pollBatch(batchMessages);
+                    if (batchEnd == 0) break;
+                    for (int i = 0; i < batchEnd; i++) {
+                        batch[i] = encode(batchMessages[i]);
+                        batchMessages[i] = null;
+                    }
+                }
+                channel.write(batch, batchStart, batchEnd - batchStart);
+                while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                    batch[batchStart++] = null;
+                }
+                if (batchStart < batchEnd) {
+                    return; // Socket is full, keep OP_WRITE and continue when writable
+                }
+            }
+            key.interestOps(readPaused ? 0 : SelectionKey.OP_READ);
+            writeScheduled.set(false);
+            // A sender may have queued a message after we drained but before the flag was cleared
+            if (queue.getDepth() > 0 && writeScheduled.compareAndSet(false, true)) {
+                enableWrite();
+            }
+        }
+
+        @Override
+        public void close() {
+            reactor.execute(this::closeNow);
+        }
+
+        void closeNow() {
+            if (closed) return;
+            closed = true;
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing channel: " + e.getMessage());
+            }
+            queue.close();
+            if (handler != null) {
+                dispatch(handler::onDisconnect);
+            }
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            try {
+                return String.valueOf(channel.getRemoteAddress());
+            } catch (IOException e) {
+                return "unknown";
+            }
+        }
+    }
+}
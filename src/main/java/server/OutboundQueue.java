@@ -0,0 +1,322 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import protocol.Message;
+import protocol.MessageType;
+
+/**
+ * Bounded queue of messages waiting to be written to one client.
+ * Senders never block: when the queue is full the slow-consumer policy tries to make room,
+ * and if that is not enough offer() returns false and the caller disconnects the peer.
+ * A queue the writer has not taken from for a long time while messages wait means the peer
+ * stopped reading, even if the queue never fills up.
+ */
+public class OutboundQueue {
+    public enum SlowConsumerPolicy {
+        // Disconnect as soon as the queue is full
+        DISCONNECT,
+        // Drop timer frames that a newer queued frame supersedes, and merge queued PRESENCE
+        // frames into one that keeps each user's latest entry
+        DROP_SUPERSEDED,
+        // Also replace queued editor frames with one fresh document snapshot
+        COLLAPSE;
+
+        static SlowConsumerPolicy parse(String value) {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private final int maxMessages;
+    private final long maxChars;
+    private final SlowConsumerPolicy policy;
+    private final ArrayDeque<Message> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private volatile Supplier<Message> snapshotSource;
+    private long queuedChars; // Payload characters, a cheap stand-in for bytes
+    private boolean closed;
+
+    // Monitoring counters
+    private volatile int peakDepth;
+    private volatile long dropped;
+    // System.nanoTime() when the writer last took messages or, if the queue was empty then, the
+    // next message arrived; 0 while nothing is waiting
+    private volatile long waitingSince;
+
+    public OutboundQueue(int maxMessages, long maxChars, SlowConsumerPolicy policy) {
+        this.maxMessages = maxMessages;
+        this.maxChars = maxChars;
+        this.policy = policy;
+    }
+
+    public static Supplier<OutboundQueue> factory(ServerConfig config) {
+        int maxMessages = config.getInt("outbound-limit", 4096);
+        long maxChars = config.getLong("outbound-max-chars", 8L * 1024 * 1024);
+        SlowConsumerPolicy policy = SlowConsumerPolicy.parse(config.getString("slow-consumer", "collapse"));
+        return () -> new OutboundQueue(maxMessages, maxChars, policy);
+    }
+
+    // Source of a current DOC message, used by the COLLAPSE policy
+    public void setSnapshotSource(Supplier<Message> snapshotSource) {
+        this.snapshotSource = snapshotSource;
+    }
+
+    /**
+     * Queue a message. Returns false if the client cannot keep up and should be disconnected.
+     */
+    public boolean offer(Message message) {
+        lock.lock();
+        try {
+            if (closed) return false;
+            if (hasRoomFor(message) || makeRoom(message)) {
+                add(message);
+                return true;
+            }
+            if (policy != SlowConsumerPolicy.COLLAPSE || snapshotSource == null) {
+                return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        // The snapshot takes the document lock, so fetch it without holding ours
+        Message snapshot = snapshotSource.get();
+        lock.lock();
+        try {
+            if (closed) return false;
+            collapseEditorFrames(snapshot);
+            // Skip an editor frame the snapshot already covers
+            if (!isEditorFrame(message) || editorRevision(message) > editorRevision(snapshot)) {
+                if (!hasRoomFor(message)) return false;
+                add(message);
+            }
+            return queue.size() < maxMessages && queuedChars <= maxChars;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Move up to batch.length queued messages into batch, waiting while the queue is empty.
+     * Returns the number moved, or -1 once the queue is closed.
+     */
+    public int takeBatch(Message[] batch) throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            if (closed) return -1;
+            return drainLocked(batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Non-blocking variant of takeBatch for selector-driven writers; returns 0 when empty
+    public int pollBatch(Message[] batch) {
+        lock.lock();
+        try {
+            return drainLocked(batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int drainLocked(Message[] batch) {
+        int count = 0;
+        Message message;
+        while (count < batch.length && (message = queue.poll()) != null) {
+            queuedChars -= length(message);
+            batch[count++] = message;
+        }
+        waitingSince = queue.isEmpty() ? 0 : System.nanoTime();
+        return count;
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queue.clear();
+            queuedChars = 0;
+            waitingSince = 0;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getQueuedChars() {
+        lock.lock();
+        try {
+            return queuedChars;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // How long messages have been waiting without the writer taking any, 0 if none are waiting
+    public long getStalledNanos(long now) {
+        long since = waitingSince;
+        return since == 0 ? 0 : now - since;
+    }
+
+    public int getPeakDepth() { return peakDepth; }
+    public long getDropped() { return dropped; }
+
+    private boolean hasRoomFor(Message message) {
+        return queue.size() < maxMessages && queuedChars + length(message) <= maxChars;
+    }
+
+    private static int length(Message message) {
+        return message.payload().length();
+    }
+
+    private void add(Message message) {
+        if (queue.isEmpty() && waitingSince == 0) waitingSince = System.nanoTime();
+        queue.add(message);
+        queuedChars += length(message);
+        if (queue.size() > peakDepth) peakDepth = queue.size();
+        notEmpty.signal();
+    }
+
+    // Apply the cheap part of the policy: drop frames a newer frame makes redundant
+    private boolean makeRoom(Message message) {
+        if (policy == SlowConsumerPolicy.DISCONNECT) return false;
+        Set<String> seen = new HashSet<>();
+        String incomingKey = supersedeKey(message);
+        if (incomingKey != null) seen.add(incomingKey);
+        Iterator<Message> it = queue.descendingIterator();
+        while (it.hasNext()) {
+            Message queued = it.next();
+            String key = supersedeKey(queued);
+            if (key != null && !seen.add(key)) {
+                it.remove();
+                queuedChars -= length(queued);
+                dropped++;
+            }
+        }
+        mergePresence(message);
+        return hasRoomFor(message);
+    }
+
+    /**
+     * Fold queued PRESENCE frames into the newest one. Each carries only the users that changed,
+     * so the merged frame keeps the latest entry of every user, minus those the incoming frame
+     * or a later DISCONNECT of theirs makes stale.
+     */
+    private void mergePresence(Message incoming) {
+        Set<String> settled = new HashSet<>();
+        if (incoming.type() == MessageType.PRESENCE) {
+            for (String entry : incoming.payload().split("\n")) settled.add(presenceUser(entry));
+        }
+        ArrayDeque<String> kept = new ArrayDeque<>();
+        Message newest = null;
+        int frames = 0;
+        int entries = 0;
+        Iterator<Message> it = queue.descendingIterator();
+        while (it.hasNext()) {
+            Message queued = it.next();
+            if (queued.type() == MessageType.DISCONNECT) {
+                settled.add(queued.payload());
+            } else if (queued.type() == MessageType.PRESENCE) {
+                if (newest == null) newest = queued;
+                frames++;
+                String[] lines = queued.payload().split("\n");
+                entries += lines.length;
+                for (int i = lines.length - 1; i >= 0; i--) {
+                    if (settled.add(presenceUser(lines[i]))) kept.addFirst(lines[i]);
+                }
+            }
+        }
+        if (frames == 0 || (frames == 1 && kept.size() == entries)) return;
+
+        // The merged frame takes the newest one's place and sequence number
+        Message merged = kept.isEmpty() ? null
+                : Message.of(MessageType.PRESENCE, String.join("\n", kept)).withSeq(newest.seq());
+        ArrayDeque<Message> rebuilt = new ArrayDeque<>(queue.size());
+        for (Message queued : queue) {
+            if (queued.type() != MessageType.PRESENCE) {
+                rebuilt.add(queued);
+                continue;
+            }
+            queuedChars -= length(queued);
+            if (queued == newest && merged != null) {
+                rebuilt.add(merged);
+                queuedChars += length(merged);
+            } else {
+                dropped++;
+            }
+        }
+        queue.clear();
+        queue.addAll(rebuilt);
+    }
+
+    // PRESENCE entries are "<pos>,<focused>,<user>"
+    private static String presenceUser(String entry) {
+        return entry.substring(entry.indexOf(',', entry.indexOf(',') + 1) + 1);
+    }
+
+    /**
+     * Replace editor frames the snapshot covers with the snapshot itself. Frames for later
+     * revisions may have been queued while the snapshot was taken; they stay after it.
+     */
+    private void collapseEditorFrames(Message snapshot) {
+        int snapshotRevision = editorRevision(snapshot);
+        ArrayDeque<Message> rebuilt = new ArrayDeque<>(queue.size() + 1);
+        boolean inserted = false;
+        for (Message queued : queue) {
+            if (isEditorFrame(queued)) {
+                if (editorRevision(queued) <= snapshotRevision) {
+                    queuedChars -= length(queued);
+                    dropped++;
+                    continue;
+                }
+                if (!inserted) {
+                    rebuilt.add(snapshot);
+                    inserted = true;
+                }
+            }
+            rebuilt.add(queued);
+        }
+        if (!inserted) {
+            rebuilt.add(snapshot);
+        }
+        queue.clear();
+        queue.addAll(rebuilt);
+        queuedChars += length(snapshot);
+        if (queue.size() > peakDepth) peakDepth = queue.size();
+        notEmpty.signal();
+    }
+
+    // Frames with the same key carry a latest-value-wins state
+    static String supersedeKey(Message message) {
+        return message.type() == MessageType.TIMER_UPDATE ? "TIMER_UPDATE" : null;
+    }
+
+    static boolean isEditorFrame(Message message) {
+        return message.type() == MessageType.OP || message.type() == MessageType.DOC;
+    }
+
+    // Both OP and DOC frames carry the document revision as their first field
+    static int editorRevision(Message message) {
+        String payload = message.payload();
+        return Integer.parseInt(payload, 0, payload.indexOf(':'), 10);
+    }
+}
@@ -0,0 +1,158 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compares a program's output with the expected output line by line while it is being written,
+ * so neither side is ever held in memory as a whole. Trailing spaces, carriage returns and
+ * trailing blank lines are ignored. The first difference fails the check, after which the rest
+ * of the output is discarded.
+ */
+class OutputChecker extends OutputStream {
+    // Longest line either side may have
+    private static final int MAX_LINE = 8 * 1024 * 1024;
+    private static final int PREVIEW = 40;
+
+    private final InputStream expected;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream expectedLine = new ByteArrayOutputStream();
+    private boolean expectedDone;
+    private int lineNumber;
+    private volatile String mismatch;
+
+    OutputChecker(InputStream expected) {
+        this.expected = expected;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        if (mismatch != null) return;
+        if (b == '\n') {
+            endLine();
+        } else if (line.size() >= MAX_LINE) {
+            fail("line " + (lineNumber + 1) + " is longer than " + MAX_LINE + " bytes");
+        } else {
+            line.write(b);
+        }
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        int end = off + len;
+        int start = off;
+        for (int i = off; i < end && mismatch == null; i++) {
+            if (b[i] == '\n') {
+                line.write(b, start, i - start);
+                endLine();
+                start = i + 1;
+            }
+        }
+        if (mismatch == null && start < end) {
+            if (line.size() + end - start > MAX_LINE) {
+                fail("line " + (lineNumber + 1) + " is longer than " + MAX_LINE + " bytes");
+            } else {
+                line.write(b, start, end - start);
+            }
+        }
+    }
+
+    boolean isFailed() {
+        return mismatch != null;
+    }
+
+    // Where the output first went wrong, or null if it has matched so far
+    String getMismatch() {
+        return mismatch;
+    }
+
+    /**
+     * The verdict for a run whose output was written here, given what the run itself reported.
+     * A run stopped because its output went wrong is a wrong answer.
+     */
+    CaseResult verdict(CaseResult run) {
+        CaseResult.Verdict verdict = run.getVerdict();
+        if (verdict == CaseResult.Verdict.ACCEPTED) finish();
+        if ((verdict == CaseResult.Verdict.ACCEPTED || verdict == CaseResult.Verdict.OUTPUT_LIMIT) && isFailed()) {
+            return new CaseResult(CaseResult.Verdict.WRONG_ANSWER, getMismatch(), run.getRunMillis(), run.getMemoryBytes());
+        }
+        return run;
+    }
+
+    // The program has finished: check its last line and that nothing else was expected
+    synchronized void finish() {
+        if (mismatch != null) return;
+        if (line.size() > 0) endLine();
+        while (mismatch == null) {
+            byte[] rest = nextExpectedLine();
+            if (rest == null) break;
+            lineNumber++;
+            if (trimmedLength(rest, rest.length) > 0) {
+                fail("line " + lineNumber + ": expected \"" + preview(rest) + "\" but the output ended");
+            }
+        }
+    }
+
+    private void endLine() {
+        byte[] actual = line.toByteArray();
+        line.reset();
+        lineNumber++;
+        byte[] wanted = nextExpectedLine();
+        int actualLength = trimmedLength(actual, actual.length);
+        if (wanted == null) {
+            // Blank lines past the end of the expected output are tolerated
+            if (actualLength > 0) fail("line " + lineNumber + ": unexpected output \"" + preview(actual) + "\"");
+            return;
+        }
+        int wantedLength = trimmedLength(wanted, wanted.length);
+        if (!Arrays.equals(actual, 0, actualLength, wanted, 0, wantedLength)) {
+            fail("line " + lineNumber + ": expected \"" + preview(wanted) + "\" but got \"" + preview(actual) + "\"");
+        }
+    }
+
+    // Next line of the expected output without its newline, or null at the end
+    private byte[] nextExpectedLine() {
+        if (expectedDone) return null;
+        expectedLine.reset();
+        try {
+            int b;
+            while ((b = expected.read()) != -1 && b != '\n') {
+                if (expectedLine.size() >= MAX_LINE) {
+                    fail("expected output has a line longer than " + MAX_LINE + " bytes");
+                    return null;
+                }
+                expectedLine.write(b);
+            }
+            if (b == -1) {
+                expectedDone = true;
+                if (expectedLine.size() == 0) return null;
+            }
+        } catch (IOException e) {
+            fail("cannot read expected output: " + e.getMessage());
+            return null;
+        }
+        return expectedLine.toByteArray();
+    }
+
+    private void fail(String reason) {
+        if (mismatch == null) mismatch = reason;
+        line.reset();
+    }
+
+    private static int trimmedLength(byte[] bytes, int length) {
+        while (length > 0 && (bytes[length - 1] == ' ' || bytes[length - 1] == '\t' || bytes[length - 1] == '\r')) {
+            length--;
+        }
+        return length;
+    }
+
+    private static String preview(byte[] bytes) {
+        int length = trimmedLength(bytes, bytes.length);
+        String text = new String(bytes, 0, Math.min(length, PREVIEW), StandardCharsets.UTF_8);
+        return length > PREVIEW ? text + "..." : text;
+    }
+}
@@ -0,0 +1,9 @@
+package server;
+
+/**
+ * Receives a program's output while it runs, in the order it was written.
+ * Called on the thread that runs the job, in chunks of whole characters.
+ */
+public interface OutputListener {
+    void onOutput(boolean stderr, String text);
+}
@@ -0,0 +1,89 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import protocol.Message;
+import protocol.MessageType;
+
+/**
+ * Sends one run's output to everyone in the room as RUN_OUTPUT messages while it is produced.
+ *
+ * While any member's outbound queue is backed up, new output is held and merged into fewer,
+ * larger messages instead of adding to the backlog. What is held is capped; past the cap the
+ * oldest output is dropped and the room is told how much was skipped.
+ */
+class OutputRelay implements OutputListener {
+    // Queued messages for a member above which output is held back
+    private static final int BACKLOG_LIMIT = 256;
+    private static final int MAX_HELD_CHARS = 256 * 1024;
+
+    private final Room room;
+    private final String user;
+    // Held output in order, as segments of one stream each; guarded by this
+    private final List<Boolean> heldStreams = new ArrayList<>(); // true for stderr
+    private final List<StringBuilder> held = new ArrayList<>();
+    private int heldChars;
+    private long skippedChars;
+
+    OutputRelay(Room room, String user) {
+        this.room = room;
+        this.user = user;
+    }
+
+    @Override
+    public synchronized void onOutput(boolean stderr, String text) {
+        hold(stderr, text);
+        if (!isBackedUp()) send();
+    }
+
+    // The run is over: send whatever is still held
+    synchronized void finish() {
+        send();
+    }
+
+    private void hold(boolean stderr, String text) {
+        int last = held.size() - 1;
+        if (last < 0 || heldStreams.get(last) != stderr) {
+            heldStreams.add(stderr);
+            held.add(new StringBuilder());
+            last++;
+        }
+        held.get(last).append(text);
+        heldChars += text.length();
+        // Drop the oldest output beyond the cap
+        while (heldChars > MAX_HELD_CHARS) {
+            StringBuilder oldest = held.get(0);
+            int drop = Math.min(oldest.length(), heldChars - MAX_HELD_CHARS);
+            oldest.delete(0, drop);
+            heldChars -= drop;
+            skippedChars += drop;
+            if (oldest.length() == 0) {
+                held.remove(0);
+                heldStreams.remove(0);
+            }
+        }
+    }
+
+    private void send() {
+        if (skippedChars > 0) {
+            room.broadcast(Message.of(MessageType.RUN_OUTPUT, user + ":err:[" + skippedChars
+                    + " characters skipped, the room could not keep up]\n"), null);
+            skippedChars = 0;
+        }
+        for (int i = 0; i < held.size(); i++) {
+            String stream = heldStreams.get(i) ? "err" : "out";
+            room.broadcast(Message.of(MessageType.RUN_OUTPUT, user + ":" + stream + ":" + held.get(i)), null);
+        }
+        held.clear();
+        heldStreams.clear();
+        heldChars = 0;
+    }
+
+    private boolean isBackedUp() {
+        for (ClientHandler member : room.getMembers()) {
+            if (member.getConnection().getOutboundQueue().getDepth() > BACKLOG_LIMIT) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,78 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.KeySpec;
+import java.util.Base64;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Salted PBKDF2-HMAC-SHA256 password hashes, stored as pbkdf2-sha256$<iterations>$<salt>$<hash>
+ * with the salt and hash in Base64. Each hash carries its own iteration count, so raising it
+ * only affects new hashes. Hashing is deliberately slow; call it off the I/O threads.
+ */
+class PasswordHasher {
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    PasswordHasher(int iterations) {
+        this.iterations = iterations;
+    }
+
+    String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + base64.encodeToString(salt) + "$"
+                + base64.encodeToString(derive(password, salt, iterations));
+    }
+
+    // Stored values that are not hashes are passwords from older user files
+    static boolean isHash(String stored) {
+        return stored.startsWith(PREFIX);
+    }
+
+    boolean verify(String password, String stored) {
+        if (!isHash(stored)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) return false;
+        try {
+            int rounds = Integer.parseInt(parts[0]);
+            byte[] salt = Base64.getDecoder().decode(parts[1]);
+            byte[] expected = Base64.getDecoder().decode(parts[2]);
+            return MessageDigest.isEqual(derive(password, salt, rounds), expected);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // Plain passwords and hashes with fewer iterations than configured are replaced on login
+    boolean needsRehash(String stored) {
+        if (!isHash(stored)) return true;
+        int end = stored.indexOf('$', PREFIX.length());
+        try {
+            return end < 0 || Integer.parseInt(stored.substring(PREFIX.length(), end)) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static byte[] derive(String password, byte[] salt, int rounds) {
+        KeySpec spec = new PBEKeySpec(password.toCharArray(), salt, rounds, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
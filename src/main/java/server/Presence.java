@@ -0,0 +1,72 @@
+package server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import protocol.Message;
+import protocol.MessageType;
+
+/**
+ * Latest cursor position and window focus of every member in a room.
+ * Updates only overwrite state; flush() turns whatever changed since the last tick into a
+ * single PRESENCE frame, so superseded positions are dropped instead of queued.
+ */
+public class Presence {
+    private static class State {
+        volatile int cursor = -1;
+        volatile boolean focused = true;
+        final AtomicBoolean dirty = new AtomicBoolean();
+    }
+
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    public void updateCursor(String username, int position) {
+        State state = states.computeIfAbsent(username, key -> new State());
+        state.cursor = position;
+        markDirty(state);
+    }
+
+    public void updateFocus(String username, boolean focused) {
+        State state = states.computeIfAbsent(username, key -> new State());
+        state.focused = focused;
+        markDirty(state);
+    }
+
+    public void remove(String username) {
+        states.remove(username);
+    }
+
+    private void markDirty(State state) {
+        state.dirty.set(true);
+        dirty.set(true);
+    }
+
+    // Changes since the last flush, or null if nothing changed
+    public Message flush() {
+        if (!dirty.getAndSet(false)) return null;
+        StringBuilder payload = new StringBuilder();
+        for (Map.Entry<String, State> entry : states.entrySet()) {
+            State state = entry.getValue();
+            if (state.dirty.getAndSet(false)) {
+                append(payload, entry.getKey(), state);
+            }
+        }
+        return payload.length() == 0 ? null : Message.of(MessageType.PRESENCE, payload.toString());
+    }
+
+    // Everyone's current state, for members who just joined
+    public Message snapshot() {
+        StringBuilder payload = new StringBuilder();
+        for (Map.Entry<String, State> entry : states.entrySet()) {
+            append(payload, entry.getKey(), entry.getValue());
+        }
+        return payload.length() == 0 ? null : Message.of(MessageType.PRESENCE, payload.toString());
+    }
+
+    private static void append(StringBuilder payload, String username, State state) {
+        if (payload.length() > 0) payload.append('\n');
+        payload.append(state.cursor).append(',').append(state.focused ? 1 : 0).append(',').append(username);
+    }
+}
@@ -0,0 +1,120 @@
+package server;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * An interview problem's test suite, kept in its own directory under the problems root.
+ * Every <name>.in file with a matching <name>.out is a test case; cases run in name order,
+ * with numbers compared by value (2.in before 10.in). An optional problem.properties sets
+ * time-limit-ms, the wall-clock limit for each case, and deterministic=true if solutions always
+ * give the same output for the same input, which lets their results be cached.
+ */
+public class Problem {
+    public static final long DEFAULT_TIME_LIMIT_MS = 2000;
+    private static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    public static final class TestCase {
+        private final String name;
+        private final Path input;
+        private final Path expected;
+
+        TestCase(String name, Path input, Path expected) {
+            this.name = name;
+            this.input = input;
+            this.expected = expected;
+        }
+
+        public String getName() { return name; }
+        public Path getInput() { return input; }
+        public Path getExpected() { return expected; }
+    }
+
+    private final String id;
+    private final long timeLimitMs;
+    private final boolean deterministic;
+    private final List<TestCase> cases;
+
+    private Problem(String id, long timeLimitMs, boolean deterministic, List<TestCase> cases) {
+        this.id = id;
+        this.timeLimitMs = timeLimitMs;
+        this.deterministic = deterministic;
+        this.cases = cases;
+    }
+
+    // Only lists the case files; their contents are streamed when the cases run
+    public static Problem load(Path root, String id) throws IOException {
+        if (!VALID_ID.matcher(id).matches()) throw new IOException("Invalid problem id: " + id);
+        Path dir = root.resolve(id);
+        if (!Files.isDirectory(dir)) throw new IOException("No such problem: " + id);
+
+        Properties properties = new Properties();
+        Path propertiesFile = dir.resolve("problem.properties");
+        if (Files.exists(propertiesFile)) {
+            try (Reader reader = Files.newBufferedReader(propertiesFile)) {
+                properties.load(reader);
+            }
+        }
+        long timeLimitMs;
+        try {
+            timeLimitMs = Long.parseLong(properties.getProperty("time-limit-ms", String.valueOf(DEFAULT_TIME_LIMIT_MS)).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid time-limit-ms for problem " + id);
+        }
+        boolean deterministic = Boolean.parseBoolean(properties.getProperty("deterministic", "false").trim());
+
+        List<TestCase> cases = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path input : (Iterable<Path>) files.filter(path -> path.getFileName().toString().endsWith(".in"))::iterator) {
+                String file = input.getFileName().toString();
+                String name = file.substring(0, file.length() - 3);
+                Path expected = dir.resolve(name + ".out");
+                if (Files.exists(expected)) cases.add(new TestCase(name, input, expected));
+            }
+        }
+        if (cases.isEmpty()) throw new IOException("Problem " + id + " has no test cases");
+        cases.sort(Comparator.comparing(TestCase::getName, Problem::compareNames));
+        return new Problem(id, timeLimitMs, deterministic, List.copyOf(cases));
+    }
+
+    public String getId() { return id; }
+    public long getTimeLimitMs() { return timeLimitMs; }
+    public boolean isDeterministic() { return deterministic; }
+    public List<TestCase> getCases() { return cases; }
+
+    // Compares runs of digits by value and everything else character by character
+    private static int compareNames(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            char x = a.charAt(i);
+            char y = b.charAt(j);
+            if (Character.isDigit(x) && Character.isDigit(y)) {
+                int endA = i;
+                int endB = j;
+                while (endA < a.length() && Character.isDigit(a.charAt(endA))) endA++;
+                while (endB < b.length() && Character.isDigit(b.charAt(endB))) endB++;
+                String numberA = a.substring(i, endA).replaceFirst("^0+(?=.)", "");
+                String numberB = b.substring(j, endB).replaceFirst("^0+(?=.)", "");
+                int order = numberA.length() != numberB.length()
+                        ? Integer.compare(numberA.length(), numberB.length()) : numberA.compareTo(numberB);
+                if (order != 0) return order;
+                i = endA;
+                j = endB;
+            } else {
+                if (x != y) return Character.compare(x, y);
+                i++;
+                j++;
+            }
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+}
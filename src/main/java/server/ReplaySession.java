@@ -0,0 +1,342 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import protocol.Message;
+import protocol.MessageType;
+import protocol.TextOperation;
+
+/**
+ * Plays a room's recording back to one client as ordinary DOC, OP, CHAT, PRESENCE and
+ * TIMER_UPDATE messages, at 1x to 32x speed.
+ *
+ * Seeking looks up the last keyframe before the target in the time index, rebuilds the state
+ * from there on the server and sends it as one snapshot, so its cost is bounded by the keyframe
+ * interval rather than the length of the session. Playback only reads forward from the log.
+ */
+public class ReplaySession {
+    public static final int MAX_SPEED = 32;
+    // Longest wait between progress updates while nothing happens
+    private static final long MAX_WAIT_MS = 250;
+    // Fewest milliseconds between two progress updates during playback
+    private static final long POSITION_INTERVAL_MS = 100;
+    private static final int CHAT_LINES = 200;
+
+    private static final class Event {
+        final long time;
+        final byte type;
+        final String payload;
+
+        Event(long time, byte type, String payload) {
+            this.time = time;
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    private final ClientHandler viewer;
+    private final ScheduledExecutorService scheduler;
+    private final FileChannel log;
+    private final long length;
+    private final long[] keyframeTimes;
+    private final long[] keyframeOffsets;
+    private final long start;
+    private long end;
+
+    // Playback state, guarded by this
+    private DataInputStream in;
+    private long readOffset;
+    private Event next;
+    private int speed = 1;
+    private boolean paused = true;
+    private long timeAnchor;  // Session time at wallAnchor
+    private long wallAnchor;  // System.nanoTime() when playback was last (re)started
+    private ScheduledFuture<?> pending;
+    private long lastPositionSent; // System.nanoTime()
+    private boolean closed;
+
+    private ReplaySession(ClientHandler viewer, ScheduledExecutorService scheduler, FileChannel log, long length,
+                          long[][] keyframes) {
+        this.viewer = viewer;
+        this.scheduler = scheduler;
+        this.log = log;
+        this.length = length;
+        this.keyframeTimes = keyframes[0];
+        this.keyframeOffsets = keyframes[1];
+        this.start = keyframeTimes[0];
+    }
+
+    /**
+     * Open the recording in dir for one viewer, or return null if there is none.
+     * Only what was on disk when it was opened is played.
+     */
+    static ReplaySession open(Path dir, ClientHandler viewer, ScheduledExecutorService scheduler) throws IOException {
+        Path logPath = dir.resolve(SessionRecorder.LOG_FILE);
+        if (!Files.exists(logPath)) return null;
+        long[][] keyframes = SessionRecorder.readIndex(dir.resolve(SessionRecorder.INDEX_FILE));
+        FileChannel log = FileChannel.open(logPath, StandardOpenOption.READ);
+        long length = log.size();
+        int usable = keyframes[1].length;
+        while (usable > 0 && keyframes[1][usable - 1] >= length) usable--;
+        if (usable == 0) {
+            log.close();
+            return null;
+        }
+        keyframes = new long[][] {Arrays.copyOf(keyframes[0], usable), Arrays.copyOf(keyframes[1], usable)};
+        ReplaySession session = new ReplaySession(viewer, scheduler, log, length, keyframes);
+        // The session ends at the last event after the last keyframe
+        session.end = keyframes[0][usable - 1];
+        session.position(keyframes[1][usable - 1]);
+        Event event;
+        while ((event = session.read()) != null) {
+            session.end = event.time;
+        }
+        return session;
+    }
+
+    // Tell the viewer how long the session is and show its start
+    public synchronized void start() {
+        viewer.sendMessage(Message.of(MessageType.REPLAY, String.valueOf(end - start)));
+        seek(0);
+    }
+
+    // Jump to a point in the session, in ms from its start
+    public synchronized void seek(long offsetMs) {
+        if (closed) return;
+        cancelPending();
+        long target = start + Math.max(0, Math.min(offsetMs, end - start));
+        int keyframe = keyframeBefore(target);
+
+        // Rebuild the state at target from the keyframe
+        StringBuilder text = new StringBuilder();
+        int revision = 0;
+        String timer = null;
+        Map<String, String> presence = new LinkedHashMap<>();
+        ArrayDeque<String> chat = new ArrayDeque<>();
+        try {
+            position(keyframeOffsets[keyframe]);
+            next = read();
+            while (next != null && next.time <= target) {
+                Event event = next;
+                switch (event.type) {
+                    case SessionRecorder.KEYFRAME: {
+                        String[] fields = event.payload.split(":", 4);
+                        revision = Integer.parseInt(fields[0]);
+                        timer = fields[1] + ":" + fields[2];
+                        text.setLength(0);
+                        text.append(fields[3]);
+                        chat.clear();
+                        presence.clear();
+                        break;
+                    }
+                    case SessionRecorder.OP: {
+                        String[] fields = event.payload.split(":", 3);
+                        revision = Integer.parseInt(fields[0]);
+                        TextOperation.parse(fields[2]).applyTo(text);
+                        break;
+                    }
+                    case SessionRecorder.CHAT:
+                    case SessionRecorder.KEYFRAME_CHAT:
+                        chat.addLast(event.payload);
+                        if (chat.size() > CHAT_LINES) chat.removeFirst();
+                        break;
+                    case SessionRecorder.TIMER:
+                        timer = event.payload;
+                        break;
+                    case SessionRecorder.PRESENCE:
+                        for (String entry : event.payload.split("\n")) {
+                            int comma = entry.indexOf(',', entry.indexOf(',') + 1);
+                            if (comma > 0) presence.put(entry.substring(comma + 1), entry);
+                        }
+                        break;
+                    case SessionRecorder.DISCONNECT:
+                        presence.remove(event.payload);
+                        break;
+                    default:
+                        break;
+                }
+                next = read();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Replay seek failed: " + e.getMessage());
+            close();
+            viewer.sendMessage(Message.of(MessageType.ERROR, "Recording could not be read"));
+            return;
+        }
+
+        // The viewer clears its chat and cursors on REPLAY_SEEK, then gets the rebuilt state
+        viewer.sendMessage(Message.of(MessageType.REPLAY_SEEK, String.valueOf(target - start)));
+        viewer.sendMessage(Message.of(MessageType.DOC, revision + ":" + text));
+        if (timer != null) {
+            viewer.sendMessage(Message.of(MessageType.TIMER_UPDATE, timer));
+        }
+        if (!presence.isEmpty()) {
+            viewer.sendMessage(Message.of(MessageType.PRESENCE, String.join("\n", presence.values())));
+        }
+        for (String line : chat) {
+            viewer.sendMessage(Message.of(MessageType.CHAT, line));
+        }
+        viewer.sendMessage(Message.of(MessageType.REPLAY_POS, String.valueOf(target - start)));
+        timeAnchor = target;
+        wallAnchor = System.nanoTime();
+        if (!paused) schedule();
+    }
+
+    public synchronized void setSpeed(int newSpeed) {
+        if (closed) return;
+        reanchor();
+        speed = Math.max(1, Math.min(MAX_SPEED, newSpeed));
+        if (!paused) {
+            cancelPending();
+            schedule();
+        }
+    }
+
+    public synchronized void pause() {
+        if (closed || paused) return;
+        reanchor();
+        paused = true;
+        cancelPending();
+        viewer.sendMessage(Message.of(MessageType.REPLAY_POS, String.valueOf(timeAnchor - start)));
+    }
+
+    public synchronized void resume() {
+        if (closed || !paused) return;
+        if (next == null) {
+            // Finished: play again from the start
+            paused = false;
+            seek(0);
+            return;
+        }
+        paused = false;
+        wallAnchor = System.nanoTime();
+        schedule();
+    }
+
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        cancelPending();
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Error closing recording: " + e.getMessage());
+        }
+    }
+
+    // Session time the playback has reached
+    private long now() {
+        if (paused) return timeAnchor;
+        return timeAnchor + (System.nanoTime() - wallAnchor) / 1_000_000 * speed;
+    }
+
+    private void reanchor() {
+        timeAnchor = now();
+        wallAnchor = System.nanoTime();
+    }
+
+    private void schedule() {
+        long wait = next == null ? 0 : Math.min(MAX_WAIT_MS, Math.max(0, (next.time - now()) / speed));
+        pending = scheduler.schedule(this::tick, wait, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelPending() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    // Send every event that is due, then wait for the next one
+    private synchronized void tick() {
+        if (closed || paused) return;
+        long now = now();
+        try {
+            while (next != null && next.time <= now) {
+                send(next);
+                next = read();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Replay failed: " + e.getMessage());
+            next = null;
+        }
+        if (next == null) {
+            // End of the recording
+            timeAnchor = end;
+            paused = true;
+            viewer.sendMessage(Message.of(MessageType.REPLAY_POS, String.valueOf(end - start)));
+            viewer.sendMessage(Message.of(MessageType.REPLAY_PAUSE));
+            return;
+        }
+        long wallNow = System.nanoTime();
+        if (wallNow - lastPositionSent >= POSITION_INTERVAL_MS * 1_000_000) {
+            lastPositionSent = wallNow;
+            viewer.sendMessage(Message.of(MessageType.REPLAY_POS, String.valueOf(Math.min(now, end) - start)));
+        }
+        schedule();
+    }
+
+    private void send(Event event) {
+        switch (event.type) {
+            case SessionRecorder.OP:
+                viewer.sendMessage(Message.of(MessageType.OP, event.payload));
+                break;
+            case SessionRecorder.CHAT:
+                viewer.sendMessage(Message.of(MessageType.CHAT, event.payload));
+                break;
+            case SessionRecorder.TIMER:
+                viewer.sendMessage(Message.of(MessageType.TIMER_UPDATE, event.payload));
+                break;
+            case SessionRecorder.PRESENCE:
+                viewer.sendMessage(Message.of(MessageType.PRESENCE, event.payload));
+                break;
+            case SessionRecorder.DISCONNECT:
+                viewer.sendMessage(Message.of(MessageType.DISCONNECT, event.payload));
+                break;
+            default:
+                // Keyframes repeat state the viewer already has
+                break;
+        }
+    }
+
+    // Index of the last keyframe at or before time (the first one if time is earlier)
+    private int keyframeBefore(long time) {
+        int found = Arrays.binarySearch(keyframeTimes, time);
+        if (found < 0) found = -found - 2;
+        // Several keyframes can share a time; take the last of them
+        while (found + 1 < keyframeTimes.length && keyframeTimes[found + 1] == time) found++;
+        return Math.max(0, found);
+    }
+
+    private void position(long offset) throws IOException {
+        readOffset = offset;
+        in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(log.position(offset))));
+    }
+
+    // Next event in the log, or null at the end of what was recorded when the replay opened
+    private Event read() throws IOException {
+        if (readOffset + SessionRecorder.RECORD_HEADER > length) return null;
+        int size = in.readInt();
+        if (readOffset + SessionRecorder.RECORD_HEADER + size > length) return null;
+        long time = in.readLong();
+        byte type = in.readByte();
+        byte[] bytes = in.readNBytes(size);
+        readOffset += SessionRecorder.RECORD_HEADER + size;
+        return new Event(time, type, new String(bytes, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,64 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import protocol.Message;
+
+/**
+ * The most recent frames a room broadcast, in sequence order, so a member that lost its
+ * connection can be sent just what it missed. Bounded both by frame count and by payload
+ * characters; once a frame falls out, members that had not seen it get a snapshot instead.
+ */
+class ResumeBuffer {
+    private final Message[] frames;
+    private final String[] excluded; // Client id the frame was not sent to, or null
+    private final long maxChars;
+    // Guarded by this
+    private int head; // Index of the oldest frame
+    private int size;
+    private long chars;
+
+    ResumeBuffer(int maxFrames, long maxChars) {
+        this.frames = new Message[Math.max(1, maxFrames)];
+        this.excluded = new String[frames.length];
+        this.maxChars = maxChars;
+    }
+
+    // Frames must be added in sequence order
+    synchronized void add(Message frame, String excludedClient) {
+        if (size == frames.length) removeOldest();
+        int index = (head + size) % frames.length;
+        frames[index] = frame;
+        excluded[index] = excludedClient;
+        size++;
+        chars += frame.payload().length();
+        while (chars > maxChars && size > 1) removeOldest();
+    }
+
+    /**
+     * Frames after seq that were sent to clientId, oldest first, or null if some of them are
+     * no longer held. latestSeq is the room's last sequence number, for telling the two apart.
+     */
+    synchronized List<Message> after(long seq, long latestSeq, String clientId) {
+        if (seq > latestSeq) return null;
+        List<Message> missed = new ArrayList<>();
+        if (seq == latestSeq) return missed;
+        if (size == 0 || frames[head].seq() > seq + 1) return null;
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % frames.length;
+            if (frames[index].seq() > seq && (clientId == null || !clientId.equals(excluded[index]))) {
+                missed.add(frames[index]);
+            }
+        }
+        return missed;
+    }
+
+    private void removeOldest() {
+        chars -= frames[head].payload().length();
+        frames[head] = null;
+        excluded[head] = null;
+        head = (head + 1) % frames.length;
+        size--;
+    }
+}
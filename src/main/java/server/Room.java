@@ -0,0 +1,582 @@
+package server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import protocol.Message;
+import protocol.MessageType;
+import protocol.TextOperation;
+
+/**
+ * One interview session: its members, shared document, presence and timer.
+ * Each room guards its own state, so a busy room never contends with another one.
+ * Document, chat and timer changes are written to the room's session journal, if it has one,
+ * and every event including presence to its replay recording.
+ *
+ * Broadcasts are numbered in order and the latest ones kept, so a member whose connection
+ * dropped can resume with just the frames it missed. The numbering starts over in each room
+ * instance; the epoch tells a resuming client whether its numbers still apply.
+ *
+ * In cluster mode a room can move to another node. While its state is on the way, edits, chat
+ * and timer changes are turned away, so the new owner starts from exactly what was sent.
+ */
+public class Room {
+    // Chat lines kept in journal snapshots and recording keyframes
+    private static final int CHAT_SNAPSHOT = 200;
+    // Distinct across restarts, so an epoch is never reused for a different room instance
+    private static final AtomicLong EPOCHS = new AtomicLong(System.currentTimeMillis());
+    private static volatile int resumeFrames = 1024;
+    private static volatile long resumeChars = 4L * 1024 * 1024;
+    private static volatile int chatCapacity = 1000;
+    private static volatile boolean chatSpill = true;
+    private static volatile int chatBackfill = 50;
+    private static volatile int chatPageSize = 100;
+
+    private final String code;
+    private final long epoch = EPOCHS.incrementAndGet();
+    private final List<ClientHandler> members = new CopyOnWriteArrayList<>();
+    private final SharedDocument document = new SharedDocument();
+    private final Presence presence = new Presence();
+    // Guarded by the document lock, which every broadcast takes
+    private long seq;
+    private final ResumeBuffer resumeBuffer = new ResumeBuffer(resumeFrames, resumeChars);
+    // Load on the room, for metrics
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder broadcasts = new LongAdder();
+    private final LongAdder framesQueued = new LongAdder();
+    private final LongAdder fanoutNanos = new LongAdder();
+
+    // Guarded by its own monitor, the room's timer lock
+    private final RoomTimer timer = new RoomTimer();
+    // The latest timer broadcast, for members who join later
+    private volatile Message timerUpdate;
+    // Set while an expired countdown locks the editor; read under the document lock
+    private volatile boolean editorLocked;
+
+    // Chat is journaled under chatLock and numbered under the document lock
+    private final Object chatLock = new Object();
+    private final ChatHistory chat = new ChatHistory(chatCapacity, chatSpill);
+
+    private volatile SessionJournal journal;
+    private volatile SessionRecorder recorder;
+    // Client address of the node the room is being handed off to, null when it stays here
+    private volatile String movingTo;
+
+    public Room(String code) {
+        this.code = code;
+        this.timerUpdate = timerMessage("sync");
+    }
+
+    // Buffer and chat history sizes, for rooms created after the call, and when countdowns warn
+    static void configure(ServerConfig config) {
+        resumeFrames = config.getInt("resume-buffer-frames", 1024);
+        resumeChars = config.getLong("resume-buffer-chars", 4L * 1024 * 1024);
+        chatCapacity = config.getInt("chat-history", 1000);
+        chatSpill = config.getBoolean("chat-spill", true);
+        chatBackfill = config.getInt("chat-backfill", 50);
+        chatPageSize = config.getInt("chat-page", 100);
+        RoomTimer.configureWarnings(config.getString("timer-warnings", "300,60"));
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public SharedDocument getDocument() {
+        return document;
+    }
+
+    /**
+     * Transform and apply an operation, and journal it. Callers that broadcast the result hold
+     * the document lock around both, so members see operations in revision order.
+     */
+    public TextOperation applyOperation(int baseRevision, TextOperation op, String author) {
+        synchronized (document) {
+            TextOperation applied = document.apply(baseRevision, op);
+            recordOperation(applied, author);
+            return applied;
+        }
+    }
+
+    public TextOperation replaceDocument(String text, String author) {
+        synchronized (document) {
+            TextOperation applied = document.replaceAll(text);
+            recordOperation(applied, author);
+            return applied;
+        }
+    }
+
+    private void recordOperation(TextOperation applied, String author) {
+        String serialized = applied.serialize();
+        journal(SessionJournal.OP, document.getRevision() + ":" + serialized);
+        record(SessionRecorder.OP, document.getRevision() + ":" + author + ":" + serialized);
+    }
+
+    /**
+     * Record a chat message and send it to the whole room, the sender included, so every member
+     * sees chat in the order it is numbered. It is numbered and sent under the document lock,
+     * which a joining member's backfill is taken under too, so the two never overlap.
+     * The line is "<username>:<text>" with the sender's logged-in name, never one the client
+     * supplied. Returns false if the room is moving to another node.
+     */
+    public boolean chat(String username, String text) {
+        // One line per message, so history pages can be newline-separated
+        String line = (username + ":" + text).replace('\n', ' ').replace('\r', ' ');
+        synchronized (chatLock) {
+            if (movingTo != null) return false;
+            journal(SessionJournal.CHAT, line);
+            record(SessionRecorder.CHAT, line);
+            synchronized (document) {
+                chat.add(line);
+                broadcast(Message.of(MessageType.CHAT, line), null);
+            }
+        }
+        return true;
+    }
+
+    // The latest chat for a member who just joined; callers hold the document lock
+    Message chatBackfill() {
+        return pageMessage(chat.page(chat.getNewest() + 1, chatBackfill));
+    }
+
+    // Chat before line number before, for a member scrolling back
+    Message chatPage(long before) {
+        return pageMessage(chat.page(before, chatPageSize));
+    }
+
+    // CHAT_PAGE payload: <first>:<older> then one chat line per message; <first> is the first one's
+    // number and <older> is 1 if earlier lines can still be fetched
+    private static Message pageMessage(ChatHistory.Page page) {
+        StringBuilder payload = new StringBuilder().append(page.first).append(':').append(page.older ? 1 : 0);
+        for (String line : page.lines) {
+            payload.append('\n').append(line);
+        }
+        return Message.of(MessageType.CHAT_PAGE, payload.toString());
+    }
+
+    public Presence getPresence() {
+        return presence;
+    }
+
+    // Called on every presence tick: send one frame with all cursor and focus changes
+    void flushPresence() {
+        Message update = presence.flush();
+        if (update != null) {
+            record(SessionRecorder.PRESENCE, update.payload());
+            broadcast(update, null);
+        }
+    }
+
+    // Tell the rest of the room that a member left
+    public void announceDeparture(String username, ClientHandler member) {
+        record(SessionRecorder.DISCONNECT, username);
+        broadcast(Message.of(MessageType.DISCONNECT, username), member);
+    }
+
+    public List<ClientHandler> getMembers() {
+        return members;
+    }
+
+    // Membership changes go through RoomRegistry so empty rooms are removed atomically.
+    // The welcome is sent under the document lock, so the member misses no broadcast and sees none twice
+    void addMember(ClientHandler member) {
+        synchronized (document) {
+            members.add(member);
+            member.onJoined(this);
+        }
+    }
+
+    void removeMember(ClientHandler member) {
+        members.remove(member);
+    }
+
+    public boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    /**
+     * Send a message to every member except the sender (null sends to everyone). Numbering and
+     * sending happen under the document lock, so every member receives frames in sequence order.
+     */
+    public void broadcast(Message message, ClientHandler sender) {
+        synchronized (document) {
+            long start = System.nanoTime();
+            Message frame = message.withSeq(++seq);
+            resumeBuffer.add(frame, sender != null ? sender.getClientId() : null);
+            int recipients = 0;
+            for (ClientHandler member : members) {
+                if (member != sender) {
+                    member.sendMessage(frame);
+                    recipients++;
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            Metrics.fannedOut(message.type(), nanos);
+            broadcasts.increment();
+            framesQueued.add(recipients);
+            fanoutNanos.add(nanos);
+        }
+    }
+
+    // A message from a member, for metrics
+    void countReceived() {
+        messagesReceived.increment();
+    }
+
+    long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    long getBroadcasts() {
+        return broadcasts.sum();
+    }
+
+    // Broadcast frames queued for members, one per recipient
+    long getFramesQueued() {
+        return framesQueued.sum();
+    }
+
+    long getFanoutNanos() {
+        return fanoutNanos.sum();
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    // Sequence number of the latest broadcast; callers hold the document lock
+    long getSeq() {
+        return seq;
+    }
+
+    /**
+     * Broadcasts after lastSeq that clientId was sent, or null if they are no longer all held.
+     * Callers hold the document lock.
+     */
+    List<Message> missedSince(long lastSeq, String clientId) {
+        return resumeBuffer.after(lastSeq, seq, clientId);
+    }
+
+    public void startTimer() {
+        synchronized (timer) {
+            if (movingTo == null && timer.start()) timerChanged("start");
+        }
+    }
+
+    public void pauseTimer() {
+        synchronized (timer) {
+            if (movingTo == null && timer.pause()) timerChanged("pause");
+        }
+    }
+
+    public void resetTimer() {
+        synchronized (timer) {
+            if (movingTo != null) return;
+            timer.reset();
+            timerChanged("reset");
+        }
+    }
+
+    // Count down from durationMs, or up if it is 0
+    public void setTimerDuration(long durationMs) {
+        synchronized (timer) {
+            if (movingTo != null) return;
+            timer.setDuration(durationMs);
+            timerChanged(timer.isExpired() ? "expire" : "duration");
+        }
+    }
+
+    // Whether the room is being handed off to another node; read under the document lock to turn edits away
+    public boolean isMoving() {
+        return movingTo != null;
+    }
+
+    // "<host>:<port>" of the node the room is moving to, or null
+    String getMovingTo() {
+        return movingTo;
+    }
+
+    // Whether an expired countdown has locked the editor
+    public boolean isEditorLocked() {
+        return editorLocked;
+    }
+
+    // The latest timer state, sent to members as they join
+    Message getTimerUpdate() {
+        String payload = timerUpdate.payload();
+        return Message.of(MessageType.TIMER_UPDATE, payload.substring(0, payload.lastIndexOf(':') + 1) + "sync");
+    }
+
+    // Runs on the shared timer thread at a warning threshold or the end of a countdown
+    private void onTimerDue() {
+        synchronized (timer) {
+            String event = timer.onDue();
+            if (event != null) {
+                timerChanged(event);
+            } else {
+                timer.schedule(this::onTimerDue); // Woke up early
+            }
+        }
+    }
+
+    // Journal and broadcast a timer transition, and schedule the next one; holds the timer lock
+    private void timerChanged(String event) {
+        timer.schedule(this::onTimerDue);
+        editorLocked = timer.isExpired();
+        journal(SessionJournal.TIMER, timerState() + ":" + timer.getDurationMs() / 1000);
+        record(SessionRecorder.TIMER, timerState());
+        Message update = timerMessage(event);
+        timerUpdate = update;
+        broadcast(update, null);
+    }
+
+    /**
+     * TIMER_UPDATE payload: <elapsedMs>:<running|paused|expired>:<serverTimeMs>:<durationMs>:<event>,
+     * the elapsed time as of the server's clock reading; a duration of 0 counts up. The event is
+     * start, pause, reset, duration, warn, expire, or sync for a member who just joined.
+     */
+    private Message timerMessage(String event) {
+        return Message.of(MessageType.TIMER_UPDATE, timer.getElapsedMs() + ":" + timer.getStatus() + ":"
+                + System.currentTimeMillis() + ":" + timer.getDurationMs() + ":" + event);
+    }
+
+    // Journal and recording form, <elapsedSeconds>:<status>; guarded by the timer lock
+    private String timerState() {
+        return timer.getElapsedMs() / 1000 + ":" + timer.getStatus();
+    }
+
+    void attachJournal(SessionJournal journal) {
+        this.journal = journal;
+    }
+
+    void attachRecorder(SessionRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    // Called when the room is removed from the registry; journal and recording stay on disk
+    void closeSession() {
+        synchronized (timer) {
+            timer.cancel();
+        }
+        SessionJournal currentJournal = journal;
+        if (currentJournal != null) currentJournal.close();
+        SessionRecorder currentRecorder = recorder;
+        if (currentRecorder != null) currentRecorder.close();
+        chat.close();
+    }
+
+    private void record(byte type, String payload) {
+        SessionRecorder current = recorder;
+        if (current != null) current.record(type, payload);
+    }
+
+    private void journal(byte type, String payload) {
+        SessionJournal current = journal;
+        if (current != null) current.append(type, payload);
+    }
+
+    // Called on the journal sync tick
+    void syncJournal() {
+        SessionJournal current = journal;
+        if (current != null) {
+            current.sync();
+            if (current.isSnapshotDue()) {
+                snapshotJournal();
+            }
+        }
+        SessionRecorder currentRecorder = recorder;
+        if (currentRecorder != null) {
+            currentRecorder.flush();
+            if (currentRecorder.isKeyframeDue()) {
+                writeKeyframe();
+            }
+        }
+    }
+
+    // Record the whole room state so replays can seek without starting from the beginning
+    void writeKeyframe() {
+        SessionRecorder current = recorder;
+        if (current == null) return;
+        Message presenceSnapshot = presence.snapshot();
+        String presencePayload = presenceSnapshot != null ? presenceSnapshot.payload() : null;
+        // Same lock order as snapshotJournal
+        synchronized (timer) {
+            synchronized (chatLock) {
+                synchronized (document) {
+                    current.keyframe(document.getRevision(), timerState(),
+                            document.getText(), chat.recent(CHAT_SNAPSHOT), presencePayload);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a compacted snapshot of the room. The state is captured and the journal switched to
+     * a new segment under all of the room's locks; the file itself is written after they are
+     * released. Every broadcast takes the document lock, timer updates among them, so the
+     * locks are always nested timer, chat, document.
+     */
+    void snapshotJournal() {
+        SessionJournal current = journal;
+        if (current == null) return;
+        SessionJournal.Snapshot snapshot;
+        try {
+            synchronized (timer) {
+                synchronized (chatLock) {
+                    synchronized (document) {
+                        long generation = current.beginSnapshot();
+                        snapshot = new SessionJournal.Snapshot(generation, document.getRevision(), document.getText(),
+                                (int) (timer.getElapsedMs() / 1000), (int) (timer.getDurationMs() / 1000),
+                                timer.isExpired(), chat.recent(CHAT_SNAPSHOT));
+                    }
+                }
+            }
+            current.writeSnapshot(snapshot);
+        } catch (IOException e) {
+            System.err.println("Snapshot failed for room " + code + ": " + e.getMessage());
+        }
+    }
+
+    // Recovery: start from a snapshot (the timer comes back paused)
+    void restore(SessionJournal.Snapshot snapshot) {
+        document.restore(snapshot.revision, snapshot.text);
+        restoreTimer(snapshot.timerElapsed * 1000L, snapshot.timerDuration * 1000L, snapshot.timerExpired);
+        for (String line : snapshot.chat) {
+            chat.add(line);
+        }
+    }
+
+    private void restoreTimer(long elapsedMs, long durationMs, boolean expired) {
+        synchronized (timer) {
+            timer.restore(elapsedMs, durationMs, expired);
+            editorLocked = timer.isExpired();
+            timerUpdate = timerMessage("sync");
+        }
+    }
+
+    /**
+     * Start handing the room off to another node: capture its state and turn changes away until
+     * the handoff is cancelled or the room is dropped. Returns null if it is already moving.
+     * The state is <revision>:<elapsedMs>:<durationMs>:<timer status>:<chat lines>,
+     * then each chat line on its own line, then the document.
+     */
+    String beginHandoff(String address) {
+        synchronized (timer) {
+            synchronized (chatLock) {
+                synchronized (document) {
+                    if (movingTo != null) return null;
+                    movingTo = address;
+                    List<String> lines = chat.recent(Integer.MAX_VALUE);
+                    StringBuilder state = new StringBuilder()
+                            .append(document.getRevision()).append(':')
+                            .append(timer.getElapsedMs()).append(':')
+                            .append(timer.getDurationMs()).append(':')
+                            .append(timer.getStatus()).append(':')
+                            .append(lines.size()).append('\n');
+                    for (String line : lines) {
+                        state.append(line).append('\n');
+                    }
+                    return state.append(document.getText()).toString();
+                }
+            }
+        }
+    }
+
+    // The new owner did not answer; take changes again and retry later
+    void cancelHandoff() {
+        movingTo = null;
+    }
+
+    // The handoff is complete: send every member to the new owner, without announcing departures
+    void redirectMembers() {
+        synchronized (document) {
+            Message redirect = Message.of(MessageType.REDIRECT, code + ":" + movingTo);
+            for (ClientHandler member : members) {
+                member.redirect(this, redirect);
+            }
+            members.clear();
+        }
+    }
+
+    /**
+     * Take the state another node handed off. It replaces what is here unless this room has
+     * edits past the incoming revision, as when it was never handed away and the sender held a
+     * stale copy. Members who joined before the state arrived are welcomed again with it.
+     * Returns false if the state was not adopted.
+     */
+    boolean adoptHandoff(String state) {
+        int headerEnd = state.indexOf('\n');
+        if (headerEnd < 0) throw new IllegalArgumentException("Malformed room state");
+        String[] header = state.substring(0, headerEnd).split(":", 5);
+        int revision = Integer.parseInt(header[0]);
+        long elapsedMs = Long.parseLong(header[1]);
+        long durationMs = Long.parseLong(header[2]);
+        String status = header[3];
+        int chatLines = Integer.parseInt(header[4]);
+        List<String> lines = new ArrayList<>(chatLines);
+        int position = headerEnd + 1;
+        for (int i = 0; i < chatLines; i++) {
+            int end = state.indexOf('\n', position);
+            if (end < 0) throw new IllegalArgumentException("Malformed room state");
+            lines.add(state.substring(position, end));
+            position = end + 1;
+        }
+        String text = state.substring(position);
+
+        synchronized (timer) {
+            synchronized (chatLock) {
+                synchronized (document) {
+                    boolean fresh = document.getRevision() == 0 && chat.getNewest() == 0;
+                    if (!fresh && revision < document.getRevision()) return false;
+                    document.restore(revision, text);
+                    chat.clear();
+                    for (String line : lines) {
+                        chat.add(line);
+                    }
+                    timer.restore(elapsedMs, durationMs, status.equals("expired"));
+                    if (status.equals("running")) timer.start();
+                    timer.schedule(this::onTimerDue);
+                    editorLocked = timer.isExpired();
+                    timerUpdate = timerMessage("sync");
+                    for (ClientHandler member : members) {
+                        member.onJoined(this);
+                    }
+                }
+            }
+        }
+        // Start the journal and recording over from the adopted state
+        snapshotJournal();
+        writeKeyframe();
+        return true;
+    }
+
+    // Recovery: apply one journal record written after the snapshot
+    void replay(byte type, String payload) {
+        switch (type) {
+            case SessionJournal.OP: {
+                int colon = payload.indexOf(':');
+                int revision = Integer.parseInt(payload, 0, colon, 10);
+                if (revision == document.getRevision() + 1) {
+                    document.apply(document.getRevision(), TextOperation.parse(payload.substring(colon + 1)));
+                }
+                break;
+            }
+            case SessionJournal.CHAT:
+                chat.add(payload);
+                break;
+            case SessionJournal.TIMER: {
+                // <elapsedSeconds>:<status>[:<durationSeconds>], the duration missing in older journals
+                String[] fields = payload.split(":");
+                long durationMs = fields.length > 2 ? Long.parseLong(fields[2]) * 1000 : 0;
+                restoreTimer(Long.parseLong(fields[0]) * 1000, durationMs, fields[1].equals("expired"));
+                break;
+            }
+            default:
+                System.err.println("Unknown journal record " + type + " in room " + code);
+        }
+    }
+}
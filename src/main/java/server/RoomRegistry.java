@@ -0,0 +1,151 @@
+package server;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Rooms by code. A room is created by its first member and removed when its last member leaves.
+ * With a session store, rooms are loaded from and journaled to disk, so a session outlives
+ * both an empty room and a server restart. A saved session is only opened when someone joins
+ * its room again, so idle sessions cost nothing but disk space.
+ *
+ * In cluster mode, a room owned by another node is not opened here: joining it redirects the
+ * member to that node, and rooms handed off by other nodes are adopted with their state.
+ */
+public class RoomRegistry {
+    private static final Pattern ROOM_CODE = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+    private static final int OPEN_LOCKS = 64;
+
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    // Opening or closing a room's session reads and writes its journal, so it happens under the
+    // code's lock here rather than inside the map, where it would hold up other rooms
+    private final Object[] openLocks = new Object[OPEN_LOCKS];
+    private final SessionStore sessions; // null keeps rooms in memory only
+    private volatile Cluster cluster;    // null outside cluster mode
+
+    public RoomRegistry() {
+        this(null);
+    }
+
+    public RoomRegistry(SessionStore sessions) {
+        this.sessions = sessions;
+        for (int i = 0; i < OPEN_LOCKS; i++) {
+            openLocks[i] = new Object();
+        }
+    }
+
+    public static boolean isValidCode(String code) {
+        return code != null && ROOM_CODE.matcher(code).matches();
+    }
+
+    // Add the client to the room, creating it if needed
+    public Room join(String code, ClientHandler member) {
+        // computeIfPresent() runs atomically per key, so a join can't race with the room being removed
+        Room joined = rooms.computeIfPresent(code, (key, room) -> {
+            room.addMember(member);
+            return room;
+        });
+        if (joined != null) return joined;
+        synchronized (openLock(code)) {
+            joined = rooms.computeIfPresent(code, (key, room) -> {
+                room.addMember(member);
+                return room;
+            });
+            if (joined != null) return joined;
+            Room room = openRoom(code);
+            room.addMember(member);
+            rooms.put(code, room);
+            System.out.println("Room " + code + " created");
+            return room;
+        }
+    }
+
+    public void leave(Room room, ClientHandler member) {
+        room.removeMember(member);
+        String code = room.getCode();
+        synchronized (openLock(code)) {
+            Room[] removed = new Room[1];
+            rooms.computeIfPresent(code, (key, current) -> {
+                if (!current.isEmpty()) return current;
+                removed[0] = current;
+                return null;
+            });
+            if (removed[0] == null) return;
+            removed[0].closeSession();
+        }
+        System.out.println("All clients disconnected from room " + code
+                + (sessions != null ? " - session kept in journal" : " - editor state cleared"));
+    }
+
+    /**
+     * Where a member asking for the room should go instead, as "<host>:<port>", or null to join
+     * it here. A room open here is served here until it has been handed off.
+     */
+    public String redirect(String code) {
+        Cluster current = cluster;
+        if (current == null) return null;
+        Room room = rooms.get(code);
+        if (room != null) return room.getMovingTo();
+        return current.clientAddress(current.ownerOf(code));
+    }
+
+    // A room handed off by another node: open it here with the sender's state, unless the copy here is newer
+    boolean adopt(String code, String state) {
+        synchronized (openLock(code)) {
+            Room room = rooms.get(code);
+            if (room == null) {
+                room = openRoom(code);
+                rooms.put(code, room);
+            }
+            return room.adoptHandoff(state);
+        }
+    }
+
+    // The room's new owner has its state: send the members there and drop the room here
+    void handedOff(Room room) {
+        synchronized (openLock(room.getCode())) {
+            rooms.remove(room.getCode(), room);
+            room.redirectMembers();
+            room.closeSession();
+        }
+    }
+
+    private Object openLock(String code) {
+        return openLocks[Math.floorMod(code.hashCode(), OPEN_LOCKS)];
+    }
+
+    private Room openRoom(String code) {
+        if (sessions != null) {
+            try {
+                return sessions.open(code);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Could not open journal for room " + code + ", running without it: " + e.getMessage());
+            }
+        }
+        return new Room(code);
+    }
+
+    // The session store, or null if sessions are not saved
+    public SessionStore getSessions() {
+        return sessions;
+    }
+
+    public void setCluster(Cluster cluster) {
+        this.cluster = cluster;
+    }
+
+    // The cluster this node belongs to, or null
+    public Cluster getCluster() {
+        return cluster;
+    }
+
+    public Room get(String code) {
+        return rooms.get(code);
+    }
+
+    public Collection<Room> getRooms() {
+        return rooms.values();
+    }
+}
@@ -0,0 +1,158 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A room's interview clock. It counts up, or down from a set duration, and only changes state on
+ * start, pause, reset, a new duration, a warning threshold or expiry, so there is nothing to send
+ * in between: clients run the clock themselves from the last update. Warnings and expiry are
+ * scheduled on one executor shared by every room.
+ *
+ * The room holds this object's monitor around every call and around the broadcast that follows,
+ * which keeps updates in order; it is the room's timer lock.
+ */
+class RoomTimer {
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "room-timers");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Remaining time, in ms, at which a countdown warns the room, largest first
+    private static volatile long[] warningsMs = {5 * 60_000, 60_000};
+
+    private long elapsedMs;      // Up to startedAt while running, in total otherwise
+    private long startedAt;      // System.nanoTime() of the last start
+    private boolean running;
+    private boolean expired;
+    private long durationMs;     // 0 counts up
+    private int nextWarning;     // Index into warningsMs of the next warning to give
+    private ScheduledFuture<?> due;
+
+    // Comma-separated seconds before expiry, e.g. 300,60
+    static void configureWarnings(String seconds) {
+        long[] parsed = seconds.isBlank() ? new long[0]
+                : Arrays.stream(seconds.split(",")).mapToLong(s -> Long.parseLong(s.trim()) * 1000).toArray();
+        Arrays.sort(parsed);
+        for (int i = 0; i < parsed.length / 2; i++) {
+            long swap = parsed[i];
+            parsed[i] = parsed[parsed.length - 1 - i];
+            parsed[parsed.length - 1 - i] = swap;
+        }
+        warningsMs = parsed;
+    }
+
+    long getElapsedMs() {
+        return running ? elapsedMs + (System.nanoTime() - startedAt) / 1_000_000 : elapsedMs;
+    }
+
+    long getDurationMs() {
+        return durationMs;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    // A countdown that ran out; the room's editor stays locked until the timer is reset
+    boolean isExpired() {
+        return expired;
+    }
+
+    // running, paused or expired
+    String getStatus() {
+        return expired ? "expired" : running ? "running" : "paused";
+    }
+
+    // Returns false if there is nothing to start
+    boolean start() {
+        if (running || expired) return false;
+        running = true;
+        startedAt = System.nanoTime();
+        return true;
+    }
+
+    boolean pause() {
+        if (!running) return false;
+        elapsedMs = getElapsedMs();
+        running = false;
+        return true;
+    }
+
+    void reset() {
+        elapsedMs = 0;
+        running = false;
+        expired = false;
+        skipPassedWarnings();
+    }
+
+    // Count down from durationMs, or up if it is 0; keeps the time already elapsed
+    void setDuration(long durationMs) {
+        this.durationMs = Math.max(0, durationMs);
+        expired = false;
+        skipPassedWarnings();
+        if (this.durationMs > 0 && getElapsedMs() >= this.durationMs) expire();
+    }
+
+    /**
+     * Called when the scheduled task fires. Returns "expire" or "warn" if the countdown reached
+     * its end or a warning threshold, or null if the task was stale.
+     */
+    String onDue() {
+        if (!running || durationMs == 0) return null;
+        long remaining = durationMs - getElapsedMs();
+        if (remaining <= 0) {
+            expire();
+            return "expire";
+        }
+        long[] warnings = warningsMs;
+        if (nextWarning < warnings.length && remaining <= warnings[nextWarning]) {
+            skipPassedWarnings();
+            return "warn";
+        }
+        return null;
+    }
+
+    /** Schedule task for the next warning or the expiry, replacing what was scheduled before. */
+    void schedule(Runnable task) {
+        cancel();
+        if (!running || durationMs == 0) return;
+        long remaining = durationMs - getElapsedMs();
+        long[] warnings = warningsMs;
+        long next = nextWarning < warnings.length ? remaining - warnings[nextWarning] : remaining;
+        due = SCHEDULER.schedule(task, Math.max(0, next), TimeUnit.MILLISECONDS);
+    }
+
+    void cancel() {
+        if (due != null) {
+            due.cancel(false);
+            due = null;
+        }
+    }
+
+    // Recovery: the clock comes back paused
+    void restore(long elapsedMs, long durationMs, boolean expired) {
+        this.elapsedMs = elapsedMs;
+        this.durationMs = durationMs;
+        this.running = false;
+        this.expired = expired && durationMs > 0;
+        skipPassedWarnings();
+    }
+
+    private void expire() {
+        elapsedMs = durationMs;
+        running = false;
+        expired = true;
+    }
+
+    // Warnings for thresholds already behind us are not given again
+    private void skipPassedWarnings() {
+        long remaining = durationMs - getElapsedMs();
+        long[] warnings = warningsMs;
+        nextWarning = 0;
+        while (nextWarning < warnings.length && remaining <= warnings[nextWarning]) nextWarning++;
+    }
+}
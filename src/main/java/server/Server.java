@@ -1,84 +1,112 @@
 package server;
 
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class Server {
-    private static final int PORT = 8080;
-    private static final CopyOnWriteArrayList<ClientHandler> clients = new CopyOnWriteArrayList<>();
-    public static volatile String latestEditorContent = null; // Track latest editor state
-    public static final ConcurrentHashMap<String, String> clientIdToUsername = new ConcurrentHashMap<>();
+    private static final int DEFAULT_PORT = 8080;
+    // Every interview session, keyed by room code
+    public static RoomRegistry rooms = new RoomRegistry();
 
-    // Shared timer state (in seconds)
-    private static int timerElapsed = 0;
-    private static boolean timerRunning = false;
-
-    public static void clearEditorState() {
-        latestEditorContent = null;
-        System.out.println("All clients disconnected - editor state cleared");
-    }
+    // Seconds between outbound backlog reports, 0 to disable
+    private static int backlogReportSeconds = 30;
 
+    // Usage: Server [--port=8080] [--engine=thread|virtual|nio] [--io-threads=N] [--handler-threads=N]
+    //               [--outbound-limit=4096] [--outbound-max-chars=8388608]
+    //               [--slow-consumer=collapse|drop-superseded|disconnect] [--backlog-report-seconds=30]
+    //               [--presence-tick-ms=40] [--journal-dir=sessions] [--journal-fsync=interval|always|never]
+    //               [--journal-fsync-ms=1000] [--journal-segment-bytes=4194304] [--journal-snapshot-every=1000]
+    //               [--record=true] [--keyframe-ms=30000] [--keyframe-records=1000]
+    //               [--exec-backend=jdoodle|process|local] [--exec-trusted-code=false]
+    //               [--exec-timeout-ms=10000] [--exec-cpu-ms=5000]
+    //               [--exec-max-output=65536] [--exec-cache-size=128] [--exec-workers=N] [--exec-worker-heap=256m]
+    //               [--exec-queue-limit=32] [--exec-queue-per-room=4] [--problems-dir=problems]
+    //               [--result-cache-bytes=67108864] [--result-cache-ttl-ms=3600000]
+    //               [--users-file=users.csv] [--auth-required=true] [--auth-threads=N] [--auth-queue=64]
+    //               [--auth-iterations=120000] [--auth-token-ttl-ms=900000]
+    //               [--auth-secret=...] [--auth-secret-file=<path>]
+    //               [--resume-buffer-frames=1024] [--resume-buffer-chars=4194304] [--timer-warnings=300,60]
+    //               [--chat-history=1000] [--chat-spill=true] [--chat-backfill=50] [--chat-page=100]
+    //               [--metrics-port=0] [--metrics-host=127.0.0.1] [--metrics-jmx=true]
+    //               [--cluster-node=<id>] [--cluster-host=127.0.0.1] [--cluster-bus-port=<port + 1000>]
+    //               [--cluster-seeds=host:busPort,...] [--cluster-heartbeat-ms=500] [--cluster-timeout-ms=3000]
+    //               [--cluster-handoff-ms=5000]
+    //               [--ping-interval-ms=15000] [--read-idle-timeout-ms=45000] [--write-idle-timeout-ms=30000]
     public static void main(String[] args) {
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Server started on port " + PORT);
-
-            // Start the timer thread to update timer state every second when running
-            TimerThread timerThread = new TimerThread();
-            timerThread.start();
+        try {
+            ServerConfig config = ServerConfig.fromArgs(args);
+            int port = config.getInt("port", DEFAULT_PORT);
+            IoEngine engine = IoEngine.create(config);
+            CodeExecution.configure(config);
+            Room.configure(config);
+            AuthService auth = AuthService.fromConfig(config);
+            backlogReportSeconds = config.getInt("backlog-report-seconds", backlogReportSeconds);
+            System.out.println("Server started on port " + port + " using " + config.getString("engine", "thread") + " engine");
 
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                ClientHandler clientThread = new ClientHandler(clientSocket, clients);
-                clients.add(clientThread);
-                clientThread.start();
+            // Saved sessions are replayed when their rooms are joined again; keep open journals synced
+            SessionStore sessions = SessionStore.fromConfig(config);
+            rooms = new RoomRegistry(sessions);
+            if (sessions != null) {
+                sessions.startSync(rooms::getRooms);
+                System.out.println("Journaling sessions to " + sessions.getRoot().toAbsolutePath());
             }
-        } catch (Exception e) {
-            System.err.println("Server error: " + e.getMessage());
-        }
-    }
+            Cluster cluster = Cluster.fromConfig(config, port, rooms);
+            rooms.setCluster(cluster);
+            Metrics.start(config, rooms, auth);
+            IdleReaper.start(config);
 
-    // Synchronized methods to control the timer
-    public static synchronized void startTimer() {
-        timerRunning = true;
-        broadcastTimerUpdate();
-    }
-
-    public static synchronized void pauseTimer() {
-        timerRunning = false;
-        broadcastTimerUpdate();
-    }
+            // Flush batched cursor and focus changes for every room on a fixed tick.
+            // Room timers need no tick: they schedule their own transitions
+            long presenceTickMs = config.getLong("presence-tick-ms", 40);
+            ScheduledExecutorService presenceTicker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "presence-ticker");
+                thread.setDaemon(true);
+                return thread;
+            });
+            presenceTicker.scheduleAtFixedRate(() -> {
+                for (Room room : rooms.getRooms()) {
+                    try {
+                        room.flushPresence();
+                    } catch (RuntimeException e) {
+                        System.err.println("Presence flush failed for room " + room.getCode() + ": " + e.getMessage());
+                    }
+                }
+            }, presenceTickMs, presenceTickMs, TimeUnit.MILLISECONDS);
+            if (backlogReportSeconds > 0) {
+                presenceTicker.scheduleAtFixedRate(() -> {
+                    try {
+                        reportBacklog();
+                        CodeExecution.reportCaches();
+                    } catch (RuntimeException e) {
+                        System.err.println("Backlog report failed: " + e.getMessage());
+                    }
+                }, backlogReportSeconds, backlogReportSeconds, TimeUnit.SECONDS);
+            }
 
-    public static synchronized void resetTimer() {
-        timerElapsed = 0;
-        timerRunning = false;
-        broadcastTimerUpdate();
-    }
+            // In cluster mode, hand rooms to their owners as nodes come and go, and on shutdown.
+            // The first heartbeat goes out a tick from now, once the engine below is accepting clients
+            if (cluster != null) {
+                cluster.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(cluster::leave, "cluster-leave"));
+            }
 
-    // Broadcast the current timer state to all clients
-    public static synchronized void broadcastTimerUpdate() {
-        String message = "TIMER_UPDATE:" + timerElapsed + ":" + (timerRunning ? "running" : "paused");
-        for (ClientHandler client : clients) {
-            client.sendMessage(message);
+            engine.serve(port, connection -> new ClientHandler(connection, rooms, auth));
+        } catch (Exception e) {
+            System.err.println("Server error: " + e.getMessage());
         }
     }
 
-    // Timer thread to tick every second when the timer is running
-    static class TimerThread extends Thread {
-        @Override
-        public void run() {
-            while (true) {
-                try {
-                    Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                    // Ignore interruptions
-                }
-                synchronized (Server.class) {
-                    if (timerRunning) {
-                        timerElapsed++;
-                        broadcastTimerUpdate();
-                    }
+    // Print every connection that has messages waiting to be written
+    static void reportBacklog() {
+        for (Room room : rooms.getRooms()) {
+            for (ClientHandler member : room.getMembers()) {
+                OutboundQueue queue = member.getConnection().getOutboundQueue();
+                int depth = queue.getDepth();
+                if (depth > 0 || queue.getDropped() > 0) {
+                    System.out.println("Outbound backlog: room " + room.getCode() + " " + member.getUsername()
+                            + " depth=" + depth + " chars=" + queue.getQueuedChars()
+                            + " peak=" + queue.getPeakDepth() + " dropped=" + queue.getDropped());
                 }
             }
         }
@@ -0,0 +1,50 @@
+package server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Startup options given as --key=value arguments, falling back to -Dcoderounds.key=value system properties.
+ */
+public class ServerConfig {
+    private final Map<String, String> values = new HashMap<>();
+
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unrecognised argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                config.values.put(arg.substring(2), "true");
+            } else {
+                config.values.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        return config;
+    }
+
+    public String getString(String key, String defaultValue) {
+        String value = values.get(key);
+        if (value == null) {
+            value = System.getProperty("coderounds." + key);
+        }
+        return value != null ? value : defaultValue;
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = getString(key, null);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+}
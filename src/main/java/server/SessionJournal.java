@@ -0,0 +1,333 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only on-disk journal of one room's session, kept in sessions/<room>/.
+ *
+ * Records go into memory-mapped segment files (journal-<generation>.log). Each record is
+ * [int length][int crc32][byte type][payload], where length counts the type byte and the
+ * payload. A zero length marks the end of a segment, so a torn write at the tail is detected
+ * and ignored on recovery, as is everything after a record whose checksum does not match.
+ * A full segment is followed by a new one. Periodically the room writes a compacted snapshot
+ * of its state and starts a new segment; once the snapshot is safely on disk the older
+ * segments are deleted.
+ *
+ * Appends are synchronized on the journal. Callers may hold one of the room's locks while
+ * appending, but never call into the room while holding the journal.
+ */
+public class SessionJournal {
+    public static final byte OP = 1;
+    public static final byte CHAT = 2;
+    public static final byte TIMER = 3;
+
+    private static final int SNAPSHOT_MAGIC = 0x43525331; // "CRS1"
+    private static final int RECORD_HEADER = 9;
+    private static final String SNAPSHOT_FILE = "snapshot";
+
+    public enum FsyncPolicy {
+        // Force every record to disk before the append returns
+        ALWAYS,
+        // Force dirty segments on the journal sync tick
+        INTERVAL,
+        // Leave it to the OS; mapped pages still survive a process crash, but not a power loss
+        NEVER;
+
+        static FsyncPolicy parse(String value) {
+            return valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    /** Room state at the start of a segment generation. */
+    public static final class Snapshot {
+        final long generation;
+        final int revision;
+        final String text;
+        final int timerElapsed;
+        final int timerDuration; // Seconds to count down from, 0 counts up
+        final boolean timerExpired;
+        final List<String> chat;
+
+        Snapshot(long generation, int revision, String text, int timerElapsed, int timerDuration, boolean timerExpired,
+                 List<String> chat) {
+            this.generation = generation;
+            this.revision = revision;
+            this.text = text;
+            this.timerElapsed = timerElapsed;
+            this.timerDuration = timerDuration;
+            this.timerExpired = timerExpired;
+            this.chat = chat;
+        }
+    }
+
+    /** Receives the saved state on recovery: the snapshot first, then each record in order. */
+    public interface Replayer {
+        void restore(Snapshot snapshot);
+
+        void replay(byte type, String payload);
+    }
+
+    private final Path dir;
+    private final FsyncPolicy fsync;
+    private final int segmentBytes;
+    private final int snapshotEvery;
+
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long generation;
+    private int recordsSinceSnapshot;
+    private boolean dirty;
+    private boolean closed;
+    private boolean recovered;
+    private final CRC32 crc = new CRC32();
+
+    private SessionJournal(Path dir, FsyncPolicy fsync, int segmentBytes, int snapshotEvery) {
+        this.dir = dir;
+        this.fsync = fsync;
+        this.segmentBytes = segmentBytes;
+        this.snapshotEvery = snapshotEvery;
+    }
+
+    /**
+     * Open the journal in dir, passing the latest snapshot and every record written since to the
+     * replayer. Appends then go to a fresh segment.
+     */
+    static SessionJournal open(Path dir, FsyncPolicy fsync, int segmentBytes, int snapshotEvery,
+                               Replayer replayer) throws IOException {
+        Files.createDirectories(dir);
+        SessionJournal journal = new SessionJournal(dir, fsync, segmentBytes, snapshotEvery);
+        Snapshot snapshot = readSnapshot(dir.resolve(SNAPSHOT_FILE));
+        long first = 0;
+        if (snapshot != null) {
+            replayer.restore(snapshot);
+            first = snapshot.generation;
+            journal.recovered = true;
+        }
+        long last = first - 1;
+        for (long generation : segmentGenerations(dir)) {
+            if (generation < first) continue;
+            if (replaySegment(segmentPath(dir, generation), replayer)) {
+                journal.recovered = true;
+            }
+            last = Math.max(last, generation);
+        }
+        journal.startSegment(last + 1, RECORD_HEADER);
+        return journal;
+    }
+
+    // True if open() found a snapshot or records to replay
+    public boolean wasRecovered() {
+        return recovered;
+    }
+
+    public synchronized void append(byte type, String payload) {
+        if (closed) return;
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        int size = RECORD_HEADER + bytes.length;
+        try {
+            // Keep room for the zero length that terminates the segment
+            if (segment.remaining() < size + 4) {
+                startSegment(generation + 1, size);
+            }
+            crc.reset();
+            crc.update(type);
+            crc.update(bytes);
+            int start = segment.position();
+            // Write the body first and the length last, so a torn record always reads as the end
+            segment.position(start + 4);
+            segment.putInt((int) crc.getValue());
+            segment.put(type);
+            segment.put(bytes);
+            segment.putInt(start, bytes.length + 1);
+            if (fsync == FsyncPolicy.ALWAYS) {
+                segment.force(start, size);
+            } else {
+                dirty = true;
+            }
+            recordsSinceSnapshot++;
+        } catch (IOException e) {
+            System.err.println("Journal write failed for " + dir + ": " + e.getMessage());
+        }
+    }
+
+    // Called on the sync tick
+    public synchronized void sync() {
+        if (closed || !dirty || fsync != FsyncPolicy.INTERVAL) return;
+        segment.force();
+        dirty = false;
+    }
+
+    public synchronized boolean isSnapshotDue() {
+        return !closed && recordsSinceSnapshot >= snapshotEvery;
+    }
+
+    /**
+     * Start a new segment for the snapshot being taken and return its generation.
+     * The caller must hold every room lock that guards journaled state, so nothing is
+     * appended between capturing the state and switching segments.
+     */
+    public synchronized long beginSnapshot() throws IOException {
+        startSegment(generation + 1, RECORD_HEADER);
+        recordsSinceSnapshot = 0;
+        return generation;
+    }
+
+    /**
+     * Write the snapshot and drop the segments it covers. Runs without any room lock held;
+     * until the snapshot is renamed into place the previous snapshot and segments still apply.
+     */
+    public void writeSnapshot(Snapshot snapshot) throws IOException {
+        Path tmp = dir.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(out)));
+            data.writeInt(SNAPSHOT_MAGIC);
+            data.writeLong(snapshot.generation);
+            data.writeInt(snapshot.revision);
+            data.writeInt(snapshot.timerElapsed);
+            writeString(data, snapshot.text);
+            data.writeInt(snapshot.chat.size());
+            for (String line : snapshot.chat) {
+                writeString(data, line);
+            }
+            data.writeInt(snapshot.timerDuration);
+            data.writeBoolean(snapshot.timerExpired);
+            data.flush();
+            out.force(true);
+        }
+        Files.move(tmp, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (long old : segmentGenerations(dir)) {
+            if (old < snapshot.generation) {
+                Files.deleteIfExists(segmentPath(dir, old));
+            }
+        }
+    }
+
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            if (fsync != FsyncPolicy.NEVER) segment.force();
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error closing journal " + dir + ": " + e.getMessage());
+        }
+        segment = null;
+    }
+
+    private void startSegment(long newGeneration, int minBytes) throws IOException {
+        if (channel != null) {
+            if (fsync != FsyncPolicy.NEVER) segment.force();
+            channel.close();
+        }
+        generation = newGeneration;
+        // New files are zero-filled, which reads as an empty segment
+        channel = FileChannel.open(segmentPath(dir, newGeneration), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentBytes, minBytes + 4));
+        dirty = false;
+    }
+
+    // Returns true if the segment held any records
+    private static boolean replaySegment(Path path, Replayer replayer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        CRC32 crc = new CRC32();
+        boolean any = false;
+        while (buffer.remaining() >= RECORD_HEADER) {
+            int length = buffer.getInt();
+            if (length == 0) break; // End of segment
+            if (length < 0 || length > buffer.remaining() - 4) {
+                System.err.println("Journal " + path + " ends with a torn record, ignoring it");
+                break;
+            }
+            int checksum = buffer.getInt();
+            byte type = buffer.get();
+            byte[] bytes = new byte[length - 1];
+            buffer.get(bytes);
+            crc.reset();
+            crc.update(type);
+            crc.update(bytes);
+            if ((int) crc.getValue() != checksum) {
+                System.err.println("Journal " + path + " has a damaged record, ignoring the rest of the segment");
+                break;
+            }
+            replayer.replay(type, new String(bytes, StandardCharsets.UTF_8));
+            any = true;
+        }
+        return any;
+    }
+
+    private static Snapshot readSnapshot(Path path) throws IOException {
+        if (!Files.exists(path)) return null;
+        try (InputStream in = Files.newInputStream(path)) {
+            DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+            if (data.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a session snapshot: " + path);
+            }
+            long generation = data.readLong();
+            int revision = data.readInt();
+            int timerElapsed = data.readInt();
+            String text = readString(data);
+            int chatCount = data.readInt();
+            List<String> chat = new ArrayList<>(chatCount);
+            for (int i = 0; i < chatCount; i++) {
+                chat.add(readString(data));
+            }
+            int timerDuration = 0;
+            boolean timerExpired = false;
+            try {
+                timerDuration = data.readInt();
+                timerExpired = data.readBoolean();
+            } catch (EOFException e) {
+                // Written before countdowns existed
+            }
+            return new Snapshot(generation, revision, text, timerElapsed, timerDuration, timerExpired, chat);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Path segmentPath(Path dir, long generation) {
+        return dir.resolve(String.format("journal-%016d.log", generation));
+    }
+
+    // Generations of the segment files in dir, oldest first
+    private static long[] segmentGenerations(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith("journal-") && name.endsWith(".log"))
+                    .mapToLong(name -> Long.parseLong(name.substring(8, name.length() - 4)))
+                    .sorted()
+                    .toArray();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Full timeline of a room for replay, kept next to its journal. Unlike the journal it is never
+ * compacted: recording.log holds every event as [int length][long time][byte type][payload],
+ * and recording.idx holds a [long time][long offset] entry for every keyframe in the log.
+ *
+ * A keyframe is a KEYFRAME record with the document and timer, followed by the recent chat and
+ * the presence of every member, so a replay can start from the nearest keyframe instead of the
+ * beginning. Times are milliseconds of session time; time while the room was closed is skipped.
+ */
+public class SessionRecorder {
+    public static final byte OP = 1;
+    public static final byte CHAT = 2;
+    public static final byte TIMER = 3;
+    public static final byte PRESENCE = 4;
+    public static final byte DISCONNECT = 5;
+    // Payload: <revision>:<elapsed>:<running|paused>:<text>
+    public static final byte KEYFRAME = 6;
+    public static final byte KEYFRAME_CHAT = 7;
+
+    static final String LOG_FILE = "recording.log";
+    static final String INDEX_FILE = "recording.idx";
+    static final int RECORD_HEADER = 13;
+    static final int INDEX_ENTRY = 16;
+
+    private final DataOutputStream log;
+    private final DataOutputStream index;
+    private final long keyframeMs;
+    private final int keyframeRecords;
+    private final long timeBase;
+    private final long openedAt = System.currentTimeMillis();
+    private long size;
+    private long lastKeyframeTime;
+    private int recordsSinceKeyframe;
+    private boolean closed;
+
+    private SessionRecorder(Path dir, long size, long timeBase, long keyframeMs, int keyframeRecords) throws IOException {
+        this.log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dir.resolve(LOG_FILE).toFile(), true)));
+        this.index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dir.resolve(INDEX_FILE).toFile(), true)));
+        this.size = size;
+        this.timeBase = timeBase;
+        this.keyframeMs = keyframeMs;
+        this.keyframeRecords = keyframeRecords;
+    }
+
+    /**
+     * Continue the recording in dir. A record cut short by a crash is truncated, along with
+     * index entries that point past the end of the log. The caller writes a keyframe next.
+     */
+    static SessionRecorder open(Path dir, long keyframeMs, int keyframeRecords) throws IOException {
+        Files.createDirectories(dir);
+        Path logPath = dir.resolve(LOG_FILE);
+        Path indexPath = dir.resolve(INDEX_FILE);
+        long size = 0;
+        long lastTime = 0;
+        if (Files.exists(logPath)) {
+            long[][] keyframes = readIndex(indexPath);
+            long logLength = Files.size(logPath);
+            // Scan from the last keyframe that is inside the log to find the end of the last whole record
+            int usable = keyframes[1].length;
+            while (usable > 0 && keyframes[1][usable - 1] >= logLength) usable--;
+            long offset = usable > 0 ? keyframes[1][usable - 1] : 0;
+            try (FileChannel file = FileChannel.open(logPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.position(offset))));
+                while (offset + RECORD_HEADER <= logLength) {
+                    int length = in.readInt();
+                    if (length < 0 || offset + RECORD_HEADER + length > logLength) break;
+                    lastTime = in.readLong();
+                    in.skipNBytes(1L + length);
+                    offset += RECORD_HEADER + length;
+                }
+                if (offset < logLength) {
+                    System.err.println("Recording " + logPath + " ends with a torn record, truncating it");
+                    file.truncate(offset);
+                }
+            }
+            size = offset;
+            if (Files.exists(indexPath)) {
+                try (FileChannel file = FileChannel.open(indexPath, StandardOpenOption.WRITE)) {
+                    file.truncate((long) usable * INDEX_ENTRY);
+                }
+            }
+        }
+        return new SessionRecorder(dir, size, lastTime, keyframeMs, keyframeRecords);
+    }
+
+    // Session time now
+    long now() {
+        return timeBase + System.currentTimeMillis() - openedAt;
+    }
+
+    public synchronized void record(byte type, String payload) {
+        if (closed) return;
+        write(now(), type, payload);
+        recordsSinceKeyframe++;
+    }
+
+    public synchronized boolean isKeyframeDue() {
+        return !closed && recordsSinceKeyframe > 0
+                && (recordsSinceKeyframe >= keyframeRecords || now() - lastKeyframeTime >= keyframeMs);
+    }
+
+    /**
+     * Write a keyframe. The caller holds the room's locks, so no event lands inside it.
+     * Presence may be null if nobody has a cursor yet.
+     */
+    public synchronized void keyframe(int revision, String timer, String text, List<String> chat, String presence) {
+        if (closed) return;
+        long time = now();
+        long offset = size;
+        write(time, KEYFRAME, revision + ":" + timer + ":" + text);
+        for (String line : chat) {
+            write(time, KEYFRAME_CHAT, line);
+        }
+        if (presence != null) {
+            write(time, PRESENCE, presence);
+        }
+        // The index only ever points at keyframes that are already in the log file
+        try {
+            log.flush();
+            index.writeLong(time);
+            index.writeLong(offset);
+            index.flush();
+        } catch (IOException e) {
+            System.err.println("Recording index write failed: " + e.getMessage());
+        }
+        lastKeyframeTime = time;
+        recordsSinceKeyframe = 0;
+    }
+
+    // Called on the journal sync tick so replays of a live room see recent events
+    public synchronized void flush() {
+        if (closed) return;
+        try {
+            log.flush();
+        } catch (IOException e) {
+            System.err.println("Recording flush failed: " + e.getMessage());
+        }
+    }
+
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            log.close();
+            index.close();
+        } catch (IOException e) {
+            System.err.println("Error closing recording: " + e.getMessage());
+        }
+    }
+
+    private void write(long time, byte type, String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        try {
+            log.writeInt(bytes.length);
+            log.writeLong(time);
+            log.writeByte(type);
+            log.write(bytes);
+            size += RECORD_HEADER + bytes.length;
+        } catch (IOException e) {
+            System.err.println("Recording write failed: " + e.getMessage());
+        }
+    }
+
+    // Keyframe times and offsets, as two parallel arrays
+    static long[][] readIndex(Path indexPath) throws IOException {
+        if (!Files.exists(indexPath)) return new long[][] {new long[0], new long[0]};
+        ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        int count = entries.remaining() / INDEX_ENTRY;
+        long[] times = new long[count];
+        long[] offsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = entries.getLong();
+            offsets[i] = entries.getLong();
+        }
+        return new long[][] {times, offsets};
+    }
+}
@@ -0,0 +1,119 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Where room journals and recordings live on disk, and the settings they share.
+ * Each room code gets its own directory under the session root.
+ */
+public class SessionStore {
+    private final Path root;
+    private final SessionJournal.FsyncPolicy fsync;
+    private final long syncIntervalMs;
+    private final int segmentBytes;
+    private final int snapshotEvery;
+    private final boolean record;
+    private final long keyframeMs;
+    private final int keyframeRecords;
+    // Paces every replay in progress
+    private final ScheduledExecutorService replayScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "replay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SessionStore(Path root, SessionJournal.FsyncPolicy fsync, long syncIntervalMs, int segmentBytes, int snapshotEvery,
+                        boolean record, long keyframeMs, int keyframeRecords) {
+        this.root = root;
+        this.fsync = fsync;
+        this.syncIntervalMs = syncIntervalMs;
+        this.segmentBytes = segmentBytes;
+        this.snapshotEvery = snapshotEvery;
+        this.record = record;
+        this.keyframeMs = keyframeMs;
+        this.keyframeRecords = keyframeRecords;
+    }
+
+    // Returns null when journaling is turned off with an empty --journal-dir
+    public static SessionStore fromConfig(ServerConfig config) {
+        String dir = config.getString("journal-dir", "sessions");
+        if (dir.isEmpty()) return null;
+        return new SessionStore(Paths.get(dir),
+                SessionJournal.FsyncPolicy.parse(config.getString("journal-fsync", "interval")),
+                config.getLong("journal-fsync-ms", 1000),
+                config.getInt("journal-segment-bytes", 4 * 1024 * 1024),
+                config.getInt("journal-snapshot-every", 1000),
+                config.getBoolean("record", true),
+                config.getLong("keyframe-ms", 30_000),
+                config.getInt("keyframe-records", 1000));
+    }
+
+    /**
+     * Create a room from its journal, replaying whatever was saved for it, and start journaling
+     * to it. A code with nothing on disk gives an empty room.
+     */
+    public Room open(String code) throws IOException {
+        Room room = new Room(code);
+        SessionJournal journal = SessionJournal.open(root.resolve(code), fsync, segmentBytes, snapshotEvery,
+                new SessionJournal.Replayer() {
+                    @Override
+                    public void restore(SessionJournal.Snapshot snapshot) {
+                        room.restore(snapshot);
+                    }
+
+                    @Override
+                    public void replay(byte type, String payload) {
+                        room.replay(type, payload);
+                    }
+                });
+        room.attachJournal(journal);
+        // Compact right away, so a damaged tail is dropped and recovery starts from one snapshot
+        if (journal.wasRecovered()) {
+            room.snapshotJournal();
+            System.out.println("Room " + code + " restored from journal at revision " + room.getDocument().getRevision());
+        }
+        if (record) {
+            room.attachRecorder(SessionRecorder.open(root.resolve(code), keyframeMs, keyframeRecords));
+            // Every stretch of recording starts with a keyframe
+            room.writeKeyframe();
+        }
+        return room;
+    }
+
+    // Start playing a room's recording to a viewer; returns null if there is no recording
+    public ReplaySession openReplay(String code, ClientHandler viewer) throws IOException {
+        Path dir = root.resolve(code);
+        if (!Files.isDirectory(dir)) return null;
+        return ReplaySession.open(dir, viewer, replayScheduler);
+    }
+
+    // Periodically force dirty journals to disk and write snapshots that are due
+    public void startSync(Supplier<Collection<Room>> rooms) {
+        ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(() -> {
+            for (Room room : rooms.get()) {
+                try {
+                    room.syncJournal();
+                } catch (RuntimeException e) {
+                    System.err.println("Journal sync failed for room " + room.getCode() + ": " + e.getMessage());
+                }
+            }
+        }, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+}
@@ -0,0 +1,73 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import protocol.TextOperation;
+
+/**
+ * Authoritative copy of the shared editor document.
+ * Clients submit operations against the revision they last saw; anything applied since then
+ * is transformed in before the operation is applied, so concurrent typists never overwrite each other.
+ */
+public class SharedDocument {
+    // How many past operations we keep for transforming late operations
+    private static final int MAX_HISTORY = 2000;
+
+    private final StringBuilder text = new StringBuilder();
+    private final List<TextOperation> history = new ArrayList<>();
+    private int revision = 0;
+
+    public synchronized int getRevision() {
+        return revision;
+    }
+
+    public synchronized String getText() {
+        return text.toString();
+    }
+
+    // Oldest revision an incoming operation can still be based on
+    private int oldestRevision() {
+        return revision - history.size();
+    }
+
+    /**
+     * Transform an operation based on baseRevision against everything applied since, apply it,
+     * and return the operation as applied. The new revision is getRevision() afterwards.
+     */
+    public synchronized TextOperation apply(int baseRevision, TextOperation op) {
+        if (baseRevision < oldestRevision() || baseRevision > revision) {
+            throw new IllegalStateException("Revision " + baseRevision + " is outside the history window ("
+                    + oldestRevision() + ".." + revision + ")");
+        }
+        for (int i = baseRevision - oldestRevision(); i < history.size(); i++) {
+            op = TextOperation.transform(op, history.get(i))[0];
+        }
+        op.applyTo(text);
+        history.add(op);
+        revision++;
+        if (history.size() > MAX_HISTORY * 2) {
+            history.subList(0, history.size() - MAX_HISTORY).clear();
+        }
+        return op;
+    }
+
+    // Replace the whole document at the current revision (used for full-text updates)
+    public synchronized TextOperation replaceAll(String newText) {
+        return apply(revision, TextOperation.replaceAll(text.length(), newText));
+    }
+
+    // Start from saved text at a saved revision; earlier history is not available
+    public synchronized void restore(int revision, String savedText) {
+        text.setLength(0);
+        text.append(savedText);
+        history.clear();
+        this.revision = revision;
+    }
+
+    public synchronized void reset() {
+        text.setLength(0);
+        history.clear();
+        revision = 0;
+    }
+}
@@ -0,0 +1,129 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import protocol.FrameCodec;
+import protocol.FrameReader;
+import protocol.Message;
+
+/**
+ * Blocking engine: each connection gets a reader thread blocked on the socket and a writer
+ * thread draining its outbound queue, so a stalled peer only ever blocks its own writer.
+ * With a virtual thread factory idle connections cost a small heap object instead of a platform stack.
+ */
+public class ThreadPerConnectionEngine implements IoEngine {
+    private final ThreadFactory threadFactory;
+    private final Supplier<OutboundQueue> queues;
+
+    public ThreadPerConnectionEngine(ThreadFactory threadFactory, Supplier<OutboundQueue> queues) {
+        this.threadFactory = threadFactory;
+        this.queues = queues;
+    }
+
+    @Override
+    public void serve(int port, Function<Connection, ClientHandler> handlerFactory) throws IOException {
+        // Blocking channels rather than plain sockets so the writer can use gathering writes
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            while (true) {
+                SocketChannel channel = server.accept();
+                threadFactory.newThread(() -> handle(channel, handlerFactory)).start();
+            }
+        }
+    }
+
+    private void handle(SocketChannel channel, Function<Connection, ClientHandler> handlerFactory) {
+        SocketConnection connection;
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connection = new SocketConnection(channel, queues.get());
+            threadFactory.newThread(connection::writeLoop).start();
+        } catch (IOException e) {
+            System.err.println("Could not set up connection: " + e.getMessage());
+            return;
+        }
+        ClientHandler handler = handlerFactory.apply(connection);
+        try (InputStream in = new BufferedInputStream(channel.socket().getInputStream(), 16 * 1024)) {
+            FrameReader reader = new FrameReader(in);
+            handler.onConnect();
+            Message message;
+            while ((message = reader.read()) != null) {
+                FrameCodec negotiated = connection.handshake(message);
+                if (negotiated != null) {
+                    reader.setCodec(negotiated);
+                } else {
+                    handler.onMessage(message);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("ClientHandler error: " + e.getMessage());
+        } finally {
+            connection.close();
+            handler.onDisconnect();
+        }
+    }
+
+    static class SocketConnection extends AbstractConnection {
+        private final SocketChannel channel;
+
+        SocketConnection(SocketChannel channel, OutboundQueue queue) {
+            super(queue);
+            this.channel = channel;
+        }
+
+        // Dedicated writer: drain the queue in batches and hand each batch to one gathering write
+        void writeLoop() {
+            Message[] messages = new Message[WRITE_BATCH];
+            ByteBuffer[] frames = new ByteBuffer[WRITE_BATCH];
+            try {
+                int count;
+                while ((count = queue.takeBatch(messages)) > 0) {
+                    for (int i = 0; i < count; i++) {
+                        frames[i] = encode(messages[i]);
+                        messages[i] = null;
+                    }
+                    // A blocking channel may still return early from a gathering write
+                    int first = 0;
+                    while (first < count) {
+                        channel.write(frames, first, count - first);
+                        while (first < count && !frames[first].hasRemaining()) {
+                            frames[first++] = null;
+                        }
+                    }
+                }
+            } catch (IOException | InterruptedException e) {
+                // Reader side notices the broken socket and cleans up
+                close();
+            }
+        }
+
+        @Override
+        public void close() {
+            queue.close();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing socket: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            try {
+                return String.valueOf(channel.getRemoteAddress());
+            } catch (IOException e) {
+                return "unknown";
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package server;
+
+/**
+ * An account as stored in the user store. The password field holds a PasswordHasher hash, or the
+ * plain password for accounts from older users.csv files that have not logged in since.
+ */
+public class User {
+    private final String username;
+    private final String password;
+
+    public User(String username, String password) {
+        this.username = username;
+        this.password = password;
+    }
+
+    public String getUsername() { return username; }
+    public String getPassword() { return password; }
+}
@@ -0,0 +1,258 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * User accounts held in a hash index, persisted as a CSV snapshot (username,password per line)
+ * plus an append-only log of signups and password changes since the snapshot was written; a
+ * later line for a username replaces an earlier one. Once the log passes COMPACT_RECORDS lines
+ * it is folded into a new snapshot.
+ *
+ * Several processes may share the files, so every change to them, and every
+ * catch-up with changes made by another process, happens under an exclusive lock on
+ * <csv>.lock. Lookups of known users only touch the index, and lookups of unknown ones only
+ * take the lock when the files' sizes or times say another process changed them; a full reload
+ * builds a new index and swaps it in, so a lookup never sees one half filled.
+ */
+public class UserStore {
+    static final String HEADER = "username,password";
+    private static final String DELIMITER = ",";
+    // Log lines after which the log is folded into the snapshot
+    static final int COMPACT_RECORDS = 1000;
+
+    private final Path snapshot;
+    private final Path log;
+    private final Path lockFile;
+    private volatile Map<String, User> index = new ConcurrentHashMap<>();
+
+    // What has been read so far, guarded by this
+    private long snapshotSize = -1;
+    private long snapshotModified = -1;
+    private long logOffset;
+    private int logRecords;
+    // The files as of the last catch-up or change here, read without the lock
+    private volatile FileStamp seen;
+
+    // Identity, size and modification time of the snapshot and the log; null parts are missing files
+    private static final class FileStamp {
+        private final BasicFileAttributes snapshot;
+        private final BasicFileAttributes log;
+
+        FileStamp(BasicFileAttributes snapshot, BasicFileAttributes log) {
+            this.snapshot = snapshot;
+            this.log = log;
+        }
+
+        boolean matches(FileStamp other) {
+            return other != null && same(snapshot, other.snapshot) && same(log, other.log);
+        }
+
+        private static boolean same(BasicFileAttributes a, BasicFileAttributes b) {
+            if (a == null || b == null) return a == b;
+            return a.size() == b.size() && a.lastModifiedTime().equals(b.lastModifiedTime())
+                    && Objects.equals(a.fileKey(), b.fileKey());
+        }
+    }
+
+    private UserStore(Path snapshot) {
+        this.snapshot = snapshot;
+        this.log = snapshot.resolveSibling(snapshot.getFileName() + ".log");
+        this.lockFile = snapshot.resolveSibling(snapshot.getFileName() + ".lock");
+    }
+
+    // Load the snapshot and log into the index; a CSV written by older versions is read as the snapshot
+    public static UserStore open(Path snapshot) throws IOException {
+        UserStore store = new UserStore(snapshot);
+        synchronized (store) {
+            try (FileChannel lock = lockChannel(store.lockFile)) {
+                lock.lock(); // Released as the channel closes
+                store.refresh();
+            }
+        }
+        return store;
+    }
+
+    public User find(String username) throws IOException {
+        User user = index.get(username);
+        if (user != null) return user;
+        // May have signed up in another process since, but then the files have changed
+        if (stamp().matches(seen)) return null;
+        synchronized (this) {
+            try (FileChannel lock = lockChannel(lockFile)) {
+                lock.lock();
+                refresh();
+            }
+        }
+        return index.get(username);
+    }
+
+    // Returns false if the username is taken
+    public synchronized boolean insert(User user) throws IOException {
+        check(user);
+        try (FileChannel lock = lockChannel(lockFile)) {
+            lock.lock();
+            refresh();
+            if (index.containsKey(user.getUsername())) return false;
+            append(user);
+        }
+        return true;
+    }
+
+    // Replace the stored password of an existing account
+    public synchronized void update(User user) throws IOException {
+        check(user);
+        try (FileChannel lock = lockChannel(lockFile)) {
+            lock.lock();
+            refresh();
+            append(user);
+        }
+    }
+
+    private static void check(User user) throws IOException {
+        String username = user.getUsername();
+        if (username.isEmpty() || username.contains(DELIMITER) || hasLineBreak(username) || hasLineBreak(user.getPassword())) {
+            throw new IOException("Usernames cannot contain commas or line breaks");
+        }
+    }
+
+    // Called with the file lock held, after catching up
+    private void append(User user) throws IOException {
+        byte[] line = (user.getUsername() + DELIMITER + user.getPassword() + "\n").getBytes(StandardCharsets.UTF_8);
+        try (FileChannel out = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Drop a line left unfinished by a crash, so the new one does not run into it
+            out.truncate(logOffset);
+            out.position(logOffset);
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) out.write(buffer);
+            out.force(false);
+        }
+        logOffset += line.length;
+        logRecords++;
+        index.put(user.getUsername(), user);
+        if (logRecords >= COMPACT_RECORDS) compact();
+        seen = stamp();
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    // Rewrite the snapshot from the index and empty the log; called with the file lock held
+    private void compact() throws IOException {
+        Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.newLine();
+            for (User user : index.values()) {
+                out.write(user.getUsername() + DELIMITER + user.getPassword());
+                out.newLine();
+            }
+        }
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        try (FileChannel out = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            out.truncate(0);
+        }
+        rememberSnapshot();
+        logOffset = 0;
+        logRecords = 0;
+    }
+
+    // Catch up with the files; called with the file lock held
+    private void refresh() throws IOException {
+        BasicFileAttributes attributes = Files.exists(snapshot)
+                ? Files.readAttributes(snapshot, BasicFileAttributes.class) : null;
+        long size = attributes == null ? 0 : attributes.size();
+        long modified = attributes == null ? 0 : attributes.lastModifiedTime().toMillis();
+        long logSize = Files.exists(log) ? Files.size(log) : 0;
+        if (size != snapshotSize || modified != snapshotModified || logSize < logOffset) {
+            // Compacted by another process, or first load: read everything into a new index
+            Map<String, User> fresh = new ConcurrentHashMap<>();
+            if (attributes != null) {
+                try (BufferedReader reader = Files.newBufferedReader(snapshot, StandardCharsets.UTF_8)) {
+                    String line = reader.readLine();
+                    if (line != null && !line.equals(HEADER)) add(fresh, line);
+                    while ((line = reader.readLine()) != null) add(fresh, line);
+                }
+            }
+            snapshotSize = size;
+            snapshotModified = modified;
+            logOffset = 0;
+            logRecords = 0;
+            if (logSize > 0) readLog(fresh);
+            index = fresh;
+        } else if (logSize > logOffset) {
+            readLog(index);
+        }
+        seen = stamp();
+    }
+
+    private FileStamp stamp() throws IOException {
+        return new FileStamp(attributes(snapshot), attributes(log));
+    }
+
+    private static BasicFileAttributes attributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    // Read whole lines from logOffset on; a line without its newline is not finished yet
+    private void readLog(Map<String, User> target) throws IOException {
+        byte[] bytes;
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+            channel.position(logOffset);
+            bytes = Channels.newInputStream(channel).readAllBytes();
+        }
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') continue;
+            add(target, new String(bytes, start, i - start, StandardCharsets.UTF_8));
+            logRecords++;
+            start = i + 1;
+        }
+        logOffset += start;
+    }
+
+    private void rememberSnapshot() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(snapshot, BasicFileAttributes.class);
+        snapshotSize = attributes.size();
+        snapshotModified = attributes.lastModifiedTime().toMillis();
+    }
+
+    // A later entry for a username replaces an earlier one
+    private static void add(Map<String, User> target, String line) {
+        String[] parts = line.split(DELIMITER, 2);
+        if (parts.length == 2 && !parts[0].isEmpty()) {
+            String password = parts[1].endsWith("\r") ? parts[1].substring(0, parts[1].length() - 1) : parts[1];
+            target.put(parts[0], new User(parts[0], password));
+        }
+    }
+
+    private static boolean hasLineBreak(String text) {
+        return text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0;
+    }
+
+    private static FileChannel lockChannel(Path lockFile) throws IOException {
+        return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+}
@@ -0,0 +1,389 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * One ExecutionWorker JVM, used by a single scheduler thread. A watchdog checks the running job
+ * against its wall-clock and CPU limits and kills the JVM when either is exceeded; a fresh worker
+ * is started and warmed up in the background straight away, so the next job does not wait for it.
+ *
+ * Judging keeps the expected output here: the worker only gets the input, and the program's
+ * output is checked as it streams back. Each worker starts in its own empty temporary directory,
+ * so relative paths such as problems/<id>/1.out lead nowhere; it still runs as the server's OS
+ * user, though, and a program that knows an absolute path can read whatever that user can.
+ */
+class WorkerProcess implements ExecutionBackend {
+    private static final long WATCHDOG_MS = 50;
+    // Extra wall-clock time over the worker's own limit before the JVM is killed
+    private static final long KILL_GRACE_MS = 2000;
+    // How long a starting worker has to connect back
+    private static final long CONNECT_MS = 30_000;
+    private static final int ACCEPT_POLL_MS = 200;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final List<String> command;
+    private final long wallMs;
+    private final long cpuMs;
+    private final int maxOutput;
+    private final ScheduledExecutorService watchdog;
+
+    private Process process;
+    private Socket channel;
+    private Path workDir;
+    private Thread starting; // Replacing a worker that exited, joined before the next job
+    private DataOutputStream toWorker;
+    private DataInputStream fromWorker;
+    private volatile ExecutionResult.Status killedFor;
+    private long lastElapsed;
+
+    WorkerProcess(List<String> command, long wallMs, long cpuMs, int maxOutput, ScheduledExecutorService watchdog) {
+        this.command = command;
+        this.wallMs = wallMs;
+        this.cpuMs = cpuMs;
+        this.maxOutput = maxOutput;
+        this.watchdog = watchdog;
+    }
+
+    // Command line for a worker JVM on this server's own java and class path
+    static List<String> workerCommand(long timeoutMs, int maxOutput, int cacheSize, String heap) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx" + heap);
+        command.add("-XX:+UseSerialGC");
+        command.add("-XX:TieredStopAtLevel=1");
+        command.add("-cp");
+        command.add(absoluteClassPath());
+        command.add(ExecutionWorker.class.getName());
+        command.add(String.valueOf(timeoutMs));
+        command.add(String.valueOf(maxOutput));
+        command.add(String.valueOf(cacheSize));
+        return command;
+    }
+
+    // Start the JVM, wait for it to connect back and then until it has warmed up
+    void start() throws IOException {
+        byte[] token = new byte[ExecutionWorker.TOKEN_BYTES];
+        RANDOM.nextBytes(token);
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            List<String> args = new ArrayList<>(command);
+            args.add(String.valueOf(listener.getLocalPort()));
+            ProcessBuilder builder = new ProcessBuilder(args);
+            builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            // Nothing of the server's environment, which may hold credentials
+            builder.environment().clear();
+            workDir = Files.createTempDirectory("coderounds-worker");
+            builder.directory(workDir.toFile());
+            process = builder.start();
+            try (OutputStream stdin = process.getOutputStream()) {
+                stdin.write(token);
+            }
+            channel = accept(listener, token);
+        } catch (IOException e) {
+            stop();
+            throw e;
+        }
+        toWorker = new DataOutputStream(new BufferedOutputStream(channel.getOutputStream()));
+        fromWorker = new DataInputStream(new BufferedInputStream(channel.getInputStream()));
+        if (fromWorker.read() != ExecutionWorker.READY) {
+            stop();
+            throw new IOException("Execution worker failed to start");
+        }
+    }
+
+    // Workers start in another directory, so relative class path entries are resolved here first
+    private static String absoluteClassPath() {
+        List<String> entries = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (!entry.isEmpty()) entries.add(Paths.get(entry).toAbsolutePath().toString());
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    // The worker's connection, told apart from any other by the token it was given on stdin
+    private Socket accept(ServerSocket listener, byte[] token) throws IOException {
+        listener.setSoTimeout(ACCEPT_POLL_MS);
+        long deadline = System.nanoTime() + CONNECT_MS * 1_000_000;
+        while (process.isAlive() && System.nanoTime() < deadline) {
+            Socket socket;
+            try {
+                socket = listener.accept();
+            } catch (SocketTimeoutException e) {
+                continue;
+            }
+            try {
+                socket.setSoTimeout(ACCEPT_POLL_MS);
+                if (MessageDigest.isEqual(socket.getInputStream().readNBytes(token.length), token)) {
+                    socket.setSoTimeout(0);
+                    return socket;
+                }
+            } catch (IOException e) {
+                // Not the worker
+            }
+            socket.close();
+        }
+        stop();
+        throw new IOException("Execution worker did not connect");
+    }
+
+    void stop() {
+        if (process != null) {
+            process.destroyForcibly();
+            process = null;
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+            channel = null;
+        }
+        if (workDir != null) {
+            deleteTree(workDir);
+            workDir = null;
+        }
+    }
+
+    // Remove a worker's directory and whatever its programs left in it, as far as possible
+    private static void deleteTree(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    // Left for the OS to clean up with its temporary files
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Could not remove worker directory " + dir + ": " + e.getMessage());
+        }
+    }
+
+    // Read the tag of a frame the worker sent for the job with this nonce
+    private static int readTag(DataInputStream in, long nonce) throws IOException {
+        int tag = in.readUnsignedByte();
+        if (in.readLong() != nonce) throw new IOException("Frame without the job's nonce");
+        return tag;
+    }
+
+    // What to send for a job and how to read its answer
+    private interface Exchange<T> {
+        void write(DataOutputStream out, long nonce) throws IOException;
+
+        T read(DataInputStream in, long nonce) throws IOException;
+    }
+
+    @Override
+    public ExecutionResult execute(String code, String language, String stdin) {
+        return execute(code, language, stdin, null);
+    }
+
+    @Override
+    public ExecutionResult execute(String code, String language, String stdin, OutputListener listener) {
+        ExecutionResult[] result = new ExecutionResult[1];
+        String failure = call(wallMs, new Exchange<ExecutionResult>() {
+            @Override
+            public void write(DataOutputStream out, long nonce) throws IOException {
+                out.writeByte(ExecutionWorker.EXECUTE);
+                out.writeLong(nonce);
+                ExecutionWorker.writeString(out, code);
+                ExecutionWorker.writeString(out, language);
+                ExecutionWorker.writeString(out, stdin);
+            }
+
+            @Override
+            public ExecutionResult read(DataInputStream in, long nonce) throws IOException {
+                int tag;
+                while ((tag = readTag(in, nonce)) != ExecutionWorker.DONE) {
+                    String text = readOutput(in);
+                    if (listener != null) listener.onOutput(tag == ExecutionWorker.STDERR, text);
+                }
+                ExecutionResult.Status status = ExecutionResult.Status.values()[in.readUnsignedByte()];
+                long compileMillis = in.readLong();
+                boolean cached = in.readBoolean();
+                long runMillis = in.readLong();
+                return new ExecutionResult(status, readOutput(in), compileMillis, cached, runMillis);
+            }
+        }, result);
+        if (failure == null) return result[0];
+        ExecutionResult.Status status = killedFor != null ? killedFor
+                : failure.startsWith("unavailable") ? ExecutionResult.Status.REJECTED : ExecutionResult.Status.RUNTIME_ERROR;
+        String message = killMessage(failure, wallMs);
+        if (listener != null) listener.onOutput(true, message + "\n");
+        return new ExecutionResult(status, message, 0, false, lastElapsed);
+    }
+
+    @Override
+    public CaseResult judge(String code, String language, Path input, Path expected, long timeLimitMs) {
+        CaseResult[] result = new CaseResult[1];
+        String failure;
+        try (InputStream answer = new BufferedInputStream(Files.newInputStream(expected))) {
+            long inputSize = Files.size(input);
+            if (inputSize > Integer.MAX_VALUE) {
+                return new CaseResult(CaseResult.Verdict.REJECTED, "Test input too large", 0, 0);
+            }
+            // Room for the expected output, and for a wrong one at least as large as a run may print
+            long outputLimit = Files.size(expected) + maxOutput;
+            OutputChecker checker = new OutputChecker(answer);
+            failure = call(timeLimitMs, new Exchange<CaseResult>() {
+                @Override
+                public void write(DataOutputStream out, long nonce) throws IOException {
+                    out.writeByte(ExecutionWorker.JUDGE);
+                    out.writeLong(nonce);
+                    ExecutionWorker.writeString(out, code);
+                    ExecutionWorker.writeString(out, language);
+                    out.writeLong(timeLimitMs);
+                    out.writeLong(outputLimit);
+                    out.writeInt((int) inputSize);
+                    long sent = Files.copy(input, out);
+                    if (sent != inputSize) throw new IOException("Test input changed while being sent");
+                }
+
+                @Override
+                public CaseResult read(DataInputStream in, long nonce) throws IOException {
+                    int tag;
+                    long received = 0;
+                    while ((tag = readTag(in, nonce)) == ExecutionWorker.STDOUT) {
+                        int length = in.readInt();
+                        received += length;
+                        if (length < 0 || received > outputLimit) throw new IOException("Worker output too large");
+                        checker.write(in.readNBytes(length));
+                    }
+                    if (tag != ExecutionWorker.DONE) throw new IOException("Unexpected frame " + tag);
+                    CaseResult.Verdict verdict = CaseResult.Verdict.values()[in.readUnsignedByte()];
+                    long runMillis = in.readLong();
+                    long memory = in.readLong();
+                    return checker.verdict(new CaseResult(verdict, readOutput(in), runMillis, memory));
+                }
+            }, result);
+        } catch (IOException e) {
+            return new CaseResult(CaseResult.Verdict.REJECTED, "Cannot read test case: " + e.getMessage(), 0, 0);
+        }
+        if (failure == null) return result[0];
+        CaseResult.Verdict verdict = killedFor == ExecutionResult.Status.CPU_LIMIT ? CaseResult.Verdict.CPU_LIMIT
+                : killedFor == ExecutionResult.Status.TIMEOUT ? CaseResult.Verdict.TIME_LIMIT
+                : failure.startsWith("unavailable") ? CaseResult.Verdict.REJECTED : CaseResult.Verdict.RUNTIME_ERROR;
+        return new CaseResult(verdict, killedFor != null ? "" : killMessage(failure, timeLimitMs), lastElapsed, 0);
+    }
+
+    /**
+     * Send one job to the worker under the watchdog and read its answer into result[0].
+     * Returns null on success, otherwise why the job failed; killedFor is set if the
+     * watchdog ended it.
+     */
+    private <T> String call(long limitMs, Exchange<T> exchange, T[] result) {
+        try {
+            if (starting != null) {
+                starting.join();
+                starting = null;
+            }
+            if (process == null || !process.isAlive()) start();
+        } catch (IOException e) {
+            return "unavailable: " + e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "unavailable: interrupted";
+        }
+
+        killedFor = null;
+        long started = System.nanoTime();
+        Duration cpuAtStart = cpuTime();
+        Process running = process;
+        ScheduledFuture<?> check = watchdog.scheduleAtFixedRate(() -> {
+            if ((System.nanoTime() - started) / 1_000_000 > limitMs + KILL_GRACE_MS) {
+                kill(running, ExecutionResult.Status.TIMEOUT);
+            } else if (cpuAtStart != null && cpuTime(running).minus(cpuAtStart).toMillis() > cpuMs) {
+                kill(running, ExecutionResult.Status.CPU_LIMIT);
+            }
+        }, WATCHDOG_MS, WATCHDOG_MS, TimeUnit.MILLISECONDS);
+
+        long nonce = RANDOM.nextLong();
+        try {
+            exchange.write(toWorker, nonce);
+            toWorker.flush();
+            result[0] = exchange.read(fromWorker, nonce);
+            if (fromWorker.readBoolean()) {
+                // The worker is exiting; have its replacement warming up before the next job
+                restart();
+            }
+            return null;
+        } catch (IOException | RuntimeException e) {
+            restart();
+            return "crashed: " + e.getMessage();
+        } finally {
+            check.cancel(false);
+            lastElapsed = (System.nanoTime() - started) / 1_000_000;
+        }
+    }
+
+    private String readOutput(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxOutput * 4 + 1024) throw new IOException("Worker output too large: " + length);
+        byte[] output = new byte[length];
+        in.readFully(output);
+        return new String(output, StandardCharsets.UTF_8);
+    }
+
+    private String killMessage(String failure, long limitMs) {
+        if (killedFor == ExecutionResult.Status.CPU_LIMIT) return "CPU limit of " + cpuMs + " ms exceeded";
+        if (killedFor == ExecutionResult.Status.TIMEOUT) return "Time limit of " + limitMs + " ms exceeded";
+        return "Execution worker " + failure;
+    }
+
+    private void kill(Process target, ExecutionResult.Status reason) {
+        if (killedFor != null) return;
+        killedFor = reason;
+        target.destroyForcibly();
+    }
+
+    // Replace the worker in the background, so the result that ended it is not held up
+    private void restart() {
+        stop();
+        starting = new Thread(() -> {
+            try {
+                start();
+            } catch (IOException e) {
+                // Tried again on the next job
+                System.err.println("Could not restart execution worker: " + e.getMessage());
+            }
+        }, "exec-worker-start");
+        starting.setDaemon(true);
+        starting.start();
+    }
+
+    private Duration cpuTime() {
+        Duration cpu = cpuTime(process);
+        return cpu.isZero() ? null : cpu;
+    }
+
+    // Total CPU time of the worker, or zero where the OS does not report it
+    private static Duration cpuTime(Process target) {
+        return target.info().totalCpuDuration().orElse(Duration.ZERO);
+    }
+}
@@ -0,0 +1,111 @@
+package protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+class BinaryCodecTest {
+    @Test
+    void framesRoundTrip() throws IOException {
+        for (BinaryCodec codec : new BinaryCodec[] {BinaryCodec.INSTANCE, BinaryCodec.SEQUENCED}) {
+            for (String payload : new String[] {"", "hello", "a:b\nc\\d\r", "héllo wörld ✓"}) {
+                Message decoded = codec.decode(ByteBuffer.wrap(codec.encode(Message.of(MessageType.CHAT, payload))));
+                assertEquals(MessageType.CHAT, decoded.type());
+                assertEquals(payload, decoded.payload());
+            }
+        }
+    }
+
+    @Test
+    void sequenceNumbersRoundTripOnlyInBin2() throws IOException {
+        for (long seq : new long[] {0, 1, 127, 128, 300, 16_383, 16_384, Integer.MAX_VALUE, Long.MAX_VALUE, -1}) {
+            Message message = Message.of(MessageType.OP, "3:r1").withSeq(seq);
+            byte[] frame = BinaryCodec.SEQUENCED.encode(message);
+            assertEquals(BinaryCodec.HEADER_LENGTH + BinaryCodec.varintLength(seq) + 4, frame.length);
+            assertEquals(seq, BinaryCodec.SEQUENCED.decode(ByteBuffer.wrap(frame)).seq());
+        }
+        Message sequenced = Message.of(MessageType.OP, "3:r1").withSeq(42);
+        assertEquals(0, BinaryCodec.INSTANCE.decode(ByteBuffer.wrap(BinaryCodec.INSTANCE.encode(sequenced))).seq());
+    }
+
+    @Test
+    void varintsUseSevenBitsPerByte() {
+        assertEquals(1, BinaryCodec.varintLength(0));
+        assertEquals(1, BinaryCodec.varintLength(127));
+        assertEquals(2, BinaryCodec.varintLength(128));
+        assertEquals(3, BinaryCodec.varintLength(16_384));
+        assertEquals(BinaryCodec.MAX_VARINT_LENGTH, BinaryCodec.varintLength(-1));
+        byte[] frame = BinaryCodec.SEQUENCED.encode(Message.of(MessageType.CHAT, "").withSeq(300));
+        // 300 = 0b10_0101100: low seven bits with the continuation bit, then the rest
+        assertEquals((byte) 0xac, frame[5]);
+        assertEquals((byte) 0x02, frame[6]);
+    }
+
+    @Test
+    void partialFramesWaitForTheRest() throws IOException {
+        byte[] frame = BinaryCodec.SEQUENCED.encode(Message.of(MessageType.CHAT, "hello").withSeq(1000));
+        ByteBuffer buffer = ByteBuffer.allocate(frame.length);
+        for (int i = 0; i < frame.length - 1; i++) {
+            buffer.put(frame[i]).flip();
+            assertNull(BinaryCodec.SEQUENCED.decode(buffer));
+            assertEquals(0, buffer.position());
+            buffer.position(buffer.limit()).limit(buffer.capacity());
+        }
+        buffer.put(frame[frame.length - 1]).flip();
+        Message message = BinaryCodec.SEQUENCED.decode(buffer);
+        assertEquals("hello", message.payload());
+        assertEquals(1000, message.seq());
+        assertEquals(frame.length, buffer.position());
+    }
+
+    @Test
+    void backToBackFramesDecodeInTurn() throws IOException {
+        byte[] first = BinaryCodec.INSTANCE.encode(Message.of(MessageType.CHAT, "one"));
+        byte[] second = BinaryCodec.INSTANCE.encode(Message.of(MessageType.TIMER_UPDATE, "59"));
+        // A direct buffer has no backing array to decode from
+        ByteBuffer buffer = ByteBuffer.allocateDirect(first.length + second.length + 2);
+        buffer.put(first).put(second).put((byte) 0).put((byte) 0).flip();
+        assertEquals("one", BinaryCodec.INSTANCE.decode(buffer).payload());
+        Message next = BinaryCodec.INSTANCE.decode(buffer);
+        assertEquals(MessageType.TIMER_UPDATE, next.type());
+        assertEquals("59", next.payload());
+        assertNull(BinaryCodec.INSTANCE.decode(buffer));
+        assertEquals(first.length + second.length, buffer.position());
+    }
+
+    @Test
+    void oversizeAndEmptyFramesAreRejected() {
+        ByteBuffer oversize = ByteBuffer.allocate(8).putInt(FrameCodec.MAX_FRAME_LENGTH + 1).flip();
+        assertThrows(IOException.class, () -> BinaryCodec.INSTANCE.decode(oversize));
+        ByteBuffer negative = ByteBuffer.allocate(8).putInt(-1).flip();
+        assertThrows(IOException.class, () -> BinaryCodec.INSTANCE.decode(negative));
+        ByteBuffer empty = ByteBuffer.allocate(8).putInt(0).flip();
+        assertThrows(IOException.class, () -> BinaryCodec.INSTANCE.decode(empty));
+    }
+
+    @Test
+    void unknownOpcodesAreRejected() {
+        ByteBuffer frame = ByteBuffer.allocate(5).putInt(1).put((byte) 99).flip();
+        assertThrows(IOException.class, () -> BinaryCodec.INSTANCE.decode(frame));
+    }
+
+    @Test
+    void badSequenceNumbersAreRejected() {
+        // Every byte says another follows, past the end of the frame
+        ByteBuffer unfinished = ByteBuffer.allocate(8).putInt(3).put(MessageType.CHAT.opcode())
+                .put((byte) 0x80).put((byte) 0x80).flip();
+        assertThrows(IOException.class, () -> BinaryCodec.SEQUENCED.decode(unfinished));
+
+        // More bytes than a 64 bit number needs
+        int length = 1 + BinaryCodec.MAX_VARINT_LENGTH + 1;
+        ByteBuffer tooLong = ByteBuffer.allocate(4 + length).putInt(length).put(MessageType.CHAT.opcode());
+        for (int i = 0; i < BinaryCodec.MAX_VARINT_LENGTH; i++) tooLong.put((byte) 0x81);
+        tooLong.put((byte) 0x01).flip();
+        assertThrows(IOException.class, () -> BinaryCodec.SEQUENCED.decode(tooLong));
+    }
+}
@@ -0,0 +1,40 @@
+package protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+class HandshakeTest {
+    @Test
+    void offerListsVersionsInOrderOfPreference() {
+        Message hello = Handshake.offer(BinaryCodec.SEQUENCED, BinaryCodec.INSTANCE, TextCodec.INSTANCE);
+        assertEquals(MessageType.HELLO, hello.type());
+        assertEquals("bin2,bin1,text", hello.payload());
+    }
+
+    @Test
+    void choosePicksTheFirstKnownVersion() {
+        assertSame(BinaryCodec.SEQUENCED, Handshake.choose("bin2,bin1,text"));
+        assertSame(BinaryCodec.INSTANCE, Handshake.choose("bin9, bin1 ,bin2"));
+        assertSame(TextCodec.INSTANCE, Handshake.choose("text,bin2"));
+    }
+
+    @Test
+    void nothingKnownFallsBackToText() {
+        assertSame(TextCodec.INSTANCE, Handshake.choose("bin9,json"));
+        assertSame(TextCodec.INSTANCE, Handshake.choose(""));
+        assertNull(Handshake.forVersion("bin9"));
+    }
+
+    @Test
+    void theHelloItselfTravelsAsText() throws IOException {
+        Message hello = Handshake.offer(BinaryCodec.SEQUENCED, TextCodec.INSTANCE);
+        Message received = TextCodec.INSTANCE.decode(ByteBuffer.wrap(TextCodec.INSTANCE.encode(hello)));
+        assertSame(BinaryCodec.SEQUENCED, Handshake.choose(received.payload()));
+    }
+}
@@ -0,0 +1,76 @@
+package protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class TextCodecTest {
+    @Test
+    void linesRoundTripWithEscapes() throws IOException {
+        for (String payload : new String[] {"hello", "a:b", "two\nlines\r\n", "back\\slash\\n", "héllo ✓"}) {
+            byte[] line = TextCodec.INSTANCE.encode(Message.of(MessageType.CHAT, payload));
+            // Exactly one newline, at the end
+            String text = new String(line, StandardCharsets.UTF_8);
+            assertEquals(text.length() - 1, text.indexOf('\n'));
+            Message decoded = TextCodec.INSTANCE.decode(ByteBuffer.wrap(line));
+            assertEquals(MessageType.CHAT, decoded.type());
+            assertEquals(payload, decoded.payload());
+        }
+    }
+
+    @Test
+    void emptyPayloadsAndRawLines() {
+        assertEquals("TIMER_START", TextCodec.toLine(Message.of(MessageType.TIMER_START)));
+        assertEquals(MessageType.TIMER_START, TextCodec.fromLine("TIMER_START").type());
+        assertEquals("", TextCodec.fromLine("TIMER_START").payload());
+
+        Message raw = TextCodec.fromLine("not a prefix: text");
+        assertEquals(MessageType.RAW, raw.type());
+        assertEquals("not a prefix: text", raw.payload());
+        assertEquals("plain", TextCodec.toLine(Message.of(MessageType.RAW, "plain")));
+    }
+
+    @Test
+    void unknownEscapesAreKeptAsTyped() {
+        assertEquals("a\\tb\\", TextCodec.unescape("a\\tb\\"));
+        String plain = "nothing to escape";
+        assertSame(plain, TextCodec.escape(plain));
+    }
+
+    @Test
+    void carriageReturnBeforeTheNewlineIsDropped() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap("CHAT:hi\r\nCHAT:there\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals("hi", TextCodec.INSTANCE.decode(buffer).payload());
+        assertEquals("there", TextCodec.INSTANCE.decode(buffer).payload());
+        assertNull(TextCodec.INSTANCE.decode(buffer));
+    }
+
+    @Test
+    void partialLinesWaitForTheNewline() throws IOException {
+        byte[] line = "CHAT:hello\n".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(line, 0, line.length - 1);
+        assertNull(TextCodec.INSTANCE.decode(buffer));
+        assertEquals(0, buffer.position());
+        buffer.limit(line.length);
+        assertEquals("hello", TextCodec.INSTANCE.decode(buffer).payload());
+        assertEquals(line.length, buffer.position());
+    }
+
+    @Test
+    void overlongLinesAreRejected() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(FrameCodec.MAX_FRAME_LENGTH + 1);
+        while (buffer.hasRemaining()) buffer.put((byte) 'x');
+        // Up to the limit it keeps waiting for the newline
+        buffer.flip().limit(FrameCodec.MAX_FRAME_LENGTH);
+        assertNull(TextCodec.INSTANCE.decode(buffer));
+        buffer.limit(FrameCodec.MAX_FRAME_LENGTH + 1);
+        assertThrows(IOException.class, () -> TextCodec.INSTANCE.decode(buffer));
+    }
+}
@@ -0,0 +1,104 @@
+package protocol;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TextOperationTest {
+    private static final int ROUNDS = 2000;
+
+    @Test
+    void transformedOperationsConverge() {
+        Random random = new Random(1);
+        for (int round = 0; round < ROUNDS; round++) {
+            String doc = randomText(random, random.nextInt(20));
+            TextOperation a = randomOperation(random, doc.length());
+            TextOperation b = randomOperation(random, doc.length());
+            TextOperation[] primes = TextOperation.transform(a, b);
+            String viaA = primes[1].apply(a.apply(doc));
+            String viaB = primes[0].apply(b.apply(doc));
+            assertEquals(viaA, viaB, "a=" + a + " b=" + b + " on \"" + doc + "\"");
+        }
+    }
+
+    @Test
+    void composeMatchesApplyingInTurn() {
+        Random random = new Random(2);
+        for (int round = 0; round < ROUNDS; round++) {
+            String doc = randomText(random, random.nextInt(20));
+            TextOperation a = randomOperation(random, doc.length());
+            TextOperation b = randomOperation(random, a.getTargetLength());
+            assertEquals(b.apply(a.apply(doc)), a.compose(b).apply(doc), "a=" + a + " b=" + b);
+        }
+    }
+
+    @Test
+    void composedTransformsConverge() {
+        Random random = new Random(3);
+        for (int round = 0; round < ROUNDS; round++) {
+            String doc = randomText(random, random.nextInt(20));
+            TextOperation a = randomOperation(random, doc.length());
+            TextOperation b = randomOperation(random, doc.length());
+            TextOperation[] primes = TextOperation.transform(a, b);
+            assertEquals(a.compose(primes[1]).apply(doc), b.compose(primes[0]).apply(doc));
+        }
+    }
+
+    @Test
+    void firstOperationWinsInsertTies() {
+        TextOperation a = new TextOperation().retain(1).insert("X").retain(1);
+        TextOperation b = new TextOperation().retain(1).insert("Y").retain(1);
+        TextOperation[] primes = TextOperation.transform(a, b);
+        assertEquals("aXYb", primes[1].apply(a.apply("ab")));
+        assertEquals("aXYb", primes[0].apply(b.apply("ab")));
+    }
+
+    @Test
+    void serializedFormRoundTrips() {
+        Random random = new Random(4);
+        for (int round = 0; round < ROUNDS; round++) {
+            TextOperation op = randomOperation(random, random.nextInt(20));
+            assertEquals(op.serialize(), TextOperation.parse(op.serialize()).serialize());
+        }
+        assertEquals("i3:a:b", new TextOperation().insert("a:b").serialize());
+    }
+
+    @Test
+    void lengthsMustLineUp() {
+        TextOperation a = new TextOperation().retain(2);
+        TextOperation b = new TextOperation().retain(3);
+        assertThrows(IllegalArgumentException.class, () -> a.compose(b));
+        assertThrows(IllegalArgumentException.class, () -> TextOperation.transform(a, b));
+        assertThrows(IllegalArgumentException.class, () -> a.apply("abc"));
+    }
+
+    private static TextOperation randomOperation(Random random, int length) {
+        TextOperation op = new TextOperation();
+        int left = length;
+        while (left > 0) {
+            int n = 1 + random.nextInt(Math.min(left, 5));
+            switch (random.nextInt(3)) {
+                case 0 -> op.retain(n);
+                case 1 -> op.delete(n);
+                default -> {
+                    op.insert(randomText(random, 1 + random.nextInt(4)));
+                    continue;
+                }
+            }
+            left -= n;
+        }
+        if (random.nextBoolean()) op.insert(randomText(random, 1 + random.nextInt(4)));
+        return op;
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+}
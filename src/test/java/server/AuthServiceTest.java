@@ -0,0 +1,135 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AuthServiceTest {
+    private static final int ITERATIONS = 1000;
+    private static final long TTL_MS = 60_000;
+    private static final String PASSWORD = "Secret1!";
+    private static final byte[] SECRET = "test secret".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path dir;
+
+    private UserStore users;
+
+    @BeforeEach
+    void openStore() throws IOException {
+        users = UserStore.open(dir.resolve("users.csv"));
+    }
+
+    @Test
+    void tokenLogsInAgainAsTheSameUser() throws Exception {
+        AuthService auth = service(TTL_MS, SECRET);
+        AuthService.Result signup = await(done -> auth.signup("alice", PASSWORD, done));
+        assertTrue(signup.isOk(), signup.getFailure());
+
+        AuthService.Result resumed = auth.resume(signup.getToken());
+        assertTrue(resumed.isOk(), resumed.getFailure());
+        assertEquals("alice", resumed.getUsername());
+        assertTrue(auth.resume(resumed.getToken()).isOk());
+    }
+
+    @Test
+    void alteredTokensAreRejected() throws Exception {
+        AuthService auth = service(TTL_MS, SECRET);
+        String token = await(done -> auth.signup("alice", PASSWORD, done)).getToken();
+        String[] parts = token.split("\\.");
+
+        String otherUser = Base64.getUrlEncoder().withoutPadding().encodeToString("mallory".getBytes(StandardCharsets.UTF_8));
+        assertInvalid(auth.resume(otherUser + "." + parts[1] + "." + parts[2]));
+        assertInvalid(auth.resume(parts[0] + "." + (Long.parseLong(parts[1]) + 1) + "." + parts[2]));
+        assertInvalid(auth.resume(parts[0] + "." + parts[1] + "." + parts[2].substring(1)));
+        assertInvalid(auth.resume(parts[0] + "." + parts[1]));
+        assertInvalid(auth.resume("!!!." + parts[1] + "." + parts[2]));
+        assertInvalid(auth.resume(parts[0] + ".soon." + parts[2]));
+    }
+
+    @Test
+    void tokensFromAnotherSecretAreRejected() throws Exception {
+        String token = await(done -> service(TTL_MS, SECRET).signup("alice", PASSWORD, done)).getToken();
+        assertInvalid(service(TTL_MS, "other secret".getBytes(StandardCharsets.UTF_8)).resume(token));
+    }
+
+    @Test
+    void expiredTokensAreRejected() throws Exception {
+        AuthService auth = service(-1, SECRET);
+        String token = await(done -> auth.signup("alice", PASSWORD, done)).getToken();
+        AuthService.Result resumed = auth.resume(token);
+        assertFalse(resumed.isOk());
+        assertEquals("Session expired, please log in again", resumed.getFailure());
+    }
+
+    @Test
+    void loginChecksThePassword() throws Exception {
+        AuthService auth = service(TTL_MS, SECRET);
+        await(done -> auth.signup("alice", PASSWORD, done));
+        assertTrue(await(done -> auth.login("alice", PASSWORD, done)).isOk());
+        assertFalse(await(done -> auth.login("alice", "Wrong1!!", done)).isOk());
+        assertFalse(await(done -> auth.login("nobody", PASSWORD, done)).isOk());
+    }
+
+    @Test
+    void loginsBeyondTheQueueAreTurnedAway() throws Exception {
+        AuthService auth = new AuthService(users, new PasswordHasher(ITERATIONS), true, TTL_MS, SECRET, 1, 1);
+        CountDownLatch busy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        auth.login("alice", PASSWORD, result -> {
+            busy.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(busy.await(5, TimeUnit.SECONDS));
+        CompletableFuture<AuthService.Result> queued = new CompletableFuture<>();
+        auth.login("alice", PASSWORD, queued::complete);
+        CompletableFuture<AuthService.Result> rejected = new CompletableFuture<>();
+        auth.login("alice", PASSWORD, rejected::complete);
+        assertTrue(rejected.isDone());
+        assertEquals("Server busy, try logging in again shortly", rejected.get().getFailure());
+        release.countDown();
+        queued.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void secretFileTakesPrecedenceOverTheArgument() throws IOException {
+        Path file = dir.resolve("secret");
+        Files.writeString(file, "from file\n");
+        assertEquals("from file", AuthService.configuredSecret(ServerConfig.fromArgs(new String[] {
+                "--auth-secret=from args", "--auth-secret-file=" + file})));
+        assertEquals("from args", AuthService.configuredSecret(ServerConfig.fromArgs(new String[] {"--auth-secret=from args"})));
+    }
+
+    private AuthService service(long ttlMs, byte[] secret) {
+        return new AuthService(users, new PasswordHasher(ITERATIONS), true, ttlMs, secret, 1, 8);
+    }
+
+    private static AuthService.Result await(Consumer<Consumer<AuthService.Result>> call) throws Exception {
+        CompletableFuture<AuthService.Result> result = new CompletableFuture<>();
+        call.accept(result::complete);
+        return result.get(5, TimeUnit.SECONDS);
+    }
+
+    private static void assertInvalid(AuthService.Result result) {
+        assertFalse(result.isOk());
+        assertEquals("Invalid session token", result.getFailure());
+    }
+}
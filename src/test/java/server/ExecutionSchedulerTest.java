@@ -0,0 +1,96 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+class ExecutionSchedulerTest {
+    private static final long WAIT_SECONDS = 5;
+
+    @Test
+    void roomsTakeTurns() throws Exception {
+        ExecutionScheduler scheduler = new ExecutionScheduler(1, 16, 4, () -> null);
+        scheduler.start();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutionScheduler.Ticket<String> blocker = scheduler.submit("busy", List.of(backend -> {
+            await(release);
+            return "busy";
+        }));
+        blocker.started().get(WAIT_SECONDS, TimeUnit.SECONDS);
+
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        ExecutionScheduler.Ticket<String> a = scheduler.submit("a", List.of(task(ran, "a1"), task(ran, "a2"), task(ran, "a3")));
+        ExecutionScheduler.Ticket<String> b = scheduler.submit("b", List.of(task(ran, "b1")));
+        ExecutionScheduler.Ticket<String> c = scheduler.submit("c", List.of(task(ran, "c1"), task(ran, "c2")));
+        release.countDown();
+        for (ExecutionScheduler.Ticket<String> ticket : List.of(a, b, c)) {
+            for (CompletableFuture<String> result : ticket.results()) result.get(WAIT_SECONDS, TimeUnit.SECONDS);
+        }
+        assertEquals(List.of("a1", "b1", "c1", "a2", "c2", "a3"), ran);
+    }
+
+    @Test
+    void submissionsOverTheRoomLimitAreTurnedAway() throws Exception {
+        ExecutionScheduler scheduler = new ExecutionScheduler(1, 16, 2, () -> null);
+        assertFalse(scheduler.submit("a", List.of(backend -> "1", backend -> "2")).isRejected());
+        assertFalse(scheduler.submit("a", List.of(backend -> "3")).isRejected());
+        ExecutionScheduler.Ticket<String> rejected = scheduler.submit("a", List.of(backend -> "4"));
+        assertTrue(rejected.isRejected());
+        assertEquals(4, rejected.getPosition());
+        assertTrue(rejected.getRejection().startsWith("Execution server busy, position 4"));
+        // Other rooms still fit
+        assertFalse(scheduler.submit("b", List.of(backend -> "5")).isRejected());
+    }
+
+    @Test
+    void submissionsOverTheOverallLimitAreTurnedAway() {
+        ExecutionScheduler scheduler = new ExecutionScheduler(1, 2, 2, () -> null);
+        assertFalse(scheduler.submit("a", List.of(backend -> "1")).isRejected());
+        assertFalse(scheduler.submit("b", List.of(backend -> "2")).isRejected());
+        assertTrue(scheduler.submit("c", List.of(backend -> "3")).isRejected());
+    }
+
+    @Test
+    void failedTasksCompleteExceptionallyAndTheWorkerCarriesOn() throws Exception {
+        ExecutionScheduler scheduler = new ExecutionScheduler(1, 16, 4, () -> null);
+        scheduler.start();
+        ExecutionScheduler.Ticket<String> failed = scheduler.submit("a", List.of(
+                backend -> { throw new IllegalStateException("broken"); },
+                backend -> { throw new StackOverflowError(); }));
+        ExecutionException runtime = assertThrows(ExecutionException.class,
+                () -> failed.results().get(0).get(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(runtime.getCause() instanceof IllegalStateException);
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> failed.results().get(1).get(WAIT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(error.getCause() instanceof StackOverflowError);
+        assertEquals("ok", scheduler.submit("a", List.<Function<ExecutionBackend, String>>of(backend -> "ok"))
+                .result().get(WAIT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private static Function<ExecutionBackend, String> task(List<String> ran, String name) {
+        return backend -> {
+            ran.add(name);
+            return name;
+        };
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
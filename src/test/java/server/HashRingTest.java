@@ -0,0 +1,70 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class HashRingTest {
+    private static final int ROOMS = 10_000;
+
+    @Test
+    void everyNodeComputesTheSameOwners() {
+        HashRing ring = new HashRing(List.of("a", "b", "c"));
+        HashRing reordered = new HashRing(List.of("c", "a", "b"));
+        for (int i = 0; i < ROOMS; i++) {
+            assertEquals(ring.owner("room" + i), reordered.owner("room" + i));
+        }
+    }
+
+    @Test
+    void addingANodeOnlyMovesRoomsToIt() {
+        HashRing before = new HashRing(List.of("a", "b", "c"));
+        HashRing after = new HashRing(List.of("a", "b", "c", "d"));
+        int moved = 0;
+        for (int i = 0; i < ROOMS; i++) {
+            String room = "room" + i;
+            if (!before.owner(room).equals(after.owner(room))) {
+                assertEquals("d", after.owner(room), room);
+                moved++;
+            }
+        }
+        // About a quarter of the rooms, with room for the spread of the points
+        assertTrue(moved > ROOMS / 8 && moved < ROOMS * 3 / 8, "moved " + moved);
+    }
+
+    @Test
+    void removingANodeOnlyMovesItsRooms() {
+        HashRing before = new HashRing(List.of("a", "b", "c", "d"));
+        HashRing after = new HashRing(List.of("a", "b", "c"));
+        for (int i = 0; i < ROOMS; i++) {
+            String room = "room" + i;
+            if (!before.owner(room).equals("d")) {
+                assertEquals(before.owner(room), after.owner(room), room);
+            }
+        }
+    }
+
+    @Test
+    void roomsSpreadEvenly() {
+        HashRing ring = new HashRing(List.of("a", "b", "c", "d"));
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < ROOMS; i++) {
+            counts.merge(ring.owner("room" + i), 1, Integer::sum);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            assertTrue(count > ROOMS / 8 && count < ROOMS * 3 / 8, "counts " + counts);
+        }
+    }
+
+    @Test
+    void emptyRingHasNoOwner() {
+        assertNull(new HashRing(List.of()).owner("room"));
+    }
+}
@@ -0,0 +1,158 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import protocol.Message;
+import protocol.MessageType;
+
+class OutboundQueueTest {
+    @Test
+    void disconnectPolicyRefusesWhenFull() {
+        OutboundQueue queue = new OutboundQueue(2, 1000, OutboundQueue.SlowConsumerPolicy.DISCONNECT);
+        assertTrue(queue.offer(timer(3)));
+        assertTrue(queue.offer(timer(2)));
+        assertFalse(queue.offer(timer(1)));
+    }
+
+    @Test
+    void dropSupersededKeepsOnlyTheNewestTimerFrame() {
+        OutboundQueue queue = new OutboundQueue(3, 1000, OutboundQueue.SlowConsumerPolicy.DROP_SUPERSEDED);
+        assertTrue(queue.offer(timer(3)));
+        assertTrue(queue.offer(chat("one")));
+        assertTrue(queue.offer(timer(2)));
+        // Full: both queued timers are superseded by the incoming one
+        assertTrue(queue.offer(timer(1)));
+        assertEquals(List.of("CHAT one", "TIMER_UPDATE 1"), drain(queue));
+        assertEquals(2, queue.getDropped());
+    }
+
+    @Test
+    void dropSupersededMergesPresenceFramesIntoTheNewest() {
+        OutboundQueue queue = new OutboundQueue(4, 1000, OutboundQueue.SlowConsumerPolicy.DROP_SUPERSEDED);
+        assertTrue(queue.offer(presence("1,1,alice", "5,1,bob")));
+        assertTrue(queue.offer(chat("one")));
+        assertTrue(queue.offer(presence("2,0,alice")));
+        assertTrue(queue.offer(chat("two")));
+        // Full: bob's entry is carried forward, alice's first one is stale
+        assertTrue(queue.offer(chat("three")));
+        assertEquals(List.of("CHAT one", "PRESENCE 5,1,bob\n2,0,alice", "CHAT two", "CHAT three"), drain(queue));
+        assertEquals(1, queue.getDropped());
+    }
+
+    @Test
+    void dropSupersededLetsAnIncomingPresenceFrameReplaceQueuedEntries() {
+        OutboundQueue queue = new OutboundQueue(3, 1000, OutboundQueue.SlowConsumerPolicy.DROP_SUPERSEDED);
+        assertTrue(queue.offer(presence("1,1,alice")));
+        assertTrue(queue.offer(chat("one")));
+        assertTrue(queue.offer(presence("4,1,bob", "2,1,alice")));
+        assertTrue(queue.offer(presence("3,1,alice", "6,1,bob")));
+        assertEquals(List.of("CHAT one", "PRESENCE 3,1,alice\n6,1,bob"), drain(queue));
+    }
+
+    @Test
+    void dropSupersededDoesNotCarryADepartedUserPastTheirDisconnect() {
+        OutboundQueue queue = new OutboundQueue(4, 1000, OutboundQueue.SlowConsumerPolicy.DROP_SUPERSEDED);
+        assertTrue(queue.offer(presence("1,1,alice", "5,1,bob")));
+        assertTrue(queue.offer(Message.of(MessageType.DISCONNECT, "bob")));
+        assertTrue(queue.offer(presence("2,1,alice")));
+        assertTrue(queue.offer(chat("one")));
+        assertTrue(queue.offer(chat("two")));
+        assertEquals(List.of("DISCONNECT bob", "PRESENCE 2,1,alice", "CHAT one", "CHAT two"), drain(queue));
+    }
+
+    @Test
+    void dropSupersededNeverDropsOtherFrames() {
+        OutboundQueue queue = new OutboundQueue(2, 1000, OutboundQueue.SlowConsumerPolicy.DROP_SUPERSEDED);
+        assertTrue(queue.offer(chat("one")));
+        assertTrue(queue.offer(chat("two")));
+        assertFalse(queue.offer(chat("three")));
+    }
+
+    @Test
+    void collapseReplacesCoveredEditorFramesWithTheSnapshot() {
+        OutboundQueue queue = new OutboundQueue(4, 1000, OutboundQueue.SlowConsumerPolicy.COLLAPSE);
+        queue.setSnapshotSource(() -> Message.of(MessageType.DOC, "3:abc"));
+        assertTrue(queue.offer(op(1)));
+        assertTrue(queue.offer(chat("one")));
+        assertTrue(queue.offer(op(2)));
+        assertTrue(queue.offer(op(3)));
+        // Full with nothing superseded: revisions up to 3 become one snapshot, still before revision 4
+        assertTrue(queue.offer(op(4)));
+        assertEquals(List.of("CHAT one", "DOC 3:abc", "OP 4:r3"), drain(queue));
+    }
+
+    @Test
+    void collapseSkipsAnIncomingFrameTheSnapshotCovers() {
+        OutboundQueue queue = new OutboundQueue(2, 1000, OutboundQueue.SlowConsumerPolicy.COLLAPSE);
+        queue.setSnapshotSource(() -> Message.of(MessageType.DOC, "3:abc"));
+        assertTrue(queue.offer(op(1)));
+        assertTrue(queue.offer(op(2)));
+        assertTrue(queue.offer(op(3)));
+        assertEquals(List.of("DOC 3:abc"), drain(queue));
+    }
+
+    @Test
+    void collapseKeepsLaterRevisionsAfterTheSnapshot() {
+        OutboundQueue queue = new OutboundQueue(5, 1000, OutboundQueue.SlowConsumerPolicy.COLLAPSE);
+        queue.setSnapshotSource(() -> Message.of(MessageType.DOC, "3:abc"));
+        assertTrue(queue.offer(op(1)));
+        assertTrue(queue.offer(op(2)));
+        assertTrue(queue.offer(op(3)));
+        assertTrue(queue.offer(op(4)));
+        assertTrue(queue.offer(chat("one")));
+        assertTrue(queue.offer(chat("two")));
+        assertEquals(List.of("DOC 3:abc", "OP 4:r3", "CHAT one", "CHAT two"), drain(queue));
+    }
+
+    @Test
+    void collapseThatLeavesTheQueueFullStillDisconnects() {
+        OutboundQueue queue = new OutboundQueue(3, 1000, OutboundQueue.SlowConsumerPolicy.COLLAPSE);
+        queue.setSnapshotSource(() -> Message.of(MessageType.DOC, "1:a"));
+        assertTrue(queue.offer(op(1)));
+        assertTrue(queue.offer(op(2)));
+        assertTrue(queue.offer(op(3)));
+        assertFalse(queue.offer(chat("one")));
+    }
+
+    @Test
+    void closedQueueRefusesMessages() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(4, 1000, OutboundQueue.SlowConsumerPolicy.COLLAPSE);
+        queue.offer(chat("one"));
+        queue.close();
+        assertFalse(queue.offer(chat("two")));
+        assertEquals(-1, queue.takeBatch(new Message[4]));
+    }
+
+    private static Message timer(int seconds) {
+        return Message.of(MessageType.TIMER_UPDATE, String.valueOf(seconds));
+    }
+
+    private static Message presence(String... entries) {
+        return Message.of(MessageType.PRESENCE, String.join("\n", entries));
+    }
+
+    private static Message chat(String text) {
+        return Message.of(MessageType.CHAT, text);
+    }
+
+    private static Message op(int revision) {
+        return Message.of(MessageType.OP, revision + ":r3");
+    }
+
+    private static List<String> drain(OutboundQueue queue) {
+        List<String> frames = new ArrayList<>();
+        Message[] batch = new Message[16];
+        int count = queue.pollBatch(batch);
+        for (int i = 0; i < count; i++) {
+            frames.add(batch[i].type().name() + " " + batch[i].payload());
+        }
+        return frames;
+    }
+}
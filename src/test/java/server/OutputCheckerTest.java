@@ -0,0 +1,126 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class OutputCheckerTest {
+    private static final int MAX_LINE = 8 * 1024 * 1024;
+
+    @Test
+    void trailingWhitespaceAndCarriageReturnsAreIgnored() {
+        assertNull(check("1 2\n3\n", "1 2  \r\n3\t\n"));
+        assertNull(check("1 2 \r\n3", "1 2\n3"));
+        assertEquals("line 1: expected \"1 2\" but got \"1  2\"", check("1 2\n", "1  2\n"));
+        // Leading whitespace still counts
+        assertEquals("line 2: expected \"3\" but got \" 3\"", check("1\n3\n", "1\n 3\n"));
+    }
+
+    @Test
+    void trailingBlankLinesAreIgnoredOnEitherSide() {
+        assertNull(check("5\n", "5\n\n\n"));
+        assertNull(check("5\n\n \n", "5"));
+        assertNull(check("", "\n"));
+        // Blank lines in between must match
+        assertEquals("line 2: expected \"6\" but got \"\"", check("5\n6\n", "5\n\n6\n"));
+    }
+
+    @Test
+    void missingAndExtraLinesAreReported() {
+        assertEquals("line 2: expected \"6\" but the output ended", check("5\n6\n", "5\n"));
+        assertEquals("line 2: unexpected output \"6\"", check("5\n", "5\n6\n"));
+    }
+
+    @Test
+    void outputMayArriveInAnyPieces() {
+        OutputChecker checker = checker("hello world\n42\n");
+        byte[] output = "hello world\n42\n".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < output.length; i += 3) {
+            checker.write(output, i, Math.min(3, output.length - i));
+        }
+        checker.finish();
+        assertFalse(checker.isFailed(), checker.getMismatch());
+
+        checker = checker("ab\n");
+        checker.write('a');
+        checker.write('b');
+        checker.write('\n');
+        checker.finish();
+        assertFalse(checker.isFailed(), checker.getMismatch());
+    }
+
+    @Test
+    void longPreviewsAreCut() {
+        String wanted = "x".repeat(100);
+        assertEquals("line 1: expected \"" + "x".repeat(40) + "...\" but got \"y\"", check(wanted + "\n", "y\n"));
+    }
+
+    @Test
+    void overlongLinesFailWithoutBeingKept() {
+        OutputChecker checker = checker("1\n");
+        byte[] chunk = new byte[1024 * 1024];
+        Arrays.fill(chunk, (byte) '1');
+        for (int i = 0; i <= MAX_LINE / chunk.length; i++) checker.write(chunk, 0, chunk.length);
+        assertTrue(checker.isFailed());
+        assertEquals("line 1 is longer than " + MAX_LINE + " bytes", checker.getMismatch());
+
+        checker = checker("1\n");
+        for (int i = 0; i < MAX_LINE; i++) checker.write('1');
+        assertFalse(checker.isFailed());
+        checker.write('1');
+        assertEquals("line 1 is longer than " + MAX_LINE + " bytes", checker.getMismatch());
+    }
+
+    @Test
+    void theFirstMismatchSticks() {
+        OutputChecker checker = checker("1\n2\n");
+        checker.write("9\n8\n".getBytes(StandardCharsets.UTF_8), 0, 4);
+        checker.finish();
+        assertEquals("line 1: expected \"1\" but got \"9\"", checker.getMismatch());
+    }
+
+    @Test
+    void verdictTurnsAFailedCheckIntoAWrongAnswer() {
+        CaseResult accepted = new CaseResult(CaseResult.Verdict.ACCEPTED, null, 10, 1024);
+        OutputChecker passing = checker("5\n");
+        passing.write('5');
+        assertSame(accepted, passing.verdict(accepted));
+
+        OutputChecker failing = checker("5\n");
+        failing.write('6');
+        CaseResult wrong = failing.verdict(accepted);
+        assertEquals(CaseResult.Verdict.WRONG_ANSWER, wrong.getVerdict());
+        assertEquals("line 1: expected \"5\" but got \"6\"", wrong.getDetail());
+        assertEquals(10, wrong.getRunMillis());
+
+        // An output limit hit after the output already went wrong is a wrong answer too
+        OutputChecker stopped = checker("5\n");
+        stopped.write("7\n".getBytes(StandardCharsets.UTF_8), 0, 2);
+        CaseResult limit = new CaseResult(CaseResult.Verdict.OUTPUT_LIMIT, null, 10, 1024);
+        assertEquals(CaseResult.Verdict.WRONG_ANSWER, stopped.verdict(limit).getVerdict());
+
+        CaseResult timeLimit = new CaseResult(CaseResult.Verdict.TIME_LIMIT, null, 2000, 1024);
+        assertSame(timeLimit, checker("5\n").verdict(timeLimit));
+    }
+
+    // The mismatch for this output, or null if it passes
+    private static String check(String expected, String actual) {
+        OutputChecker checker = checker(expected);
+        byte[] output = actual.getBytes(StandardCharsets.UTF_8);
+        checker.write(output, 0, output.length);
+        checker.finish();
+        return checker.getMismatch();
+    }
+
+    private static OutputChecker checker(String expected) {
+        return new OutputChecker(new ByteArrayInputStream(expected.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,82 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import protocol.Message;
+import protocol.MessageType;
+
+class ResumeBufferTest {
+    @Test
+    void returnsTheFramesAfterTheLastSeenOne() {
+        ResumeBuffer buffer = new ResumeBuffer(8, 1000);
+        for (int seq = 1; seq <= 5; seq++) buffer.add(frame(seq, "m" + seq), null);
+        assertEquals(List.of(4L, 5L), seqs(buffer.after(3, 5, "alice")));
+        assertEquals(List.of(), buffer.after(5, 5, "alice"));
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), seqs(buffer.after(0, 5, "alice")));
+    }
+
+    @Test
+    void skipsFramesTheClientSentItself() {
+        ResumeBuffer buffer = new ResumeBuffer(8, 1000);
+        buffer.add(frame(1, "a"), "alice");
+        buffer.add(frame(2, "b"), "bob");
+        buffer.add(frame(3, "c"), null);
+        assertEquals(List.of(2L, 3L), seqs(buffer.after(0, 3, "alice")));
+        assertEquals(List.of(1L, 3L), seqs(buffer.after(0, 3, "bob")));
+    }
+
+    @Test
+    void framesThatFellOutMeanASnapshotInstead() {
+        ResumeBuffer byCount = new ResumeBuffer(3, 1000);
+        for (int seq = 1; seq <= 5; seq++) byCount.add(frame(seq, "m"), null);
+        assertNull(byCount.after(1, 5, "alice"));
+        assertEquals(List.of(3L, 4L, 5L), seqs(byCount.after(2, 5, "alice")));
+
+        ResumeBuffer byChars = new ResumeBuffer(8, 10);
+        for (int seq = 1; seq <= 5; seq++) byChars.add(frame(seq, "abcd"), null);
+        assertNull(byChars.after(2, 5, "alice"));
+        assertEquals(List.of(4L, 5L), seqs(byChars.after(3, 5, "alice")));
+    }
+
+    @Test
+    void aPositionAheadOfTheRoomIsNotResumed() {
+        ResumeBuffer buffer = new ResumeBuffer(8, 1000);
+        buffer.add(frame(1, "m"), null);
+        assertNull(buffer.after(7, 1, "alice"));
+    }
+
+    @Test
+    void aReopenedRoomStartsANewEpoch() {
+        Room before = new Room("epochs");
+        before.broadcast(Message.of(MessageType.CHAT, "one"), null);
+        before.broadcast(Message.of(MessageType.CHAT, "two"), null);
+        assertEquals(List.of(2L), seqs(before.missedSince(1, "alice")));
+        before.closeSession();
+
+        // Numbering starts over, so positions from the old instance cannot be trusted
+        Room after = new Room("epochs");
+        assertNotEquals(before.getEpoch(), after.getEpoch());
+        assertTrue(after.getEpoch() > before.getEpoch());
+        assertEquals(0, after.getSeq());
+        assertNull(after.missedSince(2, "alice"));
+        after.closeSession();
+    }
+
+    private static Message frame(long seq, String text) {
+        return Message.of(MessageType.CHAT, text).withSeq(seq);
+    }
+
+    private static List<Long> seqs(List<Message> frames) {
+        List<Long> seqs = new ArrayList<>();
+        for (Message frame : frames) seqs.add(frame.seq());
+        return seqs;
+    }
+}
@@ -0,0 +1,107 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SessionJournalTest {
+    private static final int SEGMENT_BYTES = 4096;
+    // [int length][int crc32][byte type] before each payload
+    private static final int HEADER = 9;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recordsComeBackInOrder() throws IOException {
+        write("one", "two", "three");
+        Recovered recovered = reopen();
+        assertEquals(List.of("one", "two", "three"), recovered.chat);
+        assertTrue(recovered.journal.wasRecovered());
+    }
+
+    @Test
+    void aTornRecordAtTheTailIsIgnored() throws IOException {
+        write("one", "two", "three");
+        // Cut the file in the middle of the third record's payload
+        try (FileChannel segment = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+            segment.truncate(2 * (HEADER + 3) + HEADER + 2);
+        }
+        assertEquals(List.of("one", "two"), reopen().chat);
+    }
+
+    @Test
+    void aTornLengthIsIgnored() throws IOException {
+        write("one");
+        try (FileChannel segment = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+            segment.truncate(HEADER + 3 + 2);
+        }
+        assertEquals(List.of("one"), reopen().chat);
+    }
+
+    @Test
+    void aDamagedRecordEndsItsSegmentButNotTheNextOne() throws IOException {
+        write("one", "two", "three");
+        SessionJournal second = reopen().journal;
+        second.append(SessionJournal.CHAT, "four");
+        second.close();
+        // Flip a payload byte of the second record, so its checksum no longer matches
+        byte[] bytes = Files.readAllBytes(segments().get(0));
+        bytes[HEADER + 3 + HEADER] ^= 1;
+        Files.write(segments().get(0), bytes);
+
+        assertEquals(List.of("one", "four"), reopen().chat);
+    }
+
+    @Test
+    void anEmptyDirectoryRecoversNothing() throws IOException {
+        Recovered recovered = reopen();
+        assertEquals(List.of(), recovered.chat);
+        assertFalse(recovered.journal.wasRecovered());
+    }
+
+    private void write(String... lines) throws IOException {
+        SessionJournal journal = reopen().journal;
+        for (String line : lines) journal.append(SessionJournal.CHAT, line);
+        journal.close();
+    }
+
+    private Recovered reopen() throws IOException {
+        Recovered recovered = new Recovered();
+        recovered.journal = SessionJournal.open(dir, SessionJournal.FsyncPolicy.NEVER, SEGMENT_BYTES, 1000, recovered);
+        return recovered;
+    }
+
+    // Segment files, oldest first
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("journal-")).sorted().toList();
+        }
+    }
+
+    private static class Recovered implements SessionJournal.Replayer {
+        final List<String> chat = new ArrayList<>();
+        SessionJournal journal;
+
+        @Override
+        public void restore(SessionJournal.Snapshot snapshot) {
+        }
+
+        @Override
+        public void replay(byte type, String payload) {
+            if (type == SessionJournal.CHAT) chat.add(payload);
+        }
+    }
+}
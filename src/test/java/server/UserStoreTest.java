@@ -0,0 +1,134 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UserStoreTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void logReplaysOverTheSnapshot() throws IOException {
+        Path csv = dir.resolve("users.csv");
+        Files.writeString(csv, UserStore.HEADER + "\nalice,a1\nbob,b1\n");
+        // The last line was cut short by a crash, so it never happened
+        Files.writeString(logOf(csv), "alice,a2\ncarol,c1\ndave,d");
+        UserStore store = UserStore.open(csv);
+        assertEquals("a2", store.find("alice").getPassword());
+        assertEquals("b1", store.find("bob").getPassword());
+        assertEquals("c1", store.find("carol").getPassword());
+        assertNull(store.find("dave"));
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    void csvWithoutHeaderIsReadAsTheSnapshot() throws IOException {
+        Path csv = dir.resolve("users.csv");
+        Files.writeString(csv, "alice,a1\r\nbob,b1\r\n");
+        UserStore store = UserStore.open(csv);
+        assertEquals("a1", store.find("alice").getPassword());
+        assertEquals("b1", store.find("bob").getPassword());
+    }
+
+    @Test
+    void changesSurviveReopening() throws IOException {
+        Path csv = dir.resolve("users.csv");
+        UserStore store = UserStore.open(csv);
+        assertTrue(store.insert(new User("alice", "a1")));
+        assertFalse(store.insert(new User("alice", "other")));
+        store.update(new User("alice", "a2"));
+        assertTrue(store.insert(new User("bob", "b1")));
+
+        UserStore reopened = UserStore.open(csv);
+        assertEquals("a2", reopened.find("alice").getPassword());
+        assertEquals("b1", reopened.find("bob").getPassword());
+        assertEquals(2, reopened.size());
+    }
+
+    @Test
+    void appendDropsAnUnfinishedLine() throws IOException {
+        Path csv = dir.resolve("users.csv");
+        Files.writeString(logOf(csv), "alice,a1\nbo");
+        UserStore store = UserStore.open(csv);
+        assertTrue(store.insert(new User("carol", "c1")));
+        assertEquals(List.of("alice,a1", "carol,c1"), Files.readAllLines(logOf(csv), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void logIsFoldedIntoTheSnapshot() throws IOException {
+        Path csv = dir.resolve("users.csv");
+        UserStore store = UserStore.open(csv);
+        for (int i = 0; i < UserStore.COMPACT_RECORDS; i++) {
+            assertTrue(store.insert(new User("user" + i, "p" + i)));
+        }
+        assertEquals(0, Files.size(logOf(csv)));
+        List<String> lines = Files.readAllLines(csv, StandardCharsets.UTF_8);
+        assertEquals(UserStore.HEADER, lines.get(0));
+        assertEquals(UserStore.COMPACT_RECORDS + 1, lines.size());
+
+        assertTrue(store.insert(new User("late", "l1")));
+        UserStore reopened = UserStore.open(csv);
+        assertEquals(UserStore.COMPACT_RECORDS + 1, reopened.size());
+        assertEquals("p7", reopened.find("user7").getPassword());
+        assertEquals("l1", reopened.find("late").getPassword());
+    }
+
+    @Test
+    void storesSharingFilesSeeEachOthersChanges() throws IOException {
+        Path csv = dir.resolve("users.csv");
+        UserStore first = UserStore.open(csv);
+        UserStore second = UserStore.open(csv);
+        assertTrue(first.insert(new User("alice", "a1")));
+        assertEquals("a1", second.find("alice").getPassword());
+        assertFalse(second.insert(new User("alice", "other")));
+
+        // The first store compacts; the second reloads the new snapshot in full
+        for (int i = 0; i < UserStore.COMPACT_RECORDS; i++) {
+            first.insert(new User("user" + i, "p" + i));
+        }
+        assertTrue(second.insert(new User("bob", "b1")));
+        assertEquals(UserStore.COMPACT_RECORDS + 2, second.size());
+        assertEquals("b1", first.find("bob").getPassword());
+    }
+
+    @Test
+    void unknownUsersAreLookedUpAgainOnlyWhenTheFilesChange() throws IOException {
+        Path csv = dir.resolve("users.csv");
+        UserStore store = UserStore.open(csv);
+        assertTrue(store.insert(new User("alice", "a1")));
+        assertNull(store.find("bob"));
+
+        // Another process finishing a line, then writing a new snapshot
+        Files.writeString(logOf(csv), "bob,b1\n", StandardOpenOption.APPEND);
+        assertEquals("b1", store.find("bob").getPassword());
+        Files.writeString(csv, UserStore.HEADER + "\nalice,a1\nbob,b1\ncarol,c1\n");
+        Files.writeString(logOf(csv), "");
+        assertEquals("c1", store.find("carol").getPassword());
+        assertNull(store.find("dave"));
+    }
+
+    @Test
+    void usernamesCannotBreakTheFormat() throws IOException {
+        UserStore store = UserStore.open(dir.resolve("users.csv"));
+        assertThrows(IOException.class, () -> store.insert(new User("a,b", "p")));
+        assertThrows(IOException.class, () -> store.insert(new User("a\nb", "p")));
+        assertThrows(IOException.class, () -> store.insert(new User("", "p")));
+    }
+
+    private static Path logOf(Path csv) {
+        return csv.resolveSibling(csv.getFileName() + ".log");
+    }
+}